@@ -0,0 +1,135 @@
+package com.kevin.querydsl.benchmark;
+
+import com.kevin.querydsl.QuerydslApplication;
+import com.kevin.querydsl.entity.GoodInfoEntity;
+import com.kevin.querydsl.entity.GoodTypeEntity;
+import com.kevin.querydsl.entity.StudentEntity;
+import com.kevin.querydsl.entity.UserEntity;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.persistence.EntityManager;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.function.Supplier;
+
+/**
+ * 基准测试用的应用上下文,数据源换成MySQL模式的H2内存库并写入固定种子的数据<br/>
+ * kevin<br/>
+ * 2021/3/5 10:15<br/>
+ */
+public final class BenchmarkDatabase implements AutoCloseable {
+
+    //商品类型数量,其中一半名字里带"蔬菜"
+    public static final int GOOD_TYPES = 16;
+    private static final int FLUSH_SIZE = 500;
+
+    private final ConfigurableApplicationContext context;
+    private final TransactionTemplate readOnly;
+
+    private BenchmarkDatabase(ConfigurableApplicationContext context) {
+        this.context = context;
+        this.readOnly = new TransactionTemplate(context.getBean(PlatformTransactionManager.class));
+        this.readOnly.setReadOnly(true);
+    }
+
+    public static BenchmarkDatabase start(int users, int goods, int students) {
+        BenchmarkDatabase database = create();
+        database.seed(users, goods, students);
+        return database;
+    }
+
+    /**
+     * 不写入数据,properties覆盖默认配置,例如换成文件库
+     */
+    public static BenchmarkDatabase create(String... properties) {
+        System.setProperty("spring.devtools.restart.enabled", "false");
+        List<String> merged = new ArrayList<>(Arrays.asList(
+                "spring.main.banner-mode=off",
+                "logging.level.root=warn",
+                "spring.datasource.driver-class-name=org.h2.Driver",
+                "spring.datasource.url=jdbc:h2:mem:benchmark;MODE=MySQL;DB_CLOSE_DELAY=-1",
+                "spring.datasource.username=sa",
+                "spring.datasource.password=",
+                "spring.jpa.hibernate.ddl-auto=create-drop",
+                "spring.jpa.properties.hibernate.show_sql=false",
+                "spring.jpa.properties.hibernate.jdbc.batch_size=" + FLUSH_SIZE,
+                "spring.jpa.properties.hibernate.order_inserts=true"));
+        // 后面的同名配置覆盖前面的
+        merged.addAll(Arrays.asList(properties));
+        ConfigurableApplicationContext context = new SpringApplicationBuilder(QuerydslApplication.class)
+                .web(WebApplicationType.NONE)
+                .properties(merged.toArray(new String[0]))
+                .run();
+        return new BenchmarkDatabase(context);
+    }
+
+    public <T> T getBean(Class<T> type) {
+        return context.getBean(type);
+    }
+
+    public <T> T readOnly(Supplier<T> action) {
+        return readOnly.execute(status -> action.get());
+    }
+
+    private void seed(int users, int goods, int students) {
+        Random random = new Random(42);
+        TransactionTemplate tx = new TransactionTemplate(context.getBean(PlatformTransactionManager.class));
+        EntityManager entityManager = context.getBean(EntityManager.class);
+        tx.executeWithoutResult(status -> {
+            long[] typeIds = new long[GOOD_TYPES];
+            for (int i = 0; i < GOOD_TYPES; i++) {
+                GoodTypeEntity type = new GoodTypeEntity();
+                type.setName(i % 2 == 0 ? "蔬菜" + i : "水果" + i);
+                type.setIsShow(1);
+                type.setOrder(i);
+                entityManager.persist(type);
+                typeIds[i] = type.getId();
+            }
+            for (int i = 0; i < goods; i++) {
+                GoodInfoEntity good = new GoodInfoEntity();
+                good.setTitle("商品" + i);
+                good.setPrice(random.nextInt(10_000) / 100.0);
+                good.setUnit("斤");
+                good.setOrder(random.nextInt(1000));
+                good.setTypeId(typeIds[i % GOOD_TYPES]);
+                entityManager.persist(good);
+                flushEvery(entityManager, i);
+            }
+            for (int i = 0; i < users; i++) {
+                UserEntity user = new UserEntity();
+                user.setName("user" + i);
+                user.setAge(18 + random.nextInt(40));
+                user.setAddress(i % 3 == 0 ? "丰台" + i : "海淀" + i);
+                user.setPwd("pwd" + i);
+                entityManager.persist(user);
+                flushEvery(entityManager, i);
+            }
+            for (int i = 0; i < students; i++) {
+                StudentEntity student = new StudentEntity();
+                student.setName("student" + i);
+                student.setAge(10 + random.nextInt(10));
+                student.setSocre(random.nextInt(1000) / 10.0);
+                entityManager.persist(student);
+                flushEvery(entityManager, i);
+            }
+        });
+    }
+
+    private static void flushEvery(EntityManager entityManager, int i) {
+        if (i % FLUSH_SIZE == FLUSH_SIZE - 1) {
+            entityManager.flush();
+            entityManager.clear();
+        }
+    }
+
+    @Override
+    public void close() {
+        context.close();
+    }
+}
@@ -0,0 +1,129 @@
+package com.kevin.querydsl.benchmark;
+
+import com.kevin.querydsl.entity.GoodInfoEntity;
+import com.kevin.querydsl.entity.QGoodInfoEntity;
+import com.kevin.querydsl.entity.QUserEntity;
+import com.kevin.querydsl.entity.UserEntity;
+import com.querydsl.jpa.impl.JPAQueryFactory;
+import org.hibernate.engine.spi.PersistentAttributeInterceptable;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 字节码增强前后,持久化上下文中每个实体的flush耗时、加载分配量和常驻内存<br/>
+ * 分别运行两次对比(实体类需要重新编译,所以要clean):<br/>
+ * 增强: mvn clean -Pbenchmark test-compile exec:exec -Djmh.args="EnhancementBenchmark -prof gc"<br/>
+ * 不增强: mvn clean -Pbenchmark,no-enhance test-compile exec:exec -Djmh.args="EnhancementBenchmark -prof gc"<br/>
+ * flush: 上下文中有ENTITIES个用户和ENTITIES个商品,修改其中一个后flush,结果按实体数折算;
+ * 不增强时每个实体都要和快照逐字段比较,增强后只看脏标记<br/>
+ * load: 加载同样多的实体,-prof gc的gc.alloc.rate.norm是每个实体的分配量,不增强时地址和密码也会加载<br/>
+ * 常驻内存在每轮开始时打印(retained bytes/entity)<br/>
+ * kevin<br/>
+ * 2021/3/20 15:00<br/>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class EnhancementBenchmark {
+
+    private static final int ENTITIES = 5000;
+
+    private final QUserEntity qUser = QUserEntity.userEntity;
+    private final QGoodInfoEntity qGoodInfo = QGoodInfoEntity.goodInfoEntity;
+
+    private BenchmarkDatabase database;
+    private EntityManagerFactory entityManagerFactory;
+
+    //flush用的持久化上下文,每轮重新加载
+    private EntityManager entityManager;
+    private List<UserEntity> loadedUsers;
+    private int round;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        database = BenchmarkDatabase.start(ENTITIES, ENTITIES, 0);
+        entityManagerFactory = database.getBean(EntityManagerFactory.class);
+        System.out.println("enhanced: " + PersistentAttributeInterceptable.class.isAssignableFrom(UserEntity.class));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        database.close();
+    }
+
+    @Setup(Level.Iteration)
+    public void load() {
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        System.gc();
+        long before = memory.getHeapMemoryUsage().getUsed();
+        entityManager = entityManagerFactory.createEntityManager();
+        entityManager.getTransaction().begin();
+        JPAQueryFactory queryFactory = new JPAQueryFactory(entityManager);
+        loadedUsers = queryFactory.selectFrom(qUser).fetch();
+        List<GoodInfoEntity> goods = queryFactory.selectFrom(qGoodInfo).fetch();
+        System.gc();
+        long retained = memory.getHeapMemoryUsage().getUsed() - before;
+        System.out.println("retained bytes/entity: " + retained / (loadedUsers.size() + goods.size()));
+    }
+
+    @TearDown(Level.Iteration)
+    public void unload() {
+        entityManager.getTransaction().rollback();
+        entityManager.close();
+        loadedUsers = null;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(2 * ENTITIES)
+    public void flush() {
+        UserEntity user = loadedUsers.get(round++ % loadedUsers.size());
+        user.setAge(user.getAge() + 1);
+        entityManager.flush();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(2 * ENTITIES)
+    public void loadEntities(Blackhole bh) {
+        EntityManager loading = entityManagerFactory.createEntityManager();
+        try {
+            JPAQueryFactory queryFactory = new JPAQueryFactory(loading);
+            bh.consume(queryFactory.selectFrom(qUser).fetch());
+            bh.consume(queryFactory.selectFrom(qGoodInfo).fetch());
+        } finally {
+            loading.close();
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(EnhancementBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build()).run();
+    }
+}
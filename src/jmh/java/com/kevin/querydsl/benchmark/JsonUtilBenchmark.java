@@ -0,0 +1,83 @@
+package com.kevin.querydsl.benchmark;
+
+import com.kevin.querydsl.dto.GoodDTO;
+import com.kevin.querydsl.util.JsonUtil;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JsonUtil序列化/反序列化GoodDTO列表的吞吐量和分配量,
+ * 对比Afterburner可加 -jvmArgsAppend -Djson.afterburner=true,
+ * 关闭缓冲区复用可加 -jvmArgsAppend -Djson.recycle-buffers=false<br/>
+ * kevin<br/>
+ * 2021/3/5 14:05<br/>
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class JsonUtilBenchmark {
+
+    @Param({"10", "1000"})
+    private int size;
+
+    private List<GoodDTO> goods;
+    private String json;
+    private byte[] bytes;
+
+    @Setup
+    public void setup() {
+        goods = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            goods.add(new GoodDTO((long) i, "商品" + i, "斤", i * 0.5, "蔬菜", (long) (i % 16)));
+        }
+        json = JsonUtil.bean2Json(goods);
+        bytes = JsonUtil.bean2Bytes(goods);
+    }
+
+    @Benchmark
+    public String bean2Json() {
+        return JsonUtil.bean2Json(goods);
+    }
+
+    @Benchmark
+    public byte[] bean2Bytes() {
+        return JsonUtil.bean2Bytes(goods);
+    }
+
+    @Benchmark
+    public List<GoodDTO> json2List() {
+        return JsonUtil.json2List(json, GoodDTO.class);
+    }
+
+    @Benchmark
+    public List<GoodDTO> bytes2List() {
+        return JsonUtil.bytes2List(bytes, GoodDTO.class);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(JsonUtilBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build()).run();
+    }
+}
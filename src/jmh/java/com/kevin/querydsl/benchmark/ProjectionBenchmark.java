@@ -0,0 +1,120 @@
+package com.kevin.querydsl.benchmark;
+
+import com.kevin.querydsl.dto.GoodDTO;
+import com.kevin.querydsl.dto.QGoodDTO;
+import com.kevin.querydsl.entity.QGoodInfoEntity;
+import com.kevin.querydsl.entity.QGoodTypeEntity;
+import com.querydsl.core.Tuple;
+import com.querydsl.core.types.FactoryExpression;
+import com.querydsl.core.types.Projections;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 比较四种DTO投影把一行结果(Object[])转换成GoodDTO的开销,
+ * 和Hibernate返回行之后QueryDSL做的转换完全相同,不依赖数据库<br/>
+ * 运行: mvn -Pbenchmark test-compile exec:exec -Djmh.args="ProjectionBenchmark -prof gc"<br/>
+ * kevin<br/>
+ * 2021/3/4 16:40<br/>
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ProjectionBenchmark {
+
+    private static final int ROWS = 100_000;
+
+    private final QGoodInfoEntity qGoodInfo = QGoodInfoEntity.goodInfoEntity;
+    private final QGoodTypeEntity qGoodType = QGoodTypeEntity.goodTypeEntity;
+
+    private Object[][] rows;
+    private FactoryExpression<GoodDTO> bean;
+    private FactoryExpression<GoodDTO> fields;
+    private FactoryExpression<Tuple> tuple;
+    private FactoryExpression<GoodDTO> constructor;
+
+    @Setup
+    public void setup() {
+        // 列顺序: id, title, unit, price, typeName, typeId
+        rows = new Object[ROWS][];
+        for (int i = 0; i < ROWS; i++) {
+            rows[i] = new Object[]{(long) i, "商品" + i, "斤", i * 0.5, "蔬菜" + i % 16, (long) (i % 16)};
+        }
+        bean = Projections.bean(GoodDTO.class,
+                qGoodInfo.id, qGoodInfo.title, qGoodInfo.unit, qGoodInfo.price,
+                qGoodType.name.as("typeName"), qGoodType.id.as("typeId"));
+        fields = Projections.fields(GoodDTO.class,
+                qGoodInfo.id, qGoodInfo.title, qGoodInfo.unit, qGoodInfo.price,
+                qGoodType.name.as("typeName"), qGoodType.id.as("typeId"));
+        tuple = Projections.tuple(
+                qGoodInfo.id, qGoodInfo.title, qGoodInfo.unit, qGoodInfo.price,
+                qGoodType.name, qGoodType.id);
+        constructor = new QGoodDTO(
+                qGoodInfo.id, qGoodInfo.title, qGoodInfo.unit, qGoodInfo.price,
+                qGoodType.name, qGoodType.id);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public void bean(Blackhole bh) {
+        for (Object[] row : rows) {
+            bh.consume(bean.newInstance(row));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public void fields(Blackhole bh) {
+        for (Object[] row : rows) {
+            bh.consume(fields.newInstance(row));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public void tuple(Blackhole bh) {
+        for (Object[] row : rows) {
+            Tuple t = tuple.newInstance(row);
+            GoodDTO dto = new GoodDTO();
+            dto.setId(t.get(qGoodInfo.id));
+            dto.setTitle(t.get(qGoodInfo.title));
+            dto.setUnit(t.get(qGoodInfo.unit));
+            dto.setPrice(t.get(qGoodInfo.price));
+            dto.setTypeName(t.get(qGoodType.name));
+            dto.setTypeId(t.get(qGoodType.id));
+            bh.consume(dto);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public void constructor(Blackhole bh) {
+        for (Object[] row : rows) {
+            bh.consume(constructor.newInstance(row));
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(ProjectionBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
@@ -0,0 +1,151 @@
+package com.kevin.querydsl.benchmark;
+
+import com.kevin.querydsl.dto.GoodDTO;
+import com.kevin.querydsl.dto.QGoodDTO;
+import com.kevin.querydsl.entity.GoodInfoEntity;
+import com.kevin.querydsl.entity.QGoodInfoEntity;
+import com.kevin.querydsl.entity.QGoodTypeEntity;
+import com.kevin.querydsl.entity.QStudentEntity;
+import com.kevin.querydsl.entity.QUserEntity;
+import com.kevin.querydsl.entity.UserEntity;
+import com.kevin.querydsl.jpa.UserJPA;
+import com.querydsl.core.QueryResults;
+import com.querydsl.core.Tuple;
+import com.querydsl.jpa.JPAExpressions;
+import com.querydsl.jpa.impl.JPAQueryFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * SpringbootQuerydslApplicationTests中各类查询在H2(MySQL模式)上的吞吐量,
+ * 配合-prof gc可以看到每次操作的分配量(gc.alloc.rate.norm)<br/>
+ * kevin<br/>
+ * 2021/3/5 11:20<br/>
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class QueryBenchmark {
+
+    @Param("10000")
+    private int users;
+    @Param("50000")
+    private int goods;
+    @Param("10000")
+    private int students;
+
+    private final QUserEntity qUser = QUserEntity.userEntity;
+    private final QGoodInfoEntity qGoodInfo = QGoodInfoEntity.goodInfoEntity;
+    private final QGoodTypeEntity qGoodType = QGoodTypeEntity.goodTypeEntity;
+    private final QStudentEntity qStudent = QStudentEntity.studentEntity;
+
+    private BenchmarkDatabase database;
+    private JPAQueryFactory queryFactory;
+    private UserJPA userJPA;
+    private long typeId;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        database = BenchmarkDatabase.start(users, goods, students);
+        queryFactory = database.getBean(JPAQueryFactory.class);
+        userJPA = database.getBean(UserJPA.class);
+        typeId = database.readOnly(() -> queryFactory.select(qGoodType.id.min()).from(qGoodType).fetchOne());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        database.close();
+    }
+
+    @Benchmark
+    public UserEntity predicateLookup() {
+        return database.readOnly(() -> queryFactory.selectFrom(qUser)
+                .where(qUser.name.eq("user" + (users / 2)), qUser.age.between(18, 60))
+                .fetchOne());
+    }
+
+    @Benchmark
+    public List<GoodInfoEntity> join() {
+        return database.readOnly(() -> queryFactory.select(qGoodInfo)
+                .from(qGoodInfo, qGoodType)
+                .where(qGoodInfo.typeId.eq(qGoodType.id).and(qGoodType.id.eq(typeId)))
+                .orderBy(qGoodInfo.order.desc())
+                .fetch());
+    }
+
+    @Benchmark
+    public List<GoodDTO> joinDTO() {
+        return database.readOnly(() -> queryFactory
+                .select(new QGoodDTO(qGoodInfo.id, qGoodInfo.title, qGoodInfo.unit, qGoodInfo.price,
+                        qGoodType.name, qGoodType.id))
+                .from(qGoodInfo, qGoodType)
+                .where(qGoodType.id.eq(qGoodInfo.typeId).and(qGoodType.id.eq(typeId)))
+                .orderBy(qGoodInfo.order.desc())
+                .fetch());
+    }
+
+    @Benchmark
+    public List<GoodInfoEntity> subquery() {
+        return database.readOnly(() -> queryFactory.selectFrom(qGoodInfo)
+                .where(qGoodInfo.typeId.in(JPAExpressions.select(qGoodType.id)
+                                .from(qGoodType)
+                                .where(qGoodType.name.like("%蔬菜%"))),
+                        qGoodInfo.price.gt(JPAExpressions.select(qGoodInfo.price.avg()).from(qGoodInfo)))
+                .limit(1000)
+                .fetch());
+    }
+
+    @Benchmark
+    public Tuple aggregate() {
+        return database.readOnly(() -> queryFactory
+                .select(qStudent.id.count(), qStudent.socre.sum(), qStudent.socre.avg(), qStudent.socre.max())
+                .from(qStudent)
+                .fetchOne());
+    }
+
+    @Benchmark
+    public QueryResults<UserEntity> pagedFind() {
+        return database.readOnly(() -> queryFactory.selectFrom(qUser)
+                .orderBy(qUser.age.asc())
+                .offset(users / 2)
+                .limit(20)
+                .fetchResults());
+    }
+
+    @Benchmark
+    public Page<UserEntity> repositoryPage() {
+        return database.readOnly(() -> userJPA.findAll(qUser.age.between(20, 30),
+                PageRequest.of(10, 20, Sort.by(Sort.Direction.ASC, "id"))));
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(QueryBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build()).run();
+    }
+}
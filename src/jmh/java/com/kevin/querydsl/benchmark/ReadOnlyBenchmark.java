@@ -0,0 +1,130 @@
+package com.kevin.querydsl.benchmark;
+
+import com.kevin.querydsl.entity.QUserEntity;
+import com.kevin.querydsl.entity.UserEntity;
+import com.kevin.querydsl.query.ReadOnlyQueries;
+import com.querydsl.core.Tuple;
+import com.querydsl.jpa.impl.JPAQueryFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.persistence.EntityManager;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * 一次读取10万个用户:托管实体、只读实体、StatelessSession和Tuple投影的耗时和内存<br/>
+ * 每次操作在一个读写事务中查询并flush,flush的脏检查耗时也计算在内<br/>
+ * 启动时打印每种方式在事务结束前占用的堆内存(retained bytes per 100k rows),包括结果和持久化上下文<br/>
+ * 运行: mvn -Pbenchmark test-compile exec:exec -Djmh.args="ReadOnlyBenchmark -prof gc"<br/>
+ * kevin<br/>
+ * 2021/3/21 11:00<br/>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+@State(Scope.Benchmark)
+public class ReadOnlyBenchmark {
+
+    private static final int ROWS = 100_000;
+
+    private final QUserEntity qUser = QUserEntity.userEntity;
+
+    private BenchmarkDatabase database;
+    private JPAQueryFactory queryFactory;
+    private EntityManager entityManager;
+    private TransactionTemplate tx;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        database = BenchmarkDatabase.start(ROWS, 0, 0);
+        queryFactory = database.getBean(JPAQueryFactory.class);
+        entityManager = database.getBean(EntityManager.class);
+        tx = new TransactionTemplate(database.getBean(PlatformTransactionManager.class));
+        printRetained("managed", this::managed);
+        printRetained("readOnly", this::readOnly);
+        printRetained("stateless", this::stateless);
+        printRetained("tuple", this::tuple);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        database.close();
+    }
+
+    @Benchmark
+    public List<UserEntity> managed() {
+        return inTransaction(() -> queryFactory.selectFrom(qUser).fetch());
+    }
+
+    @Benchmark
+    public List<UserEntity> readOnly() {
+        return inTransaction(() -> ReadOnlyQueries.readOnly(queryFactory.selectFrom(qUser)).fetch());
+    }
+
+    @Benchmark
+    public List<UserEntity> stateless() {
+        return inTransaction(() -> ReadOnlyQueries.stateless(queryFactory.selectFrom(qUser)).fetch());
+    }
+
+    @Benchmark
+    public List<Tuple> tuple() {
+        return inTransaction(() -> queryFactory.select(qUser.id, qUser.name, qUser.age).from(qUser).fetch());
+    }
+
+    private <T> List<T> inTransaction(Supplier<List<T>> query) {
+        return tx.execute(status -> {
+            List<T> rows = query.get();
+            entityManager.flush();
+            return rows;
+        });
+    }
+
+    /**
+     * 查询结果和持久化上下文都还在时,比较查询前后的堆占用
+     */
+    private void printRetained(String name, Supplier<List<?>> query) {
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        long retained = tx.execute(status -> {
+            System.gc();
+            long before = memory.getHeapMemoryUsage().getUsed();
+            // 加入外层事务,持久化上下文在外层事务结束前不会释放
+            List<?> result = query.get();
+            System.gc();
+            long after = memory.getHeapMemoryUsage().getUsed();
+            if (result.size() != ROWS) {
+                throw new IllegalStateException("行数不对: " + result.size());
+            }
+            return after - before;
+        });
+        System.out.printf("%s: retained %.1f MB per 100k rows%n", name, retained * (100_000.0 / ROWS) / (1024 * 1024));
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(ReadOnlyBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build()).run();
+    }
+}
@@ -0,0 +1,226 @@
+package com.kevin.querydsl.loadtest;
+
+import com.kevin.querydsl.entity.GoodInfoEntity;
+import com.kevin.querydsl.entity.GoodTypeEntity;
+import com.kevin.querydsl.entity.StudentEntity;
+import com.kevin.querydsl.entity.UserEntity;
+import com.kevin.querydsl.jpa.UserJPA;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.persistence.EntityManager;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * 可复现的测试数据:同样的种子和行数总是生成同样的数据,每张表用独立的随机数序列,改变一张表的行数不影响其他表<br/>
+ * 分布接近真实数据:商品类型、地区、姓名、单位按Zipf分布集中在少数取值上,价格按类型的对数正态分布,
+ * 年龄和分数按截断的正态分布<br/>
+ * 按batchSize分批提交,每批结束后清空持久化上下文,内存占用和总行数无关,可以生成上千万行;
+ * t_user是自增主键,走{@link UserJPA#insertAll}的多行insert<br/>
+ * kevin<br/>
+ * 2021/3/23 10:00<br/>
+ */
+public class DataGenerator {
+
+    //每生成这么多行打印一次进度
+    private static final int PROGRESS_ROWS = 1_000_000;
+
+    private static final String[] CATEGORIES = {"蔬菜", "水果", "肉禽蛋", "海鲜水产", "粮油调味", "乳品烘焙",
+            "酒水饮料", "休闲零食", "冷冻速食", "日用百货", "个护清洁", "母婴用品", "宠物用品", "厨房用具", "家用电器", "数码配件"};
+    //各类型价格的中位数,和CATEGORIES一一对应
+    private static final double[] PRICE_MEDIANS = {4, 12, 25, 60, 18, 15, 30, 20, 28, 15, 35, 80, 45, 60, 300, 50};
+    private static final String[] ADJECTIVES = {"新鲜", "精选", "有机", "当季", "家庭装", "进口", "特级", "优选", "散装", "礼盒装"};
+    private static final String[] SPECS = {"500g", "1kg", "250g", "2.5kg", "6瓶装", "12瓶装", "3袋装", "1箱"};
+    private static final String[] UNITS = {"斤", "个", "袋", "盒", "瓶", "箱", "件"};
+    private static final String[] DISTRICTS = {"朝阳", "海淀", "丰台", "昌平", "大兴", "通州", "西城", "东城",
+            "顺义", "房山", "石景山", "门头沟", "怀柔", "平谷", "密云", "延庆"};
+    private static final String[] ROADS = {"建国路", "中关村大街", "长安街", "学院路", "丰台路", "京顺路", "西直门外大街", "望京街"};
+    private static final String[] GIVEN_NAMES = {"kevin", "mary", "harry", "cookie", "tom", "jerry", "lucy", "lily",
+            "jack", "rose", "alice", "bob", "david", "emma", "frank", "grace", "henry", "ivy", "james", "kate"};
+    private static final String[] SURNAMES = {"wang", "li", "zhang", "liu", "chen", "yang", "huang", "zhao", "wu",
+            "zhou", "xu", "sun", "ma", "zhu", "hu", "guo", "he", "lin", "gao", "luo"};
+    private static final String[] CN_SURNAMES = {"王", "李", "张", "刘", "陈", "杨", "黄", "赵", "吴", "周"};
+    private static final String[] CN_GIVEN_NAMES = {"伟", "芳", "娜", "敏", "静", "丽", "强", "磊", "军", "洋",
+            "勇", "艳", "杰", "涛", "明", "超", "秀英", "华", "平", "刚"};
+
+    private final long seed;
+    private final int batchSize;
+    private final EntityManager entityManager;
+    private final TransactionTemplate tx;
+    private final UserJPA userJPA;
+
+    public DataGenerator(long seed, int batchSize, EntityManager entityManager,
+                         PlatformTransactionManager transactionManager, UserJPA userJPA) {
+        this.seed = seed;
+        this.batchSize = batchSize;
+        this.entityManager = entityManager;
+        this.tx = new TransactionTemplate(transactionManager);
+        this.userJPA = userJPA;
+    }
+
+    /**
+     * 依次生成四张表的数据
+     *
+     * @return 商品类型的id,按生成顺序,下标越小的类型商品越多
+     */
+    public long[] generate(int goodTypes, int goods, int users, int students) {
+        long[] typeIds = goodTypes(goodTypes);
+        goods(goods, typeIds);
+        users(users);
+        students(students);
+        return typeIds;
+    }
+
+    public long[] goodTypes(int count) {
+        SplittableRandom random = random(1);
+        long[] typeIds = new long[count];
+        int[] next = {0};
+        persist("good_types", count, i -> {
+            GoodTypeEntity type = new GoodTypeEntity();
+            String category = CATEGORIES[i % CATEGORIES.length];
+            type.setName(i < CATEGORIES.length ? category : category + (i / CATEGORIES.length));
+            type.setIsShow(random.nextInt(10) == 0 ? 0 : 1);
+            type.setOrder(i);
+            return type;
+        }, type -> typeIds[next[0]++] = type.getId());
+        return typeIds;
+    }
+
+    /**
+     * @param typeIds 商品按Zipf分布落在这些类型上
+     */
+    public void goods(int count, long[] typeIds) {
+        if (typeIds.length == 0) {
+            throw new IllegalArgumentException("没有商品类型");
+        }
+        SplittableRandom random = random(2);
+        Zipf types = new Zipf(typeIds.length, 1.1);
+        Zipf adjectives = new Zipf(ADJECTIVES.length, 1.0);
+        Zipf specs = new Zipf(SPECS.length, 1.0);
+        Zipf units = new Zipf(UNITS.length, 1.3);
+        persist("good_infos", count, i -> {
+            int type = types.sample(random);
+            int category = type % CATEGORIES.length;
+            GoodInfoEntity good = new GoodInfoEntity();
+            good.setTitle(adjectives.sample(random, ADJECTIVES) + CATEGORIES[category] + " " + specs.sample(random, SPECS));
+            // 对数正态分布,大部分价格在中位数附近,少数高出几倍
+            double price = PRICE_MEDIANS[category] * Math.exp(0.6 * gaussian(random));
+            good.setPrice(Math.max(1, Math.round(price * 100)) / 100.0);
+            good.setUnit(units.sample(random, UNITS));
+            good.setOrder(random.nextInt(1000));
+            good.setTypeId(typeIds[type]);
+            return good;
+        }, null);
+    }
+
+    public void users(int count) {
+        SplittableRandom random = random(3);
+        Names names = new Names();
+        Zipf districts = new Zipf(DISTRICTS.length, 1.0);
+        Zipf roads = new Zipf(ROADS.length, 1.0);
+        long start = System.nanoTime();
+        List<UserEntity> chunk = new ArrayList<>(batchSize);
+        for (int i = 0; i < count; i++) {
+            UserEntity user = new UserEntity();
+            user.setName(names.next(random));
+            user.setAge(clamp((int) Math.round(32 + 10 * gaussian(random)), 16, 80));
+            user.setAddress(districts.sample(random, DISTRICTS) + "区" + roads.sample(random, ROADS)
+                    + (1 + random.nextInt(300)) + "号");
+            user.setPwd(Long.toHexString(random.nextLong()));
+            chunk.add(user);
+            if (chunk.size() == batchSize || i == count - 1) {
+                userJPA.insertAll(chunk, batchSize);
+                progress("t_user", i + 1 - chunk.size(), i + 1, count, start);
+                chunk.clear();
+            }
+        }
+    }
+
+    public void students(int count) {
+        SplittableRandom random = random(4);
+        Names names = new Names();
+        persist("t_student", count, i -> {
+            StudentEntity student = new StudentEntity();
+            student.setName(names.next(random));
+            student.setAge(clamp((int) Math.round(15 + 2 * gaussian(random)), 10, 19));
+            // 0.5分一档
+            student.setSocre(Math.round(Math.min(100, Math.max(0, 72 + 14 * gaussian(random))) * 2) / 2.0);
+            return student;
+        }, null);
+    }
+
+    /**
+     * 分批persist,每批一个事务
+     *
+     * @param persisted 提交后拿到实体的id,不需要时为null
+     */
+    private <T> void persist(String table, int count, Function<Integer, T> row, Consumer<T> persisted) {
+        long start = System.nanoTime();
+        for (int from = 0; from < count; from += batchSize) {
+            int to = Math.min(count, from + batchSize);
+            List<T> chunk = new ArrayList<>(to - from);
+            for (int i = from; i < to; i++) {
+                chunk.add(row.apply(i));
+            }
+            tx.executeWithoutResult(status -> {
+                chunk.forEach(entityManager::persist);
+                entityManager.flush();
+                entityManager.clear();
+            });
+            if (persisted != null) {
+                chunk.forEach(persisted);
+            }
+            progress(table, from, to, count, start);
+        }
+    }
+
+    /**
+     * 这一批跨过PROGRESS_ROWS的整数倍或者是最后一批时打印
+     */
+    private static void progress(String table, int from, int to, int count, long start) {
+        if (from / PROGRESS_ROWS != to / PROGRESS_ROWS || to == count) {
+            double seconds = (System.nanoTime() - start) / 1e9;
+            System.out.printf("%s: %d/%d, %.0f 行/秒%n", table, to, count, to / Math.max(seconds, 1e-3));
+        }
+    }
+
+    /**
+     * 每张表一个独立的随机数序列
+     */
+    private SplittableRandom random(int table) {
+        return new SplittableRandom(seed * 31 + table);
+    }
+
+    /**
+     * 标准正态分布(Box-Muller)
+     */
+    private static double gaussian(SplittableRandom random) {
+        return Math.sqrt(-2 * Math.log(1 - random.nextDouble())) * Math.cos(2 * Math.PI * random.nextDouble());
+    }
+
+    private static int clamp(int value, int min, int max) {
+        return Math.max(min, Math.min(max, value));
+    }
+
+    /**
+     * 六成英文名、四成中文名,常见的名和姓占多数,同名很常见
+     */
+    private static class Names {
+        private final Zipf given = new Zipf(GIVEN_NAMES.length, 1.0);
+        private final Zipf surnames = new Zipf(SURNAMES.length, 1.0);
+        private final Zipf cnSurnames = new Zipf(CN_SURNAMES.length, 1.0);
+        private final Zipf cnGiven = new Zipf(CN_GIVEN_NAMES.length, 0.8);
+
+        String next(SplittableRandom random) {
+            if (random.nextInt(10) < 4) {
+                return cnSurnames.sample(random, CN_SURNAMES) + cnGiven.sample(random, CN_GIVEN_NAMES);
+            }
+            String name = given.sample(random, GIVEN_NAMES) + "." + surnames.sample(random, SURNAMES);
+            return random.nextInt(10) < 3 ? name + random.nextInt(1000) : name;
+        }
+    }
+}
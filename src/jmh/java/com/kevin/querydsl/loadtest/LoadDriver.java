@@ -0,0 +1,252 @@
+package com.kevin.querydsl.loadtest;
+
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.HistogramLogWriter;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.PrintStream;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Function;
+
+/**
+ * 按固定到达速率发出混合请求,记录延迟分布<br/>
+ * 第i个请求的计划发出时间是 开始时间 + i/rate,和前面的请求是否完成无关;请求在线程池中排队执行,
+ * 延迟从计划发出时间算起(coordinated omission修正),系统变慢时排队时间也计入延迟,不会因为少发请求而被掩盖<br/>
+ * 同时记录从实际开始执行算起的服务时间(uncorrected),两者的差就是排队造成的延迟<br/>
+ * 请求的类型和参数在调度线程中用固定种子生成,同样的种子得到同样的请求序列<br/>
+ * kevin<br/>
+ * 2021/3/23 10:00<br/>
+ */
+public class LoadDriver {
+
+    //延迟单位微秒,最大记录1小时,3位有效数字
+    private static final long HIGHEST_MICROS = TimeUnit.HOURS.toMicros(1);
+    private static final int DIGITS = 3;
+
+    private final int threads;
+    private final long seed;
+    private final List<Operation> operations = new ArrayList<>();
+    private int totalWeight;
+
+    public LoadDriver(int threads, long seed) {
+        this.threads = threads;
+        this.seed = seed;
+    }
+
+    /**
+     * @param request 在调度线程中用随机数决定参数,返回在工作线程中执行的请求
+     */
+    public LoadDriver add(String name, int weight, Function<SplittableRandom, Runnable> request) {
+        if (weight > 0) {
+            operations.add(new Operation(name, weight, request));
+            totalWeight += weight;
+        }
+        return this;
+    }
+
+    /**
+     * 预热之后按rate持续发出duration时长的请求,等待已发出的请求完成
+     *
+     * @param rate 每秒请求数
+     */
+    public List<Operation> run(double rate, Duration warmup, Duration duration) throws InterruptedException {
+        if (operations.isEmpty()) {
+            throw new IllegalStateException("没有请求");
+        }
+        CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("load-");
+        threadFactory.setDaemon(true);
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<>(), threadFactory);
+        SplittableRandom random = new SplittableRandom(seed);
+        long interval = Math.max(1, Math.round(TimeUnit.SECONDS.toNanos(1) / rate));
+        long startMillis = System.currentTimeMillis();
+        long start = System.nanoTime();
+        long measureFrom = start + warmup.toNanos();
+        long end = measureFrom + duration.toNanos();
+        for (long intended = start; intended < end; intended += interval) {
+            long wait = intended - System.nanoTime();
+            if (wait > 0) {
+                LockSupport.parkNanos(wait);
+            }
+            // 调度落后时立即补发,计划时间不变
+            Operation operation = pick(random);
+            executor.execute(new Request(operation, operation.request.apply(random), intended, intended >= measureFrom));
+        }
+        drain(executor, duration);
+        long measureFromMillis = startMillis + warmup.toMillis();
+        for (Operation operation : operations) {
+            for (Histogram histogram : new Histogram[]{operation.corrected, operation.uncorrected}) {
+                histogram.setStartTimeStamp(measureFromMillis);
+                histogram.setEndTimeStamp(measureFromMillis + duration.toMillis());
+            }
+        }
+        return operations;
+    }
+
+    /**
+     * 最多再等一个统计时长,仍未执行的请求按等到现在的时间记录,计为超时
+     */
+    private static void drain(ExecutorService executor, Duration timeout) throws InterruptedException {
+        executor.shutdown();
+        if (executor.awaitTermination(timeout.toMillis(), TimeUnit.MILLISECONDS)) {
+            return;
+        }
+        for (Runnable pending : executor.shutdownNow()) {
+            ((Request) pending).timeout();
+        }
+        executor.awaitTermination(1, TimeUnit.MINUTES);
+    }
+
+    private Operation pick(SplittableRandom random) {
+        int value = random.nextInt(totalWeight);
+        for (Operation operation : operations) {
+            value -= operation.weight;
+            if (value < 0) {
+                return operation;
+            }
+        }
+        return operations.get(operations.size() - 1);
+    }
+
+    /**
+     * 每类请求和合计的次数、错误数、p50/p99/p999/max(毫秒),以及合计的完整分布
+     */
+    public static void print(List<Operation> operations, Duration duration, PrintStream out) {
+        Histogram total = new Histogram(HIGHEST_MICROS, DIGITS);
+        Histogram totalUncorrected = new Histogram(HIGHEST_MICROS, DIGITS);
+        long errors = 0;
+        out.printf("%-12s %10s %8s %10s %10s %10s %10s %12s%n",
+                "operation", "count", "errors", "p50(ms)", "p99(ms)", "p999(ms)", "max(ms)", "p99 service");
+        for (Operation operation : operations) {
+            printRow(out, operation.name, operation.corrected, operation.uncorrected, operation.errors.get());
+            total.add(operation.corrected);
+            totalUncorrected.add(operation.uncorrected);
+            errors += operation.errors.get();
+        }
+        printRow(out, "total", total, totalUncorrected, errors);
+        out.printf("吞吐量: %.1f 请求/秒%n", total.getTotalCount() / (double) duration.getSeconds());
+        out.println("合计延迟分布(毫秒,已修正coordinated omission):");
+        total.outputPercentileDistribution(out, 1000.0);
+    }
+
+    private static void printRow(PrintStream out, String name, Histogram corrected, Histogram uncorrected, long errors) {
+        out.printf("%-12s %10d %8d %10.2f %10.2f %10.2f %10.2f %12.2f%n", name, corrected.getTotalCount(), errors,
+                corrected.getValueAtPercentile(50) / 1000.0, corrected.getValueAtPercentile(99) / 1000.0,
+                corrected.getValueAtPercentile(99.9) / 1000.0, corrected.getMaxValue() / 1000.0,
+                uncorrected.getValueAtPercentile(99) / 1000.0);
+    }
+
+    /**
+     * 写成HdrHistogram日志,每类请求一条,tag为请求名;可以用HistogramLogProcessor或在线的HdrHistogram绘图工具查看
+     */
+    public static void writeLog(List<Operation> operations, File file) throws FileNotFoundException {
+        File parent = file.getAbsoluteFile().getParentFile();
+        if (!parent.isDirectory() && !parent.mkdirs()) {
+            throw new FileNotFoundException("无法创建目录: " + parent);
+        }
+        HistogramLogWriter writer = new HistogramLogWriter(file);
+        try {
+            writer.outputLogFormatVersion();
+            writer.outputStartTime(operations.get(0).corrected.getStartTimeStamp());
+            writer.outputLegend();
+            for (Operation operation : operations) {
+                operation.corrected.setTag(operation.name);
+                writer.outputIntervalHistogram(operation.corrected);
+                operation.uncorrected.setTag(operation.name + "-service");
+                writer.outputIntervalHistogram(operation.uncorrected);
+            }
+        } finally {
+            writer.close();
+        }
+    }
+
+    /**
+     * 一类请求及其延迟
+     */
+    public static class Operation {
+        private final String name;
+        private final int weight;
+        private final Function<SplittableRandom, Runnable> request;
+        //从计划发出时间算起
+        private final Histogram corrected = new ConcurrentHistogram(HIGHEST_MICROS, DIGITS);
+        //从开始执行算起
+        private final Histogram uncorrected = new ConcurrentHistogram(HIGHEST_MICROS, DIGITS);
+        private final AtomicLong errors = new AtomicLong();
+
+        private Operation(String name, int weight, Function<SplittableRandom, Runnable> request) {
+            this.name = name;
+            this.weight = weight;
+            this.request = request;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public Histogram getCorrected() {
+            return corrected;
+        }
+
+        public Histogram getUncorrected() {
+            return uncorrected;
+        }
+
+        public long getErrors() {
+            return errors.get();
+        }
+
+        private void record(Histogram histogram, long nanos) {
+            histogram.recordValue(Math.min(HIGHEST_MICROS, TimeUnit.NANOSECONDS.toMicros(nanos)));
+        }
+    }
+
+    private static class Request implements Runnable {
+        private final Operation operation;
+        private final Runnable action;
+        private final long intended;
+        private final boolean measured;
+
+        private Request(Operation operation, Runnable action, long intended, boolean measured) {
+            this.operation = operation;
+            this.action = action;
+            this.intended = intended;
+            this.measured = measured;
+        }
+
+        @Override
+        public void run() {
+            long started = System.nanoTime();
+            try {
+                action.run();
+            } catch (RuntimeException e) {
+                if (measured) {
+                    operation.errors.incrementAndGet();
+                }
+            }
+            long finished = System.nanoTime();
+            if (measured) {
+                operation.record(operation.corrected, finished - intended);
+                operation.record(operation.uncorrected, finished - started);
+            }
+        }
+
+        private void timeout() {
+            if (measured) {
+                operation.errors.incrementAndGet();
+                operation.record(operation.corrected, System.nanoTime() - intended);
+            }
+        }
+    }
+}
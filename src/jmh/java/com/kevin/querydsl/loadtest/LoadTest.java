@@ -0,0 +1,131 @@
+package com.kevin.querydsl.loadtest;
+
+import com.kevin.querydsl.benchmark.BenchmarkDatabase;
+import com.kevin.querydsl.dto.QGoodDTO;
+import com.kevin.querydsl.entity.QGoodInfoEntity;
+import com.kevin.querydsl.entity.QGoodTypeEntity;
+import com.kevin.querydsl.entity.QUserEntity;
+import com.kevin.querydsl.entity.UserEntity;
+import com.kevin.querydsl.jpa.PageMode;
+import com.kevin.querydsl.jpa.UserJPA;
+import com.kevin.querydsl.service.StatsService;
+import com.querydsl.core.Tuple;
+import com.querydsl.jpa.impl.JPAQueryFactory;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.persistence.EntityManager;
+import java.io.File;
+import java.time.Duration;
+import java.util.List;
+import java.util.SplittableRandom;
+
+/**
+ * 宏观压测:在H2(MySQL模式)上启动应用,用{@link DataGenerator}生成数据,再用{@link LoadDriver}按固定速率发出混合请求<br/>
+ * 请求类型:按年龄段分页查询用户(带总数)、商品和类型关联的DTO查询、学生和商品的聚合、按主键修改用户;
+ * 热门的页码和类型被访问得更多<br/>
+ * 运行:
+ * <pre>
+ * mvn -Pbenchmark test-compile exec:exec -Dbenchmark.main=com.kevin.querydsl.loadtest.LoadTest \
+ *     -Djmh.args="users=1000000 goods=1000000 rate=500 duration=120"
+ * </pre>
+ * 打印各类请求的p50/p99/p999/max,合计的延迟分布,HdrHistogram日志写到output目录<br/>
+ * kevin<br/>
+ * 2021/3/23 10:00<br/>
+ */
+public class LoadTest {
+
+    private static final int PAGE_SIZE = 20;
+
+    private final QUserEntity qUser = QUserEntity.userEntity;
+    private final QGoodInfoEntity qGoodInfo = QGoodInfoEntity.goodInfoEntity;
+    private final QGoodTypeEntity qGoodType = QGoodTypeEntity.goodTypeEntity;
+
+    private final BenchmarkDatabase database;
+    private final JPAQueryFactory queryFactory;
+    private final UserJPA userJPA;
+    private final StatsService statsService;
+    private final EntityManager entityManager;
+    private final TransactionTemplate tx;
+
+    private LoadTest(BenchmarkDatabase database) {
+        this.database = database;
+        this.queryFactory = database.getBean(JPAQueryFactory.class);
+        this.userJPA = database.getBean(UserJPA.class);
+        this.statsService = database.getBean(StatsService.class);
+        this.entityManager = database.getBean(EntityManager.class);
+        this.tx = new TransactionTemplate(database.getBean(PlatformTransactionManager.class));
+    }
+
+    public static void main(String[] args) throws Exception {
+        LoadTestOptions options = LoadTestOptions.parse(args);
+        try (BenchmarkDatabase database = BenchmarkDatabase.create(options.contextProperties())) {
+            LoadTest loadTest = new LoadTest(database);
+            if (options.isGenerate()) {
+                new DataGenerator(options.getSeed(), options.getBatchSize(), loadTest.entityManager,
+                        database.getBean(PlatformTransactionManager.class), loadTest.userJPA)
+                        .generate(options.getGoodTypes(), options.getGoods(), options.getUsers(), options.getStudents());
+            }
+            LoadDriver driver = loadTest.workload(options);
+            Duration duration = Duration.ofSeconds(options.getDuration());
+            System.out.printf("速率: %.0f 请求/秒, 预热: %ds, 统计: %ds, 线程: %d%n",
+                    options.getRate(), options.getWarmup(), options.getDuration(), options.getThreads());
+            List<LoadDriver.Operation> result = driver.run(options.getRate(), Duration.ofSeconds(options.getWarmup()), duration);
+            LoadDriver.print(result, duration, System.out);
+            File log = new File(options.getOutput(), "loadtest-" + System.currentTimeMillis() + ".hlog");
+            LoadDriver.writeLog(result, log);
+            System.out.println("HdrHistogram日志: " + log.getAbsolutePath());
+        }
+    }
+
+    private LoadDriver workload(LoadTestOptions options) {
+        long[] typeIds = database.readOnly(() -> queryFactory.select(qGoodType.id).from(qGoodType)
+                .orderBy(qGoodType.id.asc()).fetch()).stream().mapToLong(Long::longValue).toArray();
+        Tuple userIds = database.readOnly(() -> queryFactory.select(qUser.id.min(), qUser.id.max()).from(qUser).fetchOne());
+        long minUserId = userIds.get(qUser.id.min()) == null ? 0 : userIds.get(qUser.id.min());
+        long maxUserId = userIds.get(qUser.id.max()) == null ? 0 : userIds.get(qUser.id.max());
+        if (typeIds.length == 0 || maxUserId == 0) {
+            throw new IllegalStateException("没有数据,generate=false时url需要指向已有数据的库");
+        }
+        // 生成数据时下标小的类型商品多,请求同样集中在这些类型上
+        Zipf types = new Zipf(typeIds.length, 1.1);
+        Zipf pages = new Zipf(50, 1.2);
+        return new LoadDriver(options.getThreads(), options.getSeed())
+                .add("pagedFind", options.getPagedFind(), random -> {
+                    int age = 16 + random.nextInt(60);
+                    int page = pages.sample(random);
+                    return () -> database.readOnly(() -> userJPA.findAll(qUser.age.between(age, age + 4),
+                            PageRequest.of(page, PAGE_SIZE, Sort.by("id")), PageMode.EXACT_COUNT));
+                })
+                .add("joinDTO", options.getJoinDTO(), random -> {
+                    long typeId = typeIds[types.sample(random)];
+                    return () -> database.readOnly(() -> queryFactory
+                            .select(new QGoodDTO(qGoodInfo.id, qGoodInfo.title, qGoodInfo.unit, qGoodInfo.price,
+                                    qGoodType.name, qGoodType.id))
+                            .from(qGoodInfo, qGoodType)
+                            .where(qGoodType.id.eq(qGoodInfo.typeId).and(qGoodType.id.eq(typeId)))
+                            .orderBy(qGoodInfo.order.desc())
+                            .limit(PAGE_SIZE)
+                            .fetch());
+                })
+                .add("aggregates", options.getAggregates(), random -> random.nextBoolean()
+                        ? statsService::studentStats
+                        : () -> database.readOnly(() -> queryFactory
+                        .select(qGoodInfo.typeId, qGoodInfo.id.count(), qGoodInfo.price.avg(), qGoodInfo.price.max())
+                        .from(qGoodInfo)
+                        .groupBy(qGoodInfo.typeId)
+                        .fetch()))
+                .add("update", options.getUpdates(), random -> {
+                    long id = minUserId + random.nextLong(maxUserId - minUserId + 1);
+                    int age = 16 + random.nextInt(60);
+                    return () -> tx.executeWithoutResult(status -> {
+                        UserEntity user = entityManager.find(UserEntity.class, id);
+                        if (user != null) {
+                            user.setAge(age);
+                        }
+                    });
+                });
+    }
+}
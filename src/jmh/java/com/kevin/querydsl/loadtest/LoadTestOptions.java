@@ -0,0 +1,76 @@
+package com.kevin.querydsl.loadtest;
+
+import lombok.Data;
+import org.springframework.beans.BeanWrapperImpl;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 压测参数,命令行中以 名称=值 传入,例如 users=10000000 rate=500 duration=120<br/>
+ * kevin<br/>
+ * 2021/3/23 10:00<br/>
+ */
+@Data
+public class LoadTestOptions {
+    //数据和请求序列的随机种子,相同的种子和参数得到相同的数据和请求
+    private long seed = 42;
+    private int goodTypes = 200;
+    private int goods = 200_000;
+    private int users = 200_000;
+    private int students = 100_000;
+    //生成数据时每批提交的行数
+    private int batchSize = 1000;
+    //为false时不生成数据,使用url中已有的数据(文件库)
+    private boolean generate = true;
+    //为空时使用H2内存库,上千万行时换成文件库,例如 jdbc:h2:file:./target/loadtest/db;MODE=MySQL
+    private String url;
+
+    //固定的到达速率,每秒请求数,和响应快慢无关
+    private double rate = 200;
+    //预热秒数,期间的请求不计入结果
+    private int warmup = 10;
+    //统计的秒数
+    private int duration = 60;
+    //执行请求的线程数,也是连接池大小
+    private int threads = 16;
+
+    //各类请求的权重
+    private int pagedFind = 40;
+    private int joinDTO = 30;
+    private int aggregates = 10;
+    private int updates = 20;
+
+    //HdrHistogram日志的输出目录
+    private String output = "target/loadtest";
+
+    public static LoadTestOptions parse(String[] args) {
+        LoadTestOptions options = new LoadTestOptions();
+        BeanWrapperImpl wrapper = new BeanWrapperImpl(options);
+        for (String arg : args) {
+            int separator = arg.indexOf('=');
+            if (separator <= 0) {
+                throw new IllegalArgumentException("参数格式为 名称=值: " + arg);
+            }
+            wrapper.setPropertyValue(arg.substring(0, separator), arg.substring(separator + 1));
+        }
+        return options;
+    }
+
+    /**
+     * 覆盖BenchmarkDatabase默认配置的Spring属性
+     */
+    public String[] contextProperties() {
+        List<String> properties = new ArrayList<>();
+        properties.add("spring.datasource.hikari.maximum-pool-size=" + threads);
+        // 生成数据时每行都会进入文本索引的增量,压测不涉及文本搜索
+        properties.add("querydsl.search.enabled=false");
+        if (url != null) {
+            properties.add("spring.datasource.url=" + url);
+        }
+        if (!generate) {
+            properties.add("spring.jpa.hibernate.ddl-auto=update");
+        }
+        return properties.toArray(new String[0]);
+    }
+}
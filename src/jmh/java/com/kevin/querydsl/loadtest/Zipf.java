@@ -0,0 +1,42 @@
+package com.kevin.querydsl.loadtest;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+/**
+ * Zipf分布:第k名被选中的概率正比于1/k^exponent,少数类型、地区、名字占大部分数据<br/>
+ * 累积分布预先算好,每次抽样一次二分查找<br/>
+ * kevin<br/>
+ * 2021/3/23 10:00<br/>
+ */
+class Zipf {
+
+    private final double[] cumulative;
+
+    Zipf(int size, double exponent) {
+        if (size <= 0) {
+            throw new IllegalArgumentException("size必须大于0");
+        }
+        cumulative = new double[size];
+        double sum = 0;
+        for (int rank = 0; rank < size; rank++) {
+            sum += 1 / Math.pow(rank + 1, exponent);
+            cumulative[rank] = sum;
+        }
+        for (int rank = 0; rank < size; rank++) {
+            cumulative[rank] /= sum;
+        }
+    }
+
+    /**
+     * 0开始的名次
+     */
+    int sample(SplittableRandom random) {
+        int index = Arrays.binarySearch(cumulative, random.nextDouble());
+        return Math.min(index >= 0 ? index : -index - 1, cumulative.length - 1);
+    }
+
+    <T> T sample(SplittableRandom random, T[] values) {
+        return values[sample(random)];
+    }
+}
@@ -1,13 +1,21 @@
 package com.kevin.querydsl;
 
+import com.kevin.querydsl.jpa.BaseJPAFactoryBean;
+import com.kevin.querydsl.jpa.BaseJPAImpl;
+import com.kevin.querydsl.metrics.QueryMetrics;
+import com.kevin.querydsl.query.QueryShapeCache;
+import com.kevin.querydsl.query.ShapeCachingQueryFactory;
+import com.querydsl.jpa.HQLTemplates;
 import com.querydsl.jpa.impl.JPAQueryFactory;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.context.annotation.Bean;
+import org.springframework.data.jpa.repository.config.EnableJpaRepositories;
 
 import javax.persistence.EntityManager;
 
 @SpringBootApplication
+@EnableJpaRepositories(repositoryBaseClass = BaseJPAImpl.class, repositoryFactoryBeanClass = BaseJPAFactoryBean.class)
 public class QuerydslApplication {
 
     public static void main(String[] args) {
@@ -15,7 +23,13 @@ public class QuerydslApplication {
     }
 
     @Bean
-    public JPAQueryFactory jpaQueryFactory(EntityManager entityManager) {
-        return new JPAQueryFactory(entityManager);
+    public QueryShapeCache queryShapeCache() {
+        return QueryShapeCache.shared();
+    }
+
+    @Bean
+    public JPAQueryFactory jpaQueryFactory(EntityManager entityManager, QueryShapeCache queryShapeCache,
+                                           QueryMetrics queryMetrics) {
+        return new ShapeCachingQueryFactory(HQLTemplates.DEFAULT, entityManager, queryShapeCache, queryMetrics);
     }
 }
@@ -0,0 +1,397 @@
+package com.kevin.querydsl.bulk;
+
+import com.kevin.querydsl.datasource.ReadWriteRoutingDataSource;
+import com.kevin.querydsl.jpa.NonEventWrites;
+import com.querydsl.core.types.EntityPath;
+import com.querydsl.core.types.ExpressionUtils;
+import com.querydsl.core.types.Predicate;
+import com.querydsl.core.types.dsl.NumberPath;
+import com.querydsl.jpa.impl.JPAQueryFactory;
+import com.querydsl.jpa.impl.JPAUpdateClause;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.ToLongFunction;
+import java.util.regex.Pattern;
+
+/**
+ * 分段执行影响大量行的update/delete,代替一条语句长时间持有行锁、撑大undo日志<br/>
+ * <pre>
+ * bulkDmlExecutor.update("user-default-address", qUser, qUser.id, qUser.address.isNull(),
+ *         update -&gt; update.set(qUser.address, "未填写"));
+ * bulkDmlExecutor.delete("free-goods", qGoodInfo, qGoodInfo.id, qGoodInfo.price.loe(0));
+ * </pre>
+ * 1. 开始时取满足条件的最大主键作为上界,之后插入的行不处理;再按主键顺序每次找出第chunkSize个满足条件的主键,
+ * 原条件加上区间(上一段的终点, 这一段的终点]在一个短事务里执行,每段最多锁chunkSize行<br/>
+ * 2. concurrency大于1时多段并行,区间互不重叠;划分区间的查询在调用线程里顺序执行,最多领先concurrency段<br/>
+ * 3. 每段之前检查从库复制延迟,超过maxReplicaLag时暂停;最近失败的比例过高时每段之前额外等待;
+ * 一段重试maxRetries次仍然失败时中止,抛出IllegalStateException<br/>
+ * 4. 连续完成的段的终点作为断点写入文件,同名任务再次执行时从断点之后继续,全部完成后删除断点;
+ * 并行时断点之后可能有已经完成的段,继续时会再执行一次,set和条件要保证重复执行结果不变
+ * (例如set age = age + 1要在条件里排除已经改过的行)<br/>
+ * 5. 批量DML不会触发提交后的监听器,开始和结束时通过{@link NonEventWrites}把实体对应的价格统计、文本索引、学生快照标记为过期<br/>
+ * kevin<br/>
+ * 2021/3/25 10:00<br/>
+ */
+@Component
+@EnableConfigurationProperties(BulkDmlProperties.class)
+public class BulkDmlExecutor {
+
+    private static final Logger logger = LoggerFactory.getLogger(BulkDmlExecutor.class);
+    //任务名用作断点文件名
+    private static final Pattern JOB_NAME = Pattern.compile("[A-Za-z0-9_.-]+");
+
+    private final JPAQueryFactory jpaQueryFactory;
+    private final TransactionTemplate transactionTemplate;
+    private final BulkDmlProperties properties;
+    //没有开启读写分离时为null,不检查复制延迟
+    private final ReadWriteRoutingDataSource routingDataSource;
+    //最近一次检查的复制延迟,各段共用,检查间隔内不重复查询
+    private volatile Duration replicaLag = Duration.ZERO;
+    private volatile long lagCheckedAt;
+
+    public BulkDmlExecutor(JPAQueryFactory jpaQueryFactory,
+                           PlatformTransactionManager transactionManager,
+                           BulkDmlProperties properties,
+                           ObjectProvider<ReadWriteRoutingDataSource> routingDataSource) {
+        this.jpaQueryFactory = jpaQueryFactory;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.transactionTemplate.setTimeout((int) Math.max(1, properties.getChunkTimeout().getSeconds()));
+        this.properties = properties;
+        this.routingDataSource = routingDataSource.getIfAvailable();
+    }
+
+    /**
+     * @param job 任务名,字母、数字和_.-,同名任务从断点继续
+     * @param id  实体的主键
+     * @param set 在每段的update上设置要修改的列
+     */
+    public BulkDmlResult update(String job, EntityPath<?> entity, NumberPath<Long> id, Predicate where,
+                                Consumer<JPAUpdateClause> set) {
+        return execute(job, entity, id, where, range -> {
+            JPAUpdateClause update = jpaQueryFactory.update(entity);
+            set.accept(update);
+            return update.where(range).execute();
+        });
+    }
+
+    /**
+     * @param job 任务名,字母、数字和_.-,同名任务从断点继续
+     * @param id  实体的主键
+     */
+    public BulkDmlResult delete(String job, EntityPath<?> entity, NumberPath<Long> id, Predicate where) {
+        return execute(job, entity, id, where, range -> jpaQueryFactory.delete(entity).where(range).execute());
+    }
+
+    /**
+     * 删除任务的断点,下次从头执行
+     */
+    public void reset(String job) {
+        try {
+            Files.deleteIfExists(checkpointFile(job));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private BulkDmlResult execute(String name, EntityPath<?> entity, NumberPath<Long> id, Predicate where,
+                                  ToLongFunction<Predicate> dml) {
+        Path file = checkpointFile(name);
+        String description = entity + " where " + where;
+        Long resumedAfter = readCheckpoint(file, name, description);
+        long start = System.nanoTime();
+        Long upperBound = jpaQueryFactory.select(id.max())
+                .from(entity)
+                .where(where, resumedAfter == null ? null : id.gt(resumedAfter))
+                .fetchOne();
+        logger.info("批量任务[{}]开始,断点:[{}],主键上界:[{}]", name, resumedAfter, upperBound);
+        Job job = new Job(name, file, description);
+        if (upperBound != null) {
+            NonEventWrites.written(entity.getType());
+            int concurrency = Math.max(1, properties.getConcurrency());
+            CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("bulk-dml-");
+            threadFactory.setDaemon(true);
+            ExecutorService workers = Executors.newFixedThreadPool(concurrency, threadFactory);
+            // 划分区间最多领先执行中的段concurrency段
+            Semaphore permits = new Semaphore(concurrency);
+            try {
+                Long lower = resumedAfter;
+                while (job.failure == null) {
+                    long upper = nextBoundary(entity, id, where, lower, upperBound);
+                    permits.acquire();
+                    if (job.failure != null) {
+                        break;
+                    }
+                    Chunk chunk = job.add(upper);
+                    Predicate range = ExpressionUtils.allOf(where, lower == null ? null : id.gt(lower), id.loe(upper));
+                    workers.execute(() -> {
+                        try {
+                            runChunk(job, chunk, range, dml);
+                        } finally {
+                            permits.release();
+                        }
+                    });
+                    if (upper >= upperBound) {
+                        break;
+                    }
+                    lower = upper;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                job.fail(e);
+            } catch (RuntimeException e) {
+                job.fail(e);
+            } finally {
+                awaitTermination(workers);
+                NonEventWrites.written(entity.getType());
+            }
+        }
+        BulkDmlResult result = new BulkDmlResult(name, job.rows, job.chunks, job.retries, resumedAfter,
+                System.nanoTime() - start);
+        if (job.failure != null) {
+            throw new IllegalStateException(String.format("批量任务[%s]中止,已完成到主键[%s],修改[%d]行,用同样的任务名重新执行即可继续",
+                    name, job.checkpoint, job.rows), job.failure);
+        }
+        reset(name);
+        logger.info("批量任务[{}]完成,[{}]段,[{}]行,重试[{}]次,耗时:[{}]ms", name, result.getChunks(), result.getRows(),
+                result.getRetries(), TimeUnit.NANOSECONDS.toMillis(result.getElapsedNanos()));
+        return result;
+    }
+
+    /**
+     * lower之后第chunkSize个满足条件的主键,不足chunkSize行时为上界
+     */
+    private long nextBoundary(EntityPath<?> entity, NumberPath<Long> id, Predicate where, Long lower, long upperBound) {
+        Long upper = jpaQueryFactory.select(id)
+                .from(entity)
+                .where(where, lower == null ? null : id.gt(lower), id.loe(upperBound))
+                .orderBy(id.asc())
+                .offset(Math.max(1, properties.getChunkSize()) - 1)
+                .fetchFirst();
+        return upper == null ? upperBound : upper;
+    }
+
+    /**
+     * 一段一个事务,失败后回滚重试
+     */
+    private void runChunk(Job job, Chunk chunk, Predicate range, ToLongFunction<Predicate> dml) {
+        try {
+            for (int attempt = 0; ; attempt++) {
+                if (job.failure != null) {
+                    return;
+                }
+                throttle(job);
+                try {
+                    Long rows = transactionTemplate.execute(status -> dml.applyAsLong(range));
+                    job.succeeded(chunk, rows == null ? 0 : rows);
+                    break;
+                } catch (RuntimeException e) {
+                    boolean retry = attempt < properties.getMaxRetries();
+                    job.failed(retry);
+                    if (!retry) {
+                        job.fail(e);
+                        return;
+                    }
+                    logger.warn("批量任务[{}]主键[{}]之前的一段第[{}]次失败,稍后重试: {}",
+                            job.name, chunk.upper, attempt + 1, e.getMessage());
+                    Thread.sleep(properties.getRetryBackoff().multipliedBy(attempt + 1L).toMillis());
+                }
+            }
+            Thread.sleep(properties.getPause().toMillis());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            job.fail(e);
+        }
+    }
+
+    /**
+     * 最近失败得多时放慢,从库延迟过大时等到追上
+     */
+    private void throttle(Job job) throws InterruptedException {
+        if (job.errorRate() > properties.getMaxErrorRate()) {
+            Thread.sleep(properties.getThrottlePause().toMillis());
+        }
+        Duration maxLag = properties.getMaxReplicaLag();
+        if (routingDataSource == null || maxLag.isZero()) {
+            return;
+        }
+        Duration lag;
+        while (job.failure == null && (lag = replicaLag()).compareTo(maxLag) > 0) {
+            logger.info("从库复制延迟[{}]s超过[{}]s,批量任务[{}]暂停", lag.getSeconds(), maxLag.getSeconds(), job.name);
+            Thread.sleep(properties.getLagCheckInterval().toMillis());
+        }
+    }
+
+    private Duration replicaLag() {
+        long now = System.currentTimeMillis();
+        if (now - lagCheckedAt >= properties.getLagCheckInterval().toMillis()) {
+            replicaLag = routingDataSource.replicaLag();
+            lagCheckedAt = now;
+        }
+        return replicaLag;
+    }
+
+    private static void awaitTermination(ExecutorService workers) {
+        workers.shutdown();
+        try {
+            while (!workers.awaitTermination(1, TimeUnit.MINUTES)) {
+                logger.info("等待执行中的批量段完成");
+            }
+        } catch (InterruptedException e) {
+            workers.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private Path checkpointFile(String job) {
+        if (job == null || !JOB_NAME.matcher(job).matches()) {
+            throw new IllegalArgumentException("任务名只能包含字母、数字和_.-: " + job);
+        }
+        return Paths.get(properties.getCheckpointDirectory(), job + ".checkpoint");
+    }
+
+    /**
+     * 断点文件第一行是已完成的主键,第二行是任务的实体和条件,条件变了不能继续
+     */
+    private static Long readCheckpoint(Path file, String job, String description) {
+        if (!Files.exists(file)) {
+            return null;
+        }
+        try {
+            List<String> lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+            if (lines.size() < 2 || !description.equals(lines.get(1))) {
+                throw new IllegalStateException(String.format("任务[%s]的断点属于另一个条件[%s],换一个任务名或先reset",
+                        job, lines.size() < 2 ? "" : lines.get(1)));
+            }
+            return Long.valueOf(lines.get(0));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static void writeCheckpoint(Path file, String description, long checkpoint) throws IOException {
+        Files.createDirectories(file.getParent());
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        Files.write(tmp, Arrays.asList(String.valueOf(checkpoint), description), StandardCharsets.UTF_8);
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * 主键区间的一段
+     */
+    private static final class Chunk {
+        private final long upper;
+        private boolean done;
+
+        private Chunk(long upper) {
+            this.upper = upper;
+        }
+    }
+
+    /**
+     * 一次执行的进度,除failure外的字段在this锁内修改
+     */
+    private final class Job {
+        private final String name;
+        private final Path file;
+        private final String description;
+        //按主键顺序已提交给线程池、还不能写入断点的段
+        private final Deque<Chunk> chunksInFlight = new ArrayDeque<>();
+        //最近errorWindow次执行是否失败,循环使用
+        private final boolean[] outcomes = new boolean[Math.max(1, properties.getErrorWindow())];
+        private int outcomeCount;
+        private int recentFailures;
+        private long rows;
+        private long chunks;
+        private long retries;
+        private Long checkpoint;
+        private volatile Throwable failure;
+
+        private Job(String name, Path file, String description) {
+            this.name = name;
+            this.file = file;
+            this.description = description;
+        }
+
+        private synchronized Chunk add(long upper) {
+            Chunk chunk = new Chunk(upper);
+            chunksInFlight.addLast(chunk);
+            return chunk;
+        }
+
+        /**
+         * 前面的段都完成后断点才前进
+         */
+        private synchronized void succeeded(Chunk chunk, long affected) {
+            chunk.done = true;
+            rows += affected;
+            chunks++;
+            record(false);
+            Long completed = null;
+            while (!chunksInFlight.isEmpty() && chunksInFlight.peekFirst().done) {
+                completed = chunksInFlight.pollFirst().upper;
+            }
+            if (completed == null) {
+                return;
+            }
+            checkpoint = completed;
+            try {
+                writeCheckpoint(file, description, completed);
+            } catch (IOException e) {
+                // 断点落后只会让继续时多执行几段
+                logger.warn("批量任务[{}]写入断点失败: {}", name, e.getMessage());
+            }
+        }
+
+        private synchronized void failed(boolean retry) {
+            if (retry) {
+                retries++;
+            }
+            record(true);
+        }
+
+        private synchronized double errorRate() {
+            return outcomeCount == 0 ? 0 : recentFailures / (double) Math.min(outcomeCount, outcomes.length);
+        }
+
+        private synchronized void fail(Throwable cause) {
+            if (failure == null) {
+                failure = cause;
+            }
+        }
+
+        private void record(boolean failed) {
+            int index = outcomeCount++ % outcomes.length;
+            if (outcomeCount > outcomes.length && outcomes[index]) {
+                recentFailures--;
+            }
+            outcomes[index] = failed;
+            if (failed) {
+                recentFailures++;
+            }
+        }
+    }
+}
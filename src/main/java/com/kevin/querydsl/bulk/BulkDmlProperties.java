@@ -0,0 +1,38 @@
+package com.kevin.querydsl.bulk;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+
+/**
+ * 分段批量update/delete配置<br/>
+ * kevin<br/>
+ * 2021/3/25 10:00<br/>
+ */
+@Data
+@ConfigurationProperties(prefix = "querydsl.bulk")
+public class BulkDmlProperties {
+    //每段最多处理的行数,一段一个事务
+    private int chunkSize = 2000;
+    //同时执行的段数,1表示按主键顺序逐段执行
+    private int concurrency = 1;
+    //每段事务的超时时间,超时的段回滚后重试
+    private Duration chunkTimeout = Duration.ofSeconds(10);
+    //每段之间的停顿,给其他事务让出锁和IO
+    private Duration pause = Duration.ZERO;
+    //从库复制延迟超过这个值时暂停,为0时不检查
+    private Duration maxReplicaLag = Duration.ofSeconds(5);
+    //复制延迟的检查间隔,暂停期间也按这个间隔重新检查
+    private Duration lagCheckInterval = Duration.ofSeconds(1);
+    //一段失败后的重试次数,用完后中止任务,保留断点
+    private int maxRetries = 3;
+    //第n次重试前等待n倍的时长
+    private Duration retryBackoff = Duration.ofMillis(500);
+    //最近errorWindow次执行中失败的比例超过maxErrorRate时,每段之前额外等待throttlePause
+    private int errorWindow = 20;
+    private double maxErrorRate = 0.1;
+    private Duration throttlePause = Duration.ofSeconds(2);
+    //断点文件目录,每个任务一个文件,任务完成后删除
+    private String checkpointDirectory = System.getProperty("java.io.tmpdir") + "/querydsl/bulk";
+}
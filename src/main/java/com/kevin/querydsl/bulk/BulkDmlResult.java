@@ -0,0 +1,30 @@
+package com.kevin.querydsl.bulk;
+
+import lombok.Data;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 分段批量update/delete的统计结果<br/>
+ * kevin<br/>
+ * 2021/3/25 10:00<br/>
+ */
+@Data
+public class BulkDmlResult {
+    //任务名,同名任务从断点继续
+    private final String job;
+    //本次执行影响的行数
+    private final long rows;
+    //本次执行成功的段数
+    private final long chunks;
+    //失败后重试的次数
+    private final long retries;
+    //从这个主键之后开始,没有断点时为null
+    private final Long resumedAfter;
+    //耗时,纳秒
+    private final long elapsedNanos;
+
+    public double rowsPerSecond() {
+        return elapsedNanos == 0 ? rows : rows * (double) TimeUnit.SECONDS.toNanos(1) / elapsedNanos;
+    }
+}
@@ -0,0 +1,20 @@
+package com.kevin.querydsl.columnar;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+/**
+ * 列式快照配置<br/>
+ * kevin<br/>
+ * 2021/3/24 10:00<br/>
+ */
+@Data
+@ConfigurationProperties(prefix = "querydsl.columnar")
+public class ColumnarProperties {
+    //为false时不加载快照,查询全部走数据库
+    private boolean enabled = true;
+    //并行扫描的线程数,0表示取CPU核数
+    private int parallelism = 0;
+    //每个fork-join任务扫描的行数,不超过这个行数的快照在调用线程里扫描
+    private int splitRows = 65536;
+}
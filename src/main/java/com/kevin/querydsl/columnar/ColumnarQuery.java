@@ -0,0 +1,1137 @@
+package com.kevin.querydsl.columnar;
+
+import com.kevin.querydsl.entity.StudentEntity;
+import com.querydsl.core.JoinExpression;
+import com.querydsl.core.JoinType;
+import com.querydsl.core.QueryMetadata;
+import com.querydsl.core.QueryModifiers;
+import com.querydsl.core.support.NumberConversion;
+import com.querydsl.core.types.Constant;
+import com.querydsl.core.types.EntityPath;
+import com.querydsl.core.types.Expression;
+import com.querydsl.core.types.FactoryExpression;
+import com.querydsl.core.types.NullExpression;
+import com.querydsl.core.types.Operation;
+import com.querydsl.core.types.Operator;
+import com.querydsl.core.types.Ops;
+import com.querydsl.core.types.OrderSpecifier;
+import com.querydsl.core.types.ParamExpression;
+import com.querydsl.core.types.Path;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.IntPredicate;
+
+/**
+ * 在{@link StudentColumns}上执行的QueryDSL查询<br/>
+ * 支持:from只有StudentEntity;where是id/age/socre列和常量之间的比较、between、in,用and/or/not组合;
+ * 投影是count/sum/avg/min/max和group by的列(可以是Tuple、Projections或构造函数投影);
+ * group by这三列;having、order by用投影中同样的表达式;offset/limit<br/>
+ * 行按区间拆成fork-join任务并行扫描,任务内每批1024行:先按条件过滤出行号,列和常量的比较按列循环,
+ * 再逐个聚合取出需要的列累加;每个任务各自分组聚合,再两两合并<br/>
+ * 结果和走数据库时一致(QueryDSL按表达式的类型转换数值):count为Long,avg为Double,min/max和group by的列为列的类型;
+ * 没有group by时即使没有匹配的行也返回一行,count为0,其余为null<br/>
+ * 其他查询{@link #compile}返回null,由调用方走数据库<br/>
+ * kevin<br/>
+ * 2021/3/24 10:00<br/>
+ */
+final class ColumnarQuery {
+
+    //列编号,对应StudentColumns中的数组
+    private static final int ID = 0;
+    private static final int AGE = 1;
+    private static final int SCORE = 2;
+    private static final List<String> COLUMNS = Arrays.asList("id", "age", "socre");
+    private static final long[] NO_KEY = new long[0];
+    //每批扫描的行数,一批内先过滤出行号,再按列逐个处理
+    private static final int BATCH = 1024;
+
+    private final QueryMetadata metadata;
+    private final EntityPath<?> root;
+    private final int[] groupColumns;
+    private final List<Aggregate> slotAggregates = new ArrayList<>();
+    private final List<Integer> slotColumns = new ArrayList<>();
+    private final FactoryExpression<?> factory;
+    private final List<GroupValue> values = new ArrayList<>();
+    private final RowFilter where;
+    private final GroupFilter having;
+    private final Comparator<Group> order;
+    private final QueryModifiers modifiers;
+
+    private ColumnarQuery(QueryMetadata metadata) {
+        this.metadata = metadata;
+        this.root = root(metadata);
+        if (metadata.isDistinct()) {
+            throw new Unsupported("distinct");
+        }
+        Expression<?> projection = metadata.getProjection();
+        if (projection == null) {
+            throw new Unsupported("没有投影");
+        }
+        List<Expression<?>> groupBy = metadata.getGroupBy();
+        this.groupColumns = new int[groupBy.size()];
+        for (int i = 0; i < groupColumns.length; i++) {
+            groupColumns[i] = column(groupBy.get(i));
+        }
+        if (projection instanceof FactoryExpression) {
+            this.factory = (FactoryExpression<?>) projection;
+            for (Expression<?> arg : factory.getArgs()) {
+                values.add(groupValue(arg));
+            }
+        } else {
+            this.factory = null;
+            values.add(groupValue(projection));
+        }
+        if (slotAggregates.isEmpty() && groupColumns.length == 0) {
+            throw new Unsupported("明细查询");
+        }
+        this.where = metadata.getWhere() == null ? null : rowFilter(metadata.getWhere());
+        this.having = metadata.getHaving() == null ? null : groupFilter(metadata.getHaving());
+        Comparator<Group> comparator = null;
+        for (OrderSpecifier<?> specifier : metadata.getOrderBy()) {
+            Comparator<Group> next = orderComparator(specifier);
+            comparator = comparator == null ? next : comparator.thenComparing(next);
+        }
+        this.order = comparator;
+        this.modifiers = metadata.getModifiers();
+    }
+
+    /**
+     * @return 不支持的查询返回null
+     */
+    static ColumnarQuery compile(QueryMetadata metadata) {
+        try {
+            return new ColumnarQuery(metadata);
+        } catch (Unsupported e) {
+            return null;
+        }
+    }
+
+    /**
+     * 在读锁内扫描,超过splitRows行时拆成fork-join任务
+     */
+    @SuppressWarnings("unchecked")
+    <T> List<T> execute(StudentColumns data, ForkJoinPool pool, int splitRows) {
+        Map<Key, Group> groups;
+        data.lock.readLock().lock();
+        try {
+            Scan scan = new Scan(data, 0, data.size, Math.max(1, splitRows));
+            groups = data.size > splitRows ? pool.invoke(scan) : scan.compute();
+        } finally {
+            data.lock.readLock().unlock();
+        }
+        List<Group> result = new ArrayList<>(groups.values());
+        if (groupColumns.length == 0 && result.isEmpty()) {
+            result.add(new Group(NO_KEY));
+        }
+        if (having != null) {
+            result.removeIf(group -> !Boolean.TRUE.equals(having.test(group)));
+        }
+        if (order != null) {
+            result.sort(order);
+        }
+        int from = modifiers.getOffset() == null ? 0 : (int) Math.min(result.size(), modifiers.getOffset());
+        int to = modifiers.getLimit() == null ? result.size() : (int) Math.min(result.size(), from + modifiers.getLimit());
+        List<T> rows = new ArrayList<>(to - from);
+        for (Group group : result.subList(from, to)) {
+            Object[] args = new Object[values.size()];
+            for (int i = 0; i < args.length; i++) {
+                args[i] = values.get(i).get(group);
+            }
+            rows.add((T) (factory == null ? args[0] : factory.newInstance(args)));
+        }
+        return rows;
+    }
+
+    private static EntityPath<?> root(QueryMetadata metadata) {
+        List<JoinExpression> joins = metadata.getJoins();
+        if (joins.size() != 1 || joins.get(0).getType() != JoinType.DEFAULT || joins.get(0).getCondition() != null) {
+            throw new Unsupported("只支持单表");
+        }
+        Expression<?> target = joins.get(0).getTarget();
+        if (!(target instanceof EntityPath) || !StudentEntity.class.equals(target.getType())) {
+            throw new Unsupported("只支持StudentEntity");
+        }
+        return (EntityPath<?>) target;
+    }
+
+    private int column(Expression<?> expression) {
+        Expression<?> unwrapped = unwrap(expression);
+        if (unwrapped instanceof Path && root.equals(((Path<?>) unwrapped).getMetadata().getParent())) {
+            int column = COLUMNS.indexOf(((Path<?>) unwrapped).getMetadata().getName());
+            if (column >= 0) {
+                return column;
+            }
+        }
+        throw new Unsupported("不支持的列: " + expression);
+    }
+
+    private boolean isConstant(Expression<?> expression) {
+        return expression instanceof Constant || expression instanceof ParamExpression || expression instanceof NullExpression;
+    }
+
+    private Object constant(Expression<?> expression) {
+        if (expression instanceof Constant) {
+            return ((Constant<?>) expression).getConstant();
+        }
+        if (expression instanceof ParamExpression) {
+            Object value = metadata.getParams().get(expression);
+            if (value == null) {
+                throw new Unsupported("参数未设置: " + expression);
+            }
+            return value;
+        }
+        return null;
+    }
+
+    /**
+     * 去掉别名,以及QueryDSL给order by中数值表达式加的类型转换
+     */
+    private static Expression<?> unwrap(Expression<?> expression) {
+        if (expression instanceof NumberConversion) {
+            return unwrap(((NumberConversion<?>) expression).getArgs().get(0));
+        }
+        if (expression instanceof Operation && ((Operation<?>) expression).getOperator() == Ops.ALIAS) {
+            return unwrap(((Operation<?>) expression).getArg(0));
+        }
+        return expression;
+    }
+
+    // ---------------- where ----------------
+
+    private RowFilter rowFilter(Expression<?> expression) {
+        Expression<?> unwrapped = unwrap(expression);
+        if (!(unwrapped instanceof Operation)) {
+            throw new Unsupported("不支持的条件: " + expression);
+        }
+        Operation<?> operation = (Operation<?>) unwrapped;
+        Operator operator = operation.getOperator();
+        if (operator == Ops.AND) {
+            return new And(rowFilter(operation.getArg(0)), rowFilter(operation.getArg(1)));
+        }
+        if (operator == Ops.OR) {
+            RowFilter left = rowFilter(operation.getArg(0));
+            RowFilter right = rowFilter(operation.getArg(1));
+            return (data, row) -> left.test(data, row) || right.test(data, row);
+        }
+        if (operator == Ops.NOT) {
+            // 列都不为null,不需要三值逻辑
+            RowFilter negated = rowFilter(operation.getArg(0));
+            return (data, row) -> !negated.test(data, row);
+        }
+        if (operator == Ops.BETWEEN) {
+            RowOperand value = rowOperand(operation.getArg(0));
+            RowOperand from = rowOperand(operation.getArg(1));
+            RowOperand to = rowOperand(operation.getArg(2));
+            if (value.column >= 0 && from.column < 0 && to.column < 0) {
+                return value.integral && from.integral && to.integral
+                        ? Range.of(value.column, from.longValue, to.longValue, false)
+                        : Range.of(value.column, from.doubleValue, to.doubleValue, false);
+            }
+            return new And(compare(value, from, result -> result >= 0), compare(value, to, result -> result <= 0));
+        }
+        if (operator == Ops.IN || operator == Ops.NOT_IN) {
+            RowFilter in = in(rowOperand(operation.getArg(0)), operation.getArg(1));
+            return operator == Ops.IN ? in : (data, row) -> !in.test(data, row);
+        }
+        IntPredicate outcome = outcome(operator);
+        RowOperand left = rowOperand(operation.getArg(0));
+        RowOperand right = rowOperand(operation.getArg(1));
+        if (left.column >= 0 && right.column < 0) {
+            return range(left.column, operator, right);
+        }
+        if (left.column < 0 && right.column >= 0) {
+            return range(right.column, flip(operator), left);
+        }
+        return compare(left, right, outcome);
+    }
+
+    /**
+     * 列和常量的比较转成区间,整数列的开区间换成相邻的整数,小数列换成相邻的double
+     */
+    private static Range range(int column, Operator operator, RowOperand constant) {
+        if (column != SCORE && constant.integral) {
+            long value = constant.longValue;
+            if (operator == Ops.EQ || operator == Ops.NE) {
+                return Range.of(column, value, value, operator == Ops.NE);
+            }
+            if (operator == Ops.LT) {
+                return value == Long.MIN_VALUE ? Range.of(column, 1, 0, false) : Range.of(column, Long.MIN_VALUE, value - 1, false);
+            }
+            if (operator == Ops.LOE) {
+                return Range.of(column, Long.MIN_VALUE, value, false);
+            }
+            if (operator == Ops.GT) {
+                return value == Long.MAX_VALUE ? Range.of(column, 1, 0, false) : Range.of(column, value + 1, Long.MAX_VALUE, false);
+            }
+            return Range.of(column, value, Long.MAX_VALUE, false);
+        }
+        double value = normalize(constant.doubleValue);
+        if (operator == Ops.EQ || operator == Ops.NE) {
+            return Range.of(column, value, value, operator == Ops.NE);
+        }
+        if (operator == Ops.LT) {
+            return Range.of(column, Double.NEGATIVE_INFINITY, Math.nextDown(value), false);
+        }
+        if (operator == Ops.LOE) {
+            return Range.of(column, Double.NEGATIVE_INFINITY, value, false);
+        }
+        if (operator == Ops.GT) {
+            return Range.of(column, Math.nextUp(value), Double.POSITIVE_INFINITY, false);
+        }
+        return Range.of(column, value, Double.POSITIVE_INFINITY, false);
+    }
+
+    /**
+     * 常量在左边时交换两边
+     */
+    private static Operator flip(Operator operator) {
+        if (operator == Ops.LT) {
+            return Ops.GT;
+        }
+        if (operator == Ops.LOE) {
+            return Ops.GOE;
+        }
+        if (operator == Ops.GT) {
+            return Ops.LT;
+        }
+        if (operator == Ops.GOE) {
+            return Ops.LOE;
+        }
+        return operator;
+    }
+
+    private RowOperand rowOperand(Expression<?> expression) {
+        Expression<?> unwrapped = unwrap(expression);
+        if (isConstant(unwrapped)) {
+            Object value = constant(unwrapped);
+            if (!(value instanceof Number)) {
+                throw new Unsupported("不支持的常量: " + expression);
+            }
+            Number number = (Number) value;
+            return new RowOperand(isIntegral(number), -1, number.longValue(), number.doubleValue());
+        }
+        int column = column(unwrapped);
+        return new RowOperand(column != SCORE, column, 0, 0);
+    }
+
+    private static RowFilter compare(RowOperand left, RowOperand right, IntPredicate outcome) {
+        if (left.integral && right.integral) {
+            return (data, row) -> outcome.test(Long.compare(left.longAt(data, row), right.longAt(data, row)));
+        }
+        return (data, row) -> outcome.test(compareDoubles(left.doubleAt(data, row), right.doubleAt(data, row)));
+    }
+
+    private RowFilter in(RowOperand value, Expression<?> values) {
+        Object collection = constant(unwrap(values));
+        if (!(collection instanceof Collection)) {
+            throw new Unsupported("in的参数不是集合: " + values);
+        }
+        List<Number> numbers = new ArrayList<>();
+        boolean integral = value.integral;
+        for (Object element : (Collection<?>) collection) {
+            if (!(element instanceof Number)) {
+                throw new Unsupported("in的参数不是数值: " + values);
+            }
+            numbers.add((Number) element);
+            integral &= isIntegral((Number) element);
+        }
+        if (integral) {
+            long[] sorted = numbers.stream().mapToLong(Number::longValue).sorted().toArray();
+            return (data, row) -> Arrays.binarySearch(sorted, value.longAt(data, row)) >= 0;
+        }
+        double[] sorted = numbers.stream().mapToDouble(number -> normalize(number.doubleValue())).sorted().toArray();
+        return (data, row) -> Arrays.binarySearch(sorted, normalize(value.doubleAt(data, row))) >= 0;
+    }
+
+    // ---------------- 聚合和having ----------------
+
+    private GroupValue groupValue(Expression<?> expression) {
+        Expression<?> unwrapped = unwrap(expression);
+        if (isConstant(unwrapped)) {
+            Object value = constant(unwrapped);
+            return group -> value;
+        }
+        if (unwrapped instanceof Operation && ((Operation<?>) unwrapped).getOperator() instanceof Ops.AggOps) {
+            return aggregate((Operation<?>) unwrapped);
+        }
+        int column = column(unwrapped);
+        for (int i = 0; i < groupColumns.length; i++) {
+            if (groupColumns[i] == column) {
+                int index = i;
+                return group -> decode(column, group.key[index]);
+            }
+        }
+        throw new Unsupported("不在group by中的列: " + expression);
+    }
+
+    private GroupValue aggregate(Operation<?> operation) {
+        Operator operator = operation.getOperator();
+        if (operator == Ops.AggOps.COUNT_ALL_AGG) {
+            return group -> group.count;
+        }
+        if (operator == Ops.AggOps.COUNT_AGG) {
+            // 实体或任意列,列都不为null,等同于count(*)
+            Expression<?> arg = unwrap(operation.getArg(0));
+            if (!root.equals(arg)) {
+                column(arg);
+            }
+            return group -> group.count;
+        }
+        Aggregate aggregate;
+        if (operator == Ops.AggOps.SUM_AGG) {
+            aggregate = Aggregate.SUM;
+        } else if (operator == Ops.AggOps.AVG_AGG) {
+            aggregate = Aggregate.AVG;
+        } else if (operator == Ops.AggOps.MIN_AGG) {
+            aggregate = Aggregate.MIN;
+        } else if (operator == Ops.AggOps.MAX_AGG) {
+            aggregate = Aggregate.MAX;
+        } else {
+            throw new Unsupported("不支持的聚合: " + operation);
+        }
+        int column = column(operation.getArg(0));
+        int slot = slot(aggregate, column);
+        boolean integral = column != SCORE;
+        switch (aggregate) {
+            case SUM:
+                return group -> group.count == 0 ? null
+                        : integral ? (Object) group.longs[slot] : (Object) group.doubles[slot];
+            case AVG:
+                return group -> group.count == 0 ? null
+                        : (integral ? (double) group.longs[slot] : group.doubles[slot]) / group.count;
+            default:
+                return group -> group.count == 0 ? null
+                        : integral ? decode(column, group.longs[slot]) : (Object) group.doubles[slot];
+        }
+    }
+
+    /**
+     * 同样的聚合只计算一次
+     */
+    private int slot(Aggregate aggregate, int column) {
+        for (int i = 0; i < slotAggregates.size(); i++) {
+            if (slotAggregates.get(i) == aggregate && slotColumns.get(i) == column) {
+                return i;
+            }
+        }
+        slotAggregates.add(aggregate);
+        slotColumns.add(column);
+        return slotAggregates.size() - 1;
+    }
+
+    /**
+     * having按SQL的三值逻辑,null表示unknown
+     */
+    private GroupFilter groupFilter(Expression<?> expression) {
+        Expression<?> unwrapped = unwrap(expression);
+        if (!(unwrapped instanceof Operation)) {
+            throw new Unsupported("不支持的having: " + expression);
+        }
+        Operation<?> operation = (Operation<?>) unwrapped;
+        Operator operator = operation.getOperator();
+        if (operator == Ops.AND) {
+            GroupFilter left = groupFilter(operation.getArg(0));
+            GroupFilter right = groupFilter(operation.getArg(1));
+            return group -> {
+                Boolean a = left.test(group);
+                if (Boolean.FALSE.equals(a)) {
+                    return false;
+                }
+                Boolean b = right.test(group);
+                return Boolean.FALSE.equals(b) ? Boolean.FALSE : a == null || b == null ? null : Boolean.TRUE;
+            };
+        }
+        if (operator == Ops.OR) {
+            GroupFilter left = groupFilter(operation.getArg(0));
+            GroupFilter right = groupFilter(operation.getArg(1));
+            return group -> {
+                Boolean a = left.test(group);
+                if (Boolean.TRUE.equals(a)) {
+                    return true;
+                }
+                Boolean b = right.test(group);
+                return Boolean.TRUE.equals(b) ? Boolean.TRUE : a == null || b == null ? null : Boolean.FALSE;
+            };
+        }
+        if (operator == Ops.NOT) {
+            GroupFilter negated = groupFilter(operation.getArg(0));
+            return group -> {
+                Boolean value = negated.test(group);
+                return value == null ? null : !value;
+            };
+        }
+        if (operator == Ops.BETWEEN) {
+            GroupFilter lower = compare(groupValue(operation.getArg(0)), groupValue(operation.getArg(1)), result -> result >= 0);
+            GroupFilter upper = compare(groupValue(operation.getArg(0)), groupValue(operation.getArg(2)), result -> result <= 0);
+            return group -> {
+                Boolean a = lower.test(group);
+                Boolean b = upper.test(group);
+                return Boolean.FALSE.equals(a) || Boolean.FALSE.equals(b) ? Boolean.FALSE
+                        : a == null || b == null ? null : Boolean.TRUE;
+            };
+        }
+        return compare(groupValue(operation.getArg(0)), groupValue(operation.getArg(1)), outcome(operator));
+    }
+
+    private static GroupFilter compare(GroupValue left, GroupValue right, IntPredicate outcome) {
+        return group -> {
+            Object a = left.get(group);
+            Object b = right.get(group);
+            if (a == null || b == null) {
+                return null;
+            }
+            if (!(a instanceof Number) || !(b instanceof Number)) {
+                throw new IllegalArgumentException("having只支持数值比较: " + a + ", " + b);
+            }
+            return outcome.test(compareNumbers((Number) a, (Number) b));
+        };
+    }
+
+    private Comparator<Group> orderComparator(OrderSpecifier<?> specifier) {
+        GroupValue value = groupValue(specifier.getTarget());
+        // 默认和MySQL一致,null最小
+        boolean nullsFirst = specifier.getNullHandling() == OrderSpecifier.NullHandling.NullsFirst
+                || specifier.getNullHandling() == OrderSpecifier.NullHandling.Default && specifier.isAscending();
+        return (a, b) -> {
+            Object x = value.get(a);
+            Object y = value.get(b);
+            if (x == null || y == null) {
+                return x == y ? 0 : (x == null) == nullsFirst ? -1 : 1;
+            }
+            int result = x instanceof Number && y instanceof Number
+                    ? compareNumbers((Number) x, (Number) y) : compareComparable(x, y);
+            return specifier.isAscending() ? result : -result;
+        };
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static int compareComparable(Object x, Object y) {
+        return ((Comparable) x).compareTo(y);
+    }
+
+    private static IntPredicate outcome(Operator operator) {
+        if (operator == Ops.EQ) {
+            return result -> result == 0;
+        }
+        if (operator == Ops.NE) {
+            return result -> result != 0;
+        }
+        if (operator == Ops.LT) {
+            return result -> result < 0;
+        }
+        if (operator == Ops.LOE) {
+            return result -> result <= 0;
+        }
+        if (operator == Ops.GT) {
+            return result -> result > 0;
+        }
+        if (operator == Ops.GOE) {
+            return result -> result >= 0;
+        }
+        throw new Unsupported("不支持的运算: " + operator);
+    }
+
+    // ---------------- 值 ----------------
+
+    private static boolean isIntegral(Number number) {
+        return number instanceof Long || number instanceof Integer || number instanceof Short
+                || number instanceof Byte || number instanceof BigInteger;
+    }
+
+    private static int compareNumbers(Number a, Number b) {
+        if (isIntegral(a) && isIntegral(b)) {
+            return Long.compare(a.longValue(), b.longValue());
+        }
+        return compareDoubles(a.doubleValue(), b.doubleValue());
+    }
+
+    /**
+     * 和SQL一致,0.0和-0.0相等
+     */
+    private static int compareDoubles(double a, double b) {
+        return a < b ? -1 : a > b ? 1 : 0;
+    }
+
+    private static double normalize(double value) {
+        return value == 0 ? 0 : value;
+    }
+
+    private static long longAt(StudentColumns data, int column, int row) {
+        return column == ID ? data.ids[row] : data.ages[row];
+    }
+
+    private static double doubleAt(StudentColumns data, int column, int row) {
+        switch (column) {
+            case ID:
+                return data.ids[row];
+            case AGE:
+                return data.ages[row];
+            default:
+                return data.scores[row];
+        }
+    }
+
+    /**
+     * 分组键和整数列的min/max都用long保存,小数列保存double的位
+     */
+    private static long encode(StudentColumns data, int column, int row) {
+        return column == SCORE ? Double.doubleToLongBits(normalize(data.scores[row])) : longAt(data, column, row);
+    }
+
+    private static Object decode(int column, long value) {
+        switch (column) {
+            case ID:
+                return value;
+            case AGE:
+                return (int) value;
+            default:
+                return Double.longBitsToDouble(value);
+        }
+    }
+
+    private enum Aggregate {
+        SUM, AVG, MIN, MAX
+    }
+
+    private interface RowFilter {
+        boolean test(StudentColumns data, int row);
+
+        /**
+         * 过滤一批行,rows的前count个是候选行号,满足条件的依次留在前面
+         *
+         * @return 满足条件的行数
+         */
+        default int filter(StudentColumns data, int[] rows, int count) {
+            int kept = 0;
+            for (int i = 0; i < count; i++) {
+                int row = rows[i];
+                if (test(data, row)) {
+                    rows[kept++] = row;
+                }
+            }
+            return kept;
+        }
+    }
+
+    /**
+     * and按批依次过滤,后面的条件只检查前面留下的行
+     */
+    private static final class And implements RowFilter {
+        private final RowFilter left;
+        private final RowFilter right;
+
+        private And(RowFilter left, RowFilter right) {
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        public boolean test(StudentColumns data, int row) {
+            return left.test(data, row) && right.test(data, row);
+        }
+
+        @Override
+        public int filter(StudentColumns data, int[] rows, int count) {
+            int kept = left.filter(data, rows, count);
+            return kept == 0 ? 0 : right.filter(data, rows, kept);
+        }
+    }
+
+    /**
+     * 一列在闭区间[lower, upper]内(negated时在区间外),每列一个循环,批量过滤时没有虚调用
+     */
+    private static final class Range implements RowFilter {
+        private final int column;
+        private final boolean integral;
+        private final long lowerLong;
+        private final long upperLong;
+        private final double lowerDouble;
+        private final double upperDouble;
+        private final boolean negated;
+
+        private Range(int column, boolean integral, long lowerLong, long upperLong,
+                      double lowerDouble, double upperDouble, boolean negated) {
+            this.column = column;
+            this.integral = integral;
+            this.lowerLong = lowerLong;
+            this.upperLong = upperLong;
+            this.lowerDouble = lowerDouble;
+            this.upperDouble = upperDouble;
+            this.negated = negated;
+        }
+
+        private static Range of(int column, long lower, long upper, boolean negated) {
+            return new Range(column, column != SCORE, lower, upper, lower, upper, negated);
+        }
+
+        private static Range of(int column, double lower, double upper, boolean negated) {
+            return new Range(column, false, 0, 0, lower, upper, negated);
+        }
+
+        @Override
+        public boolean test(StudentColumns data, int row) {
+            if (integral) {
+                long value = longAt(data, column, row);
+                return (value >= lowerLong && value <= upperLong) != negated;
+            }
+            double value = doubleAt(data, column, row);
+            return (value >= lowerDouble && value <= upperDouble) != negated;
+        }
+
+        @Override
+        public int filter(StudentColumns data, int[] rows, int count) {
+            int kept = 0;
+            if (column == AGE && integral) {
+                int[] values = data.ages;
+                for (int i = 0; i < count; i++) {
+                    int row = rows[i];
+                    long value = values[row];
+                    if ((value >= lowerLong && value <= upperLong) != negated) {
+                        rows[kept++] = row;
+                    }
+                }
+            } else if (column == ID && integral) {
+                long[] values = data.ids;
+                for (int i = 0; i < count; i++) {
+                    int row = rows[i];
+                    long value = values[row];
+                    if ((value >= lowerLong && value <= upperLong) != negated) {
+                        rows[kept++] = row;
+                    }
+                }
+            } else if (column == SCORE) {
+                double[] values = data.scores;
+                for (int i = 0; i < count; i++) {
+                    int row = rows[i];
+                    double value = values[row];
+                    if ((value >= lowerDouble && value <= upperDouble) != negated) {
+                        rows[kept++] = row;
+                    }
+                }
+            } else {
+                return RowFilter.super.filter(data, rows, count);
+            }
+            return kept;
+        }
+    }
+
+    private interface GroupValue {
+        Object get(Group group);
+    }
+
+    private interface GroupFilter {
+        Boolean test(Group group);
+    }
+
+    /**
+     * 列或常量
+     */
+    private static final class RowOperand {
+        private final boolean integral;
+        //常量为-1
+        private final int column;
+        private final long longValue;
+        private final double doubleValue;
+
+        private RowOperand(boolean integral, int column, long longValue, double doubleValue) {
+            this.integral = integral;
+            this.column = column;
+            this.longValue = longValue;
+            this.doubleValue = doubleValue;
+        }
+
+        private long longAt(StudentColumns data, int row) {
+            return column < 0 ? longValue : ColumnarQuery.longAt(data, column, row);
+        }
+
+        private double doubleAt(StudentColumns data, int row) {
+            return column < 0 ? doubleValue : ColumnarQuery.doubleAt(data, column, row);
+        }
+    }
+
+    /**
+     * 分组键,扫描时复用同一个对象查找,只有新的分组才复制
+     */
+    private static final class Key {
+        private final long[] values;
+        private int hash;
+
+        private Key(long[] values) {
+            this.values = values;
+            this.hash = Arrays.hashCode(values);
+        }
+
+        private void rehash() {
+            hash = Arrays.hashCode(values);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof Key && Arrays.equals(values, ((Key) other).values);
+        }
+    }
+
+    /**
+     * 一个分组的行数和各聚合的累加值
+     */
+    private final class Group {
+        private final long[] key;
+        private long count;
+        private final long[] longs;
+        private final double[] doubles;
+
+        private Group(long[] key) {
+            this.key = key;
+            int slots = slotAggregates.size();
+            this.longs = new long[slots];
+            this.doubles = new double[slots];
+            for (int i = 0; i < slots; i++) {
+                if (slotAggregates.get(i) == Aggregate.MIN) {
+                    longs[i] = Long.MAX_VALUE;
+                    doubles[i] = Double.POSITIVE_INFINITY;
+                } else if (slotAggregates.get(i) == Aggregate.MAX) {
+                    longs[i] = Long.MIN_VALUE;
+                    doubles[i] = Double.NEGATIVE_INFINITY;
+                }
+            }
+        }
+
+        private void merge(Group other, Aggregate[] aggregates) {
+            count += other.count;
+            for (int i = 0; i < aggregates.length; i++) {
+                switch (aggregates[i]) {
+                    case MIN:
+                        longs[i] = Math.min(longs[i], other.longs[i]);
+                        doubles[i] = Math.min(doubles[i], other.doubles[i]);
+                        break;
+                    case MAX:
+                        longs[i] = Math.max(longs[i], other.longs[i]);
+                        doubles[i] = Math.max(doubles[i], other.doubles[i]);
+                        break;
+                    default:
+                        longs[i] += other.longs[i];
+                        doubles[i] += other.doubles[i];
+                }
+            }
+        }
+    }
+
+    /**
+     * 一个扫描任务内的分组:只按一列分组时用long到下标的开放寻址表,多列时用HashMap
+     */
+    private final class Grouping {
+        private final StudentColumns data;
+        private final Key probe = new Key(new long[groupColumns.length]);
+        private final Map<Key, Integer> indexes = groupColumns.length > 1 ? new HashMap<>() : null;
+        private long[] keys = new long[16];
+        private int[] slots = new int[16];
+        private Group[] groups = new Group[16];
+        private int size;
+
+        private Grouping(StudentColumns data) {
+            this.data = data;
+            Arrays.fill(slots, -1);
+        }
+
+        private void assign(int[] rows, int count, int[] groupOf) {
+            if (indexes == null) {
+                int column = groupColumns[0];
+                if (column == SCORE) {
+                    double[] values = data.scores;
+                    for (int k = 0; k < count; k++) {
+                        groupOf[k] = find(Double.doubleToLongBits(normalize(values[rows[k]])));
+                    }
+                } else if (column == AGE) {
+                    int[] values = data.ages;
+                    for (int k = 0; k < count; k++) {
+                        groupOf[k] = find(values[rows[k]]);
+                    }
+                } else {
+                    long[] values = data.ids;
+                    for (int k = 0; k < count; k++) {
+                        groupOf[k] = find(values[rows[k]]);
+                    }
+                }
+                return;
+            }
+            for (int k = 0; k < count; k++) {
+                for (int i = 0; i < groupColumns.length; i++) {
+                    probe.values[i] = encode(data, groupColumns[i], rows[k]);
+                }
+                probe.rehash();
+                Integer index = indexes.get(probe);
+                if (index == null) {
+                    index = add(probe.values.clone());
+                    indexes.put(new Key(groups[index].key), index);
+                }
+                groupOf[k] = index;
+            }
+        }
+
+        private int find(long key) {
+            int mask = slots.length - 1;
+            int position = hash(key) & mask;
+            while (slots[position] >= 0) {
+                if (keys[position] == key) {
+                    return slots[position];
+                }
+                position = (position + 1) & mask;
+            }
+            int index = add(new long[]{key});
+            keys[position] = key;
+            slots[position] = index;
+            // 装载因子不超过一半
+            if (size * 2 > slots.length) {
+                rehash();
+            }
+            return index;
+        }
+
+        private int add(long[] key) {
+            if (size == groups.length) {
+                groups = Arrays.copyOf(groups, size * 2);
+            }
+            groups[size] = new Group(key);
+            return size++;
+        }
+
+        /**
+         * 小数列的键是double的位,有效位集中在高位,先把高32位折到低位再打散
+         */
+        private int hash(long key) {
+            int hash = (int) (key ^ (key >>> 32)) * 0x9E3779B9;
+            return hash ^ (hash >>> 16);
+        }
+
+        private void rehash() {
+            long[] oldKeys = keys;
+            int[] oldSlots = slots;
+            keys = new long[oldKeys.length * 2];
+            slots = new int[oldSlots.length * 2];
+            Arrays.fill(slots, -1);
+            int mask = slots.length - 1;
+            for (int i = 0; i < oldSlots.length; i++) {
+                if (oldSlots[i] >= 0) {
+                    int position = hash(oldKeys[i]) & mask;
+                    while (slots[position] >= 0) {
+                        position = (position + 1) & mask;
+                    }
+                    keys[position] = oldKeys[i];
+                    slots[position] = oldSlots[i];
+                }
+            }
+        }
+    }
+
+    /**
+     * 扫描[from, to)的行,超过split行时一分为二
+     */
+    private final class Scan extends RecursiveTask<Map<Key, Group>> {
+        private final StudentColumns data;
+        private final int from;
+        private final int to;
+        private final int split;
+
+        private Scan(StudentColumns data, int from, int to, int split) {
+            this.data = data;
+            this.from = from;
+            this.to = to;
+            this.split = split;
+        }
+
+        @Override
+        protected Map<Key, Group> compute() {
+            if (to - from > split) {
+                int middle = (from + to) >>> 1;
+                Scan left = new Scan(data, from, middle, split);
+                left.fork();
+                Map<Key, Group> right = new Scan(data, middle, to, split).compute();
+                return merge(left.join(), right);
+            }
+            Aggregate[] aggregates = slotAggregates.toArray(new Aggregate[0]);
+            int[] columns = slotColumns.stream().mapToInt(Integer::intValue).toArray();
+            Group single = groupColumns.length == 0 ? new Group(NO_KEY) : null;
+            Grouping grouping = single == null ? new Grouping(data) : null;
+            boolean[] deleted = data.deleted;
+            int[] rows = new int[BATCH];
+            int[] groupOf = new int[BATCH];
+            long[] buffer = new long[BATCH];
+            for (int start = from; start < to; start += BATCH) {
+                int end = Math.min(to, start + BATCH);
+                int count = 0;
+                for (int row = start; row < end; row++) {
+                    if (!deleted[row]) {
+                        rows[count++] = row;
+                    }
+                }
+                if (where != null && count > 0) {
+                    count = where.filter(data, rows, count);
+                }
+                if (count == 0) {
+                    continue;
+                }
+                if (single != null) {
+                    single.count += count;
+                    for (int i = 0; i < aggregates.length; i++) {
+                        accumulate(single, i, aggregates[i], columns[i], rows, count, buffer);
+                    }
+                } else {
+                    grouping.assign(rows, count, groupOf);
+                    Group[] groups = grouping.groups;
+                    for (int k = 0; k < count; k++) {
+                        groups[groupOf[k]].count++;
+                    }
+                    for (int i = 0; i < aggregates.length; i++) {
+                        accumulate(groups, groupOf, i, aggregates[i], columns[i], rows, count, buffer);
+                    }
+                }
+            }
+            Map<Key, Group> result = new HashMap<>();
+            if (single != null) {
+                if (single.count > 0) {
+                    result.put(new Key(NO_KEY), single);
+                }
+            } else {
+                for (int g = 0; g < grouping.size; g++) {
+                    result.put(new Key(grouping.groups[g].key), grouping.groups[g]);
+                }
+            }
+            return result;
+        }
+
+        /**
+         * 整数列先取到buffer,再对连续的数组累加
+         */
+        private void gather(int column, int[] rows, int count, long[] buffer) {
+            if (column == AGE) {
+                int[] values = data.ages;
+                for (int k = 0; k < count; k++) {
+                    buffer[k] = values[rows[k]];
+                }
+            } else {
+                long[] values = data.ids;
+                for (int k = 0; k < count; k++) {
+                    buffer[k] = values[rows[k]];
+                }
+            }
+        }
+
+        private void accumulate(Group group, int slot, Aggregate aggregate, int column, int[] rows, int count, long[] buffer) {
+            if (column == SCORE) {
+                double[] values = data.scores;
+                double result = group.doubles[slot];
+                switch (aggregate) {
+                    case MIN:
+                        for (int k = 0; k < count; k++) {
+                            double value = values[rows[k]];
+                            result = value < result ? value : result;
+                        }
+                        break;
+                    case MAX:
+                        for (int k = 0; k < count; k++) {
+                            double value = values[rows[k]];
+                            result = value > result ? value : result;
+                        }
+                        break;
+                    default:
+                        for (int k = 0; k < count; k++) {
+                            result += values[rows[k]];
+                        }
+                }
+                group.doubles[slot] = result;
+                return;
+            }
+            gather(column, rows, count, buffer);
+            long result = group.longs[slot];
+            switch (aggregate) {
+                case MIN:
+                    for (int k = 0; k < count; k++) {
+                        result = Math.min(result, buffer[k]);
+                    }
+                    break;
+                case MAX:
+                    for (int k = 0; k < count; k++) {
+                        result = Math.max(result, buffer[k]);
+                    }
+                    break;
+                default:
+                    for (int k = 0; k < count; k++) {
+                        result += buffer[k];
+                    }
+            }
+            group.longs[slot] = result;
+        }
+
+        private void accumulate(Group[] groups, int[] groupOf, int slot, Aggregate aggregate, int column,
+                                int[] rows, int count, long[] buffer) {
+            if (column == SCORE) {
+                double[] values = data.scores;
+                for (int k = 0; k < count; k++) {
+                    double[] doubles = groups[groupOf[k]].doubles;
+                    double value = values[rows[k]];
+                    switch (aggregate) {
+                        case MIN:
+                            doubles[slot] = value < doubles[slot] ? value : doubles[slot];
+                            break;
+                        case MAX:
+                            doubles[slot] = value > doubles[slot] ? value : doubles[slot];
+                            break;
+                        default:
+                            doubles[slot] += value;
+                    }
+                }
+                return;
+            }
+            gather(column, rows, count, buffer);
+            for (int k = 0; k < count; k++) {
+                long[] longs = groups[groupOf[k]].longs;
+                switch (aggregate) {
+                    case MIN:
+                        longs[slot] = Math.min(longs[slot], buffer[k]);
+                        break;
+                    case MAX:
+                        longs[slot] = Math.max(longs[slot], buffer[k]);
+                        break;
+                    default:
+                        longs[slot] += buffer[k];
+                }
+            }
+        }
+
+        private Map<Key, Group> merge(Map<Key, Group> a, Map<Key, Group> b) {
+            Map<Key, Group> larger = a.size() >= b.size() ? a : b;
+            Map<Key, Group> smaller = larger == a ? b : a;
+            Aggregate[] aggregates = slotAggregates.toArray(new Aggregate[0]);
+            smaller.forEach((key, group) -> {
+                Group existing = larger.putIfAbsent(key, group);
+                if (existing != null) {
+                    existing.merge(group, aggregates);
+                }
+            });
+            return larger;
+        }
+    }
+
+    /**
+     * 查询中有快照不支持的部分,不记录堆栈
+     */
+    private static final class Unsupported extends RuntimeException {
+        private Unsupported(String message) {
+            super(message, null, false, false);
+        }
+    }
+}
@@ -0,0 +1,143 @@
+package com.kevin.querydsl.columnar;
+
+import java.util.Arrays;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * t_student的列式存储:每列一个基本类型数组,下标就是行号,没有装箱对象<br/>
+ * 行按主键升序排列,修改和删除用二分查找定位;删除只做标记,标记的行超过四分之一时整理数组<br/>
+ * 扫描持有读锁,修改持有写锁<br/>
+ * kevin<br/>
+ * 2021/3/24 10:00<br/>
+ */
+final class StudentColumns {
+
+    private static final int MIN_CAPACITY = 1024;
+
+    final ReadWriteLock lock = new ReentrantReadWriteLock();
+    //以下字段只在写锁内修改,扫描时在读锁内直接读取数组
+    long[] ids;
+    int[] ages;
+    double[] scores;
+    boolean[] deleted;
+    //已使用的行数,包括标记删除的行
+    int size;
+    private int deletedCount;
+
+    StudentColumns(int capacity) {
+        int length = Math.max(MIN_CAPACITY, capacity);
+        ids = new long[length];
+        ages = new int[length];
+        scores = new double[length];
+        deleted = new boolean[length];
+    }
+
+    /**
+     * 加载时按主键升序追加
+     */
+    void append(long id, int age, double score) {
+        if (size > 0 && ids[size - 1] >= id) {
+            throw new IllegalArgumentException("主键必须升序追加: " + id);
+        }
+        ensureCapacity(size + 1);
+        ids[size] = id;
+        ages[size] = age;
+        scores[size] = score;
+        size++;
+    }
+
+    /**
+     * 插入或修改一行
+     */
+    void upsert(long id, int age, double score) {
+        lock.writeLock().lock();
+        try {
+            int row = Arrays.binarySearch(ids, 0, size, id);
+            if (row < 0) {
+                row = -row - 1;
+                ensureCapacity(size + 1);
+                // 新主键通常最大,只有并发提交的先后顺序不同时才插在中间
+                int moved = size - row;
+                if (moved > 0) {
+                    System.arraycopy(ids, row, ids, row + 1, moved);
+                    System.arraycopy(ages, row, ages, row + 1, moved);
+                    System.arraycopy(scores, row, scores, row + 1, moved);
+                    System.arraycopy(deleted, row, deleted, row + 1, moved);
+                }
+                ids[row] = id;
+                deleted[row] = false;
+                size++;
+            } else if (deleted[row]) {
+                deleted[row] = false;
+                deletedCount--;
+            }
+            ages[row] = age;
+            scores[row] = score;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    void remove(long id) {
+        lock.writeLock().lock();
+        try {
+            int row = Arrays.binarySearch(ids, 0, size, id);
+            if (row < 0 || deleted[row]) {
+                return;
+            }
+            deleted[row] = true;
+            deletedCount++;
+            if (deletedCount > MIN_CAPACITY && deletedCount > size / 4) {
+                compact();
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * 未删除的行数
+     */
+    int rows() {
+        lock.readLock().lock();
+        try {
+            return size - deletedCount;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 占用的堆内存(字节),只算数组
+     */
+    long bytes() {
+        return (long) ids.length * (Long.BYTES + Integer.BYTES + Double.BYTES + 1);
+    }
+
+    private void compact() {
+        int live = 0;
+        for (int row = 0; row < size; row++) {
+            if (!deleted[row]) {
+                ids[live] = ids[row];
+                ages[live] = ages[row];
+                scores[live] = scores[row];
+                live++;
+            }
+        }
+        Arrays.fill(deleted, 0, size, false);
+        size = live;
+        deletedCount = 0;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity <= ids.length) {
+            return;
+        }
+        int length = Math.max(capacity, ids.length + (ids.length >> 1));
+        ids = Arrays.copyOf(ids, length);
+        ages = Arrays.copyOf(ages, length);
+        scores = Arrays.copyOf(scores, length);
+        deleted = Arrays.copyOf(deleted, length);
+    }
+}
@@ -0,0 +1,287 @@
+package com.kevin.querydsl.columnar;
+
+import com.kevin.querydsl.entity.QStudentEntity;
+import com.kevin.querydsl.entity.StudentEntity;
+import com.kevin.querydsl.jpa.NonEventWrites;
+import com.querydsl.core.NonUniqueResultException;
+import com.querydsl.core.Tuple;
+import com.querydsl.jpa.impl.JPAQuery;
+import com.querydsl.jpa.impl.JPAQueryFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * t_student在进程内的列式快照,学生分数的统计查询不再每次访问数据库<br/>
+ * 查询照常用JPAQueryFactory构造,交给{@link #fetch}/{@link #fetchOne}:快照已加载且查询是支持的聚合、
+ * group by、having(见{@link ColumnarQuery})时在快照上并行扫描,否则执行原查询:
+ * <pre>
+ * Double avg = studentSnapshot.fetchOne(jpaQueryFactory.select(qStudent.socre.avg())
+ *         .from(qStudent).where(qStudent.age.goe(18)));
+ * </pre>
+ * 快照在第一次查询时在后台加载,加载完成前以及{@link #markStale()}之后走数据库;
+ * 加载后由{@link StudentSnapshotListener}在事务提交后增量同步,加载期间提交的修改在加载完成后补上<br/>
+ * 快照只包含已提交的数据,事务内未提交的修改不可见;BaseJPA的insertAll/patch/patchAll和BulkDmlExecutor通过
+ * {@link NonEventWrites}标记过期,直接执行的QueryDSL批量update/delete和原生SQL不会触发监听器,
+ * 执行后需要调用{@link #markStale()}<br/>
+ * kevin<br/>
+ * 2021/3/24 10:00<br/>
+ */
+@Component
+@EnableConfigurationProperties(ColumnarProperties.class)
+public class StudentSnapshot implements DisposableBean {
+
+    private static final Logger logger = LoggerFactory.getLogger(StudentSnapshot.class);
+    //加载时每次读取的行数
+    private static final int PAGE_SIZE = 10000;
+
+    private final JPAQueryFactory jpaQueryFactory;
+    private final ColumnarProperties properties;
+    private final ForkJoinPool pool;
+    private final ExecutorService loader;
+    private final AtomicBoolean loading = new AtomicBoolean();
+    private final LongAdder snapshotQueries = new LongAdder();
+    private final LongAdder databaseQueries = new LongAdder();
+    //同一时间只有一次加载
+    private final Object rebuildLock = new Object();
+    //每次markStale加一,快照加载开始时的值和当前值相同才可以使用
+    private final AtomicLong staleMarks = new AtomicLong();
+    private final Consumer<Class<?>> staleOnWrite = entityType -> {
+        if (StudentEntity.class.equals(entityType)) {
+            markStale();
+        }
+    };
+
+    //columns和pending在this锁内替换
+    private volatile StudentColumns columns;
+    private volatile long loadedMark = -1;
+    //加载期间提交的修改,加载完成后应用到新的快照上;不在加载时为null
+    private List<Change> pending;
+    //第一次加载前不记录修改
+    private volatile boolean tracking;
+    private volatile long loadedAt;
+
+    public StudentSnapshot(JPAQueryFactory jpaQueryFactory, ColumnarProperties properties) {
+        this.jpaQueryFactory = jpaQueryFactory;
+        this.properties = properties;
+        this.pool = new ForkJoinPool(properties.getParallelism() > 0
+                ? properties.getParallelism() : Runtime.getRuntime().availableProcessors());
+        CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("columnar-load-");
+        threadFactory.setDaemon(true);
+        this.loader = Executors.newSingleThreadExecutor(threadFactory);
+        NonEventWrites.register(staleOnWrite);
+    }
+
+    public <T> List<T> fetch(JPAQuery<T> query) {
+        List<T> rows = tryFetch(query);
+        return rows != null ? rows : query.fetch();
+    }
+
+    /**
+     * 没有结果返回null,多于一行抛NonUniqueResultException
+     */
+    public <T> T fetchOne(JPAQuery<T> query) {
+        List<T> rows = tryFetch(query);
+        if (rows == null) {
+            return query.fetchOne();
+        }
+        if (rows.size() > 1) {
+            throw new NonUniqueResultException();
+        }
+        return rows.isEmpty() ? null : rows.get(0);
+    }
+
+    /**
+     * 在快照上执行,不能执行时返回null,由调用方决定怎么走数据库(例如和其他查询一起批量发送)
+     */
+    public <T> List<T> tryFetch(JPAQuery<T> query) {
+        if (!properties.isEnabled()) {
+            return null;
+        }
+        ColumnarQuery plan = ColumnarQuery.compile(query.getMetadata());
+        StudentColumns current = columns;
+        if (plan == null || current == null || isStale()) {
+            if (plan != null) {
+                loadInBackground();
+            }
+            databaseQueries.increment();
+            return null;
+        }
+        List<T> rows = plan.execute(current, pool, properties.getSplitRows());
+        snapshotQueries.increment();
+        return rows;
+    }
+
+    /**
+     * 快照可能已经和数据库不一致,在重新加载完成前查询走数据库
+     */
+    public void markStale() {
+        staleMarks.incrementAndGet();
+    }
+
+    public boolean isStale() {
+        return loadedMark != staleMarks.get();
+    }
+
+    /**
+     * 从数据库全量加载,替换当前快照;旧的快照没有过期时,加载期间查询仍然使用旧的快照
+     */
+    public void rebuild() {
+        synchronized (rebuildLock) {
+            long mark;
+            synchronized (this) {
+                // 加载期间再被标记的,加载完成后仍然是过期的
+                mark = staleMarks.get();
+                tracking = true;
+                pending = new ArrayList<>();
+            }
+            long start = System.currentTimeMillis();
+            StudentColumns loaded;
+            try {
+                loaded = load();
+            } catch (RuntimeException e) {
+                synchronized (this) {
+                    pending = null;
+                }
+                throw e;
+            }
+            synchronized (this) {
+                for (Change change : pending) {
+                    change.applyTo(loaded);
+                }
+                pending = null;
+                columns = loaded;
+                loadedMark = mark;
+            }
+            loadedAt = System.currentTimeMillis();
+            logger.info("学生列式快照加载完成,[{}]行,[{}]KB,耗时:[{}]ms",
+                    loaded.rows(), loaded.bytes() / 1024, loadedAt - start);
+        }
+    }
+
+    public Map<String, Object> stats() {
+        StudentColumns current = columns;
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", properties.isEnabled());
+        stats.put("loaded", current != null);
+        stats.put("stale", isStale());
+        stats.put("rows", current == null ? 0 : current.rows());
+        stats.put("bytes", current == null ? 0 : current.bytes());
+        stats.put("loadedAt", loadedAt);
+        stats.put("snapshotQueries", snapshotQueries.sum());
+        stats.put("databaseQueries", databaseQueries.sum());
+        return stats;
+    }
+
+    @Override
+    public void destroy() {
+        NonEventWrites.unregister(staleOnWrite);
+        loader.shutdownNow();
+        pool.shutdownNow();
+    }
+
+    void upsert(long id, int age, double score) {
+        apply(new Change(id, age, score, false));
+    }
+
+    void remove(long id) {
+        apply(new Change(id, 0, 0, true));
+    }
+
+    /**
+     * 修改带着完整的行,重复应用结果不变,加载读到的行和之后补上的修改重叠也没有关系
+     */
+    private void apply(Change change) {
+        if (!tracking) {
+            return;
+        }
+        synchronized (this) {
+            if (pending != null) {
+                pending.add(change);
+            }
+            if (columns != null) {
+                change.applyTo(columns);
+            }
+        }
+    }
+
+    private void loadInBackground() {
+        if (!loading.compareAndSet(false, true)) {
+            return;
+        }
+        loader.execute(() -> {
+            try {
+                rebuild();
+            } catch (RuntimeException e) {
+                logger.warn("学生列式快照加载失败: {}", e.getMessage());
+            } finally {
+                loading.set(false);
+            }
+        });
+    }
+
+    /**
+     * 按主键分页读取三列,不经过持久化上下文
+     */
+    private StudentColumns load() {
+        QStudentEntity qStudent = QStudentEntity.studentEntity;
+        Long count = jpaQueryFactory.select(qStudent.id.count()).from(qStudent).fetchOne();
+        StudentColumns loaded = new StudentColumns(count == null ? 0 : (int) Math.min(Integer.MAX_VALUE - 8, count));
+        Long last = null;
+        List<Tuple> rows;
+        do {
+            rows = jpaQueryFactory
+                    .select(qStudent.id, qStudent.age, qStudent.socre)
+                    .from(qStudent)
+                    .where(last == null ? null : qStudent.id.gt(last))
+                    .orderBy(qStudent.id.asc())
+                    .limit(PAGE_SIZE)
+                    .fetch();
+            for (Tuple row : rows) {
+                last = row.get(qStudent.id);
+                loaded.append(last, row.get(qStudent.age), row.get(qStudent.socre));
+            }
+        } while (rows.size() == PAGE_SIZE);
+        return loaded;
+    }
+
+    /**
+     * 一次提交后的插入、修改或删除
+     */
+    private static final class Change {
+        private final long id;
+        private final int age;
+        private final double score;
+        private final boolean deleted;
+
+        private Change(long id, int age, double score, boolean deleted) {
+            this.id = id;
+            this.age = age;
+            this.score = score;
+            this.deleted = deleted;
+        }
+
+        private void applyTo(StudentColumns target) {
+            if (deleted) {
+                target.remove(id);
+            } else {
+                target.upsert(id, age, score);
+            }
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package com.kevin.querydsl.columnar;
+
+import com.kevin.querydsl.entity.StudentEntity;
+import com.kevin.querydsl.jpa.PostCommitListener;
+import org.hibernate.event.spi.PostDeleteEvent;
+import org.hibernate.event.spi.PostInsertEvent;
+import org.hibernate.event.spi.PostUpdateEvent;
+import org.hibernate.persister.entity.EntityPersister;
+import org.springframework.stereotype.Component;
+
+import javax.persistence.EntityManagerFactory;
+
+/**
+ * StudentEntity的插入、修改、删除在事务提交后同步到{@link StudentSnapshot},回滚的修改不会计入<br/>
+ * kevin<br/>
+ * 2021/3/24 10:00<br/>
+ */
+@Component
+public class StudentSnapshotListener extends PostCommitListener {
+
+    private static final String AGE = "age";
+    private static final String SCORE = "socre";
+
+    private final transient StudentSnapshot snapshot;
+
+    public StudentSnapshotListener(EntityManagerFactory entityManagerFactory, StudentSnapshot snapshot) {
+        super(entityManagerFactory);
+        this.snapshot = snapshot;
+    }
+
+    @Override
+    public void onPostInsert(PostInsertEvent event) {
+        if (event.getEntity() instanceof StudentEntity) {
+            upsert(event.getPersister(), (Long) event.getId(), event.getState());
+        }
+    }
+
+    @Override
+    public void onPostUpdate(PostUpdateEvent event) {
+        if (event.getEntity() instanceof StudentEntity) {
+            // 修改后的完整状态,游离实体直接update时也有
+            upsert(event.getPersister(), (Long) event.getId(), event.getState());
+        }
+    }
+
+    @Override
+    public void onPostDelete(PostDeleteEvent event) {
+        if (event.getEntity() instanceof StudentEntity) {
+            snapshot.remove((Long) event.getId());
+        }
+    }
+
+    @Override
+    public boolean requiresPostCommitHandling(EntityPersister persister) {
+        return StudentEntity.class.equals(persister.getMappedClass());
+    }
+
+    private void upsert(EntityPersister persister, Long id, Object[] state) {
+        snapshot.upsert(id, (Integer) state[index(persister, AGE)], (Double) state[index(persister, SCORE)]);
+    }
+}
@@ -0,0 +1,74 @@
+package com.kevin.querydsl.controller;
+
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import com.kevin.querydsl.query.QueryShapeCache;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.CacheRegionStatistics;
+import org.hibernate.stat.Statistics;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import javax.persistence.EntityManagerFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * kevin<br/>
+ * 2021/3/9 11:15<br/>
+ */
+@RestController
+@RequestMapping("/cache")
+public class CacheController {
+
+    private final SessionFactory sessionFactory;
+    private final QueryShapeCache queryShapeCache;
+
+    public CacheController(EntityManagerFactory entityManagerFactory, QueryShapeCache queryShapeCache) {
+        this.sessionFactory = entityManagerFactory.unwrap(SessionFactory.class);
+        this.queryShapeCache = queryShapeCache;
+    }
+
+    /**
+     * 二级缓存各区域的命中、未命中、写入次数和当前条目数
+     */
+    @GetMapping("/stats")
+    public Map<String, Map<String, Long>> stats() {
+        Statistics statistics = sessionFactory.getStatistics();
+        Map<String, Map<String, Long>> regions = new LinkedHashMap<>();
+        for (String region : statistics.getSecondLevelCacheRegionNames()) {
+            CacheRegionStatistics regionStatistics = statistics.getCacheRegionStatistics(region);
+            if (regionStatistics == null) {
+                continue;
+            }
+            Map<String, Long> counters = new LinkedHashMap<>();
+            counters.put("hit", regionStatistics.getHitCount());
+            counters.put("miss", regionStatistics.getMissCount());
+            counters.put("put", regionStatistics.getPutCount());
+            counters.put("size", regionStatistics.getElementCountInMemory());
+            regions.put(region, counters);
+        }
+        Map<String, Long> queries = new LinkedHashMap<>();
+        queries.put("hit", statistics.getQueryCacheHitCount());
+        queries.put("miss", statistics.getQueryCacheMissCount());
+        queries.put("put", statistics.getQueryCachePutCount());
+        regions.put("queryCache", queries);
+        return regions;
+    }
+
+    /**
+     * 查询形状缓存:缓存的JPQL条数、命中率,以及无法参数化直接序列化的次数
+     */
+    @GetMapping("/query-shapes")
+    public Map<String, Object> queryShapes() {
+        CacheStats stats = queryShapeCache.stats();
+        Map<String, Object> counters = new LinkedHashMap<>();
+        counters.put("size", queryShapeCache.size());
+        counters.put("hit", stats.hitCount());
+        counters.put("miss", stats.missCount());
+        counters.put("hitRate", stats.hitRate());
+        counters.put("eviction", stats.evictionCount());
+        counters.put("bypass", queryShapeCache.bypassCount());
+        return counters;
+    }
+}
@@ -0,0 +1,41 @@
+package com.kevin.querydsl.controller;
+
+import com.kevin.querydsl.columnar.StudentSnapshot;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.Map;
+
+/**
+ * kevin<br/>
+ * 2021/3/24 10:30<br/>
+ */
+@RestController
+@RequestMapping("/stats/students/snapshot")
+public class ColumnarController {
+
+    private final StudentSnapshot studentSnapshot;
+
+    public ColumnarController(StudentSnapshot studentSnapshot) {
+        this.studentSnapshot = studentSnapshot;
+    }
+
+    /**
+     * 快照的行数、内存和命中次数
+     */
+    @GetMapping
+    public Map<String, Object> snapshot() {
+        return studentSnapshot.stats();
+    }
+
+    /**
+     * 从数据库全量加载,批量修改或直接改库之后使用
+     */
+    @PostMapping("/rebuild")
+    public Map<String, Object> rebuild() {
+        studentSnapshot.rebuild();
+        return studentSnapshot.stats();
+    }
+}
@@ -0,0 +1,34 @@
+package com.kevin.querydsl.controller;
+
+import com.kevin.querydsl.service.GoodService;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+/**
+ * kevin<br/>
+ * 2021/3/3 15:10<br/>
+ */
+@RestController
+@RequestMapping("/goods")
+public class GoodController {
+
+    private final GoodService goodService;
+
+    public GoodController(GoodService goodService) {
+        this.goodService = goodService;
+    }
+
+    /**
+     * 导出全部商品,边查边写,内存占用不随商品数量增长
+     */
+    @GetMapping("/export")
+    public ResponseEntity<StreamingResponseBody> export() {
+        return ResponseEntity.ok()
+                .contentType(MediaType.APPLICATION_JSON)
+                .body(goodService::exportGoods);
+    }
+}
@@ -0,0 +1,42 @@
+package com.kevin.querydsl.controller;
+
+import com.kevin.querydsl.search.TextIndexes;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * kevin<br/>
+ * 2021/3/22 10:30<br/>
+ */
+@RestController
+@RequestMapping("/search/indexes")
+public class SearchController {
+
+    private final TextIndexes textIndexes;
+
+    public SearchController(TextIndexes textIndexes) {
+        this.textIndexes = textIndexes;
+    }
+
+    /**
+     * 各n-gram索引的文档数和未合并的修改数
+     */
+    @GetMapping
+    public List<Map<String, Object>> indexes() {
+        return textIndexes.stats();
+    }
+
+    /**
+     * 从数据库全量重建,批量修改或直接改库之后使用
+     */
+    @PostMapping("/rebuild")
+    public List<Map<String, Object>> rebuild() {
+        textIndexes.rebuild();
+        return textIndexes.stats();
+    }
+}
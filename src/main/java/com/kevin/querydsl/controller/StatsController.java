@@ -0,0 +1,55 @@
+package com.kevin.querydsl.controller;
+
+import com.kevin.querydsl.stats.PriceStats;
+import com.kevin.querydsl.stats.PriceStatsStore;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * kevin<br/>
+ * 2021/3/15 10:30<br/>
+ */
+@RestController
+@RequestMapping("/stats/prices")
+public class StatsController {
+
+    private final PriceStatsStore priceStatsStore;
+
+    public StatsController(PriceStatsStore priceStatsStore) {
+        this.priceStatsStore = priceStatsStore;
+    }
+
+    /**
+     * 全部商品和各类型的价格统计
+     */
+    @GetMapping
+    public Map<String, Object> prices() {
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("overall", priceStatsStore.overall());
+        result.put("types", priceStatsStore.allTypes());
+        return result;
+    }
+
+    /**
+     * 和数据库对账,返回不一致的类型
+     */
+    @GetMapping("/check")
+    public List<String> check() {
+        return priceStatsStore.check();
+    }
+
+    /**
+     * 从数据库全量重建
+     */
+    @PostMapping("/rebuild")
+    public PriceStats rebuild() {
+        priceStatsStore.rebuild();
+        return priceStatsStore.overall();
+    }
+}
@@ -0,0 +1,75 @@
+package com.kevin.querydsl.datasource;
+
+import java.util.function.Supplier;
+
+/**
+ * 显式指定当前线程的读写路由<br/>
+ * 只对还没有拿到连接的操作生效:已经在读写事务里的查询仍然使用事务的主库连接<br/>
+ * <pre>
+ * List&lt;UserEntity&gt; users = DataSourceRouting.onReplica(() -&gt; jpaQueryFactory.selectFrom(qUser).fetch());
+ * </pre>
+ * kevin<br/>
+ * 2021/3/16 10:00<br/>
+ */
+public class DataSourceRouting {
+
+    enum Target {
+        PRIMARY, REPLICA
+    }
+
+    private static final ThreadLocal<Target> TARGET = new ThreadLocal<>();
+    //当前线程最后一次写入的时间(System.nanoTime),读己之写窗口从这里开始计算
+    private static final ThreadLocal<Long> LAST_WRITE = new ThreadLocal<>();
+
+    private DataSourceRouting() {
+        // no constructor function
+    }
+
+    /**
+     * 在从库上执行只读查询,不需要事务
+     */
+    public static <T> T onReplica(Supplier<T> reads) {
+        return with(Target.REPLICA, reads);
+    }
+
+    /**
+     * 强制走主库,例如对一致性要求高的读
+     */
+    public static <T> T onPrimary(Supplier<T> work) {
+        return with(Target.PRIMARY, work);
+    }
+
+    static Target current() {
+        return TARGET.get();
+    }
+
+    static void markWrite() {
+        LAST_WRITE.set(System.nanoTime());
+    }
+
+    static boolean wroteWithin(long windowNanos) {
+        Long lastWrite = LAST_WRITE.get();
+        if (lastWrite == null) {
+            return false;
+        }
+        if (System.nanoTime() - lastWrite < windowNanos) {
+            return true;
+        }
+        LAST_WRITE.remove();
+        return false;
+    }
+
+    private static <T> T with(Target target, Supplier<T> work) {
+        Target previous = TARGET.get();
+        TARGET.set(target);
+        try {
+            return work.get();
+        } finally {
+            if (previous == null) {
+                TARGET.remove();
+            } else {
+                TARGET.set(previous);
+            }
+        }
+    }
+}
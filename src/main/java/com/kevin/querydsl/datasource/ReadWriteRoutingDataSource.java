@@ -0,0 +1,272 @@
+package com.kevin.querydsl.datasource;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jdbc.datasource.AbstractDataSource;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.sql.DataSource;
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 读写分离数据源<br/>
+ * 只读事务(@Transactional(readOnly = true))和{@link DataSourceRouting#onReplica}中的查询走从库,其余走主库;
+ * 当前线程在读己之写窗口内写过数据时,读也走主库<br/>
+ * 从库按轮询或最少连接选择,获取连接失败或健康检查失败的从库被剔除一段时间,没有可用从库时回退到主库<br/>
+ * 必须包在LazyConnectionDataSourceProxy里使用,这样在第一条语句执行时事务的只读标记已经设置好<br/>
+ * kevin<br/>
+ * 2021/3/16 10:00<br/>
+ */
+public class ReadWriteRoutingDataSource extends AbstractDataSource implements Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(ReadWriteRoutingDataSource.class);
+
+    private final DataSource primary;
+    private final List<Replica> replicas;
+    private final ReplicaStrategy strategy;
+    private final long readYourWritesNanos;
+    private final long ejectMillis;
+    private final AtomicInteger next = new AtomicInteger();
+    private final ScheduledExecutorService healthChecker;
+
+    public ReadWriteRoutingDataSource(DataSource primary, Map<String, DataSource> replicas, ReplicaStrategy strategy,
+                                      Duration readYourWritesWindow, Duration ejectDuration,
+                                      Duration healthCheckInterval) {
+        this.primary = primary;
+        List<Replica> list = new ArrayList<>(replicas.size());
+        replicas.forEach((name, dataSource) -> list.add(new Replica(name, dataSource)));
+        this.replicas = Collections.unmodifiableList(list);
+        this.strategy = strategy;
+        this.readYourWritesNanos = readYourWritesWindow.toNanos();
+        this.ejectMillis = ejectDuration.toMillis();
+        if (healthCheckInterval.isZero() || this.replicas.isEmpty()) {
+            this.healthChecker = null;
+        } else {
+            CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("replica-health-");
+            threadFactory.setDaemon(true);
+            this.healthChecker = Executors.newSingleThreadScheduledExecutor(threadFactory);
+            this.healthChecker.scheduleWithFixedDelay(this::checkHealth, healthCheckInterval.toMillis(),
+                    healthCheckInterval.toMillis(), TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        return isRead() ? replicaConnection() : primaryConnection();
+    }
+
+    /**
+     * 从库是按各自账号建好的连接池,不能换用户,指定用户名密码的连接总是由主库提供
+     */
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        markTransactionWrite();
+        return primary.getConnection(username, password);
+    }
+
+    /**
+     * 各从库的状态:是否可用、借出的连接数
+     */
+    public Map<String, Map<String, Object>> replicaStatus() {
+        Map<String, Map<String, Object>> status = new LinkedHashMap<>();
+        long now = System.currentTimeMillis();
+        for (Replica replica : replicas) {
+            Map<String, Object> item = new LinkedHashMap<>();
+            item.put("available", replica.isAvailable(now));
+            item.put("active", replica.active.get());
+            item.put("ejections", replica.ejections.get());
+            status.put(replica.name, item);
+        }
+        return status;
+    }
+
+    /**
+     * 可用从库中最大的复制延迟,取MySQL的SHOW SLAVE STATUS中的Seconds_Behind_Master<br/>
+     * 复制线程没有运行(值为null)时视为无限延迟;不是从库或不支持该语句的库不计入,没有从库时为0
+     */
+    public Duration replicaLag() {
+        long max = 0;
+        long now = System.currentTimeMillis();
+        for (Replica replica : replicas) {
+            if (!replica.isAvailable(now)) {
+                continue;
+            }
+            try (Connection connection = replica.dataSource.getConnection();
+                 Statement statement = connection.createStatement();
+                 ResultSet resultSet = statement.executeQuery("SHOW SLAVE STATUS")) {
+                if (resultSet.next()) {
+                    long seconds = resultSet.getLong("Seconds_Behind_Master");
+                    max = Math.max(max, resultSet.wasNull() ? Long.MAX_VALUE : seconds);
+                }
+            } catch (SQLException | RuntimeException e) {
+                logger.debug("从库[{}]读取复制延迟失败: {}", replica.name, e.getMessage());
+            }
+        }
+        return Duration.ofSeconds(max);
+    }
+
+    /**
+     * 停止健康检查并关闭从库连接池,主库由创建方关闭
+     */
+    @Override
+    public void close() throws IOException {
+        if (healthChecker != null) {
+            healthChecker.shutdownNow();
+        }
+        for (Replica replica : replicas) {
+            if (replica.dataSource instanceof Closeable) {
+                ((Closeable) replica.dataSource).close();
+            }
+        }
+    }
+
+    private boolean isRead() {
+        DataSourceRouting.Target target = DataSourceRouting.current();
+        if (target == DataSourceRouting.Target.PRIMARY) {
+            return false;
+        }
+        boolean read = target == DataSourceRouting.Target.REPLICA
+                || TransactionSynchronizationManager.isCurrentTransactionReadOnly();
+        return read && !DataSourceRouting.wroteWithin(readYourWritesNanos);
+    }
+
+    private Connection primaryConnection() throws SQLException {
+        markTransactionWrite();
+        return primary.getConnection();
+    }
+
+    private void markTransactionWrite() {
+        if (TransactionSynchronizationManager.isActualTransactionActive()
+                && !TransactionSynchronizationManager.isCurrentTransactionReadOnly()) {
+            // 读写事务:开始时和结束时都记录写入时间,提交后窗口内的读仍然走主库
+            DataSourceRouting.markWrite();
+            if (TransactionSynchronizationManager.isSynchronizationActive()) {
+                TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                    @Override
+                    public void afterCompletion(int status) {
+                        DataSourceRouting.markWrite();
+                    }
+                });
+            }
+        }
+    }
+
+    private Connection replicaConnection() throws SQLException {
+        long now = System.currentTimeMillis();
+        List<Replica> available = new ArrayList<>(replicas.size());
+        for (Replica replica : replicas) {
+            if (replica.isAvailable(now)) {
+                available.add(replica);
+            }
+        }
+        int start = Math.floorMod(next.getAndIncrement(), Math.max(available.size(), 1));
+        if (strategy == ReplicaStrategy.LEAST_BUSY) {
+            // 从轮询位置开始找借出连接最少的,连接数相同时仍然轮流
+            int best = start;
+            for (int i = 0; i < available.size(); i++) {
+                int candidate = (start + i) % available.size();
+                if (available.get(candidate).active.get() < available.get(best).active.get()) {
+                    best = candidate;
+                }
+            }
+            start = best;
+        }
+        for (int i = 0; i < available.size(); i++) {
+            Replica replica = available.get((start + i) % available.size());
+            try {
+                return replica.borrow();
+            } catch (SQLException | RuntimeException e) {
+                eject(replica, e);
+            }
+        }
+        logger.debug("没有可用的从库,读请求回退到主库");
+        return primary.getConnection();
+    }
+
+    private void checkHealth() {
+        for (Replica replica : replicas) {
+            try (Connection connection = replica.dataSource.getConnection()) {
+                if (!connection.isValid(1)) {
+                    throw new SQLException("连接校验失败");
+                }
+                if (replica.ejectedUntil != 0) {
+                    replica.ejectedUntil = 0;
+                    logger.info("从库[{}]恢复可用", replica.name);
+                }
+            } catch (SQLException | RuntimeException e) {
+                eject(replica, e);
+            }
+        }
+    }
+
+    private void eject(Replica replica, Exception cause) {
+        boolean wasAvailable = replica.isAvailable(System.currentTimeMillis());
+        replica.ejectedUntil = System.currentTimeMillis() + ejectMillis;
+        if (wasAvailable) {
+            replica.ejections.incrementAndGet();
+            logger.warn("从库[{}]不可用,剔除[{}]ms: {}", replica.name, ejectMillis, cause.getMessage());
+        }
+    }
+
+    private static class Replica {
+        private final String name;
+        private final DataSource dataSource;
+        //借出未归还的连接数,最少连接策略使用
+        private final AtomicInteger active = new AtomicInteger();
+        private final AtomicInteger ejections = new AtomicInteger();
+        private volatile long ejectedUntil;
+
+        private Replica(String name, DataSource dataSource) {
+            this.name = name;
+            this.dataSource = dataSource;
+        }
+
+        private boolean isAvailable(long now) {
+            return ejectedUntil <= now;
+        }
+
+        /**
+         * 返回的连接关闭时归还计数
+         */
+        private Connection borrow() throws SQLException {
+            Connection target = dataSource.getConnection();
+            active.incrementAndGet();
+            AtomicInteger closed = new AtomicInteger();
+            return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+                    new Class<?>[]{Connection.class}, (proxy, method, args) -> {
+                        if ("close".equals(method.getName()) && closed.getAndIncrement() == 0) {
+                            active.decrementAndGet();
+                        }
+                        if ("unwrap".equals(method.getName()) || "isWrapperFor".equals(method.getName())) {
+                            if (((Class<?>) args[0]).isInstance(proxy)) {
+                                return "unwrap".equals(method.getName()) ? proxy : true;
+                            }
+                        }
+                        try {
+                            return method.invoke(target, args);
+                        } catch (InvocationTargetException e) {
+                            throw e.getTargetException();
+                        }
+                    });
+        }
+    }
+}
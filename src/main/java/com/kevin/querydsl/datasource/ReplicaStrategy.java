@@ -0,0 +1,17 @@
+package com.kevin.querydsl.datasource;
+
+/**
+ * 从库选择策略<br/>
+ * kevin<br/>
+ * 2021/3/16 10:00<br/>
+ */
+public enum ReplicaStrategy {
+    /**
+     * 依次轮询
+     */
+    ROUND_ROBIN,
+    /**
+     * 选择当前借出连接最少的从库
+     */
+    LEAST_BUSY
+}
@@ -0,0 +1,80 @@
+package com.kevin.querydsl.datasource;
+
+import com.zaxxer.hikari.HikariDataSource;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.boot.jdbc.DataSourceBuilder;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+
+import javax.sql.DataSource;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * querydsl.datasource.routing=true时启用读写分离,主库使用spring.datasource,从库使用querydsl.datasource.replicas<br/>
+ * kevin<br/>
+ * 2021/3/16 10:00<br/>
+ */
+@Configuration
+@EnableConfigurationProperties(RoutingProperties.class)
+@ConditionalOnProperty(prefix = "querydsl.datasource", name = "routing", havingValue = "true")
+public class RoutingDataSourceConfig {
+
+    @Bean
+    @ConfigurationProperties("spring.datasource.hikari")
+    public HikariDataSource primaryDataSource(DataSourceProperties properties) {
+        return properties.initializeDataSourceBuilder().type(HikariDataSource.class).build();
+    }
+
+    @Bean
+    public ReadWriteRoutingDataSource routingDataSource(HikariDataSource primaryDataSource,
+                                                        RoutingProperties properties) {
+        return create(primaryDataSource, properties);
+    }
+
+    /**
+     * JPA和JdbcTemplate使用的数据源,延迟到第一条语句才真正取连接
+     */
+    @Bean
+    @Primary
+    public DataSource dataSource(ReadWriteRoutingDataSource routingDataSource) {
+        return new LazyConnectionDataSourceProxy(routingDataSource);
+    }
+
+    public static ReadWriteRoutingDataSource create(DataSource primary, RoutingProperties properties) {
+        List<RoutingProperties.Replica> replicas = properties.getReplicas();
+        Map<String, DataSource> replicaDataSources = new LinkedHashMap<>();
+        for (int i = 0; i < replicas.size(); i++) {
+            RoutingProperties.Replica replica = replicas.get(i);
+            String name = replica.getName() == null ? "replica-" + i : replica.getName();
+            replicaDataSources.put(name, replicaDataSource(name, replica, properties));
+        }
+        return new ReadWriteRoutingDataSource(primary, replicaDataSources, properties.getStrategy(),
+                properties.getReadYourWritesWindow(), properties.getEjectDuration(),
+                properties.getHealthCheckInterval());
+    }
+
+    private static HikariDataSource replicaDataSource(String name, RoutingProperties.Replica replica,
+                                                      RoutingProperties properties) {
+        HikariDataSource dataSource = DataSourceBuilder.create()
+                .type(HikariDataSource.class)
+                .url(replica.getUrl())
+                .username(replica.getUsername())
+                .password(replica.getPassword())
+                .driverClassName(replica.getDriverClassName())
+                .build();
+        dataSource.setPoolName(name);
+        dataSource.setMaximumPoolSize(replica.getMaximumPoolSize());
+        dataSource.setReadOnly(true);
+        // 从库连不上时不阻止启动,取连接很快超时,由路由数据源剔除
+        dataSource.setInitializationFailTimeout(-1);
+        dataSource.setConnectionTimeout(Math.max(250, properties.getConnectionTimeout().toMillis()));
+        return dataSource;
+    }
+}
@@ -0,0 +1,42 @@
+package com.kevin.querydsl.datasource;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 读写分离配置,主库仍然使用spring.datasource<br/>
+ * kevin<br/>
+ * 2021/3/16 10:00<br/>
+ */
+@Data
+@ConfigurationProperties(prefix = "querydsl.datasource")
+public class RoutingProperties {
+    //是否开启读写分离
+    private boolean routing;
+    //从库选择策略
+    private ReplicaStrategy strategy = ReplicaStrategy.ROUND_ROBIN;
+    //写入后这段时间内当前线程的读也走主库,避免读不到刚写入的数据
+    private Duration readYourWritesWindow = Duration.ofSeconds(2);
+    //从库不可用时剔除的时长,到期后重新探测
+    private Duration ejectDuration = Duration.ofSeconds(30);
+    //从库健康检查间隔
+    private Duration healthCheckInterval = Duration.ofSeconds(5);
+    //获取从库连接的超时时间,超时即剔除
+    private Duration connectionTimeout = Duration.ofSeconds(1);
+    //从库列表
+    private List<Replica> replicas = new ArrayList<>();
+
+    @Data
+    public static class Replica {
+        private String name;
+        private String url;
+        private String username;
+        private String password;
+        private String driverClassName;
+        private int maximumPoolSize = 10;
+    }
+}
@@ -0,0 +1,22 @@
+package com.kevin.querydsl.dto;
+
+import lombok.Data;
+
+import java.io.Serializable;
+import java.util.List;
+
+/**
+ * kevin<br/>
+ * 2021/3/12 10:30<br/>
+ */
+@Data
+public class DashboardDTO implements Serializable {
+    //学生成绩统计
+    private StudentStatsDTO students;
+    //商品总数
+    private long goodCount;
+    //最高商品价格
+    private Double maxPrice;
+    //商品类型名称
+    private List<String> typeNames;
+}
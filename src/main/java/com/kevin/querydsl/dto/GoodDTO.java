@@ -1,6 +1,8 @@
 package com.kevin.querydsl.dto;
 
+import com.querydsl.core.annotations.QueryProjection;
 import lombok.Data;
+import lombok.NoArgsConstructor;
 
 import java.io.Serializable;
 
@@ -9,6 +11,7 @@ import java.io.Serializable;
  * 2021/2/25 10:25<br/>
  */
 @Data
+@NoArgsConstructor
 public class GoodDTO implements Serializable {
     //主键
     private Long id;
@@ -22,4 +25,18 @@ public class GoodDTO implements Serializable {
     private String typeName;
     //类型编号
     private Long typeId;
+
+    /**
+     * 由JPAAnnotationProcessor生成QGoodDTO,查询时直接按列顺序调用构造函数,
+     * 不用像Projections.bean那样按别名逐个反射调用setter
+     */
+    @QueryProjection
+    public GoodDTO(Long id, String title, String unit, double price, String typeName, Long typeId) {
+        this.id = id;
+        this.title = title;
+        this.unit = unit;
+        this.price = price;
+        this.typeName = typeName;
+        this.typeId = typeId;
+    }
 }
@@ -0,0 +1,21 @@
+package com.kevin.querydsl.dto;
+
+import lombok.Data;
+
+import java.io.Serializable;
+
+/**
+ * kevin<br/>
+ * 2021/3/12 10:30<br/>
+ */
+@Data
+public class StudentStatsDTO implements Serializable {
+    //学生人数
+    private long count;
+    //总分
+    private double sum;
+    //平均分
+    private double avg;
+    //最高分
+    private double max;
+}
@@ -1,6 +1,8 @@
 package com.kevin.querydsl.entity;
 
 import lombok.Data;
+import lombok.EqualsAndHashCode;
+import lombok.ToString;
 
 import javax.persistence.*;
 import java.io.Serializable;
@@ -11,8 +13,15 @@ import java.io.Serializable;
  */
 @Data
 @Entity
-@Table(name = "good_infos")
+@Table(name = "good_infos", indexes = {
+        // 按类型关联并按排序取商品,连接和排序都走这个索引
+        @Index(name = "idx_good_infos_type_order", columnList = "tg_type_id, tg_order")
+})
+@NamedEntityGraph(name = GoodInfoEntity.WITH_TYPE, attributeNodes = @NamedAttributeNode("type"))
 public class GoodInfoEntity implements Serializable {
+    //同时加载所属类型的实体图,用作javax.persistence.fetchgraph提示
+    public static final String WITH_TYPE = "GoodInfoEntity.withType";
+
     //主键
     @Id
     @GeneratedValue
@@ -30,7 +39,15 @@ public class GoodInfoEntity implements Serializable {
     //商品排序
     @Column(name = "tg_order")
     private int order;
-    //类型外键
+    //类型外键,写入时只设置这一列
     @Column(name = "tg_type_id")
     private Long typeId;
+    //所属类型,和typeId共用一列,只读;懒加载,修改typeId后要重新加载才会变化;
+    //不参与toString/equals,避免游离实体上触发加载
+    @ManyToOne(fetch = FetchType.LAZY)
+    @JoinColumn(name = "tg_type_id", insertable = false, updatable = false,
+            foreignKey = @ForeignKey(ConstraintMode.NO_CONSTRAINT))
+    @ToString.Exclude
+    @EqualsAndHashCode.Exclude
+    private GoodTypeEntity type;
 }
@@ -1,6 +1,10 @@
 package com.kevin.querydsl.entity;
 
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 import lombok.Data;
+import org.hibernate.annotations.BatchSize;
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
 
 import javax.persistence.*;
 import java.io.Serializable;
@@ -11,8 +15,21 @@ import java.io.Serializable;
  */
 @Data
 @Entity
-@Table(name = "good_types")
+@Table(name = "good_types", indexes = {
+        @Index(name = "idx_good_types_name", columnList = "tgt_name")
+})
+@Cacheable
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE, region = GoodTypeEntity.CACHE_REGION)
+//商品上未初始化的类型代理,第一次访问时同一个Session里最多50个一起用in查询加载
+@BatchSize(size = 50)
+//作为代理序列化时忽略代理自身的属性
+@JsonIgnoreProperties({"hibernateLazyInitializer", "handler"})
 public class GoodTypeEntity implements Serializable {
+    //二级缓存区域,配置见application.conf
+    public static final String CACHE_REGION = "goodType";
+    //按类型名查询的查询缓存区域
+    public static final String QUERY_CACHE_REGION = "goodTypeQuery";
+
     //主键
     @Id
     @GeneratedValue
@@ -1,6 +1,9 @@
 package com.kevin.querydsl.entity;
 
 import lombok.Data;
+import lombok.EqualsAndHashCode;
+import lombok.ToString;
+import org.hibernate.annotations.LazyGroup;
 
 import javax.persistence.*;
 import java.io.Serializable;
@@ -21,8 +24,18 @@ public class UserEntity implements Serializable {
     private String name;
     @Column(name = "t_age")
     private int age;
+    //地址和密码按需加载(需要字节码增强),分在不同的组,读取其中一个不会带出另一个;
+    //不参与toString/equals,避免游离实体上触发加载
     @Column(name = "t_address")
+    @Basic(fetch = FetchType.LAZY)
+    @LazyGroup("address")
+    @ToString.Exclude
+    @EqualsAndHashCode.Exclude
     private String address;
     @Column(name = "t_pwd")
+    @Basic(fetch = FetchType.LAZY)
+    @LazyGroup("pwd")
+    @ToString.Exclude
+    @EqualsAndHashCode.Exclude
     private String pwd;
 }
@@ -1,9 +1,18 @@
 package com.kevin.querydsl.jpa;
 
+import com.kevin.querydsl.query.KeysetPage;
+import com.kevin.querydsl.query.PredicateBuilder;
+import com.querydsl.core.types.OrderSpecifier;
+import com.querydsl.core.types.Predicate;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.querydsl.QuerydslPredicateExecutor;
 import org.springframework.data.repository.NoRepositoryBean;
 
+import java.util.List;
+import java.util.Map;
+
 /**
  * kevin<br/>
  * 2021/2/23 17:23<br/>
@@ -13,4 +22,61 @@ public interface BaseJPA<T>
         extends JpaRepository<T, Long>,
         QuerydslPredicateExecutor<T> {
 
+    /**
+     * 键集(seek)分页,代替offset分页,深分页的代价和第一页相同
+     *
+     * @param predicate 查询条件,可以为null
+     * @param orders    排序字段,最后一个必须是唯一键,例如QUserEntity.userEntity.id.asc()
+     * @param cursor    上一页返回的游标,第一页传null
+     * @param size      每页大小
+     */
+    KeysetPage<T> findAll(Predicate predicate, List<OrderSpecifier<?>> orders, String cursor, int size);
+
+    /**
+     * 按指定方式获取总数的分页查询,SLICE模式返回Slice,其余模式返回Page
+     *
+     * @param predicate 查询条件,可以为null
+     * @param pageable  分页、排序参数
+     * @param mode      总数的获取方式
+     */
+    Slice<T> findAll(Predicate predicate, Pageable pageable, PageMode mode);
+
+    /**
+     * 分批插入,每批一次往返并清空持久化上下文;IDENTITY主键的实体用多行insert,
+     * 其余实体走JDBC批量,插入后实体处于游离状态<br/>
+     * 多行insert每条最多65535/列数行,超出时一批拆成多条;不触发Hibernate的插入事件,
+     * 通过{@link NonEventWrites}让依赖提交后监听器的统计和索引重建
+     *
+     * @param entities  待插入的实体
+     * @param batchSize 每批行数
+     */
+    BulkInsertResult insertAll(Iterable<T> entities, int batchSize);
+
+    /**
+     * 只更新changes中的字段,一条update语句,不先查询实体;不触发修改事件,会通知{@link NonEventWrites}
+     *
+     * @param id      主键
+     * @param changes 属性名 -> 新值
+     * @return 更新的行数
+     */
+    long patch(Long id, Map<String, ?> changes);
+
+    /**
+     * 只更新DTO中不为null的字段,DTO的属性名需要和实体一致
+     */
+    long patch(Long id, Object changes);
+
+    /**
+     * 批量打补丁,修改字段相同的补丁合并成一个JDBC批执行
+     *
+     * @param patches 主键 -> 属性Map或DTO
+     * @return 更新的行数
+     */
+    long patchAll(Map<Long, ?> patches);
+
+    /**
+     * 动态条件构造器,忽略null条件,按索引选择性排序,
+     * 例如 userJPA.predicateBuilder().eq(q.age, age).contains(q.name, name).execute(p -> userJPA.findAll(p, pageable))
+     */
+    PredicateBuilder<T> predicateBuilder();
 }
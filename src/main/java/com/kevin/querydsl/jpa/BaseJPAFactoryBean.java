@@ -0,0 +1,72 @@
+package com.kevin.querydsl.jpa;
+
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.jpa.repository.query.EscapeCharacter;
+import org.springframework.data.jpa.repository.query.JpaQueryMethodFactory;
+import org.springframework.data.jpa.repository.support.JpaRepositoryFactory;
+import org.springframework.data.jpa.repository.support.JpaRepositoryFactoryBean;
+import org.springframework.data.querydsl.EntityPathResolver;
+import org.springframework.data.querydsl.SimpleEntityPathResolver;
+import org.springframework.data.repository.Repository;
+import org.springframework.data.repository.core.RepositoryMetadata;
+import org.springframework.data.repository.core.support.RepositoryComposition.RepositoryFragments;
+import org.springframework.data.repository.core.support.RepositoryFactorySupport;
+import org.springframework.lang.Nullable;
+
+import javax.persistence.EntityManager;
+
+/**
+ * BaseJPA仓库不挂默认的QuerydslJpaPredicateExecutor片段,QuerydslPredicateExecutor的方法由BaseJPAImpl实现,<br/>
+ * findAll(Predicate, Pageable)等也走ShapeCachingQueryFactory;其他仓库和JpaRepositoryFactoryBean一样<br/>
+ * 通过@EnableJpaRepositories(repositoryFactoryBeanClass)注册<br/>
+ * kevin<br/>
+ * 2021/3/26 10:00<br/>
+ */
+public class BaseJPAFactoryBean<T extends Repository<S, Long>, S> extends JpaRepositoryFactoryBean<T, S, Long> {
+
+    private EntityPathResolver entityPathResolver = SimpleEntityPathResolver.INSTANCE;
+    private EscapeCharacter escapeCharacter = EscapeCharacter.DEFAULT;
+    private JpaQueryMethodFactory queryMethodFactory;
+
+    public BaseJPAFactoryBean(Class<? extends T> repositoryInterface) {
+        super(repositoryInterface);
+    }
+
+    @Override
+    @Autowired
+    public void setEntityPathResolver(ObjectProvider<EntityPathResolver> resolver) {
+        super.setEntityPathResolver(resolver);
+        this.entityPathResolver = resolver.getIfAvailable(() -> SimpleEntityPathResolver.INSTANCE);
+    }
+
+    @Override
+    public void setEscapeCharacter(char escapeCharacter) {
+        super.setEscapeCharacter(escapeCharacter);
+        this.escapeCharacter = EscapeCharacter.of(escapeCharacter);
+    }
+
+    @Override
+    @Autowired
+    public void setQueryMethodFactory(@Nullable JpaQueryMethodFactory queryMethodFactory) {
+        super.setQueryMethodFactory(queryMethodFactory);
+        this.queryMethodFactory = queryMethodFactory;
+    }
+
+    @Override
+    protected RepositoryFactorySupport createRepositoryFactory(EntityManager entityManager) {
+        JpaRepositoryFactory factory = new JpaRepositoryFactory(entityManager) {
+            @Override
+            protected RepositoryFragments getRepositoryFragments(RepositoryMetadata metadata) {
+                return BaseJPA.class.isAssignableFrom(metadata.getRepositoryInterface())
+                        ? RepositoryFragments.empty() : super.getRepositoryFragments(metadata);
+            }
+        };
+        factory.setEntityPathResolver(entityPathResolver);
+        factory.setEscapeCharacter(escapeCharacter);
+        if (queryMethodFactory != null) {
+            factory.setQueryMethodFactory(queryMethodFactory);
+        }
+        return factory;
+    }
+}
@@ -0,0 +1,523 @@
+package com.kevin.querydsl.jpa;
+
+import com.kevin.querydsl.metrics.QueryMetrics;
+import com.kevin.querydsl.query.KeysetPage;
+import com.kevin.querydsl.query.KeysetQueries;
+import com.kevin.querydsl.query.PredicateBuilder;
+import com.kevin.querydsl.query.QueryShapeCache;
+import com.kevin.querydsl.query.ShapeCachingQueryFactory;
+import com.kevin.querydsl.util.JsonUtil;
+import com.querydsl.core.types.EntityPath;
+import com.querydsl.core.types.OrderSpecifier;
+import com.querydsl.core.types.Predicate;
+import com.querydsl.core.types.dsl.PathBuilder;
+import com.querydsl.jpa.HQLTemplates;
+import com.querydsl.jpa.JPQLQuery;
+import com.querydsl.jpa.impl.JPAQuery;
+import com.querydsl.jpa.impl.JPAQueryFactory;
+import com.querydsl.jpa.impl.JPAUpdateClause;
+import org.hibernate.Session;
+import org.hibernate.action.internal.BulkOperationCleanupAction;
+import org.hibernate.engine.spi.SessionImplementor;
+import org.hibernate.id.IdentityGenerator;
+import org.hibernate.persister.entity.AbstractEntityPersister;
+import org.hibernate.type.Type;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
+import org.springframework.data.domain.SliceImpl;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.jpa.repository.support.CrudMethodMetadata;
+import org.springframework.data.jpa.repository.support.JpaEntityInformation;
+import org.springframework.data.jpa.repository.support.Querydsl;
+import org.springframework.data.jpa.repository.support.SimpleJpaRepository;
+import org.springframework.data.querydsl.SimpleEntityPathResolver;
+import org.springframework.data.support.PageableExecutionUtils;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.transaction.annotation.Transactional;
+
+import javax.persistence.EntityManager;
+import javax.persistence.LockModeType;
+import javax.persistence.metamodel.Attribute;
+import javax.persistence.metamodel.SingularAttribute;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeSet;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * BaseJPA扩展方法的实现,通过@EnableJpaRepositories(repositoryBaseClass)注册<br/>
+ * kevin<br/>
+ * 2021/3/1 11:02<br/>
+ */
+@Transactional(readOnly = true)
+public class BaseJPAImpl<T> extends SimpleJpaRepository<T, Long> {
+
+    //并行count使用的线程池,队列满时在调用线程里执行,避免占满连接池
+    private static final ExecutorService COUNT_EXECUTOR = newCountExecutor();
+    //一条预编译语句最多的占位符数(MySQL协议用两个字节表示参数个数)
+    private static final int MAX_PLACEHOLDERS = 65535;
+
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+
+    protected final EntityManager entityManager;
+    protected final JPAQueryFactory queryFactory;
+    protected final EntityPath<T> path;
+    private final PathBuilder<T> pathBuilder;
+    private final String idProperty;
+    private final Querydsl querydsl;
+    private final CountCache countCache = new CountCache(Duration.ofSeconds(30), 1024);
+
+    public BaseJPAImpl(JpaEntityInformation<T, ?> entityInformation, EntityManager entityManager) {
+        super(entityInformation, entityManager);
+        this.entityManager = entityManager;
+        this.queryFactory = new ShapeCachingQueryFactory(HQLTemplates.DEFAULT, entityManager, QueryShapeCache.shared(),
+                QueryMetrics.shared());
+        this.path = SimpleEntityPathResolver.INSTANCE.createPath(entityInformation.getJavaType());
+        this.pathBuilder = new PathBuilder<>(path.getType(), path.getMetadata());
+        this.idProperty = entityInformation.getIdAttribute().getName();
+        this.querydsl = new Querydsl(entityManager, pathBuilder);
+    }
+
+    public KeysetPage<T> findAll(Predicate predicate, List<OrderSpecifier<?>> orders, String cursor, int size) {
+        return KeysetQueries.fetchPage(queryFactory.from(path).where(predicate),
+                path, orders, cursor, size);
+    }
+
+    public Slice<T> findAll(Predicate predicate, Pageable pageable, PageMode mode) {
+        switch (mode) {
+            case SLICE:
+                return findSlice(predicate, pageable);
+            case CACHED_COUNT:
+                return PageableExecutionUtils.getPage(fetchContent(predicate, pageable), pageable,
+                        () -> countCache.get(predicate, () -> fetchCount(queryFactory, predicate)));
+            case PARALLEL_COUNT:
+                return findPageWithParallelCount(predicate, pageable);
+            default:
+                return PageableExecutionUtils.getPage(fetchContent(predicate, pageable), pageable,
+                        () -> fetchCount(queryFactory, predicate));
+        }
+    }
+
+    public PredicateBuilder<T> predicateBuilder() {
+        return new PredicateBuilder<>(path);
+    }
+
+    // 以下是QuerydslPredicateExecutor的实现,BaseJPAFactoryBean不再挂Spring Data默认的QuerydslJpaPredicateExecutor,
+    // 查询都经过ShapeCachingQueryFactory,和直接用jpaQueryFactory一样有查询形状缓存和耗时统计
+
+    public Optional<T> findOne(Predicate predicate) {
+        return Optional.ofNullable(createQuery(predicate).select(path).fetchOne());
+    }
+
+    public List<T> findAll(Predicate predicate) {
+        return createQuery(predicate).select(path).fetch();
+    }
+
+    public List<T> findAll(Predicate predicate, Sort sort) {
+        return querydsl.applySorting(sort, createQuery(predicate).select(path)).fetch();
+    }
+
+    public List<T> findAll(Predicate predicate, OrderSpecifier<?>... orders) {
+        return createQuery(predicate).select(path).orderBy(orders).fetch();
+    }
+
+    public List<T> findAll(OrderSpecifier<?>... orders) {
+        return createQuery().select(path).orderBy(orders).fetch();
+    }
+
+    public Page<T> findAll(Predicate predicate, Pageable pageable) {
+        JPQLQuery<T> query = querydsl.applyPagination(pageable, createQuery(predicate).select(path));
+        return PageableExecutionUtils.getPage(query.fetch(), pageable, () -> createCountQuery(predicate).fetchCount());
+    }
+
+    public long count(Predicate predicate) {
+        return createCountQuery(predicate).fetchCount();
+    }
+
+    public boolean exists(Predicate predicate) {
+        return createQuery(predicate).fetchCount() > 0;
+    }
+
+    /**
+     * 和QuerydslJpaPredicateExecutor一样带上仓库方法上的@QueryHints、@EntityGraph和@Lock
+     */
+    private JPAQuery<?> createQuery(Predicate... predicate) {
+        JPAQuery<?> query = queryFactory.from(path).where(predicate);
+        getQueryHints().withFetchGraphs(entityManager).forEach(query::setHint);
+        CrudMethodMetadata metadata = getRepositoryMethodMetadata();
+        LockModeType lockMode = metadata == null ? null : metadata.getLockModeType();
+        return lockMode == null ? query : query.setLockMode(lockMode);
+    }
+
+    private JPAQuery<?> createCountQuery(Predicate... predicate) {
+        JPAQuery<?> query = queryFactory.from(path).where(predicate);
+        getQueryHints().forEach(query::setHint);
+        return query;
+    }
+
+    // 以下写入会改变分页总数,清空CACHED_COUNT的缓存;saveAll、saveAndFlush、deleteById、deleteAll都经过save/delete
+
+    @Override
+    @Transactional
+    public <S extends T> S save(S entity) {
+        S saved = super.save(entity);
+        countCache.clear();
+        return saved;
+    }
+
+    @Override
+    @Transactional
+    public void delete(T entity) {
+        super.delete(entity);
+        countCache.clear();
+    }
+
+    @Override
+    @Transactional
+    public void deleteInBatch(Iterable<T> entities) {
+        super.deleteInBatch(entities);
+        countCache.clear();
+    }
+
+    @Override
+    @Transactional
+    public void deleteAllInBatch() {
+        super.deleteAllInBatch();
+        countCache.clear();
+    }
+
+    @Transactional
+    public BulkInsertResult insertAll(Iterable<T> entities, int batchSize) {
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException("batchSize必须大于0");
+        }
+        SessionImplementor session = entityManager.unwrap(SessionImplementor.class);
+        AbstractEntityPersister persister = (AbstractEntityPersister) session.getFactory()
+                .getMetamodel().entityPersister(path.getType());
+        long start = System.nanoTime();
+        long rows = 0;
+        long statements = 0;
+        List<T> chunk = new ArrayList<>(batchSize);
+        for (T entity : entities) {
+            chunk.add(entity);
+            if (chunk.size() == batchSize) {
+                rows += chunk.size();
+                statements += insertChunk(session, persister, chunk);
+                chunk.clear();
+            }
+        }
+        if (!chunk.isEmpty()) {
+            rows += chunk.size();
+            statements += insertChunk(session, persister, chunk);
+        }
+        countCache.clear();
+        BulkInsertResult result = new BulkInsertResult(rows, statements, System.nanoTime() - start);
+        logger.info("批量插入[{}]:[{}]行,[{}]次往返,耗时[{}]ms,[{}]行/秒", persister.getTableName(), rows,
+                statements, TimeUnit.NANOSECONDS.toMillis(result.getElapsedNanos()),
+                Math.round(result.rowsPerSecond()));
+        return result;
+    }
+
+    /**
+     * @return 发送到数据库的语句(或JDBC批)数量
+     */
+    private long insertChunk(SessionImplementor session, AbstractEntityPersister persister, List<T> chunk) {
+        if (!(persister.getIdentifierGenerator() instanceof IdentityGenerator)) {
+            // 非IDENTITY主键可以走hibernate.jdbc.batch_size批量,每批flush后清空持久化上下文
+            for (T entity : chunk) {
+                entityManager.persist(entity);
+            }
+            entityManager.flush();
+            entityManager.clear();
+            int perBatch = Math.max(1, session.getFactory().getSessionFactoryOptions().getJdbcBatchSize());
+            return (chunk.size() + perBatch - 1) / perBatch;
+        }
+        // IDENTITY主键会让Hibernate关闭JDBC批量,改为多行insert ... values (...),(...),每条不超过占位符上限
+        // 和patchAll一样,先把待执行的修改刷到数据库,保证执行顺序
+        entityManager.flush();
+        List<String> columns = insertableColumns(persister);
+        int perStatement = Math.max(1, MAX_PLACEHOLDERS / columns.size());
+        long statements = 0;
+        for (int from = 0; from < chunk.size(); from += perStatement) {
+            List<T> rows = chunk.subList(from, Math.min(chunk.size(), from + perStatement));
+            session.doWork(connection -> insertMultiRow(connection, session, persister, columns, rows));
+            statements++;
+        }
+        // 没有经过Hibernate的插入事件,由监听器维护的统计和索引需要重建
+        invalidateCaches(session, persister);
+        return statements;
+    }
+
+    private static List<String> insertableColumns(AbstractEntityPersister persister) {
+        boolean[] insertable = persister.getPropertyInsertability();
+        List<String> columns = new ArrayList<>();
+        for (int i = 0; i < insertable.length; i++) {
+            if (insertable[i]) {
+                Collections.addAll(columns, persister.getPropertyColumnNames(i));
+            }
+        }
+        return columns;
+    }
+
+    private void insertMultiRow(Connection connection, SessionImplementor session, AbstractEntityPersister persister,
+                                List<String> columns, List<T> chunk) throws SQLException {
+        Type[] types = persister.getPropertyTypes();
+        boolean[] insertable = persister.getPropertyInsertability();
+        String row = "(" + String.join(",", Collections.nCopies(columns.size(), "?")) + ")";
+        String sql = "insert into " + persister.getTableName()
+                + " (" + String.join(",", columns) + ") values "
+                + String.join(",", Collections.nCopies(chunk.size(), row));
+
+        try (PreparedStatement statement = connection.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
+            int index = 1;
+            for (T entity : chunk) {
+                Object[] values = persister.getPropertyValues(entity);
+                for (int i = 0; i < types.length; i++) {
+                    if (insertable[i]) {
+                        types[i].nullSafeSet(statement, values[i], index, session);
+                        index += types[i].getColumnSpan(session.getFactory());
+                    }
+                }
+            }
+            statement.executeUpdate();
+            // 回填自增主键,插入的实体不会进入持久化上下文
+            try (ResultSet keys = statement.getGeneratedKeys()) {
+                for (T entity : chunk) {
+                    if (!keys.next()) {
+                        break;
+                    }
+                    persister.setIdentifier(entity, keys.getLong(1), session);
+                }
+            }
+        }
+    }
+
+    @Transactional
+    public long patch(Long id, Map<String, ?> changes) {
+        if (changes.isEmpty()) {
+            return 0;
+        }
+        // 只更新传入的列,不先查询实体;注意已加载到当前持久化上下文的实体不会同步
+        JPAUpdateClause update = queryFactory.update(path);
+        for (Map.Entry<String, ?> change : changes.entrySet()) {
+            Attribute<?, ?> attribute = patchableAttribute(change.getKey());
+            update.set(pathBuilder.get(change.getKey()),
+                    JsonUtil.convert(change.getValue(), attribute.getJavaType()));
+        }
+        long updated = update.where(pathBuilder.get(idProperty, Long.class).eq(id)).execute();
+        // 批量update由Hibernate清理二级缓存,但不会触发修改事件
+        NonEventWrites.written(path.getType());
+        countCache.clear();
+        return updated;
+    }
+
+    @Transactional
+    public long patch(Long id, Object changes) {
+        return patch(id, nonNullProperties(changes));
+    }
+
+    @Transactional
+    public long patchAll(Map<Long, ?> patches) {
+        // 修改字段相同的补丁放在同一个JDBC批里
+        Map<TreeSet<String>, Map<Long, Map<String, ?>>> shapes = new LinkedHashMap<>();
+        for (Map.Entry<Long, ?> patch : patches.entrySet()) {
+            Map<String, ?> changes = patch.getValue() instanceof Map
+                    ? castMap(patch.getValue()) : nonNullProperties(patch.getValue());
+            if (!changes.isEmpty()) {
+                shapes.computeIfAbsent(new TreeSet<>(changes.keySet()), shape -> new LinkedHashMap<>())
+                        .put(patch.getKey(), changes);
+            }
+        }
+        if (shapes.isEmpty()) {
+            return 0;
+        }
+        // 先把待执行的修改刷到数据库,保证执行顺序
+        entityManager.flush();
+        SessionImplementor session = entityManager.unwrap(SessionImplementor.class);
+        AbstractEntityPersister persister = (AbstractEntityPersister) session.getFactory()
+                .getMetamodel().entityPersister(path.getType());
+        long[] updated = new long[1];
+        for (Map.Entry<TreeSet<String>, Map<Long, Map<String, ?>>> shape : shapes.entrySet()) {
+            session.doWork(connection ->
+                    updated[0] += updateBatch(connection, session, persister, shape.getKey(), shape.getValue()));
+        }
+        invalidateCaches(session, persister);
+        countCache.clear();
+        return updated[0];
+    }
+
+    /**
+     * 直接走JDBC的修改绕过了Hibernate,需要和QueryDSL的update/delete一样
+     * 在事务结束时清掉二级缓存中的实体和相关的查询缓存;也不会触发提交后的监听器,通知{@link NonEventWrites}
+     */
+    private static void invalidateCaches(SessionImplementor session, AbstractEntityPersister persister) {
+        session.getActionQueue().addAction(new BulkOperationCleanupAction(session, persister));
+        NonEventWrites.written(persister.getMappedClass());
+    }
+
+    private long updateBatch(Connection connection, SessionImplementor session, AbstractEntityPersister persister,
+                             TreeSet<String> properties, Map<Long, Map<String, ?>> patches) throws SQLException {
+        List<String> assignments = new ArrayList<>();
+        List<Type> types = new ArrayList<>();
+        List<Class<?>> javaTypes = new ArrayList<>();
+        for (String property : properties) {
+            Attribute<?, ?> attribute = patchableAttribute(property);
+            for (String column : persister.getPropertyColumnNames(property)) {
+                assignments.add(column + "=?");
+            }
+            types.add(persister.getPropertyType(property));
+            javaTypes.add(attribute.getJavaType());
+        }
+        String sql = "update " + persister.getTableName() + " set " + String.join(",", assignments)
+                + " where " + persister.getIdentifierColumnNames()[0] + "=?";
+
+        try (PreparedStatement statement = connection.prepareStatement(sql)) {
+            for (Map.Entry<Long, Map<String, ?>> patch : patches.entrySet()) {
+                int index = 1;
+                int i = 0;
+                for (String property : properties) {
+                    Object value = JsonUtil.convert(patch.getValue().get(property), javaTypes.get(i));
+                    types.get(i).nullSafeSet(statement, value, index, session);
+                    index += types.get(i).getColumnSpan(session.getFactory());
+                    i++;
+                }
+                persister.getIdentifierType().nullSafeSet(statement, patch.getKey(), index, session);
+                statement.addBatch();
+            }
+            long updated = 0;
+            for (int count : statement.executeBatch()) {
+                // 驱动可能返回SUCCESS_NO_INFO(-2)
+                updated += Math.max(count, 0);
+            }
+            return updated;
+        }
+    }
+
+    private Attribute<?, ?> patchableAttribute(String property) {
+        Attribute<?, ?> attribute = entityManager.getMetamodel().entity(path.getType()).getAttribute(property);
+        if (attribute instanceof SingularAttribute && ((SingularAttribute<?, ?>) attribute).isId()) {
+            throw new IllegalArgumentException("不能修改主键: " + property);
+        }
+        if (attribute.isAssociation() || attribute.isCollection()) {
+            throw new IllegalArgumentException("只能修改基本类型字段: " + property);
+        }
+        return attribute;
+    }
+
+    /**
+     * DTO中不为null的属性作为要修改的字段,DTO里的基本类型字段总会被包含,应使用包装类型
+     */
+    private static Map<String, Object> nonNullProperties(Object changes) {
+        Map<String, Object> properties = castMap(JsonUtil.convert(changes, Map.class));
+        properties.values().removeIf(value -> value == null);
+        return properties;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> castMap(Object map) {
+        return (Map<String, Object>) map;
+    }
+
+    private Slice<T> findSlice(Predicate predicate, Pageable pageable) {
+        JPQLQuery<T> query = querydsl.applySorting(pageable.getSort(),
+                queryFactory.selectFrom(path).where(predicate));
+        if (pageable.isUnpaged()) {
+            return new SliceImpl<>(query.fetch(), pageable, false);
+        }
+        // 多取一行判断是否还有下一页
+        List<T> rows = query.offset(pageable.getOffset())
+                .limit(pageable.getPageSize() + 1L)
+                .fetch();
+        boolean hasNext = rows.size() > pageable.getPageSize();
+        return new SliceImpl<>(hasNext ? rows.subList(0, pageable.getPageSize()) : rows, pageable, hasNext);
+    }
+
+    private Slice<T> findPageWithParallelCount(Predicate predicate, Pageable pageable) {
+        // count在独立的EntityManager(独立连接)上执行,和内容查询互不阻塞
+        EntityManager countEntityManager = entityManager.getEntityManagerFactory().createEntityManager();
+        AtomicBoolean abandoned = new AtomicBoolean();
+        Future<Long> total;
+        try {
+            total = COUNT_EXECUTOR.submit(() -> {
+                try {
+                    return abandoned.get() ? 0L : fetchCount(new ShapeCachingQueryFactory(HQLTemplates.DEFAULT,
+                            countEntityManager, QueryShapeCache.shared(), QueryMetrics.shared()), predicate);
+                } finally {
+                    countEntityManager.close();
+                }
+            });
+        } catch (RuntimeException e) {
+            countEntityManager.close();
+            throw e;
+        }
+        try {
+            return PageableExecutionUtils.getPage(fetchContent(predicate, pageable), pageable,
+                    () -> await(total));
+        } finally {
+            // 第一页或最后一页可以直接算出总数,不再需要count的结果:还没开始的不再执行,正在执行的取消语句,释放连接
+            abandoned.set(true);
+            if (total.cancel(false)) {
+                countEntityManager.close();
+            } else if (!total.isDone()) {
+                cancelCount(countEntityManager);
+            }
+        }
+    }
+
+    private void cancelCount(EntityManager countEntityManager) {
+        try {
+            countEntityManager.unwrap(Session.class).cancelQuery();
+        } catch (RuntimeException e) {
+            // count刚好结束,EntityManager已经关闭
+            logger.debug("取消count查询失败: {}", e.getMessage());
+        }
+    }
+
+    private List<T> fetchContent(Predicate predicate, Pageable pageable) {
+        return querydsl.applyPagination(pageable, queryFactory.selectFrom(path).where(predicate)).fetch();
+    }
+
+    private long fetchCount(JPAQueryFactory factory, Predicate predicate) {
+        return factory.selectFrom(path).where(predicate).fetchCount();
+    }
+
+    private static long await(Future<Long> total) {
+        try {
+            return total.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("等待count结果时被中断", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException("count查询失败", e.getCause());
+        }
+    }
+
+    private static ExecutorService newCountExecutor() {
+        CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("page-count-");
+        threadFactory.setDaemon(true);
+        return new ThreadPoolExecutor(2, 4, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(64), threadFactory, new ThreadPoolExecutor.CallerRunsPolicy());
+    }
+}
@@ -0,0 +1,24 @@
+package com.kevin.querydsl.jpa;
+
+import lombok.Data;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 批量插入的统计结果<br/>
+ * kevin<br/>
+ * 2021/3/8 15:20<br/>
+ */
+@Data
+public class BulkInsertResult {
+    //插入行数
+    private final long rows;
+    //发送到数据库的insert语句(或JDBC批)数量
+    private final long statements;
+    //耗时,纳秒
+    private final long elapsedNanos;
+
+    public double rowsPerSecond() {
+        return elapsedNanos == 0 ? rows : rows * (double) TimeUnit.SECONDS.toNanos(1) / elapsedNanos;
+    }
+}
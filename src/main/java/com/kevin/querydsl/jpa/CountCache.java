@@ -0,0 +1,92 @@
+package com.kevin.querydsl.jpa;
+
+import com.querydsl.core.types.Expression;
+import com.querydsl.core.types.ExpressionUtils;
+import com.querydsl.core.types.Operation;
+import com.querydsl.core.types.Ops;
+import com.querydsl.core.types.Predicate;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.LongSupplier;
+
+/**
+ * 分页总数的短时缓存,key为规范化后的查询条件<br/>
+ * kevin<br/>
+ * 2021/3/2 10:05<br/>
+ */
+class CountCache {
+
+    private final long ttlNanos;
+    private final int maxSize;
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+
+    CountCache(Duration ttl, int maxSize) {
+        this.ttlNanos = ttl.toNanos();
+        this.maxSize = maxSize;
+    }
+
+    long get(Predicate predicate, LongSupplier counter) {
+        String key = normalize(predicate);
+        long now = System.nanoTime();
+        Entry entry = entries.get(key);
+        if (entry != null && now - entry.loadedAt < ttlNanos) {
+            return entry.total;
+        }
+        long total = counter.getAsLong();
+        if (entries.size() >= maxSize) {
+            evict(now);
+        }
+        entries.put(key, new Entry(total, now));
+        return total;
+    }
+
+    void clear() {
+        entries.clear();
+    }
+
+    private void evict(long now) {
+        entries.values().removeIf(entry -> now - entry.loadedAt >= ttlNanos);
+        if (entries.size() >= maxSize) {
+            entries.clear();
+        }
+    }
+
+    /**
+     * 展开顶层的and并排序,使 a and b 和 b and a 命中同一个缓存
+     */
+    static String normalize(Predicate predicate) {
+        if (predicate == null) {
+            return "";
+        }
+        List<String> conjuncts = new ArrayList<>();
+        collect(predicate, conjuncts);
+        Collections.sort(conjuncts);
+        return String.join(" && ", conjuncts);
+    }
+
+    private static void collect(Expression<?> expression, List<String> conjuncts) {
+        Expression<?> extracted = ExpressionUtils.extract(expression);
+        if (extracted instanceof Operation && ((Operation<?>) extracted).getOperator() == Ops.AND) {
+            for (Expression<?> arg : ((Operation<?>) extracted).getArgs()) {
+                collect(arg, conjuncts);
+            }
+        } else {
+            conjuncts.add(extracted.toString());
+        }
+    }
+
+    private static class Entry {
+        private final long total;
+        private final long loadedAt;
+
+        private Entry(long total, long loadedAt) {
+            this.total = total;
+            this.loadedAt = loadedAt;
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package com.kevin.querydsl.jpa;
+
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+/**
+ * 不触发Hibernate事件的写入的通知:BaseJPA的insertAll/patch/patchAll、QueryDSL的批量update/delete等<br/>
+ * 由提交后监听器同步的内存结构(价格统计、n-gram索引、学生快照)在这里登记,收到通知后标记为过期,下次使用时重建<br/>
+ * 写入时通知一次,写入所在的事务结束时再通知一次:两次之间的重建读不到未提交的修改,提交后仍然需要重建<br/>
+ * BaseJPAImpl不是Spring管理的bean,和QueryMetrics.shared()一样使用进程内共享的登记表<br/>
+ * kevin<br/>
+ * 2021/3/25 14:00<br/>
+ */
+public final class NonEventWrites {
+
+    private static final List<Consumer<Class<?>>> LISTENERS = new CopyOnWriteArrayList<>();
+
+    private NonEventWrites() {
+    }
+
+    /**
+     * @param listener 参数是写入的实体类型
+     */
+    public static void register(Consumer<Class<?>> listener) {
+        LISTENERS.add(listener);
+    }
+
+    public static void unregister(Consumer<Class<?>> listener) {
+        LISTENERS.remove(listener);
+    }
+
+    /**
+     * 实体类型的表被绕过Hibernate事件修改了
+     */
+    public static void written(Class<?> entityType) {
+        publish(entityType);
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCompletion(int status) {
+                    publish(entityType);
+                }
+            });
+        }
+    }
+
+    private static void publish(Class<?> entityType) {
+        for (Consumer<Class<?>> listener : LISTENERS) {
+            listener.accept(entityType);
+        }
+    }
+}
@@ -0,0 +1,18 @@
+package com.kevin.querydsl.jpa;
+
+/**
+ * 分页时总数的获取方式<br/>
+ * kevin<br/>
+ * 2021/3/2 9:40<br/>
+ */
+public enum PageMode {
+    //不查总数,多取一行判断是否有下一页,返回Slice
+    SLICE,
+    //和findAll(Predicate, Pageable)一样,内容查询后同步count
+    EXACT_COUNT,
+    //总数从短时缓存(30秒)中取,缓存按规范化后的查询条件区分;通过当前仓库save/delete/insertAll/patch/patchAll
+    //写入时清空,其他途径(JPQL/QueryDSL的update/delete、其他实例、原生SQL)的写入在过期前看不到
+    CACHED_COUNT,
+    //count在另一个连接上和内容查询并行执行,看不到当前事务中未提交的修改
+    PARALLEL_COUNT
+}
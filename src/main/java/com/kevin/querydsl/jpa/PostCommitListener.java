@@ -0,0 +1,76 @@
+package com.kevin.querydsl.jpa;
+
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.event.service.spi.EventListenerRegistry;
+import org.hibernate.event.spi.EventType;
+import org.hibernate.event.spi.PostCommitDeleteEventListener;
+import org.hibernate.event.spi.PostCommitInsertEventListener;
+import org.hibernate.event.spi.PostCommitUpdateEventListener;
+import org.hibernate.event.spi.PostDeleteEvent;
+import org.hibernate.event.spi.PostInsertEvent;
+import org.hibernate.event.spi.PostUpdateEvent;
+import org.hibernate.persister.entity.EntityPersister;
+
+import javax.annotation.PostConstruct;
+import javax.persistence.EntityManagerFactory;
+import java.util.Arrays;
+
+/**
+ * 事务提交后同步内存结构的Hibernate监听器基类:注册插入、修改、删除三种提交后事件,回滚的修改直接忽略<br/>
+ * 子类只需要实现onPostInsert/onPostUpdate/onPostDelete和requiresPostCommitHandling<br/>
+ * kevin<br/>
+ * 2021/3/15 10:00<br/>
+ */
+public abstract class PostCommitListener implements PostCommitInsertEventListener,
+        PostCommitUpdateEventListener, PostCommitDeleteEventListener {
+
+    private final transient EntityManagerFactory entityManagerFactory;
+
+    protected PostCommitListener(EntityManagerFactory entityManagerFactory) {
+        this.entityManagerFactory = entityManagerFactory;
+    }
+
+    @PostConstruct
+    public void register() {
+        EventListenerRegistry registry = entityManagerFactory.unwrap(SessionFactoryImplementor.class)
+                .getServiceRegistry()
+                .getService(EventListenerRegistry.class);
+        registry.appendListeners(EventType.POST_COMMIT_INSERT, this);
+        registry.appendListeners(EventType.POST_COMMIT_UPDATE, this);
+        registry.appendListeners(EventType.POST_COMMIT_DELETE, this);
+    }
+
+    @Override
+    public void onPostInsertCommitFailed(PostInsertEvent event) {
+        // 未提交,不需要同步
+    }
+
+    @Override
+    public void onPostUpdateCommitFailed(PostUpdateEvent event) {
+        // 未提交,不需要同步
+    }
+
+    @Override
+    public void onPostDeleteCommitFailed(PostDeleteEvent event) {
+        // 未提交,不需要同步
+    }
+
+    /**
+     * @return 这个实体的修改是否需要在提交后通知
+     */
+    @Override
+    public abstract boolean requiresPostCommitHandling(EntityPersister persister);
+
+    /**
+     * Hibernate 5.4里仍是抽象方法,拼写错误的旧名字,统一转给requiresPostCommitHandling
+     */
+    @Deprecated
+    @Override
+    public final boolean requiresPostCommitHanding(EntityPersister persister) {
+        return requiresPostCommitHandling(persister);
+    }
+
+    protected static int index(EntityPersister persister, String property) {
+        return Arrays.asList(persister.getPropertyNames()).indexOf(property);
+    }
+}
@@ -0,0 +1,171 @@
+package com.kevin.querydsl.metrics;
+
+import org.springframework.jdbc.datasource.DelegatingDataSource;
+
+import javax.sql.DataSource;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 统计每条JDBC语句的耗时、读取的行数和获取连接的等待时间,结果交给{@link QueryMetrics}<br/>
+ * 只代理Connection、Statement和ResultSet,unwrap仍然可以拿到连接池<br/>
+ * kevin<br/>
+ * 2021/3/17 10:00<br/>
+ */
+public class MeteredDataSource extends DelegatingDataSource {
+
+    private final QueryMetrics metrics;
+
+    public MeteredDataSource(DataSource targetDataSource, QueryMetrics metrics) {
+        super(targetDataSource);
+        this.metrics = metrics;
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        long start = System.nanoTime();
+        Connection connection = super.getConnection();
+        metrics.connectionAcquired(System.nanoTime() - start);
+        return wrap(connection);
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        long start = System.nanoTime();
+        Connection connection = super.getConnection(username, password);
+        metrics.connectionAcquired(System.nanoTime() - start);
+        return wrap(connection);
+    }
+
+    private Connection wrap(Connection connection) {
+        return proxy(Connection.class, new ConnectionHandler(connection));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T proxy(Class<T> type, InvocationHandler handler) {
+        return (T) Proxy.newProxyInstance(MeteredDataSource.class.getClassLoader(), new Class<?>[]{type}, handler);
+    }
+
+    private static Object invoke(Object target, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getTargetException();
+        }
+    }
+
+    private class ConnectionHandler implements InvocationHandler {
+        private final Connection target;
+
+        private ConnectionHandler(Connection target) {
+            this.target = target;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "prepareStatement":
+                case "prepareCall":
+                case "createStatement":
+                    Statement statement = (Statement) MeteredDataSource.invoke(target, method, args);
+                    String sql = "createStatement".equals(method.getName()) ? null : (String) args[0];
+                    return proxy(method.getReturnType(), new StatementHandler(statement, sql));
+                default:
+                    return MeteredDataSource.invoke(target, method, args);
+            }
+        }
+    }
+
+    private class StatementHandler implements InvocationHandler {
+        private final Statement target;
+        private final String sql;
+        //按占位符顺序记录的参数,慢查询日志使用
+        private final List<Object> parameters = new ArrayList<>();
+
+        private StatementHandler(Statement target, String sql) {
+            this.target = target;
+            this.sql = sql;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            if (name.startsWith("execute")) {
+                String executed = args != null && args.length > 0 && args[0] instanceof String ? (String) args[0] : sql;
+                long start = System.nanoTime();
+                Object result = MeteredDataSource.invoke(target, method, args);
+                metrics.statementExecuted(executed, parameters, System.nanoTime() - start);
+                return result instanceof ResultSet ? wrapResultSet((ResultSet) result, executed) : result;
+            }
+            if (name.startsWith("set") && args != null && args.length >= 2 && args[0] instanceof Integer) {
+                int index = (Integer) args[0] - 1;
+                while (parameters.size() <= index) {
+                    parameters.add(null);
+                }
+                parameters.set(index, "setNull".equals(name) ? null : args[1]);
+            } else if ("clearParameters".equals(name)) {
+                parameters.clear();
+            } else if ("getResultSet".equals(name)) {
+                ResultSet resultSet = (ResultSet) MeteredDataSource.invoke(target, method, args);
+                return resultSet == null ? null : wrapResultSet(resultSet, sql);
+            } else if ("equals".equals(name)) {
+                return proxy == args[0];
+            } else if ("hashCode".equals(name)) {
+                return System.identityHashCode(proxy);
+            }
+            return MeteredDataSource.invoke(target, method, args);
+        }
+
+        private ResultSet wrapResultSet(ResultSet resultSet, String executed) {
+            return proxy(ResultSet.class, new ResultSetHandler(resultSet, executed));
+        }
+    }
+
+    private class ResultSetHandler implements InvocationHandler {
+        private final ResultSet target;
+        private final String sql;
+        private long rows;
+        private boolean closed;
+
+        private ResultSetHandler(ResultSet target, String sql) {
+            this.target = target;
+            this.sql = sql;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "next":
+                    Object next = MeteredDataSource.invoke(target, method, args);
+                    if (Boolean.TRUE.equals(next)) {
+                        rows++;
+                    }
+                    return next;
+                case "close":
+                    if (!closed && sql != null) {
+                        metrics.rowsRead(sql, rows);
+                    }
+                    closed = true;
+                    return MeteredDataSource.invoke(target, method, args);
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                default:
+                    return MeteredDataSource.invoke(target, method, args);
+            }
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package com.kevin.querydsl.metrics;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 查询指纹:把JPQL/SQL中的字面量、参数序号和in列表长度抹掉,同形状的查询得到同一个字符串<br/>
+ * 另外负责找出SQL中哪些占位符对应需要隐藏的列<br/>
+ * kevin<br/>
+ * 2021/3/17 10:00<br/>
+ */
+public final class QueryFingerprint {
+
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+    private static final Pattern STRING_LITERAL = Pattern.compile("'(?:[^']|'')*'");
+    private static final Pattern ORDINAL_PARAM = Pattern.compile("\\?\\d+|:\\w+");
+    private static final Pattern NUMBER_LITERAL = Pattern.compile("\\b\\d+(?:\\.\\d+)?\\b");
+    private static final Pattern IN_LIST = Pattern.compile("(?i)\\bin\\s*\\(\\s*\\?(?:\\s*,\\s*\\?)*\\s*\\)");
+
+    private static final Pattern INSERT = Pattern.compile("(?is)^\\s*insert\\s+into\\s+\\S+\\s*\\(([^)]*)\\)\\s*values\\s*\\(");
+    private static final Pattern COMPARED_COLUMN = Pattern.compile(
+            "(?i)([\\w.]+)\\s*(?:=|<>|!=|<=|>=|<|>|\\blike|\\bin\\s*\\((?:\\s*\\?\\s*,)*)\\s*$");
+
+    private QueryFingerprint() {
+    }
+
+    public static String of(String query) {
+        String s = WHITESPACE.matcher(query.trim()).replaceAll(" ");
+        s = STRING_LITERAL.matcher(s).replaceAll("?");
+        s = ORDINAL_PARAM.matcher(s).replaceAll("?");
+        s = NUMBER_LITERAL.matcher(s).replaceAll("?");
+        return IN_LIST.matcher(s).replaceAll("in (?)");
+    }
+
+    /**
+     * 第i个占位符对应的列在maskedColumns中时,结果的第i位为true<br/>
+     * insert的values可以有多组,每组里按逗号的位置对应到列名
+     */
+    public static List<Boolean> maskedParameters(String sql, Set<String> maskedColumns) {
+        if (maskedColumns.isEmpty()) {
+            return Collections.emptyList();
+        }
+        List<Boolean> masked = new ArrayList<>();
+        List<Boolean> insertColumns = new ArrayList<>();
+        Matcher insert = INSERT.matcher(sql);
+        // values的第一个左括号,不是insert时为-1
+        int values = -1;
+        if (insert.find()) {
+            for (String column : insert.group(1).split(",")) {
+                insertColumns.add(isMasked(column.trim(), maskedColumns));
+            }
+            values = insert.end() - 1;
+        }
+        boolean quoted = false;
+        // values中当前所在的括号层数和这一组的第几列
+        int depth = 0;
+        int column = 0;
+        for (int i = 0; i < sql.length(); i++) {
+            char c = sql.charAt(i);
+            if (values >= 0 && i >= values && depth == 0 && !quoted
+                    && c != '(' && c != ',' && !Character.isWhitespace(c)) {
+                // values之后的部分(例如on duplicate key update)按比较条件处理
+                values = -1;
+            }
+            if (c == '\'') {
+                quoted = !quoted;
+            } else if (quoted) {
+                continue;
+            } else if (values >= 0 && i >= values && (c == '(' || c == ')' || c == ',')) {
+                if (c == '(' && depth++ == 0) {
+                    column = 0;
+                } else if (c == ')') {
+                    depth--;
+                } else if (c == ',' && depth == 1) {
+                    column++;
+                }
+            } else if (c == '?') {
+                if (depth > 0) {
+                    masked.add(column < insertColumns.size() && insertColumns.get(column));
+                } else {
+                    Matcher compared = COMPARED_COLUMN.matcher(sql.substring(Math.max(0, i - 128), i));
+                    masked.add(compared.find() && isMasked(compared.group(1), maskedColumns));
+                }
+            }
+        }
+        return masked;
+    }
+
+    private static boolean isMasked(String column, Set<String> maskedColumns) {
+        String name = column.substring(column.lastIndexOf('.') + 1).toLowerCase(Locale.ROOT);
+        return maskedColumns.contains(name);
+    }
+}
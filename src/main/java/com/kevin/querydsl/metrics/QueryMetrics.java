@@ -0,0 +1,294 @@
+package com.kevin.querydsl.metrics;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.distribution.ValueAtPercentile;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.util.DigestUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.function.ToIntFunction;
+import java.util.stream.Collectors;
+
+/**
+ * 按查询指纹统计耗时,代替show_sql<br/>
+ * 1. JPQL:JPAQueryFactory创建的查询每次fetch记录耗时、返回行数、期间执行的JDBC语句数和等待连接的时间<br/>
+ * 2. SQL:{@link MeteredDataSource}记录每条JDBC语句的耗时和读取的行数,BaseJPA的save/delete等也在这里<br/>
+ * 指标为querydsl.query(耗时直方图)、querydsl.query.rows、querydsl.query.statements、querydsl.query.connection.wait,
+ * 标签kind=jpql/sql、shape=指纹的摘要;超过阈值的查询写入慢查询日志(logger名com.kevin.querydsl.SlowQuery),
+ * 参数中配置的列(如t_pwd)显示为******<br/>
+ * kevin<br/>
+ * 2021/3/17 10:00<br/>
+ */
+public class QueryMetrics {
+
+    public static final String KIND_JPQL = "jpql";
+    public static final String KIND_SQL = "sql";
+
+    private static final Logger slowLog = LoggerFactory.getLogger("com.kevin.querydsl.SlowQuery");
+    private static final String MASK = "******";
+    private static final int MAX_VALUE_LENGTH = 100;
+
+    private static final QueryMetrics SHARED = new QueryMetrics(Metrics.globalRegistry);
+
+    //当前线程正在统计的JPQL查询
+    private static final ThreadLocal<Scope> SCOPE = new ThreadLocal<>();
+
+    private final MeterRegistry registry;
+    //指纹 -> 统计
+    private final ConcurrentMap<String, Shape> shapes = new ConcurrentHashMap<>();
+    //原始JPQL/SQL -> 统计,省掉每次查询的正则处理
+    private final ConcurrentMap<String, Shape> jpqlShapes = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Shape> sqlShapes = new ConcurrentHashMap<>();
+
+    private volatile boolean enabled = true;
+    private volatile long slowNanos = TimeUnit.MILLISECONDS.toNanos(200);
+    private volatile Set<String> maskedColumns = Collections.singleton("t_pwd");
+    private volatile int maxShapes = 1000;
+    private volatile int topN = 10;
+
+    public QueryMetrics(MeterRegistry registry) {
+        this.registry = registry;
+    }
+
+    /**
+     * 全局共享的实例,注册在Metrics.globalRegistry上,Spring Boot会把actuator的registry加进来
+     */
+    public static QueryMetrics shared() {
+        return SHARED;
+    }
+
+    public void configure(QueryMetricsProperties properties) {
+        this.enabled = properties.isEnabled();
+        this.slowNanos = properties.getSlowQueryThreshold().toNanos();
+        this.maskedColumns = properties.getMaskedColumns().stream()
+                .map(column -> column.toLowerCase(Locale.ROOT))
+                .collect(Collectors.toSet());
+        this.maxShapes = properties.getMaxShapes();
+        this.topN = properties.getTopN();
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * 执行一次JPQL查询并记录
+     *
+     * @param query 查询执行后取JPQL,返回null时不记录
+     * @param call  执行查询
+     * @param rows  结果的行数
+     */
+    public <R> R timeQuery(Supplier<String> query, Supplier<R> call, ToIntFunction<R> rows) {
+        if (!enabled) {
+            return call.get();
+        }
+        Scope outer = SCOPE.get();
+        Scope scope = new Scope();
+        SCOPE.set(scope);
+        long start = System.nanoTime();
+        R result = null;
+        try {
+            result = call.get();
+            return result;
+        } finally {
+            long elapsed = System.nanoTime() - start;
+            if (outer == null) {
+                SCOPE.remove();
+            } else {
+                SCOPE.set(outer);
+                outer.statements += scope.statements;
+                outer.connectionWaitNanos += scope.connectionWaitNanos;
+            }
+            String jpql = query.get();
+            if (jpql != null) {
+                int count = result == null ? 0 : rows.applyAsInt(result);
+                Shape shape = shape(jpqlShapes, KIND_JPQL, jpql);
+                shape.timer.record(elapsed, TimeUnit.NANOSECONDS);
+                shape.rows.record(count);
+                shape.statements.record(scope.statements);
+                shape.connectionWait.record(scope.connectionWaitNanos, TimeUnit.NANOSECONDS);
+                if (elapsed >= slowNanos) {
+                    slowLog.warn("慢查询:[{}]ms,行数:[{}],语句数:[{}],等待连接:[{}]ms,JPQL:[{}]",
+                            TimeUnit.NANOSECONDS.toMillis(elapsed), count, scope.statements,
+                            TimeUnit.NANOSECONDS.toMillis(scope.connectionWaitNanos), jpql);
+                }
+            }
+        }
+    }
+
+    void connectionAcquired(long nanos) {
+        Scope scope = SCOPE.get();
+        if (scope != null) {
+            scope.connectionWaitNanos += nanos;
+        }
+    }
+
+    void statementExecuted(String sql, List<Object> parameters, long nanos) {
+        Scope scope = SCOPE.get();
+        if (scope != null) {
+            scope.statements++;
+        }
+        shape(sqlShapes, KIND_SQL, sql).timer.record(nanos, TimeUnit.NANOSECONDS);
+        if (nanos >= slowNanos) {
+            slowLog.warn("慢SQL:[{}]ms,SQL:[{}],参数:[{}]",
+                    TimeUnit.NANOSECONDS.toMillis(nanos), sql, describe(sql, parameters));
+        }
+    }
+
+    void rowsRead(String sql, long rows) {
+        shape(sqlShapes, KIND_SQL, sql).rows.record(rows);
+    }
+
+    /**
+     * 总耗时最多的查询形状
+     *
+     * @param limit 为null时使用配置的topN
+     * @param kind  jpql/sql,为null时不区分
+     */
+    public List<Map<String, Object>> top(Integer limit, String kind) {
+        return shapes.values().stream()
+                .filter(shape -> kind == null || shape.kind.equalsIgnoreCase(kind))
+                .sorted(Comparator.comparingDouble((Shape shape) -> shape.timer.totalTime(TimeUnit.NANOSECONDS))
+                        .reversed())
+                .limit(limit == null ? topN : limit)
+                .map(Shape::describe)
+                .collect(Collectors.toList());
+    }
+
+    public int size() {
+        return shapes.size();
+    }
+
+    private Shape shape(ConcurrentMap<String, Shape> raw, String kind, String query) {
+        Shape shape = raw.get(query);
+        if (shape == null) {
+            shape = fingerprintShape(kind, query);
+            if (raw.size() < maxShapes * 4) {
+                raw.putIfAbsent(query, shape);
+            }
+        }
+        return shape;
+    }
+
+    private Shape fingerprintShape(String kind, String query) {
+        String fingerprint = QueryFingerprint.of(query);
+        String key = kind + ':' + fingerprint;
+        Shape shape = shapes.get(key);
+        if (shape != null) {
+            return shape;
+        }
+        if (shapes.size() >= maxShapes) {
+            // 形状过多时多半是拼接了字面量,归到一起,避免指标无限增长
+            return shapes.computeIfAbsent(kind + ":other", k -> new Shape(registry, kind, "other", "other"));
+        }
+        String id = DigestUtils.md5DigestAsHex(fingerprint.getBytes(StandardCharsets.UTF_8)).substring(0, 12);
+        return shapes.computeIfAbsent(key, k -> new Shape(registry, kind, id, fingerprint));
+    }
+
+    private String describe(String sql, List<Object> parameters) {
+        List<Boolean> masked = QueryFingerprint.maskedParameters(sql, maskedColumns);
+        List<String> values = new ArrayList<>(parameters.size());
+        for (int i = 0; i < parameters.size(); i++) {
+            if (i < masked.size() && masked.get(i)) {
+                values.add(MASK);
+                continue;
+            }
+            Object value = parameters.get(i);
+            String text;
+            if (value instanceof byte[]) {
+                text = "<" + ((byte[]) value).length + " bytes>";
+            } else if (value instanceof CharSequence) {
+                text = "'" + value + "'";
+            } else {
+                text = String.valueOf(value);
+            }
+            values.add(text.length() > MAX_VALUE_LENGTH ? text.substring(0, MAX_VALUE_LENGTH) + "..." : text);
+        }
+        return String.join(", ", values);
+    }
+
+    /**
+     * 一次JPQL查询期间的JDBC活动
+     */
+    private static class Scope {
+        private int statements;
+        private long connectionWaitNanos;
+    }
+
+    private static class Shape {
+        private final String kind;
+        private final String id;
+        private final String query;
+        private final Timer timer;
+        private final DistributionSummary rows;
+        //只有JPQL统计语句数和等待连接时间
+        private final DistributionSummary statements;
+        private final Timer connectionWait;
+
+        private Shape(MeterRegistry registry, String kind, String id, String query) {
+            this.kind = kind;
+            this.id = id;
+            this.query = query;
+            this.timer = Timer.builder("querydsl.query")
+                    .description("查询耗时")
+                    .tags("kind", kind, "shape", id)
+                    .publishPercentileHistogram()
+                    .publishPercentiles(0.5, 0.95, 0.99)
+                    .register(registry);
+            this.rows = DistributionSummary.builder("querydsl.query.rows")
+                    .description("返回行数")
+                    .tags("kind", kind, "shape", id)
+                    .register(registry);
+            if (KIND_JPQL.equals(kind)) {
+                this.statements = DistributionSummary.builder("querydsl.query.statements")
+                        .description("一次查询执行的JDBC语句数")
+                        .tags("kind", kind, "shape", id)
+                        .register(registry);
+                this.connectionWait = Timer.builder("querydsl.query.connection.wait")
+                        .description("一次查询等待数据库连接的时间")
+                        .tags("kind", kind, "shape", id)
+                        .register(registry);
+            } else {
+                this.statements = null;
+                this.connectionWait = null;
+            }
+        }
+
+        private Map<String, Object> describe() {
+            Map<String, Object> item = new LinkedHashMap<>();
+            item.put("shape", id);
+            item.put("kind", kind);
+            item.put("query", query);
+            item.put("count", timer.count());
+            item.put("totalMs", timer.totalTime(TimeUnit.MILLISECONDS));
+            item.put("meanMs", timer.mean(TimeUnit.MILLISECONDS));
+            item.put("maxMs", timer.max(TimeUnit.MILLISECONDS));
+            for (ValueAtPercentile percentile : timer.takeSnapshot().percentileValues()) {
+                item.put("p" + Math.round(percentile.percentile() * 100) + "Ms",
+                        percentile.value(TimeUnit.MILLISECONDS));
+            }
+            item.put("meanRows", rows.mean());
+            if (statements != null) {
+                item.put("meanStatements", statements.mean());
+                item.put("meanConnectionWaitMs", connectionWait.mean(TimeUnit.MILLISECONDS));
+            }
+            return item;
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package com.kevin.querydsl.metrics;
+
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.env.Environment;
+
+import javax.sql.DataSource;
+
+/**
+ * kevin<br/>
+ * 2021/3/17 10:00<br/>
+ */
+@Configuration
+@EnableConfigurationProperties(QueryMetricsProperties.class)
+public class QueryMetricsConfig {
+
+    @Bean
+    public QueryMetrics queryMetrics(QueryMetricsProperties properties) {
+        QueryMetrics queryMetrics = QueryMetrics.shared();
+        queryMetrics.configure(properties);
+        return queryMetrics;
+    }
+
+    @Bean
+    public QueryShapesEndpoint queryShapesEndpoint(QueryMetrics queryMetrics) {
+        return new QueryShapesEndpoint(queryMetrics);
+    }
+
+    /**
+     * 只包装名为dataSource的数据源(JPA使用的那个),读写分离时内部的主从库不再重复统计
+     */
+    @Bean
+    public static BeanPostProcessor meteredDataSourcePostProcessor(Environment environment) {
+        boolean enabled = environment.getProperty("querydsl.metrics.enabled", Boolean.class, true);
+        return new BeanPostProcessor() {
+            @Override
+            public Object postProcessAfterInitialization(Object bean, String beanName) {
+                if (enabled && "dataSource".equals(beanName) && bean instanceof DataSource
+                        && !(bean instanceof MeteredDataSource)) {
+                    return new MeteredDataSource((DataSource) bean, QueryMetrics.shared());
+                }
+                return bean;
+            }
+        };
+    }
+}
@@ -0,0 +1,29 @@
+package com.kevin.querydsl.metrics;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * 查询耗时统计和慢查询日志配置<br/>
+ * kevin<br/>
+ * 2021/3/17 10:00<br/>
+ */
+@Data
+@ConfigurationProperties(prefix = "querydsl.metrics")
+public class QueryMetricsProperties {
+    //是否统计查询耗时
+    private boolean enabled = true;
+    //超过该耗时的查询写入慢查询日志,为0时记录全部查询
+    private Duration slowQueryThreshold = Duration.ofMillis(200);
+    //慢查询日志中隐藏参数值的列
+    private Set<String> maskedColumns = new HashSet<>(Collections.singletonList("t_pwd"));
+    //最多统计的查询形状数,超出的归入other
+    private int maxShapes = 1000;
+    //端点默认返回的条数
+    private int topN = 10;
+}
@@ -0,0 +1,29 @@
+package com.kevin.querydsl.metrics;
+
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.lang.Nullable;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * /actuator/queryshapes?limit=10&kind=jpql<br/>
+ * 按总耗时排序的查询形状:次数、平均/最大/分位耗时、平均行数,JPQL还有平均语句数和连接等待<br/>
+ * kevin<br/>
+ * 2021/3/17 10:00<br/>
+ */
+@Endpoint(id = "queryshapes")
+public class QueryShapesEndpoint {
+
+    private final QueryMetrics queryMetrics;
+
+    public QueryShapesEndpoint(QueryMetrics queryMetrics) {
+        this.queryMetrics = queryMetrics;
+    }
+
+    @ReadOperation
+    public List<Map<String, Object>> top(@Nullable Integer limit, @Nullable String kind) {
+        return queryMetrics.top(limit, kind);
+    }
+}
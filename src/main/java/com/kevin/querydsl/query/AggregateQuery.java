@@ -0,0 +1,107 @@
+package com.kevin.querydsl.query;
+
+import com.querydsl.core.Tuple;
+import com.querydsl.core.types.Expression;
+import com.querydsl.jpa.impl.JPAQuery;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 把同一个from/where上的多个聚合合并成一条 select count(..), sum(..), avg(..), max(..),
+ * 一次往返、一次扫描,结果通过{@link Aggregate}按类型取出<br/>
+ * <pre>
+ * AggregateQuery stats = AggregateQuery.over(jpaQueryFactory.from(qStudent));
+ * Aggregate&lt;Long&gt; count = stats.add(qStudent.id.count());
+ * Aggregate&lt;Double&gt; avg = stats.add(qStudent.socre.avg());
+ * stats.fetch();
+ * </pre>
+ * kevin<br/>
+ * 2021/3/12 10:00<br/>
+ */
+public class AggregateQuery {
+
+    private final JPAQuery<?> query;
+    private final List<Expression<?>> expressions = new ArrayList<>();
+    private final List<Aggregate<?>> aggregates = new ArrayList<>();
+
+    private AggregateQuery(JPAQuery<?> query) {
+        this.query = query;
+    }
+
+    /**
+     * @param query 已经设置好from/join/where的查询,不要设置select
+     */
+    public static AggregateQuery over(JPAQuery<?> query) {
+        return new AggregateQuery(query);
+    }
+
+    public <T> Aggregate<T> add(Expression<T> expression) {
+        Aggregate<T> aggregate = new Aggregate<>(expression.getType(), expressions.size());
+        expressions.add(expression);
+        aggregates.add(aggregate);
+        return aggregate;
+    }
+
+    /**
+     * 执行合并后的查询,之后可以从各个Aggregate中取值
+     */
+    public AggregateQuery fetch() {
+        complete(toQuery().fetchOne());
+        return this;
+    }
+
+    /**
+     * 合并后的查询,可以交给{@link QueryBatch}和其他查询一起发送
+     */
+    public JPAQuery<Tuple> toQuery() {
+        if (expressions.isEmpty()) {
+            throw new IllegalStateException("至少需要一个聚合表达式");
+        }
+        return query.select(expressions.toArray(new Expression<?>[0]));
+    }
+
+    /**
+     * 填入用其他方式执行{@link #toQuery()}得到的结果,例如在列式快照上执行
+     */
+    public void complete(Tuple tuple) {
+        for (Aggregate<?> aggregate : aggregates) {
+            aggregate.complete(tuple);
+        }
+    }
+
+    /**
+     * 一个聚合的结果,fetch之前读取会抛异常
+     */
+    public static class Aggregate<T> {
+        private final Class<? extends T> type;
+        private final int index;
+        private boolean done;
+        private T value;
+
+        private Aggregate(Class<? extends T> type, int index) {
+            this.type = type;
+            this.index = index;
+        }
+
+        /**
+         * 没有匹配行时sum/avg/max为null,count为0
+         */
+        public T get() {
+            if (!done) {
+                throw new IllegalStateException("聚合查询尚未执行");
+            }
+            return value;
+        }
+
+        public T orElse(T other) {
+            T result = get();
+            return result == null ? other : result;
+        }
+
+        private void complete(Tuple tuple) {
+            value = tuple == null ? null : tuple.get(index, type);
+            done = true;
+        }
+    }
+}
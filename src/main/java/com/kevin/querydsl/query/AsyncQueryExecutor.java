@@ -0,0 +1,184 @@
+package com.kevin.querydsl.query;
+
+import com.kevin.querydsl.metrics.QueryMetrics;
+import com.querydsl.jpa.HQLTemplates;
+import com.querydsl.jpa.impl.JPAQueryFactory;
+import com.zaxxer.hikari.HikariDataSource;
+import org.hibernate.FlushMode;
+import org.hibernate.Session;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.sql.DataSource;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Function;
+
+/**
+ * 并发执行互不相关的只读查询,总耗时取决于最慢的查询而不是所有查询之和<br/>
+ * <pre>
+ * CompletableFuture&lt;List&lt;UserEntity&gt;&gt; users = asyncQueryExecutor.submit(f -&gt; f.selectFrom(qUser).fetch());
+ * CompletableFuture&lt;Long&gt; goods = asyncQueryExecutor.submit(f -&gt; f.from(qGood).fetchCount());
+ * CompletableFuture.allOf(users, goods).join();
+ * </pre>
+ * 1. 每个查询使用独立的EntityManager(独立的连接),只读、不flush,结果是游离的实体,不要在查询里写数据<br/>
+ * 2. 线程数默认是连接池大小的一半,给请求线程留出连接;队列满时在调用线程里执行,形成背压<br/>
+ * 3. 超时或调用方cancel时future立即结束,并通过Statement.cancel取消正在执行的SQL<br/>
+ * kevin<br/>
+ * 2021/3/18 10:00<br/>
+ */
+@Component
+public class AsyncQueryExecutor implements DisposableBean {
+
+    private static final Logger logger = LoggerFactory.getLogger(AsyncQueryExecutor.class);
+
+    private static final String QUERY_TIMEOUT = "javax.persistence.query.timeout";
+
+    private final EntityManagerFactory entityManagerFactory;
+    private final QueryShapeCache queryShapeCache;
+    private final QueryMetrics queryMetrics;
+    private final Duration defaultTimeout;
+    private final ThreadPoolExecutor executor;
+    private final ScheduledExecutorService timer;
+
+    /**
+     * @param threads       查询线程数,为0时取连接池大小的一半
+     * @param queueCapacity 等待执行的查询数,超出后在调用线程里执行
+     * @param timeout       默认超时时间
+     */
+    public AsyncQueryExecutor(EntityManagerFactory entityManagerFactory,
+                              DataSource dataSource,
+                              QueryShapeCache queryShapeCache,
+                              QueryMetrics queryMetrics,
+                              @Value("${querydsl.async.threads:0}") int threads,
+                              @Value("${querydsl.async.queue-capacity:100}") int queueCapacity,
+                              @Value("${querydsl.async.timeout:5s}") Duration timeout) {
+        this.entityManagerFactory = entityManagerFactory;
+        this.queryShapeCache = queryShapeCache;
+        this.queryMetrics = queryMetrics;
+        this.defaultTimeout = timeout;
+        int size = threads > 0 ? threads : Math.max(1, poolSize(dataSource) / 2);
+        CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("async-query-");
+        threadFactory.setDaemon(true);
+        this.executor = new ThreadPoolExecutor(size, size, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), threadFactory, new ThreadPoolExecutor.CallerRunsPolicy());
+        this.executor.allowCoreThreadTimeOut(true);
+        CustomizableThreadFactory timerFactory = new CustomizableThreadFactory("async-query-timeout-");
+        timerFactory.setDaemon(true);
+        this.timer = Executors.newSingleThreadScheduledExecutor(timerFactory);
+        logger.info("异步查询线程数:[{}],队列长度:[{}],默认超时:[{}]", size, queueCapacity, timeout);
+    }
+
+    public <R> CompletableFuture<R> submit(Function<JPAQueryFactory, R> query) {
+        return submit(query, defaultTimeout);
+    }
+
+    /**
+     * @param query   在独立的EntityManager上执行的查询
+     * @param timeout 从提交开始计时,包括排队时间
+     */
+    public <R> CompletableFuture<R> submit(Function<JPAQueryFactory, R> query, Duration timeout) {
+        Task<R> task = new Task<>(query, timeout);
+        ScheduledFuture<?> deadline = timer.schedule(task::timeout, timeout.toMillis(), TimeUnit.MILLISECONDS);
+        task.future.whenComplete((result, e) -> {
+            deadline.cancel(false);
+            if (e != null) {
+                task.cancelRunning();
+            }
+        });
+        try {
+            executor.execute(task);
+        } catch (RejectedExecutionException e) {
+            // 关闭之后提交
+            task.future.completeExceptionally(e);
+        }
+        return task.future;
+    }
+
+    @Override
+    public void destroy() {
+        executor.shutdownNow();
+        timer.shutdownNow();
+    }
+
+    private static int poolSize(DataSource dataSource) {
+        try {
+            if (dataSource.isWrapperFor(HikariDataSource.class)) {
+                return dataSource.unwrap(HikariDataSource.class).getMaximumPoolSize();
+            }
+        } catch (SQLException e) {
+            logger.warn("获取连接池大小失败: {}", e.getMessage());
+        }
+        return 10;
+    }
+
+    private class Task<R> implements Runnable {
+        private final Function<JPAQueryFactory, R> query;
+        private final Duration timeout;
+        private final CompletableFuture<R> future = new CompletableFuture<>();
+        //正在执行查询的Session,取消时用来cancel当前语句
+        private volatile Session session;
+
+        private Task(Function<JPAQueryFactory, R> query, Duration timeout) {
+            this.query = query;
+            this.timeout = timeout;
+        }
+
+        @Override
+        public void run() {
+            if (future.isDone()) {
+                // 排队期间已经超时或被取消
+                return;
+            }
+            EntityManager entityManager = entityManagerFactory.createEntityManager();
+            try {
+                // 数据库端的语句超时,作为Statement.cancel之外的兜底;Hibernate只接受Integer毫秒数
+                entityManager.setProperty(QUERY_TIMEOUT, (int) Math.min(Integer.MAX_VALUE, timeout.toMillis()));
+                Session current = entityManager.unwrap(Session.class);
+                current.setDefaultReadOnly(true);
+                current.setHibernateFlushMode(FlushMode.MANUAL);
+                session = current;
+                JPAQueryFactory queryFactory = new ShapeCachingQueryFactory(HQLTemplates.DEFAULT, entityManager,
+                        queryShapeCache, queryMetrics);
+                future.complete(query.apply(queryFactory));
+            } catch (Throwable e) {
+                future.completeExceptionally(e);
+            } finally {
+                session = null;
+                entityManager.close();
+            }
+        }
+
+        private void timeout() {
+            future.completeExceptionally(new TimeoutException("查询超过" + timeout.toMillis() + "ms未完成"));
+        }
+
+        private void cancelRunning() {
+            Session current = session;
+            if (current == null) {
+                return;
+            }
+            try {
+                current.cancelQuery();
+            } catch (RuntimeException e) {
+                // 查询恰好结束、Session已关闭
+                logger.debug("取消查询失败: {}", e.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,23 @@
+package com.kevin.querydsl.query;
+
+import lombok.Data;
+
+import java.io.Serializable;
+import java.util.List;
+
+/**
+ * 键集分页(seek)结果<br/>
+ * kevin<br/>
+ * 2021/3/1 10:12<br/>
+ */
+@Data
+public class KeysetPage<T> implements Serializable {
+    //当前窗口数据
+    private final List<T> content;
+    //下一页游标,没有下一页时为null
+    private final String nextCursor;
+
+    public boolean hasNext() {
+        return nextCursor != null;
+    }
+}
@@ -0,0 +1,135 @@
+package com.kevin.querydsl.query;
+
+import com.kevin.querydsl.util.JsonUtil;
+import com.querydsl.core.Tuple;
+import com.querydsl.core.types.Expression;
+import com.querydsl.core.types.ExpressionUtils;
+import com.querydsl.core.types.Ops;
+import com.querydsl.core.types.Order;
+import com.querydsl.core.types.OrderSpecifier;
+import com.querydsl.core.types.Predicate;
+import com.querydsl.core.types.dsl.Expressions;
+import com.querydsl.jpa.impl.JPAQuery;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+
+/**
+ * 键集分页(seek)辅助方法,替代offset/limit分页<br/>
+ * 排序字段的最后一个必须是唯一键(如主键),且排序字段都不能为null;
+ * 翻到第N页的代价和第1页相同,走的是 where (a, id) > (?, ?) 的索引范围扫描<br/>
+ * kevin<br/>
+ * 2021/3/1 10:20<br/>
+ */
+public class KeysetQueries {
+
+    private KeysetQueries() {
+        // no constructor function
+    }
+
+    /**
+     * 按游标取下一个窗口
+     *
+     * @param query      已经设置好from/join/where的查询
+     * @param projection 返回的投影(实体path或者Projections.xxx)
+     * @param orders     排序字段,最后一个必须是唯一键
+     * @param cursor     上一页返回的游标,第一页传null
+     * @param size       窗口大小
+     */
+    public static <T> KeysetPage<T> fetchPage(JPAQuery<?> query,
+                                              Expression<T> projection,
+                                              List<OrderSpecifier<?>> orders,
+                                              String cursor,
+                                              int size) {
+        if (orders == null || orders.isEmpty()) {
+            throw new IllegalArgumentException("keyset分页至少需要一个唯一的排序字段");
+        }
+        if (size <= 0) {
+            throw new IllegalArgumentException("size必须大于0");
+        }
+        // 投影在第0列,排序键依次在后面
+        Expression<?>[] columns = new Expression<?>[orders.size() + 1];
+        columns[0] = projection;
+        for (int i = 0; i < orders.size(); i++) {
+            columns[i + 1] = orders.get(i).getTarget();
+        }
+
+        List<Tuple> rows = query.select(columns)
+                .where(cursor == null ? null : seekPredicate(orders, decodeCursor(cursor, orders)))
+                .orderBy(orders.toArray(new OrderSpecifier<?>[0]))
+                .limit(size + 1L)
+                .fetch();
+
+        boolean hasNext = rows.size() > size;
+        List<Tuple> window = hasNext ? rows.subList(0, size) : rows;
+        List<T> content = new ArrayList<>(window.size());
+        for (Tuple row : window) {
+            content.add(row.get(projection));
+        }
+        String nextCursor = null;
+        if (hasNext) {
+            Tuple last = window.get(window.size() - 1);
+            List<Object> keys = new ArrayList<>(orders.size());
+            for (int i = 0; i < orders.size(); i++) {
+                keys.add(last.get(i + 1, Object.class));
+            }
+            nextCursor = encodeCursor(keys);
+        }
+        return new KeysetPage<>(content, nextCursor);
+    }
+
+    /**
+     * (a1 > v1) or (a1 = v1 and a2 > v2) or ... 降序的字段用 < 比较
+     */
+    static Predicate seekPredicate(List<OrderSpecifier<?>> orders, List<Object> keys) {
+        Predicate result = null;
+        Predicate equalPrefix = null;
+        for (int i = 0; i < orders.size(); i++) {
+            OrderSpecifier<?> order = orders.get(i);
+            Expression<?> target = order.getTarget();
+            Expression<Object> value = Expressions.constant(keys.get(i));
+            Ops op = order.getOrder() == Order.ASC ? Ops.GT : Ops.LT;
+            Predicate step = ExpressionUtils.and(equalPrefix,
+                    Expressions.booleanOperation(op, target, value));
+            result = ExpressionUtils.or(result, step);
+            equalPrefix = ExpressionUtils.and(equalPrefix,
+                    Expressions.booleanOperation(Ops.EQ, target, value));
+        }
+        return result;
+    }
+
+    static String encodeCursor(List<Object> keys) {
+        for (Object key : keys) {
+            if (key == null) {
+                throw new IllegalStateException("keyset分页的排序字段不能为null");
+            }
+        }
+        String json = JsonUtil.bean2Json(keys);
+        return Base64.getUrlEncoder().withoutPadding()
+                .encodeToString(json.getBytes(StandardCharsets.UTF_8));
+    }
+
+    static List<Object> decodeCursor(String cursor, List<OrderSpecifier<?>> orders) {
+        List<Object> raw;
+        try {
+            raw = JsonUtil.json2List(new String(Base64.getUrlDecoder().decode(cursor),
+                    StandardCharsets.UTF_8), Object.class);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("无效的分页游标: " + cursor, e);
+        }
+        if (raw == null || raw.size() != orders.size()) {
+            throw new IllegalArgumentException("分页游标和排序字段不匹配: " + cursor);
+        }
+        List<Object> keys = new ArrayList<>(raw.size());
+        for (int i = 0; i < raw.size(); i++) {
+            Object key = JsonUtil.convert(raw.get(i), orders.get(i).getTarget().getType());
+            if (key == null) {
+                throw new IllegalArgumentException("分页游标和排序字段不匹配: " + cursor);
+            }
+            keys.add(key);
+        }
+        return keys;
+    }
+}
@@ -0,0 +1,295 @@
+package com.kevin.querydsl.query;
+
+import com.querydsl.core.BooleanBuilder;
+import com.querydsl.core.types.ConstantImpl;
+import com.querydsl.core.types.EntityPath;
+import com.querydsl.core.types.Expression;
+import com.querydsl.core.types.ExpressionUtils;
+import com.querydsl.core.types.Operation;
+import com.querydsl.core.types.Operator;
+import com.querydsl.core.types.Ops;
+import com.querydsl.core.types.Path;
+import com.querydsl.core.types.Predicate;
+import com.querydsl.core.types.dsl.SimpleExpression;
+import com.querydsl.core.types.dsl.StringExpression;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.util.StringUtils;
+
+import javax.persistence.Column;
+import javax.persistence.Id;
+import javax.persistence.Index;
+import javax.persistence.Table;
+import java.lang.reflect.Field;
+import java.util.*;
+import java.util.function.Function;
+
+/**
+ * 动态查询条件构造器,代替 isNotNull().or(isNull()) 加 ExpressionUtils.and 的写法<br/>
+ * 1. 值为null(字符串为空白)的条件直接忽略,没有条件时不生成where,也不会出现恒真的or<br/>
+ * 2. 嵌套的and会被拍平、去重,再按选择性排序:主键/唯一列的等值 > 索引列的等值 > 索引列的范围和前缀匹配 >
+ * 普通列 > 前导%的模糊匹配;生成的条件顺序固定,同样的条件组合总是同一条SQL<br/>
+ * 3. 调用方允许时,contains(like %x%)改成前缀匹配(like x%),可以走索引<br/>
+ * 索引信息来自实体上的@Id、@Column(unique = true)和@Table(indexes),联合索引只认最左列<br/>
+ * kevin<br/>
+ * 2021/3/11 10:00<br/>
+ */
+public class PredicateBuilder<T> {
+
+    private static final Logger logger = LoggerFactory.getLogger(PredicateBuilder.class);
+
+    private static final int UNIQUE_EQ = 0;
+    private static final int INDEXED_EQ = 1;
+    private static final int INDEXED_RANGE = 2;
+    private static final int PLAIN_EQ = 3;
+    private static final int PLAIN_RANGE = 4;
+    private static final int OTHER = 5;
+    private static final int LEADING_WILDCARD = 6;
+
+    private static final Set<Operator> EQUALITIES = new HashSet<>(Arrays.asList(Ops.EQ, Ops.IN, Ops.IS_NULL));
+    private static final Set<Operator> RANGES = new HashSet<>(Arrays.asList(
+            Ops.LT, Ops.GT, Ops.LOE, Ops.GOE, Ops.BETWEEN, Ops.STARTS_WITH));
+    private static final Set<Operator> LEADING_WILDCARDS = new HashSet<>(Arrays.asList(
+            Ops.STRING_CONTAINS, Ops.STRING_CONTAINS_IC, Ops.ENDS_WITH, Ops.ENDS_WITH_IC,
+            Ops.STARTS_WITH_IC, Ops.EQ_IGNORE_CASE));
+
+    private static final ClassValue<IndexedProperties> INDEXES = new ClassValue<IndexedProperties>() {
+        @Override
+        protected IndexedProperties computeValue(Class<?> type) {
+            return IndexedProperties.of(type);
+        }
+    };
+
+    private final EntityPath<T> root;
+    private final IndexedProperties indexes;
+    private final List<Predicate> conjuncts = new ArrayList<>();
+    private boolean prefixMatch;
+
+    public PredicateBuilder(EntityPath<T> root) {
+        this.root = root;
+        this.indexes = INDEXES.get(root.getType());
+    }
+
+    /**
+     * 允许把contains(like %x%)降级为前缀匹配(like x%)
+     */
+    public PredicateBuilder<T> prefixMatch(boolean prefixMatch) {
+        this.prefixMatch = prefixMatch;
+        return this;
+    }
+
+    public <V> PredicateBuilder<T> eq(SimpleExpression<V> path, V value) {
+        return isEmpty(value) ? this : and(path.eq(value));
+    }
+
+    public <V> PredicateBuilder<T> ne(SimpleExpression<V> path, V value) {
+        return isEmpty(value) ? this : and(path.ne(value));
+    }
+
+    /**
+     * values为null或空集合时忽略,只有一个值时生成等值条件
+     */
+    public <V> PredicateBuilder<T> in(SimpleExpression<V> path, Collection<? extends V> values) {
+        if (values == null || values.isEmpty()) {
+            return this;
+        }
+        if (values.size() == 1) {
+            return eq(path, values.iterator().next());
+        }
+        return and(path.in(values));
+    }
+
+    public <V extends Comparable<?>> PredicateBuilder<T> gt(Expression<V> path, V value) {
+        return compare(Ops.GT, path, value);
+    }
+
+    public <V extends Comparable<?>> PredicateBuilder<T> goe(Expression<V> path, V value) {
+        return compare(Ops.GOE, path, value);
+    }
+
+    public <V extends Comparable<?>> PredicateBuilder<T> lt(Expression<V> path, V value) {
+        return compare(Ops.LT, path, value);
+    }
+
+    public <V extends Comparable<?>> PredicateBuilder<T> loe(Expression<V> path, V value) {
+        return compare(Ops.LOE, path, value);
+    }
+
+    /**
+     * 闭区间,任一端为null时退化为单边条件
+     */
+    public <V extends Comparable<?>> PredicateBuilder<T> between(Expression<V> path, V from, V to) {
+        if (from == null || to == null) {
+            return goe(path, from).loe(path, to);
+        }
+        return and(ExpressionUtils.predicate(Ops.BETWEEN, path, ConstantImpl.create(from), ConstantImpl.create(to)));
+    }
+
+    /**
+     * like 'value%',可以走索引
+     */
+    public PredicateBuilder<T> startsWith(StringExpression path, String value) {
+        return isEmpty(value) ? this : and(path.startsWith(value));
+    }
+
+    /**
+     * like '%value%';开启prefixMatch时改成 like 'value%'
+     */
+    public PredicateBuilder<T> contains(StringExpression path, String value) {
+        if (prefixMatch) {
+            return startsWith(path, value);
+        }
+        return isEmpty(value) ? this : and(path.contains(value));
+    }
+
+    /**
+     * 任意条件,null忽略,嵌套的and会被拍平
+     */
+    public PredicateBuilder<T> and(Predicate predicate) {
+        Expression<?> expression = predicate == null ? null : ExpressionUtils.extract(predicate);
+        if (expression == null) {
+            return this;
+        }
+        if (expression instanceof Operation && ((Operation<?>) expression).getOperator() == Ops.AND) {
+            for (Expression<?> arg : ((Operation<?>) expression).getArgs()) {
+                and((Predicate) arg);
+            }
+        } else if (!conjuncts.contains(expression)) {
+            conjuncts.add((Predicate) expression);
+        }
+        return this;
+    }
+
+    /**
+     * 其中的null忽略,全部为null时整个or忽略
+     */
+    public PredicateBuilder<T> or(Predicate... predicates) {
+        List<Predicate> present = new ArrayList<>(predicates.length);
+        for (Predicate predicate : predicates) {
+            Expression<?> expression = predicate == null ? null : ExpressionUtils.extract(predicate);
+            if (expression != null) {
+                present.add((Predicate) expression);
+            }
+        }
+        return present.isEmpty() ? this : and(ExpressionUtils.anyOf(present));
+    }
+
+    /**
+     * 按选择性排好序的条件,没有条件时返回空的BooleanBuilder(不生成where),可以直接传给findAll
+     */
+    public Predicate build() {
+        List<Predicate> ordered = new ArrayList<>(conjuncts);
+        // 稳定排序,同一档次保持调用顺序
+        ordered.sort(Comparator.comparingInt(this::rank));
+        return new BooleanBuilder(ExpressionUtils.allOf(ordered));
+    }
+
+    /**
+     * 执行查询并记录规范化后的条件和耗时
+     *
+     * @param query 使用条件的查询,例如 p -> userJPA.findAll(p, pageable)
+     */
+    public <R> R execute(Function<Predicate, R> query) {
+        Predicate predicate = build();
+        long start = System.nanoTime();
+        try {
+            return query.apply(predicate);
+        } finally {
+            logger.info("查询条件:[{}],耗时:[{}]ms", this, (System.nanoTime() - start) / 1_000_000);
+        }
+    }
+
+    @Override
+    public String toString() {
+        Predicate predicate = ((BooleanBuilder) build()).getValue();
+        return predicate == null ? "" : predicate.toString();
+    }
+
+    private <V extends Comparable<?>> PredicateBuilder<T> compare(Operator operator, Expression<V> path, V value) {
+        return isEmpty(value) ? this : and(ExpressionUtils.predicate(operator, path, ConstantImpl.create(value)));
+    }
+
+    private int rank(Predicate predicate) {
+        if (!(predicate instanceof Operation)) {
+            return OTHER;
+        }
+        Operation<?> operation = (Operation<?>) predicate;
+        Operator operator = operation.getOperator();
+        String property = property(operation.getArg(0));
+        if (LEADING_WILDCARDS.contains(operator)
+                || operator == Ops.LIKE && leadingWildcard(operation.getArgs().get(1))) {
+            return LEADING_WILDCARD;
+        }
+        if (property == null) {
+            return OTHER;
+        }
+        boolean equality = EQUALITIES.contains(operator);
+        boolean range = RANGES.contains(operator) || operator == Ops.LIKE;
+        if (equality && indexes.unique.contains(property)) {
+            return UNIQUE_EQ;
+        }
+        if (indexes.indexed.contains(property)) {
+            return equality ? INDEXED_EQ : range ? INDEXED_RANGE : OTHER;
+        }
+        return equality ? PLAIN_EQ : range ? PLAIN_RANGE : OTHER;
+    }
+
+    /**
+     * 只认根实体上的直接属性
+     */
+    private String property(Expression<?> expression) {
+        if (!(expression instanceof Path)) {
+            return null;
+        }
+        Path<?> path = (Path<?>) expression;
+        return root.equals(path.getMetadata().getParent()) ? path.getMetadata().getName() : null;
+    }
+
+    private static boolean leadingWildcard(Expression<?> pattern) {
+        Object value = pattern instanceof ConstantImpl ? ((ConstantImpl<?>) pattern).getConstant() : null;
+        return !(value instanceof String) || ((String) value).startsWith("%") || ((String) value).startsWith("_");
+    }
+
+    private static boolean isEmpty(Object value) {
+        return value == null || value instanceof String && !StringUtils.hasText((String) value);
+    }
+
+    /**
+     * 实体上有索引的属性
+     */
+    private static class IndexedProperties {
+        private final Set<String> unique = new HashSet<>();
+        private final Set<String> indexed = new HashSet<>();
+
+        private static IndexedProperties of(Class<?> type) {
+            IndexedProperties properties = new IndexedProperties();
+            Map<String, String> columnToProperty = new HashMap<>();
+            for (Class<?> c = type; c != null && c != Object.class; c = c.getSuperclass()) {
+                for (Field field : c.getDeclaredFields()) {
+                    Column column = field.getAnnotation(Column.class);
+                    String columnName = column != null && !column.name().isEmpty() ? column.name() : field.getName();
+                    columnToProperty.put(columnName.toLowerCase(Locale.ROOT), field.getName());
+                    if (field.isAnnotationPresent(Id.class) || column != null && column.unique()) {
+                        properties.unique.add(field.getName());
+                        properties.indexed.add(field.getName());
+                    }
+                }
+            }
+            Table table = type.getAnnotation(Table.class);
+            if (table != null) {
+                for (Index index : table.indexes()) {
+                    String[] columns = index.columnList().split(",");
+                    // 联合索引只有最左列能单独使用
+                    String property = columnToProperty.get(columns[0].trim().split("\\s+")[0].toLowerCase(Locale.ROOT));
+                    if (property != null) {
+                        properties.indexed.add(property);
+                        if (index.unique() && columns.length == 1) {
+                            properties.unique.add(property);
+                        }
+                    }
+                }
+            }
+            return properties;
+        }
+    }
+}
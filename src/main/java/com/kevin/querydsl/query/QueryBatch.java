@@ -0,0 +1,184 @@
+package com.kevin.querydsl.query;
+
+import com.querydsl.core.QueryMetadata;
+import com.querydsl.core.Tuple;
+import com.querydsl.jpa.impl.JPAQuery;
+import org.hibernate.FlushMode;
+import org.hibernate.engine.spi.SessionImplementor;
+
+import javax.persistence.EntityManager;
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * 把互不相关的只读查询合并成一次数据库往返<br/>
+ * 每个QueryDSL查询先翻译成SQL({@link TranslatedQuery}),有多语句连接池({@link QueryBatchDataSource})时
+ * 用分号拼成一条语句从该连接池发送,依次读取每个结果集;否则在当前事务的连接上逐条执行<br/>
+ * 多语句连接不在当前事务内,看不到未提交的修改,持久化上下文有未刷新的修改时也改为在当前连接上逐条执行<br/>
+ * 只支持标量、Tuple和DTO投影,不支持实体投影和集合参数(in),这些查询请单独执行<br/>
+ * kevin<br/>
+ * 2021/3/12 10:00<br/>
+ */
+public class QueryBatch {
+
+    private final SessionImplementor session;
+    private final EntityManager entityManager;
+    private final DataSource multiStatementDataSource;
+    private final List<Entry<?>> entries = new ArrayList<>();
+
+    /**
+     * @param entityManager            需要在事务内使用,逐条执行时和当前持久化上下文共用同一个连接
+     * @param multiStatementDataSource 允许一次发送多条语句的连接池,为null时逐条执行
+     */
+    public QueryBatch(EntityManager entityManager, QueryBatchDataSource multiStatementDataSource) {
+        this.entityManager = entityManager;
+        this.session = entityManager.unwrap(SessionImplementor.class);
+        this.multiStatementDataSource = multiStatementDataSource == null ? null
+                : multiStatementDataSource.getDataSource();
+    }
+
+    public <T> Result<T> add(JPAQuery<T> query) {
+        Entry<T> entry = new Entry<>(query.getMetadata());
+        entries.add(entry);
+        return entry.result;
+    }
+
+    /**
+     * 聚合查询和其他查询一起发送,执行后直接从AggregateQuery的各个Aggregate取值
+     */
+    public QueryBatch add(AggregateQuery aggregates) {
+        Result<Tuple> result = add(aggregates.toQuery());
+        result.listener = aggregates::complete;
+        return this;
+    }
+
+    public void execute() {
+        if (entries.isEmpty()) {
+            return;
+        }
+        for (Entry<?> entry : entries) {
+            entry.translate();
+        }
+        boolean dirty = session.getHibernateFlushMode() == FlushMode.AUTO && session.isDirty();
+        if (multiStatementDataSource != null && entries.size() > 1 && !dirty) {
+            try (Connection connection = multiStatementDataSource.getConnection()) {
+                executeMultiStatement(connection);
+            } catch (SQLException e) {
+                throw session.getJdbcServices().getSqlExceptionHelper().convert(e, "批量查询失败");
+            }
+        } else {
+            // 和JPA查询一样,先把未提交的修改刷到数据库
+            if (dirty) {
+                entityManager.flush();
+            }
+            session.doWork(connection -> {
+                for (Entry<?> entry : entries) {
+                    executeSingle(connection, entry);
+                }
+            });
+        }
+        for (Entry<?> entry : entries) {
+            entry.result.complete();
+        }
+    }
+
+    private void executeMultiStatement(Connection connection) throws SQLException {
+        StringBuilder sql = new StringBuilder();
+        for (Entry<?> entry : entries) {
+            if (sql.length() > 0) {
+                sql.append(";\n");
+            }
+            sql.append(entry.query.getSql());
+        }
+        try (PreparedStatement statement = connection.prepareStatement(sql.toString())) {
+            int index = 1;
+            for (Entry<?> entry : entries) {
+                index = entry.bind(statement, index);
+            }
+            boolean hasResultSet = statement.execute();
+            for (Entry<?> entry : entries) {
+                while (!hasResultSet && statement.getUpdateCount() != -1) {
+                    hasResultSet = statement.getMoreResults();
+                }
+                if (!hasResultSet) {
+                    throw new IllegalStateException("返回的结果集数量少于查询数量,驱动可能不支持多语句");
+                }
+                try (ResultSet resultSet = statement.getResultSet()) {
+                    entry.read(resultSet);
+                }
+                hasResultSet = statement.getMoreResults();
+            }
+        }
+    }
+
+    private void executeSingle(Connection connection, Entry<?> entry) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement(entry.query.getSql())) {
+            entry.bind(statement, 1);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                entry.read(resultSet);
+            }
+        }
+    }
+
+    /**
+     * 一个查询的结果,execute之前读取会抛异常
+     */
+    public static class Result<T> {
+        private List<T> rows;
+        private Consumer<Tuple> listener;
+
+        public List<T> getList() {
+            if (rows == null) {
+                throw new IllegalStateException("批量查询尚未执行");
+            }
+            return rows;
+        }
+
+        /**
+         * 第一行,没有结果时返回null
+         */
+        public T getOne() {
+            List<T> list = getList();
+            return list.isEmpty() ? null : list.get(0);
+        }
+
+        private void complete() {
+            if (listener != null) {
+                listener.accept((Tuple) getOne());
+            }
+        }
+    }
+
+    private class Entry<T> {
+        private final QueryMetadata metadata;
+        private final Result<T> result = new Result<>();
+        private TranslatedQuery query;
+
+        private Entry(QueryMetadata metadata) {
+            this.metadata = metadata;
+        }
+
+        private void translate() {
+            query = TranslatedQuery.translate(session, metadata);
+        }
+
+        private int bind(PreparedStatement statement, int index) throws SQLException {
+            return query.bind(statement, index);
+        }
+
+        @SuppressWarnings("unchecked")
+        private void read(ResultSet resultSet) throws SQLException {
+            List<T> rows = new ArrayList<>();
+            for (Object[] row : query.read(resultSet)) {
+                rows.add((T) query.project(row));
+            }
+            result.rows = rows;
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package com.kevin.querydsl.query;
+
+import com.zaxxer.hikari.HikariDataSource;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.boot.jdbc.DataSourceBuilder;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * querydsl.batch.multi-statements=true时为QueryBatch创建专用的多语句连接池,连接信息取自spring.datasource,
+ * url额外加上allowMultiQueries=true<br/>
+ * kevin<br/>
+ * 2021/3/26 11:00<br/>
+ */
+@Configuration
+@ConditionalOnProperty(prefix = "querydsl.batch", name = "multi-statements", havingValue = "true")
+public class QueryBatchConfig {
+
+    @Bean
+    public QueryBatchDataSource queryBatchDataSource(DataSourceProperties properties,
+                                                     @Value("${querydsl.batch.maximum-pool-size:2}") int maximumPoolSize) {
+        String url = properties.determineUrl();
+        HikariDataSource dataSource = DataSourceBuilder.create()
+                .type(HikariDataSource.class)
+                .url(url + (url.contains("?") ? "&" : "?") + "allowMultiQueries=true")
+                .username(properties.determineUsername())
+                .password(properties.determinePassword())
+                .driverClassName(properties.determineDriverClassName())
+                .build();
+        dataSource.setPoolName("query-batch");
+        dataSource.setMaximumPoolSize(maximumPoolSize);
+        dataSource.setReadOnly(true);
+        return new QueryBatchDataSource(dataSource);
+    }
+}
@@ -0,0 +1,31 @@
+package com.kevin.querydsl.query;
+
+import com.zaxxer.hikari.HikariDataSource;
+import org.springframework.beans.factory.DisposableBean;
+
+import javax.sql.DataSource;
+
+/**
+ * QueryBatch一次发送多条语句时使用的专用连接池,只有它的url开启allowMultiQueries=true,
+ * JPA和其他查询使用的主数据源仍然不允许多语句<br/>
+ * 不直接注册成DataSource bean,否则会顶替Spring Boot自动配置的主数据源<br/>
+ * kevin<br/>
+ * 2021/3/26 11:00<br/>
+ */
+public class QueryBatchDataSource implements DisposableBean {
+
+    private final HikariDataSource dataSource;
+
+    public QueryBatchDataSource(HikariDataSource dataSource) {
+        this.dataSource = dataSource;
+    }
+
+    public DataSource getDataSource() {
+        return dataSource;
+    }
+
+    @Override
+    public void destroy() {
+        dataSource.close();
+    }
+}
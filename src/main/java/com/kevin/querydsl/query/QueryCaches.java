@@ -0,0 +1,26 @@
+package com.kevin.querydsl.query;
+
+import com.querydsl.jpa.impl.JPAQuery;
+import org.hibernate.annotations.QueryHints;
+
+/**
+ * 为选定的QueryDSL查询打开Hibernate查询缓存<br/>
+ * 查询涉及的表被JPA或QueryDSL的update/delete修改后,缓存的结果会自动失效<br/>
+ * kevin<br/>
+ * 2021/3/9 10:30<br/>
+ */
+public class QueryCaches {
+
+    private QueryCaches() {
+        // no constructor function
+    }
+
+    /**
+     * @param query  要缓存结果的查询
+     * @param region 查询缓存区域,需要在application.conf中配置大小和过期时间
+     */
+    public static <T> JPAQuery<T> cacheable(JPAQuery<T> query, String region) {
+        return query.setHint(QueryHints.CACHEABLE, true)
+                .setHint(QueryHints.CACHE_REGION, region);
+    }
+}
@@ -0,0 +1,474 @@
+package com.kevin.querydsl.query;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import com.querydsl.core.DefaultQueryMetadata;
+import com.querydsl.core.JoinExpression;
+import com.querydsl.core.QueryMetadata;
+import com.querydsl.core.types.*;
+import com.querydsl.core.types.dsl.Param;
+import com.querydsl.core.util.MathUtils;
+import com.querydsl.jpa.HQLTemplates;
+import com.querydsl.jpa.JPQLSerializer;
+import com.querydsl.jpa.JPQLTemplates;
+
+import java.time.temporal.Temporal;
+import java.util.*;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * 按查询"形状"缓存序列化好的JPQL<br/>
+ * 形状 = 结构指纹:路径、操作符、排序、投影,常量换成参数槽位;同形状的查询只需重新绑定参数值,
+ * 不再重复生成JPQL,Hibernate也总是拿到同一条语句,查询计划缓存只解析一次<br/>
+ * 只有结果与常量值无关的位置才会参数化(比较、between、like/contains/startsWith/endsWith、非空的in集合),
+ * 其余常量(case when、模板表达式里的)仍然内联,它们的值直接作为指纹的一部分<br/>
+ * kevin<br/>
+ * 2021/3/10 10:20<br/>
+ */
+public class QueryShapeCache {
+
+    //单条查询最多参数化的常量个数,超过的直接走原生序列化
+    private static final int MAX_SLOTS = 256;
+    private static final List<Param<Object>> SLOTS;
+
+    //常量可以换成参数的操作符,模板只按下标引用参数,值不参与JPQL文本
+    private static final Set<Operator> COMPARISONS = new HashSet<>(Arrays.asList(
+            Ops.EQ, Ops.NE, Ops.LT, Ops.GT, Ops.LOE, Ops.GOE, Ops.BETWEEN));
+    //JPQLSerializer会把这些操作符的数字常量转成另一侧路径的类型
+    private static final Set<Operator> NUMERIC_COMPARISONS = new HashSet<>(Arrays.asList(
+            Ops.LT, Ops.GT, Ops.LOE, Ops.GOE, Ops.BETWEEN));
+    //模板会改写常量值(拼%、转义),先按模板算好值,再改写成like ... escape
+    private static final Set<Operator> LIKE_PATTERNS = new HashSet<>(Arrays.asList(
+            Ops.STRING_CONTAINS, Ops.STARTS_WITH, Ops.ENDS_WITH,
+            Ops.STRING_CONTAINS_IC, Ops.STARTS_WITH_IC, Ops.ENDS_WITH_IC));
+    //集合整体作为一个参数绑定,Hibernate执行时再展开成(?, ?, ...),不同的id列表共用一条缓存
+    private static final Set<Operator> IN_COLLECTIONS = new HashSet<>(Arrays.asList(Ops.IN, Ops.NOT_IN));
+
+    //BaseJPAImpl不是Spring bean,仓库和JPAQueryFactory共用这一个实例
+    private static final QueryShapeCache SHARED = new QueryShapeCache(HQLTemplates.DEFAULT, 1024);
+
+    private static final Object NULL = new Object();
+    private static final Object SLOT = new Object();
+    private static final Object SUB_QUERY = new Object();
+    private static final Object END = new Object();
+
+    static {
+        List<Param<Object>> slots = new ArrayList<>(MAX_SLOTS);
+        for (int i = 0; i < MAX_SLOTS; i++) {
+            slots.add(new Param<>(Object.class, "_shape" + i));
+        }
+        SLOTS = Collections.unmodifiableList(slots);
+    }
+
+    private final JPQLTemplates templates;
+    private final Cache<List<Object>, CompiledQuery> cache;
+    private final LongAdder bypasses = new LongAdder();
+
+    public QueryShapeCache(JPQLTemplates templates, long maximumSize) {
+        this.templates = templates;
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(maximumSize)
+                .recordStats()
+                .build();
+    }
+
+    public static QueryShapeCache shared() {
+        return SHARED;
+    }
+
+    /**
+     * 命中时只把常量值绑定到metadata的参数槽位,返回缓存的JPQL;
+     * 未命中时用参数化后的metadata序列化一次并缓存
+     *
+     * @param metadata          查询的metadata,会被写入槽位参数值
+     * @param serializerFactory 未命中时创建序列化器
+     * @return 无法参数化的查询返回null,由调用方走原生序列化
+     */
+    public JPQLSerializer serialize(QueryMetadata metadata, boolean forCountRow,
+                                    Supplier<JPQLSerializer> serializerFactory) {
+        Shape shape = new Shape(false);
+        shape.metadata(metadata, forCountRow);
+        if (!shape.cacheable) {
+            bypasses.increment();
+            return null;
+        }
+        CompiledQuery compiled = cache.getIfPresent(shape.tokens);
+        if (compiled == null) {
+            Shape rewrite = new Shape(true);
+            QueryMetadata parameterized = rewrite.metadata(metadata, forCountRow);
+            JPQLSerializer serializer = serializerFactory.get();
+            serializer.serialize(parameterized, forCountRow, null);
+            compiled = new CompiledQuery(serializer.toString(),
+                    Collections.unmodifiableMap(new HashMap<>(serializer.getConstantToAllLabels())),
+                    Collections.unmodifiableMap(new HashMap<>(serializer.getConstantToNamedLabel())),
+                    Collections.unmodifiableMap(new HashMap<>(serializer.getConstantToNumberedLabel())));
+            cache.put(shape.tokens, compiled);
+        }
+        for (int i = 0; i < shape.values.size(); i++) {
+            metadata.setParam(SLOTS.get(i), shape.values.get(i));
+        }
+        return new CompiledSerializer(templates, compiled);
+    }
+
+    public long size() {
+        return cache.estimatedSize();
+    }
+
+    public CacheStats stats() {
+        return cache.stats();
+    }
+
+    /**
+     * 含有flag、超过槽位数或包含未知表达式类型的查询次数
+     */
+    public long bypassCount() {
+        return bypasses.sum();
+    }
+
+    public void clear() {
+        cache.invalidateAll();
+    }
+
+    private static class CompiledQuery {
+        private final String jpql;
+        private final Map<Object, String> labels;
+        private final Map<Object, String> namedLabels;
+        private final Map<Object, Integer> numberedLabels;
+
+        private CompiledQuery(String jpql, Map<Object, String> labels, Map<Object, String> namedLabels,
+                              Map<Object, Integer> numberedLabels) {
+            this.jpql = jpql;
+            this.labels = labels;
+            this.namedLabels = namedLabels;
+            this.numberedLabels = numberedLabels;
+        }
+    }
+
+    /**
+     * 直接返回缓存的JPQL和参数标签:AbstractJPAQuery.createQuery按全部标签绑定,
+     * StatelessSession上的HibernateQuery分别按命名和序号标签绑定
+     */
+    private static class CompiledSerializer extends JPQLSerializer {
+        private final CompiledQuery compiled;
+
+        private CompiledSerializer(JPQLTemplates templates, CompiledQuery compiled) {
+            super(templates);
+            this.compiled = compiled;
+        }
+
+        @Override
+        public Map<Object, String> getConstantToAllLabels() {
+            return compiled.labels;
+        }
+
+        @Override
+        public Map<Object, String> getConstantToNamedLabel() {
+            return compiled.namedLabels;
+        }
+
+        @Override
+        public Map<Object, Integer> getConstantToNumberedLabel() {
+            return compiled.numberedLabels;
+        }
+
+        @Override
+        public String toString() {
+            return compiled.jpql;
+        }
+    }
+
+    /**
+     * 遍历一次metadata,生成指纹tokens和槽位值;rebuild为true时同时构造参数化后的metadata,
+     * 两次遍历顺序一致,槽位编号对得上
+     */
+    private class Shape {
+        private final boolean rebuild;
+        private final List<Object> tokens = new ArrayList<>();
+        private final List<Object> values = new ArrayList<>();
+        private boolean cacheable = true;
+        //工厂表达式和模板表达式内部的常量不参数化
+        private int inlineDepth;
+
+        private Shape(boolean rebuild) {
+            this.rebuild = rebuild;
+        }
+
+        private QueryMetadata metadata(QueryMetadata metadata, boolean forCountRow) {
+            if (!metadata.getFlags().isEmpty()) {
+                cacheable = false;
+                return metadata;
+            }
+            tokens.add(forCountRow);
+            tokens.add(metadata.isDistinct());
+            DefaultQueryMetadata copy = new DefaultQueryMetadata();
+            copy.setValidate(false);
+            copy.setDistinct(metadata.isDistinct());
+            copy.setUnique(metadata.isUnique());
+
+            for (JoinExpression join : metadata.getJoins()) {
+                if (!join.getFlags().isEmpty()) {
+                    cacheable = false;
+                    return metadata;
+                }
+                tokens.add(join.getType());
+                Expression<?> target = expression(join.getTarget());
+                Expression<?> condition = expression(join.getCondition());
+                if (rebuild) {
+                    copy.addJoin(join.getType(), target);
+                    if (condition != null) {
+                        copy.addJoinCondition((Predicate) condition);
+                    }
+                }
+            }
+            tokens.add(END);
+            Expression<?> projection = expression(metadata.getProjection());
+            Expression<?> where = expression(metadata.getWhere());
+            for (Expression<?> groupBy : metadata.getGroupBy()) {
+                Expression<?> expression = expression(groupBy);
+                if (rebuild) {
+                    copy.addGroupBy(expression);
+                }
+            }
+            tokens.add(END);
+            Expression<?> having = expression(metadata.getHaving());
+            for (OrderSpecifier<?> order : metadata.getOrderBy()) {
+                tokens.add(order.getOrder());
+                tokens.add(order.getNullHandling());
+                Expression<?> target = expression(order.getTarget());
+                if (rebuild) {
+                    copy.addOrderBy(orderSpecifier(order, target));
+                }
+            }
+            tokens.add(END);
+            if (!cacheable || !rebuild) {
+                return metadata;
+            }
+            copy.setProjection(projection);
+            if (where != null) {
+                copy.addWhere((Predicate) where);
+            }
+            if (having != null) {
+                copy.addHaving((Predicate) having);
+            }
+            return copy;
+        }
+
+        private Expression<?> expression(Expression<?> expression) {
+            if (expression == null) {
+                tokens.add(NULL);
+                return null;
+            }
+            expression = ExpressionUtils.extract(expression);
+            if (expression instanceof Path || expression instanceof ParamExpression) {
+                tokens.add(expression);
+                return expression;
+            }
+            if (expression instanceof Constant) {
+                inline(((Constant<?>) expression).getConstant());
+                return expression;
+            }
+            if (expression instanceof Operation) {
+                return operation((Operation<?>) expression);
+            }
+            if (expression instanceof SubQueryExpression) {
+                tokens.add(SUB_QUERY);
+                SubQueryExpression<?> subQuery = (SubQueryExpression<?>) expression;
+                QueryMetadata metadata = metadata(subQuery.getMetadata(), false);
+                return rebuild ? subQuery(subQuery, metadata) : expression;
+            }
+            if (expression instanceof FactoryExpression) {
+                tokens.add(expression.getClass());
+                tokens.add(expression.getType());
+                inlineDepth++;
+                for (Expression<?> arg : ((FactoryExpression<?>) expression).getArgs()) {
+                    expression(arg);
+                }
+                inlineDepth--;
+                tokens.add(END);
+                return expression;
+            }
+            if (expression instanceof TemplateExpression) {
+                TemplateExpression<?> template = (TemplateExpression<?>) expression;
+                tokens.add(template.getTemplate());
+                tokens.add(template.getType());
+                inlineDepth++;
+                for (Object arg : template.getArgs()) {
+                    if (arg instanceof Expression) {
+                        expression((Expression<?>) arg);
+                    } else {
+                        inline(arg);
+                    }
+                }
+                inlineDepth--;
+                tokens.add(END);
+                return expression;
+            }
+            cacheable = false;
+            return expression;
+        }
+
+        private Expression<?> operation(Operation<?> operation) {
+            Operator operator = operation.getOperator();
+            List<Expression<?>> args = operation.getArgs();
+            tokens.add(operator);
+            tokens.add(operation.getType());
+            tokens.add(args.size());
+            if (inlineDepth == 0 && LIKE_PATTERNS.contains(operator) && args.size() == 2
+                    && isSlotValue(args.get(1))) {
+                return likePattern(operation);
+            }
+            boolean comparison = inlineDepth == 0 && COMPARISONS.contains(operator);
+            Class<? extends Number> numberType = NUMERIC_COMPARISONS.contains(operator) ? numberType(args) : null;
+            boolean like = inlineDepth == 0 && operator == Ops.LIKE && args.size() == 2;
+            boolean in = inlineDepth == 0 && IN_COLLECTIONS.contains(operator) && args.size() == 2;
+
+            List<Expression<?>> rebuilt = rebuild ? new ArrayList<>(args.size()) : null;
+            boolean changed = false;
+            for (int i = 0; i < args.size(); i++) {
+                Expression<?> arg = args.get(i);
+                Expression<?> result;
+                if (comparison && isSlotValue(arg)) {
+                    Object value = ((Constant<?>) arg).getConstant();
+                    if (numberType != null && value instanceof Number) {
+                        value = MathUtils.cast((Number) value, numberType);
+                    }
+                    result = slot(value);
+                } else if (in && i == 1 && isSlotCollection(arg)) {
+                    result = slot(((Constant<?>) arg).getConstant());
+                } else if (like && i == 1 && isSlotValue(arg) && ((Constant<?>) arg).getConstant() instanceof String) {
+                    result = slot(escapeLike((String) ((Constant<?>) arg).getConstant()));
+                } else {
+                    result = expression(arg);
+                }
+                if (rebuild) {
+                    rebuilt.add(result);
+                    changed |= result != arg;
+                }
+            }
+            tokens.add(END);
+            if (!rebuild || !changed) {
+                return operation;
+            }
+            if (operation instanceof Predicate) {
+                return ExpressionUtils.predicate(operator, rebuilt.toArray(new Expression<?>[0]));
+            }
+            return ExpressionUtils.operation(operation.getType(), operator, rebuilt.toArray(new Expression<?>[0]));
+        }
+
+        /**
+         * contains/startsWith/endsWith的模板会把值拼上%并转义,先按模板转换好值,
+         * 再改写成 like ? escape '!'
+         */
+        private Expression<?> likePattern(Operation<?> operation) {
+            Expression<?> path = expression(operation.getArg(0));
+            Object pattern = null;
+            for (Template.Element element : templates.getTemplate(operation.getOperator()).getElements()) {
+                if (element instanceof Template.Transformed && ((Template.Transformed) element).getIndex() == 1) {
+                    pattern = element.convert(operation.getArgs());
+                }
+            }
+            if (!(pattern instanceof Constant)) {
+                cacheable = false;
+                return operation;
+            }
+            Expression<?> slot = slot(((Constant<?>) pattern).getConstant());
+            tokens.add(END);
+            if (!rebuild) {
+                return operation;
+            }
+            Expression<?> target = path;
+            Operator operator = operation.getOperator();
+            if (operator == Ops.STRING_CONTAINS_IC || operator == Ops.STARTS_WITH_IC || operator == Ops.ENDS_WITH_IC) {
+                target = ExpressionUtils.operation(String.class, Ops.LOWER, path);
+            }
+            return ExpressionUtils.predicate(Ops.LIKE_ESCAPE, target, slot,
+                    ConstantImpl.create(templates.getEscapeChar()));
+        }
+
+        private Expression<?> slot(Object value) {
+            if (values.size() == MAX_SLOTS) {
+                cacheable = false;
+                return ConstantImpl.create(value);
+            }
+            tokens.add(SLOT);
+            if (value instanceof Collection) {
+                //只按元素类型做指纹,集合的值和长度都不进key
+                tokens.add(Collection.class);
+                tokens.add(((Collection<?>) value).iterator().next().getClass());
+            } else {
+                tokens.add(value.getClass());
+            }
+            values.add(value);
+            return SLOTS.get(values.size() - 1);
+        }
+
+        private void inline(Object value) {
+            if (value != null && !isSimpleValue(value) && !(value instanceof Collection)) {
+                //实体等对象按值做指纹会让缓存无限膨胀
+                cacheable = false;
+            }
+            tokens.add(value == null ? NULL : value.getClass());
+            tokens.add(value == null ? NULL : value);
+        }
+
+        private String escapeLike(String value) {
+            String escape = String.valueOf(templates.getEscapeChar());
+            return value.replace(escape, escape + escape);
+        }
+    }
+
+    /**
+     * 可以作为JDBC参数绑定的简单值,实体、集合等交给JPQLSerializer原样处理
+     */
+    private static boolean isSlotValue(Expression<?> expression) {
+        if (!(expression instanceof Constant)) {
+            return false;
+        }
+        return isSimpleValue(((Constant<?>) expression).getConstant());
+    }
+
+    /**
+     * 非空且元素都是简单值的集合;空集合会被JPQLSerializer改写成1=2,只能内联
+     */
+    private static boolean isSlotCollection(Expression<?> expression) {
+        if (!(expression instanceof Constant) || !(((Constant<?>) expression).getConstant() instanceof Collection)) {
+            return false;
+        }
+        Collection<?> values = (Collection<?>) ((Constant<?>) expression).getConstant();
+        if (values.isEmpty()) {
+            return false;
+        }
+        for (Object value : values) {
+            if (!isSimpleValue(value)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isSimpleValue(Object value) {
+        return value instanceof String || value instanceof Number || value instanceof Boolean
+                || value instanceof Character || value instanceof Enum || value instanceof Date
+                || value instanceof Temporal || value instanceof UUID;
+    }
+
+    private static Class<? extends Number> numberType(List<Expression<?>> args) {
+        for (Expression<?> arg : args) {
+            if (!(arg instanceof Constant) && Number.class.isAssignableFrom(arg.getType())) {
+                return arg.getType().asSubclass(Number.class);
+            }
+        }
+        return null;
+    }
+
+    private static <T> SubQueryExpression<T> subQuery(SubQueryExpression<T> subQuery, QueryMetadata metadata) {
+        return new SubQueryExpressionImpl<>(subQuery.getType(), metadata);
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static OrderSpecifier<?> orderSpecifier(OrderSpecifier<?> order, Expression<?> target) {
+        return new OrderSpecifier(order.getOrder(), target, order.getNullHandling());
+    }
+}
@@ -0,0 +1,78 @@
+package com.kevin.querydsl.query;
+
+import com.querydsl.jpa.impl.JPAQuery;
+import org.hibernate.annotations.QueryHints;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.function.Supplier;
+
+/**
+ * 只读查询,结果只用来展示或序列化时不必承担持久化上下文的开销<br/>
+ * 1. readOnly:实体仍然进入持久化上下文,但不保存快照、flush时不做脏检查<br/>
+ * 2. stateless:通过StatelessSession执行,实体不进入持久化上下文,没有快照和一级缓存,查询结束即可回收;
+ * 返回的实体是游离的,懒加载的属性和关联不可用(JsonUtil会跳过未加载的属性)<br/>
+ * stateless可以按查询、按代码块或对所有@Transactional(readOnly = true)中的查询生效:
+ * <pre>
+ * List&lt;UserEntity&gt; users = ReadOnlyQueries.stateless(jpaQueryFactory.selectFrom(qUser)).fetch();
+ * List&lt;UserEntity&gt; users = ReadOnlyQueries.stateless(() -&gt; userJPA.findAll(predicate, pageable, mode).getContent());
+ * </pre>
+ * 只对{@link ShapeCachingQuery}的fetch/fetchOne生效,其他查询退化为readOnly<br/>
+ * kevin<br/>
+ * 2021/3/21 10:00<br/>
+ */
+public class ReadOnlyQueries {
+
+    private static final ThreadLocal<Boolean> STATELESS = new ThreadLocal<>();
+    //querydsl.read-only.stateless-transactions,只读事务中的查询都走StatelessSession
+    private static volatile boolean statelessReadOnlyTransactions;
+
+    private ReadOnlyQueries() {
+        // no constructor function
+    }
+
+    /**
+     * 查出的实体设为只读,不保存快照
+     */
+    public static <T> JPAQuery<T> readOnly(JPAQuery<T> query) {
+        return query.setHint(QueryHints.READ_ONLY, true);
+    }
+
+    /**
+     * 该查询通过StatelessSession执行
+     */
+    public static <T> JPAQuery<T> stateless(JPAQuery<T> query) {
+        if (query instanceof ShapeCachingQuery) {
+            ((ShapeCachingQuery<T>) query).setStateless(true);
+            return query;
+        }
+        return readOnly(query);
+    }
+
+    /**
+     * reads中的查询都通过StatelessSession执行
+     */
+    public static <T> T stateless(Supplier<T> reads) {
+        Boolean previous = STATELESS.get();
+        STATELESS.set(Boolean.TRUE);
+        try {
+            return reads.get();
+        } finally {
+            if (previous == null) {
+                STATELESS.remove();
+            } else {
+                STATELESS.set(previous);
+            }
+        }
+    }
+
+    public static void setStatelessReadOnlyTransactions(boolean enabled) {
+        statelessReadOnlyTransactions = enabled;
+    }
+
+    static boolean isStatelessScope() {
+        if (STATELESS.get() != null) {
+            return true;
+        }
+        return statelessReadOnlyTransactions && TransactionSynchronizationManager.isCurrentTransactionReadOnly();
+    }
+}
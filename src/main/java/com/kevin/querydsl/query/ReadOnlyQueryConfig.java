@@ -0,0 +1,17 @@
+package com.kevin.querydsl.query;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * ShapeCachingQuery不是Spring bean,只读事务是否走StatelessSession通过静态开关传给{@link ReadOnlyQueries}<br/>
+ * kevin<br/>
+ * 2021/3/21 10:00<br/>
+ */
+@Configuration
+public class ReadOnlyQueryConfig {
+
+    public ReadOnlyQueryConfig(@Value("${querydsl.read-only.stateless-transactions:false}") boolean statelessTransactions) {
+        ReadOnlyQueries.setStatelessReadOnlyTransactions(statelessTransactions);
+    }
+}
@@ -0,0 +1,147 @@
+package com.kevin.querydsl.query;
+
+import com.kevin.querydsl.metrics.QueryMetrics;
+import com.querydsl.core.QueryMetadata;
+import com.querydsl.core.QueryResults;
+import com.querydsl.jpa.JPQLSerializer;
+import com.querydsl.jpa.JPQLTemplates;
+import com.querydsl.jpa.hibernate.HibernateQuery;
+import com.querydsl.jpa.hibernate.StatelessSessionHolder;
+import com.querydsl.jpa.impl.JPAQuery;
+import org.hibernate.FlushMode;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.StatelessSession;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.persistence.EntityManager;
+import java.util.List;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * 序列化时先查{@link QueryShapeCache},同形状的查询直接复用缓存的JPQL<br/>
+ * fetch/fetchOne/fetchResults/fetchCount按JPQL记录到{@link QueryMetrics}<br/>
+ * fetch/fetchOne可以改为通过StatelessSession执行,见{@link ReadOnlyQueries}<br/>
+ * kevin<br/>
+ * 2021/3/10 10:20<br/>
+ */
+public class ShapeCachingQuery<T> extends JPAQuery<T> {
+
+    private final QueryShapeCache shapeCache;
+    private final QueryMetrics metrics;
+    //最近一次序列化的结果,查询结束后取JPQL作为指纹
+    private JPQLSerializer lastSerializer;
+    //为true时fetch/fetchOne通过StatelessSession执行
+    private boolean stateless;
+
+    public ShapeCachingQuery(EntityManager em, JPQLTemplates templates, QueryShapeCache shapeCache,
+                             QueryMetrics metrics) {
+        super(em, templates);
+        this.shapeCache = shapeCache;
+        this.metrics = metrics;
+    }
+
+    public ShapeCachingQuery(EntityManager em, JPQLTemplates templates, QueryMetadata metadata,
+                             QueryShapeCache shapeCache, QueryMetrics metrics) {
+        super(em, templates, metadata);
+        this.shapeCache = shapeCache;
+        this.metrics = metrics;
+    }
+
+    @Override
+    public List<T> fetch() {
+        Supplier<List<T>> fetch = isStateless() ? () -> withStatelessSession(HibernateQuery::fetch) : super::fetch;
+        return metrics == null ? fetch.get() : metrics.timeQuery(this::lastQuery, fetch, List::size);
+    }
+
+    @Override
+    public T fetchOne() {
+        Supplier<T> fetchOne = isStateless() ? () -> withStatelessSession(HibernateQuery::fetchOne) : super::fetchOne;
+        return metrics == null ? fetchOne.get() : metrics.timeQuery(this::lastQuery, fetchOne, r -> 1);
+    }
+
+    @Override
+    public QueryResults<T> fetchResults() {
+        return metrics == null ? super.fetchResults()
+                : metrics.timeQuery(this::lastQuery, super::fetchResults, r -> r.getResults().size());
+    }
+
+    @Override
+    public long fetchCount() {
+        return metrics == null ? super.fetchCount() : metrics.timeQuery(this::lastQuery, super::fetchCount, r -> 1);
+    }
+
+    @Override
+    protected JPQLSerializer serialize(boolean forCountRow, boolean validate) {
+        QueryMetadata metadata = getMetadata();
+        if (metadata.getJoins().isEmpty()) {
+            // 交给父类抛出No sources given
+            return super.serialize(forCountRow, validate);
+        }
+        JPQLSerializer serializer = shapeCache.serialize(metadata, forCountRow, this::createSerializer);
+        lastSerializer = serializer != null ? serializer : super.serialize(forCountRow, validate);
+        return lastSerializer;
+    }
+
+    void setStateless(boolean stateless) {
+        this.stateless = stateless;
+    }
+
+    private boolean isStateless() {
+        return stateless || ReadOnlyQueries.isStatelessScope();
+    }
+
+    private <R> R withStatelessSession(Function<HibernateQuery<T>, R> action) {
+        SessionFactory sessionFactory = entityManager.getEntityManagerFactory().unwrap(SessionFactory.class);
+        if (!TransactionSynchronizationManager.isActualTransactionActive()) {
+            return execute(sessionFactory.openStatelessSession(), action);
+        }
+        // 事务中使用事务的连接,先flush,能读到事务内的修改,读写路由也和事务一致
+        Session session = entityManager.unwrap(Session.class);
+        if (session.getHibernateFlushMode() != FlushMode.MANUAL) {
+            session.flush();
+        }
+        return session.doReturningWork(connection -> execute(sessionFactory.openStatelessSession(connection), action));
+    }
+
+    private <R> R execute(StatelessSession session, Function<HibernateQuery<T>, R> action) {
+        try {
+            return action.apply(new StatelessQuery<>(session, getTemplates(), getMetadata(), this));
+        } finally {
+            // 传入的连接不会被关闭
+            session.close();
+        }
+    }
+
+    private String lastQuery() {
+        return lastSerializer == null ? null : lastSerializer.toString();
+    }
+
+    @Override
+    public ShapeCachingQuery<T> clone(EntityManager entityManager, JPQLTemplates templates) {
+        ShapeCachingQuery<T> q = new ShapeCachingQuery<>(entityManager, templates, getMetadata().clone(),
+                shapeCache, metrics);
+        q.clone(this);
+        q.stateless = stateless;
+        return q;
+    }
+
+    /**
+     * 在StatelessSession上执行,JPQL同样来自查询形状缓存
+     */
+    private static class StatelessQuery<T> extends HibernateQuery<T> {
+        private final ShapeCachingQuery<T> owner;
+
+        private StatelessQuery(StatelessSession session, JPQLTemplates templates, QueryMetadata metadata,
+                               ShapeCachingQuery<T> owner) {
+            super(new StatelessSessionHolder(session), templates, metadata);
+            this.owner = owner;
+        }
+
+        @Override
+        protected JPQLSerializer serialize(boolean forCountRow, boolean validate) {
+            return owner.serialize(forCountRow, validate);
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package com.kevin.querydsl.query;
+
+import com.kevin.querydsl.metrics.QueryMetrics;
+import com.querydsl.jpa.JPQLTemplates;
+import com.querydsl.jpa.impl.JPAQuery;
+import com.querydsl.jpa.impl.JPAQueryFactory;
+
+import javax.persistence.EntityManager;
+
+/**
+ * select/selectFrom/from创建的查询都带上查询形状缓存和耗时统计,用法和JPAQueryFactory完全一样<br/>
+ * kevin<br/>
+ * 2021/3/10 10:20<br/>
+ */
+public class ShapeCachingQueryFactory extends JPAQueryFactory {
+
+    private final JPQLTemplates templates;
+    private final EntityManager entityManager;
+    private final QueryShapeCache shapeCache;
+    private final QueryMetrics metrics;
+
+    /**
+     * @param metrics 为null时不统计耗时
+     */
+    public ShapeCachingQueryFactory(JPQLTemplates templates, EntityManager entityManager, QueryShapeCache shapeCache,
+                                    QueryMetrics metrics) {
+        super(templates, entityManager);
+        this.templates = templates;
+        this.entityManager = entityManager;
+        this.shapeCache = shapeCache;
+        this.metrics = metrics;
+    }
+
+    @Override
+    public JPAQuery<?> query() {
+        return new ShapeCachingQuery<Void>(entityManager, templates, shapeCache, metrics);
+    }
+
+    public QueryShapeCache getShapeCache() {
+        return shapeCache;
+    }
+}
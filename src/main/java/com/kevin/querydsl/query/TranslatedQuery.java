@@ -0,0 +1,189 @@
+package com.kevin.querydsl.query;
+
+import com.querydsl.core.QueryMetadata;
+import com.querydsl.core.QueryModifiers;
+import com.querydsl.core.types.Expression;
+import com.querydsl.core.types.FactoryExpression;
+import com.querydsl.core.types.ParamExpression;
+import com.querydsl.core.types.ParamNotSetException;
+import com.querydsl.jpa.HQLTemplates;
+import com.querydsl.jpa.JPQLSerializer;
+import org.hibernate.dialect.pagination.LimitHandler;
+import org.hibernate.dialect.pagination.LimitHelper;
+import org.hibernate.engine.query.spi.HQLQueryPlan;
+import org.hibernate.engine.spi.RowSelection;
+import org.hibernate.engine.spi.SessionImplementor;
+import org.hibernate.hql.spi.ParameterTranslations;
+import org.hibernate.hql.spi.PositionalParameterInformation;
+import org.hibernate.hql.spi.QueryTranslator;
+import org.hibernate.type.Type;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * QueryDSL查询按Hibernate的查询计划翻译成SQL,参数和结果类型也一起取出,可以在任意JDBC连接上执行<br/>
+ * 只支持标量、Tuple和DTO投影,不支持实体投影和集合参数(in)<br/>
+ * kevin<br/>
+ * 2021/3/19 10:00<br/>
+ */
+public class TranslatedQuery {
+
+    private final SessionImplementor session;
+    private final QueryMetadata metadata;
+    private String sql;
+    private Object[] values;
+    private Type[] types;
+    private Type[] returnTypes;
+    private String[][] columnNames;
+    private RowSelection selection;
+
+    private TranslatedQuery(SessionImplementor session, QueryMetadata metadata) {
+        this.session = session;
+        this.metadata = metadata;
+    }
+
+    /**
+     * @param session 只用来翻译和转换类型,执行可以在别的连接上
+     */
+    public static TranslatedQuery translate(SessionImplementor session, QueryMetadata metadata) {
+        TranslatedQuery query = new TranslatedQuery(session, metadata);
+        query.translate();
+        return query;
+    }
+
+    public String getSql() {
+        return sql;
+    }
+
+    /**
+     * 从index开始绑定参数(包括limit),返回下一个参数的位置
+     */
+    public int bind(PreparedStatement statement, int index) throws SQLException {
+        index += limitHandler().bindLimitParametersAtStartOfQuery(selection, statement, index);
+        for (int i = 0; i < values.length; i++) {
+            if (types[i] == null) {
+                statement.setObject(index, values[i]);
+            } else {
+                types[i].nullSafeSet(statement, values[i], index, session);
+            }
+            index++;
+        }
+        index += limitHandler().bindLimitParametersAtEndOfQuery(selection, statement, index);
+        return index;
+    }
+
+    /**
+     * 读取全部行,每行是select中各列的值
+     */
+    public List<Object[]> read(ResultSet resultSet) throws SQLException {
+        List<Object[]> rows = new ArrayList<>();
+        while (resultSet.next()) {
+            Object[] row = new Object[returnTypes.length];
+            for (int i = 0; i < returnTypes.length; i++) {
+                row[i] = returnTypes[i].nullSafeGet(resultSet, columnNames[i], session, null);
+            }
+            rows.add(row);
+        }
+        return rows;
+    }
+
+    /**
+     * 按查询的投影把一行转换成结果对象
+     */
+    public Object project(Object[] row) {
+        Expression<?> projection = metadata.getProjection();
+        return projection instanceof FactoryExpression ? ((FactoryExpression<?>) projection).newInstance(row) : row[0];
+    }
+
+    private void translate() {
+        JPQLSerializer serializer = new JPQLSerializer(HQLTemplates.DEFAULT, session);
+        serializer.serialize(metadata, false, null);
+        HQLQueryPlan plan = session.getFactory().getQueryPlanCache()
+                .getHQLQueryPlan(serializer.toString(), false, Collections.emptyMap());
+        if (plan.getTranslators().length != 1) {
+            throw new IllegalArgumentException("不支持多态查询: " + serializer);
+        }
+        QueryTranslator translator = plan.getTranslators()[0];
+        returnTypes = translator.getReturnTypes();
+        columnNames = translator.getColumnNames();
+        for (Type type : returnTypes) {
+            if (type.isEntityType() || type.isCollectionType() || type.isComponentType()) {
+                throw new IllegalArgumentException("只支持标量和DTO投影: " + serializer);
+            }
+        }
+        bindValues(serializer.getConstantToAllLabels(), translator.getParameterTranslations());
+
+        sql = translator.getSQLString();
+        selection = rowSelection(metadata.getModifiers());
+        if (LimitHelper.hasMaxRows(selection)) {
+            sql = limitHandler().processSql(sql, selection);
+        } else if (LimitHelper.hasFirstRow(selection)) {
+            throw new IllegalArgumentException("设置offset时必须同时设置limit");
+        }
+    }
+
+    /**
+     * 按JDBC占位符的顺序排好每个参数的值和类型
+     */
+    private void bindValues(Map<Object, String> labels, ParameterTranslations translations) {
+        Map<Integer, PositionalParameterInformation> parameters = translations.getPositionalParameterInformationMap();
+        int count = 0;
+        for (PositionalParameterInformation parameter : parameters.values()) {
+            count += parameter.getSourceLocations().length;
+        }
+        values = new Object[count];
+        types = new Type[count];
+        for (Map.Entry<Object, String> label : labels.entrySet()) {
+            String position = label.getValue().startsWith("?") ? label.getValue().substring(1) : label.getValue();
+            PositionalParameterInformation parameter = parameters.get(Integer.valueOf(position));
+            if (parameter == null) {
+                continue;
+            }
+            Object value = value(label.getKey());
+            if (value instanceof Collection) {
+                throw new IllegalArgumentException("不支持集合参数,请单独执行该查询");
+            }
+            Type type = parameter.getExpectedType();
+            if (type == null && value != null) {
+                type = session.getFactory().getTypeResolver().heuristicType(value.getClass().getName());
+            }
+            for (int location : parameter.getSourceLocations()) {
+                values[location] = value;
+                types[location] = type;
+            }
+        }
+    }
+
+    private Object value(Object constant) {
+        if (constant instanceof ParamExpression) {
+            Map<ParamExpression<?>, Object> params = metadata.getParams();
+            if (!params.containsKey(constant)) {
+                throw new ParamNotSetException((ParamExpression<?>) constant);
+            }
+            return params.get(constant);
+        }
+        return constant;
+    }
+
+    private LimitHandler limitHandler() {
+        return session.getFactory().getJdbcServices().getDialect().getLimitHandler();
+    }
+
+    private static RowSelection rowSelection(QueryModifiers modifiers) {
+        RowSelection selection = new RowSelection();
+        if (modifiers.getLimit() != null) {
+            selection.setMaxRows(modifiers.getLimit().intValue());
+        }
+        if (modifiers.getOffset() != null) {
+            selection.setFirstRow(modifiers.getOffset().intValue());
+        }
+        return selection;
+    }
+}
@@ -0,0 +1,106 @@
+package com.kevin.querydsl.search;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * LIKE模式:拆出其中的字面量片段用来查n-gram索引,再编译成正则校验候选文本<br/>
+ * 匹配不区分大小写,和MySQL默认排序规则下的LIKE一致<br/>
+ * kevin<br/>
+ * 2021/3/22 10:00<br/>
+ */
+class LikePattern {
+
+    private static final char ESCAPE = '\\';
+
+    private final List<String> literals;
+    private final Pattern regex;
+
+    private LikePattern(List<String> literals, Pattern regex) {
+        this.literals = literals;
+        this.regex = regex;
+    }
+
+    /**
+     * @param escape 转义字符,没有时为null
+     */
+    static LikePattern like(String pattern, Character escape) {
+        List<String> literals = new ArrayList<>();
+        StringBuilder regex = new StringBuilder();
+        StringBuilder literal = new StringBuilder();
+        for (int i = 0; i < pattern.length(); i++) {
+            char c = pattern.charAt(i);
+            if (escape != null && c == escape && i + 1 < pattern.length()) {
+                literal.append(pattern.charAt(++i));
+            } else if (c == '%' || c == '_') {
+                flush(literal, literals, regex);
+                regex.append(c == '%' ? ".*" : ".");
+            } else {
+                literal.append(c);
+            }
+        }
+        flush(literal, literals, regex);
+        return new LikePattern(literals, Pattern.compile(regex.toString(), Pattern.DOTALL));
+    }
+
+    static LikePattern contains(String value) {
+        return like("%" + escape(value) + "%", ESCAPE);
+    }
+
+    static LikePattern startsWith(String value) {
+        return like(escape(value) + "%", ESCAPE);
+    }
+
+    static LikePattern endsWith(String value) {
+        return like("%" + escape(value), ESCAPE);
+    }
+
+    private static String escape(String value) {
+        StringBuilder escaped = new StringBuilder(value.length() + 8);
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == ESCAPE || c == '%' || c == '_') {
+                escaped.append(ESCAPE);
+            }
+            escaped.append(c);
+        }
+        return escaped.toString();
+    }
+
+    private static void flush(StringBuilder literal, List<String> literals, StringBuilder regex) {
+        if (literal.length() > 0) {
+            String normalized = NgramSegment.normalize(literal.toString());
+            literals.add(normalized);
+            regex.append(Pattern.quote(normalized));
+            literal.setLength(0);
+        }
+    }
+
+    /**
+     * 候选文档必须包含的gram,模式中没有字面量(如"%"、"___")时为空,不能用索引
+     */
+    Set<String> grams() {
+        Set<String> grams = new LinkedHashSet<>();
+        for (String literal : literals) {
+            int[] codePoints = literal.codePoints().toArray();
+            if (codePoints.length <= NgramSegment.GRAM) {
+                grams.add(literal);
+            } else {
+                for (int i = 0; i + NgramSegment.GRAM <= codePoints.length; i++) {
+                    grams.add(new String(codePoints, i, NgramSegment.GRAM));
+                }
+            }
+        }
+        return grams;
+    }
+
+    /**
+     * @param normalized 已经转成小写的文本
+     */
+    boolean matches(String normalized) {
+        return regex.matcher(normalized).matches();
+    }
+}
@@ -0,0 +1,274 @@
+package com.kevin.querydsl.search;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Supplier;
+
+/**
+ * 一列文本的n-gram索引:磁盘上一个不可变的{@link NgramSegment},加上内存中尚未合并的修改(delta)<br/>
+ * 提交后的插入、修改、删除只写delta,delta中的id覆盖segment中的同一个id;
+ * delta超过阈值后合并成新一代segment文件,文件名为name-代数.seg<br/>
+ * 合并和重建期间的修改照常写入delta,替换segment时只移除已经包含在新segment中的那些修改<br/>
+ * kevin<br/>
+ * 2021/3/22 10:00<br/>
+ */
+public class NgramIndex {
+
+    private static final String SUFFIX = ".seg";
+
+    private final String name;
+    private final Path directory;
+    //查询持有读锁,替换segment持有写锁,保证查询看到的segment和delta是一致的
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Map<Long, Change> delta = new ConcurrentHashMap<>();
+    private volatile NgramSegment segment;
+    private long generation;
+
+    public NgramIndex(String name, Path directory) {
+        this.name = name;
+        this.directory = directory;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public boolean isLoaded() {
+        return segment != null;
+    }
+
+    /**
+     * 打开最新一代的segment文件
+     *
+     * @return 没有文件时返回false,需要重建
+     */
+    public synchronized boolean open() {
+        Path latest = null;
+        long latestGeneration = -1;
+        try {
+            Files.createDirectories(directory);
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, name + "-*" + SUFFIX)) {
+                for (Path file : files) {
+                    long fileGeneration = generationOf(file);
+                    if (fileGeneration > latestGeneration) {
+                        latest = file;
+                        latestGeneration = fileGeneration;
+                    }
+                }
+            }
+            if (latest == null) {
+                return false;
+            }
+            replace(NgramSegment.open(latest), latestGeneration, new HashMap<>());
+            return true;
+        } catch (IOException | IllegalStateException e) {
+            // 文件损坏时当作没有文件
+            return false;
+        }
+    }
+
+    /**
+     * 用全量数据重建,docs在调用之后才读取,读取之前已经提交的修改都包含在其中
+     *
+     * @param docs id到文本,按id升序
+     */
+    public synchronized void rebuild(Supplier<TreeMap<Long, String>> docs) {
+        Map<Long, Change> covered = new HashMap<>(delta);
+        write(docs.get(), covered);
+    }
+
+    /**
+     * 把delta合并进新的segment
+     */
+    public synchronized void compact() {
+        NgramSegment current = segment;
+        if (current == null || delta.isEmpty()) {
+            return;
+        }
+        Map<Long, Change> covered = new HashMap<>(delta);
+        TreeMap<Long, String> docs = new TreeMap<>();
+        for (int doc = 0; doc < current.size(); doc++) {
+            long id = current.id(doc);
+            if (!covered.containsKey(id)) {
+                docs.put(id, current.text(doc));
+            }
+        }
+        covered.forEach((id, change) -> {
+            if (change.text != null) {
+                docs.put(id, change.text);
+            }
+        });
+        write(docs, covered);
+    }
+
+    private void write(TreeMap<Long, String> docs, Map<Long, Change> covered) {
+        long[] ids = new long[docs.size()];
+        List<String> texts = new ArrayList<>(docs.size());
+        int i = 0;
+        for (Map.Entry<Long, String> doc : docs.entrySet()) {
+            ids[i++] = doc.getKey();
+            texts.add(doc.getValue());
+        }
+        long nextGeneration = Math.max(generation, latestGenerationOnDisk()) + 1;
+        try {
+            Files.createDirectories(directory);
+            NgramSegment written = NgramSegment.write(directory.resolve(name + "-" + nextGeneration + SUFFIX), ids, texts);
+            replace(written, nextGeneration, covered);
+        } catch (IOException e) {
+            throw new UncheckedIOException("写入n-gram索引失败: " + name, e);
+        }
+    }
+
+    private void replace(NgramSegment replacement, long replacementGeneration, Map<Long, Change> covered) {
+        NgramSegment previous;
+        lock.writeLock().lock();
+        try {
+            previous = segment;
+            segment = replacement;
+            generation = replacementGeneration;
+            // 按对象比较,覆盖之后又发生的修改保留在delta中
+            covered.forEach(delta::remove);
+        } finally {
+            lock.writeLock().unlock();
+        }
+        if (previous != null && previous.getFile() != null && !previous.getFile().equals(replacement.getFile())) {
+            try {
+                // 映射在GC时才释放,Linux上删除已映射的文件不影响读取
+                Files.deleteIfExists(previous.getFile());
+            } catch (IOException e) {
+                // 下次打开时只会选最新一代
+            }
+        }
+    }
+
+    /**
+     * 文档插入或修改后的文本,为null时等同于删除(null不匹配任何LIKE)
+     */
+    public void put(long id, String text) {
+        delta.put(id, new Change(text));
+    }
+
+    public void remove(long id) {
+        delta.put(id, new Change(null));
+    }
+
+    /**
+     * 尚未合并进segment的修改数
+     */
+    public int pending() {
+        return delta.size();
+    }
+
+    /**
+     * 索引中的文档数
+     */
+    public int size() {
+        lock.readLock().lock();
+        try {
+            NgramSegment current = segment == null ? NgramSegment.empty() : segment;
+            int size = current.size();
+            for (int doc = 0; doc < current.size(); doc++) {
+                if (delta.containsKey(current.id(doc))) {
+                    size--;
+                }
+            }
+            for (Change change : delta.values()) {
+                if (change.text != null) {
+                    size++;
+                }
+            }
+            return size;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 文本满足LIKE模式的id,升序
+     *
+     * @return 模式中没有可用的字面量时返回null,只能扫描
+     */
+    long[] search(LikePattern pattern) {
+        Set<String> grams = pattern.grams();
+        if (grams.isEmpty()) {
+            return null;
+        }
+        lock.readLock().lock();
+        try {
+            NgramSegment current = segment == null ? NgramSegment.empty() : segment;
+            NgramSegment.IntList docs = current.size() == 0
+                    ? new NgramSegment.IntList() : current.search(grams, pattern::matches);
+            List<Long> changed = new ArrayList<>();
+            for (Map.Entry<Long, Change> entry : delta.entrySet()) {
+                String text = entry.getValue().text;
+                if (text != null && pattern.matches(NgramSegment.normalize(text))) {
+                    changed.add(entry.getKey());
+                }
+            }
+            long[] ids = new long[docs.size + changed.size()];
+            int count = 0;
+            for (int i = 0; i < docs.size; i++) {
+                long id = current.id(docs.values[i]);
+                if (!delta.containsKey(id)) {
+                    ids[count++] = id;
+                }
+            }
+            for (Long id : changed) {
+                ids[count++] = id;
+            }
+            long[] result = Arrays.copyOf(ids, count);
+            Arrays.sort(result);
+            return result;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private long latestGenerationOnDisk() {
+        long latest = 0;
+        if (!Files.isDirectory(directory)) {
+            return latest;
+        }
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, name + "-*" + SUFFIX)) {
+            for (Path file : files) {
+                latest = Math.max(latest, generationOf(file));
+            }
+        } catch (IOException e) {
+            // 只用内存中的代数
+        }
+        return latest;
+    }
+
+    private long generationOf(Path file) {
+        String fileName = file.getFileName().toString();
+        try {
+            return Long.parseLong(fileName.substring(name.length() + 1, fileName.length() - SUFFIX.length()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * delta中的一次修改,text为null表示删除;不重写equals,按对象判断是否被新的修改覆盖
+     */
+    private static final class Change {
+        private final String text;
+
+        private Change(String text) {
+            this.text = text;
+        }
+    }
+}
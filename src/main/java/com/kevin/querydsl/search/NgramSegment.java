@@ -0,0 +1,323 @@
+package com.kevin.querydsl.search;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Predicate;
+
+/**
+ * 一个不可变的n-gram倒排索引文件,通过mmap读取,查询时不需要把索引加载到堆内<br/>
+ * 每个文档(id, 文本)按小写后的码点切出长度1~3的gram,中文等按字切分,不需要分词<br/>
+ * 文件结构(大端):
+ * <pre>
+ * header    magic, version, docCount, gramCount, 各区偏移
+ * docs      docCount * (id long, textStart int, textLength int),按id排序
+ * texts     原文的UTF-8字节,用来校验候选文档
+ * grams     gramCount * (gramStart int, gramLength int, postingStart int, postingCount int),按UTF-8字节排序
+ * gramBytes gram的UTF-8字节
+ * postings  每个gram对应的文档序号(docs中的下标),升序
+ * </pre>
+ * kevin<br/>
+ * 2021/3/22 10:00<br/>
+ */
+class NgramSegment {
+
+    //索引的最长gram,模式中长度不小于它的片段用所有该长度的gram求交集
+    static final int GRAM = 3;
+
+    private static final int MAGIC = 0x4E47524D;
+    private static final int VERSION = 1;
+    private static final int HEADER = 4 * 9;
+    private static final int DOC_ENTRY = 16;
+    private static final int GRAM_ENTRY = 16;
+
+    private final Path file;
+    private final ByteBuffer buffer;
+    private final int docCount;
+    private final int gramCount;
+    private final int docsOffset;
+    private final int textsOffset;
+    private final int gramsOffset;
+    private final int gramBytesOffset;
+    private final int postingsOffset;
+
+    private NgramSegment(Path file, ByteBuffer buffer) {
+        this.file = file;
+        this.buffer = buffer;
+        if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+            throw new IllegalStateException("不是n-gram索引文件或版本不兼容: " + file);
+        }
+        this.docCount = buffer.getInt(8);
+        this.gramCount = buffer.getInt(12);
+        this.docsOffset = buffer.getInt(16);
+        this.textsOffset = buffer.getInt(20);
+        this.gramsOffset = buffer.getInt(24);
+        this.gramBytesOffset = buffer.getInt(28);
+        this.postingsOffset = buffer.getInt(32);
+    }
+
+    /**
+     * 空索引,还没有文件时使用
+     */
+    static NgramSegment empty() {
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER);
+        buffer.putInt(0, MAGIC).putInt(4, VERSION);
+        for (int i = 16; i < HEADER; i += 4) {
+            buffer.putInt(i, HEADER);
+        }
+        return new NgramSegment(null, buffer);
+    }
+
+    static NgramSegment open(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            // 关闭channel后映射仍然有效
+            return new NgramSegment(file, channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    /**
+     * 写入新的索引文件,先写临时文件再改名,写到一半的文件不会被打开
+     *
+     * @param ids   按id升序
+     * @param texts 和ids一一对应
+     */
+    static NgramSegment write(Path file, long[] ids, List<String> texts) throws IOException {
+        Map<String, IntList> postings = new HashMap<>();
+        List<byte[]> textBytes = new ArrayList<>(texts.size());
+        long textsSize = 0;
+        for (int doc = 0; doc < ids.length; doc++) {
+            String text = texts.get(doc);
+            byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+            textBytes.add(bytes);
+            textsSize += bytes.length;
+            for (String gram : grams(normalize(text))) {
+                postings.computeIfAbsent(gram, g -> new IntList()).add(doc);
+            }
+        }
+        List<byte[]> gramBytes = new ArrayList<>(postings.size());
+        Map<byte[], IntList> byBytes = new HashMap<>(postings.size() * 2);
+        long gramBytesSize = 0;
+        long postingsSize = 0;
+        for (Map.Entry<String, IntList> entry : postings.entrySet()) {
+            byte[] bytes = entry.getKey().getBytes(StandardCharsets.UTF_8);
+            gramBytes.add(bytes);
+            byBytes.put(bytes, entry.getValue());
+            gramBytesSize += bytes.length;
+            postingsSize += entry.getValue().size * 4L;
+        }
+        // 按UTF-8字节的无符号顺序排列,和查询时的二分比较一致
+        gramBytes.sort(Arrays::compareUnsigned);
+
+        long docsOffset = HEADER;
+        long textsOffset = docsOffset + (long) ids.length * DOC_ENTRY;
+        long gramsOffset = textsOffset + textsSize;
+        long gramBytesOffset = gramsOffset + (long) gramBytes.size() * GRAM_ENTRY;
+        long postingsOffset = gramBytesOffset + gramBytesSize;
+        long size = postingsOffset + postingsSize;
+        if (size > Integer.MAX_VALUE) {
+            throw new IllegalStateException("索引文件超过2GB: " + file);
+        }
+
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            MappedByteBuffer out = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            out.putInt(MAGIC).putInt(VERSION).putInt(ids.length).putInt(gramBytes.size())
+                    .putInt((int) docsOffset).putInt((int) textsOffset).putInt((int) gramsOffset)
+                    .putInt((int) gramBytesOffset).putInt((int) postingsOffset);
+            int textStart = (int) textsOffset;
+            for (int doc = 0; doc < ids.length; doc++) {
+                int length = textBytes.get(doc).length;
+                out.putLong(ids[doc]).putInt(textStart).putInt(length);
+                textStart += length;
+            }
+            for (byte[] bytes : textBytes) {
+                out.put(bytes);
+            }
+            int gramStart = (int) gramBytesOffset;
+            int postingStart = (int) postingsOffset;
+            for (byte[] bytes : gramBytes) {
+                int count = byBytes.get(bytes).size;
+                out.putInt(gramStart).putInt(bytes.length).putInt(postingStart).putInt(count);
+                gramStart += bytes.length;
+                postingStart += count * 4;
+            }
+            for (byte[] bytes : gramBytes) {
+                out.put(bytes);
+            }
+            for (byte[] bytes : gramBytes) {
+                IntList docs = byBytes.get(bytes);
+                for (int i = 0; i < docs.size; i++) {
+                    out.putInt(docs.values[i]);
+                }
+            }
+            out.force();
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return open(file);
+    }
+
+    Path getFile() {
+        return file;
+    }
+
+    int size() {
+        return docCount;
+    }
+
+    long id(int doc) {
+        return buffer.getLong(docsOffset + doc * DOC_ENTRY);
+    }
+
+    String text(int doc) {
+        int entry = docsOffset + doc * DOC_ENTRY;
+        byte[] bytes = new byte[buffer.getInt(entry + 12)];
+        ByteBuffer view = buffer.duplicate();
+        view.position(buffer.getInt(entry + 8));
+        view.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * 包含所有grams的文档中,文本满足matcher的文档序号
+     */
+    IntList search(Collection<String> grams, Predicate<String> matcher) {
+        List<IntList> lists = new ArrayList<>(grams.size());
+        for (String gram : grams) {
+            IntList postings = postings(gram);
+            if (postings.size == 0) {
+                return new IntList();
+            }
+            lists.add(postings);
+        }
+        lists.sort((a, b) -> Integer.compare(a.size, b.size));
+        IntList candidates = lists.get(0);
+        for (int i = 1; i < lists.size() && candidates.size > 0; i++) {
+            candidates = candidates.intersect(lists.get(i));
+        }
+        IntList matches = new IntList();
+        for (int i = 0; i < candidates.size; i++) {
+            int doc = candidates.values[i];
+            if (matcher.test(normalize(text(doc)))) {
+                matches.add(doc);
+            }
+        }
+        return matches;
+    }
+
+    private IntList postings(String gram) {
+        byte[] key = gram.getBytes(StandardCharsets.UTF_8);
+        int low = 0;
+        int high = gramCount - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int entry = gramsOffset + mid * GRAM_ENTRY;
+            int cmp = compare(buffer.getInt(entry), buffer.getInt(entry + 4), key);
+            if (cmp < 0) {
+                low = mid + 1;
+            } else if (cmp > 0) {
+                high = mid - 1;
+            } else {
+                int start = buffer.getInt(entry + 8);
+                int count = buffer.getInt(entry + 12);
+                IntList postings = new IntList(count);
+                for (int i = 0; i < count; i++) {
+                    postings.add(buffer.getInt(start + i * 4));
+                }
+                return postings;
+            }
+        }
+        return new IntList();
+    }
+
+    private int compare(int start, int length, byte[] key) {
+        int n = Math.min(length, key.length);
+        for (int i = 0; i < n; i++) {
+            int cmp = Integer.compare(buffer.get(start + i) & 0xff, key[i] & 0xff);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return Integer.compare(length, key.length);
+    }
+
+    /**
+     * 和MySQL默认的不区分大小写排序规则一致,索引和匹配都用小写
+     */
+    static String normalize(String text) {
+        return text.toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * 长度1~GRAM的所有gram,按码点切分
+     */
+    static Set<String> grams(String text) {
+        int[] codePoints = text.codePoints().toArray();
+        Set<String> grams = new LinkedHashSet<>();
+        for (int i = 0; i < codePoints.length; i++) {
+            for (int length = 1; length <= GRAM && i + length <= codePoints.length; length++) {
+                grams.add(new String(codePoints, i, length));
+            }
+        }
+        return grams;
+    }
+
+    /**
+     * 不装箱的int列表
+     */
+    static class IntList {
+        int[] values;
+        int size;
+
+        IntList() {
+            this(8);
+        }
+
+        IntList(int capacity) {
+            values = new int[Math.max(capacity, 1)];
+        }
+
+        void add(int value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+
+        /**
+         * 两个升序列表的交集
+         */
+        IntList intersect(IntList other) {
+            IntList result = new IntList(Math.min(size, other.size));
+            int i = 0;
+            int j = 0;
+            while (i < size && j < other.size) {
+                if (values[i] < other.values[j]) {
+                    i++;
+                } else if (values[i] > other.values[j]) {
+                    j++;
+                } else {
+                    result.add(values[i]);
+                    i++;
+                    j++;
+                }
+            }
+            return result;
+        }
+    }
+}
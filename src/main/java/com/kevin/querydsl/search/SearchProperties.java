@@ -0,0 +1,22 @@
+package com.kevin.querydsl.search;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+/**
+ * n-gram文本索引配置<br/>
+ * kevin<br/>
+ * 2021/3/22 10:00<br/>
+ */
+@Data
+@ConfigurationProperties(prefix = "querydsl.search")
+public class SearchProperties {
+    //为false时不改写查询,仍然走数据库的LIKE
+    private boolean enabled = true;
+    //索引文件目录,每台机器一份,可以随时删除后重建
+    private String directory = System.getProperty("java.io.tmpdir") + "/querydsl/ngram";
+    //未合并的修改超过这个数时在后台合并成新的索引文件
+    private int compactThreshold = 10000;
+    //命中的id超过这个数时不改写,in列表太长不如直接扫描
+    private int maxIds = 1000;
+}
@@ -0,0 +1,60 @@
+package com.kevin.querydsl.search;
+
+import com.kevin.querydsl.jpa.PostCommitListener;
+import org.hibernate.event.spi.PostDeleteEvent;
+import org.hibernate.event.spi.PostInsertEvent;
+import org.hibernate.event.spi.PostUpdateEvent;
+import org.hibernate.persister.entity.EntityPersister;
+import org.springframework.stereotype.Component;
+
+import javax.persistence.EntityManagerFactory;
+
+/**
+ * 被索引实体的插入、修改、删除在事务提交后同步到{@link TextIndexes},回滚的修改不会进入索引<br/>
+ * kevin<br/>
+ * 2021/3/22 10:00<br/>
+ */
+@Component
+public class TextIndexListener extends PostCommitListener {
+
+    private final transient TextIndexes textIndexes;
+
+    public TextIndexListener(EntityManagerFactory entityManagerFactory, TextIndexes textIndexes) {
+        super(entityManagerFactory);
+        this.textIndexes = textIndexes;
+    }
+
+    @Override
+    public void onPostInsert(PostInsertEvent event) {
+        EntityPersister persister = event.getPersister();
+        if (textIndexes.isIndexed(persister.getMappedClass())) {
+            Object[] state = event.getState();
+            textIndexes.update(persister.getMappedClass(), (Long) event.getId(),
+                    property -> state[index(persister, property)]);
+        }
+    }
+
+    @Override
+    public void onPostUpdate(PostUpdateEvent event) {
+        EntityPersister persister = event.getPersister();
+        if (textIndexes.isIndexed(persister.getMappedClass())) {
+            // 只需要新值,游离实体直接update时没有旧值也不影响
+            Object[] state = event.getState();
+            textIndexes.update(persister.getMappedClass(), (Long) event.getId(),
+                    property -> state[index(persister, property)]);
+        }
+    }
+
+    @Override
+    public void onPostDelete(PostDeleteEvent event) {
+        EntityPersister persister = event.getPersister();
+        if (textIndexes.isIndexed(persister.getMappedClass())) {
+            textIndexes.remove(persister.getMappedClass(), (Long) event.getId());
+        }
+    }
+
+    @Override
+    public boolean requiresPostCommitHandling(EntityPersister persister) {
+        return textIndexes.isIndexed(persister.getMappedClass());
+    }
+}
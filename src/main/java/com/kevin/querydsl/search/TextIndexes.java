@@ -0,0 +1,388 @@
+package com.kevin.querydsl.search;
+
+import com.kevin.querydsl.entity.GoodInfoEntity;
+import com.kevin.querydsl.entity.GoodTypeEntity;
+import com.kevin.querydsl.entity.QGoodInfoEntity;
+import com.kevin.querydsl.entity.QGoodTypeEntity;
+import com.kevin.querydsl.entity.QUserEntity;
+import com.kevin.querydsl.entity.UserEntity;
+import com.kevin.querydsl.jpa.NonEventWrites;
+import com.querydsl.core.Tuple;
+import com.querydsl.core.types.Constant;
+import com.querydsl.core.types.EntityPath;
+import com.querydsl.core.types.Expression;
+import com.querydsl.core.types.ExpressionUtils;
+import com.querydsl.core.types.Operation;
+import com.querydsl.core.types.Operator;
+import com.querydsl.core.types.Ops;
+import com.querydsl.core.types.Path;
+import com.querydsl.core.types.Predicate;
+import com.querydsl.core.types.dsl.NumberPath;
+import com.querydsl.core.types.dsl.StringPath;
+import com.querydsl.jpa.impl.JPAQueryFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * 用户名、商品标题、类型名称的n-gram索引,代替前导%的LIKE全表扫描<br/>
+ * {@link #rewrite(Predicate)}把这些列上的like/contains/startsWith/endsWith改写成 id in (索引命中的id),
+ * 其余条件原样保留,结果仍然由数据库返回:
+ * <pre>
+ * List&lt;UserEntity&gt; users = jpaQueryFactory.selectFrom(qUser)
+ *         .where(textIndexes.rewrite(qUser.name.like("%ry").and(qUser.age.gt(18))))
+ *         .fetch();
+ * </pre>
+ * 索引在第一次使用时打开本地文件,和数据库的行数对不上或没有文件时全量重建;
+ * 之后由{@link TextIndexListener}在事务提交后同步<br/>
+ * 匹配不区分大小写,和MySQL默认排序规则一致;BaseJPA的insertAll/patch/patchAll和BulkDmlExecutor通过
+ * {@link NonEventWrites}把对应实体的索引标记为过期,直接执行的QueryDSL批量update/delete和原生SQL
+ * 不会触发监听器,执行后需要调用{@link #markStale()}<br/>
+ * kevin<br/>
+ * 2021/3/22 10:00<br/>
+ */
+@Component
+@EnableConfigurationProperties(SearchProperties.class)
+public class TextIndexes implements DisposableBean {
+
+    private static final Logger logger = LoggerFactory.getLogger(TextIndexes.class);
+    //重建时每次读取的行数
+    private static final int PAGE_SIZE = 10000;
+
+    private final JPAQueryFactory jpaQueryFactory;
+    private final SearchProperties properties;
+    private final List<Column> columns = new ArrayList<>();
+    private final ExecutorService compactor;
+    private final Consumer<Class<?>> staleOnWrite = this::markStale;
+
+    public TextIndexes(JPAQueryFactory jpaQueryFactory, SearchProperties properties) {
+        this.jpaQueryFactory = jpaQueryFactory;
+        this.properties = properties;
+        QUserEntity qUser = QUserEntity.userEntity;
+        QGoodInfoEntity qGoodInfo = QGoodInfoEntity.goodInfoEntity;
+        QGoodTypeEntity qGoodType = QGoodTypeEntity.goodTypeEntity;
+        columns.add(new Column("user_name", UserEntity.class, qUser, qUser.id, qUser.name));
+        columns.add(new Column("good_info_title", GoodInfoEntity.class, qGoodInfo, qGoodInfo.id, qGoodInfo.title));
+        columns.add(new Column("good_type_name", GoodTypeEntity.class, qGoodType, qGoodType.id, qGoodType.name));
+        CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("ngram-compact-");
+        threadFactory.setDaemon(true);
+        this.compactor = Executors.newSingleThreadExecutor(threadFactory);
+        NonEventWrites.register(staleOnWrite);
+    }
+
+    public boolean isEnabled() {
+        return properties.isEnabled();
+    }
+
+    /**
+     * 改写predicate中可以走索引的条件,在not中的条件不改写(文本为null的行语义不同)
+     */
+    public Predicate rewrite(Predicate predicate) {
+        if (!properties.isEnabled() || predicate == null) {
+            return predicate;
+        }
+        Expression<?> expression = ExpressionUtils.extract(predicate);
+        return expression == null ? predicate : rewriteExpression((Predicate) expression);
+    }
+
+    /**
+     * path上满足LIKE模式的id
+     *
+     * @return 不是索引列或模式中没有字面量时返回null
+     */
+    public long[] search(StringPath path, String likePattern) {
+        Column column = column(path);
+        if (column == null) {
+            return null;
+        }
+        ensureLoaded(column);
+        return column.index.search(LikePattern.like(likePattern, '\\'));
+    }
+
+    /**
+     * 索引可能已经和数据库不一致,下次使用时重建
+     */
+    public void markStale() {
+        for (Column column : columns) {
+            column.stale = true;
+        }
+    }
+
+    /**
+     * 某个实体的索引可能已经和数据库不一致,下次使用时重建
+     */
+    public void markStale(Class<?> type) {
+        for (Column column : columns) {
+            if (column.type.equals(type)) {
+                column.stale = true;
+            }
+        }
+    }
+
+    /**
+     * 从数据库全量重建所有索引
+     */
+    public void rebuild() {
+        for (Column column : columns) {
+            rebuild(column);
+        }
+    }
+
+    /**
+     * 各索引的状态
+     */
+    public List<Map<String, Object>> stats() {
+        List<Map<String, Object>> stats = new ArrayList<>();
+        for (Column column : columns) {
+            Map<String, Object> stat = new LinkedHashMap<>();
+            stat.put("name", column.index.getName());
+            stat.put("loaded", column.index.isLoaded());
+            stat.put("stale", column.stale);
+            stat.put("size", column.index.size());
+            stat.put("pending", column.index.pending());
+            stats.add(stat);
+        }
+        return stats;
+    }
+
+    boolean isIndexed(Class<?> type) {
+        if (!properties.isEnabled()) {
+            return false;
+        }
+        for (Column column : columns) {
+            if (column.type.equals(type)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 提交后的插入或修改
+     *
+     * @param state 属性名到新值
+     */
+    void update(Class<?> type, Long id, Function<String, Object> state) {
+        for (Column column : columns) {
+            if (column.type.equals(type) && column.tracking) {
+                column.index.put(id, (String) state.apply(column.property));
+                compactIfNeeded(column);
+            }
+        }
+    }
+
+    void remove(Class<?> type, Long id) {
+        for (Column column : columns) {
+            if (column.type.equals(type) && column.tracking) {
+                column.index.remove(id);
+                compactIfNeeded(column);
+            }
+        }
+    }
+
+    @Override
+    public void destroy() {
+        NonEventWrites.unregister(staleOnWrite);
+        compactor.shutdownNow();
+    }
+
+    private Predicate rewriteExpression(Predicate predicate) {
+        if (!(predicate instanceof Operation)) {
+            return predicate;
+        }
+        Operation<?> operation = (Operation<?>) predicate;
+        Operator operator = operation.getOperator();
+        if (operator == Ops.AND || operator == Ops.OR) {
+            Predicate left = (Predicate) operation.getArg(0);
+            Predicate right = (Predicate) operation.getArg(1);
+            Predicate rewrittenLeft = rewriteExpression(left);
+            Predicate rewrittenRight = rewriteExpression(right);
+            if (rewrittenLeft == left && rewrittenRight == right) {
+                return predicate;
+            }
+            return ExpressionUtils.predicate(operator, rewrittenLeft, rewrittenRight);
+        }
+        LikePattern pattern = pattern(operation);
+        Column column = pattern == null ? null : column(operation.getArg(0));
+        if (column == null) {
+            return predicate;
+        }
+        ensureLoaded(column);
+        long[] ids = column.index.search(pattern);
+        if (ids == null || ids.length > properties.getMaxIds()) {
+            return predicate;
+        }
+        // 和原条件使用同一个别名
+        Path<Long> id = ExpressionUtils.path(Long.class,
+                ((Path<?>) operation.getArg(0)).getMetadata().getParent(), column.id.getMetadata().getName());
+        if (ids.length == 0) {
+            return ExpressionUtils.isNull(id);
+        }
+        List<Long> values = new ArrayList<>(ids.length);
+        for (long value : ids) {
+            values.add(value);
+        }
+        return ExpressionUtils.in(id, values);
+    }
+
+    private static LikePattern pattern(Operation<?> operation) {
+        List<Expression<?>> args = operation.getArgs();
+        if (args.size() < 2 || !(args.get(1) instanceof Constant)
+                || !(((Constant<?>) args.get(1)).getConstant() instanceof String)) {
+            return null;
+        }
+        String value = (String) ((Constant<?>) args.get(1)).getConstant();
+        Operator operator = operation.getOperator();
+        if (operator == Ops.LIKE || operator == Ops.LIKE_IC) {
+            // 没有escape子句时MySQL默认用反斜杠转义
+            return LikePattern.like(value, '\\');
+        } else if (operator == Ops.LIKE_ESCAPE && args.size() == 3 && args.get(2) instanceof Constant) {
+            Object escape = ((Constant<?>) args.get(2)).getConstant();
+            return escape instanceof Character ? LikePattern.like(value, (Character) escape) : null;
+        } else if (operator == Ops.STRING_CONTAINS || operator == Ops.STRING_CONTAINS_IC) {
+            return LikePattern.contains(value);
+        } else if (operator == Ops.STARTS_WITH || operator == Ops.STARTS_WITH_IC) {
+            return LikePattern.startsWith(value);
+        } else if (operator == Ops.ENDS_WITH || operator == Ops.ENDS_WITH_IC) {
+            return LikePattern.endsWith(value);
+        }
+        return null;
+    }
+
+    /**
+     * 只认实体别名上的直接属性,别名可以不是默认的
+     */
+    private Column column(Expression<?> expression) {
+        if (!(expression instanceof Path)) {
+            return null;
+        }
+        Path<?> parent = ((Path<?>) expression).getMetadata().getParent();
+        if (parent == null || !parent.getMetadata().isRoot()) {
+            return null;
+        }
+        String property = ((Path<?>) expression).getMetadata().getName();
+        for (Column column : columns) {
+            if (column.type.equals(parent.getType()) && column.property.equals(property)) {
+                return column;
+            }
+        }
+        return null;
+    }
+
+    private void ensureLoaded(Column column) {
+        if (column.index.isLoaded() && !column.stale) {
+            return;
+        }
+        synchronized (column) {
+            if (column.index.isLoaded() && !column.stale) {
+                return;
+            }
+            // 从这里开始记录修改,加载期间提交的修改不会丢失;从未使用的索引不占内存
+            column.tracking = true;
+            if (!column.stale && column.index.open() && column.index.size() == count(column)) {
+                logger.info("n-gram索引[{}]从文件加载,[{}]个文档", column.index.getName(), column.index.size());
+                return;
+            }
+            rebuild(column);
+        }
+    }
+
+    private void rebuild(Column column) {
+        synchronized (column) {
+            column.tracking = true;
+            long start = System.currentTimeMillis();
+            // 先清除标记,重建期间再被标记的下次使用时还会重建
+            column.stale = false;
+            column.index.rebuild(() -> load(column));
+            logger.info("n-gram索引[{}]重建完成,[{}]个文档,耗时:[{}]ms",
+                    column.index.getName(), column.index.size(), System.currentTimeMillis() - start);
+        }
+    }
+
+    /**
+     * 按主键分页读取全部非空文本
+     */
+    private TreeMap<Long, String> load(Column column) {
+        TreeMap<Long, String> docs = new TreeMap<>();
+        Long last = null;
+        List<Tuple> rows;
+        do {
+            rows = jpaQueryFactory
+                    .select(column.id, column.text)
+                    .from(column.root)
+                    .where(column.text.isNotNull(), last == null ? null : column.id.gt(last))
+                    .orderBy(column.id.asc())
+                    .limit(PAGE_SIZE)
+                    .fetch();
+            for (Tuple row : rows) {
+                last = row.get(column.id);
+                docs.put(last, row.get(column.text));
+            }
+        } while (rows.size() == PAGE_SIZE);
+        return docs;
+    }
+
+    private long count(Column column) {
+        Long count = jpaQueryFactory.select(column.id.count()).from(column.root)
+                .where(column.text.isNotNull()).fetchOne();
+        return count == null ? 0 : count;
+    }
+
+    private void compactIfNeeded(Column column) {
+        if (column.index.pending() < properties.getCompactThreshold()
+                || !column.index.isLoaded() || !column.compacting.compareAndSet(false, true)) {
+            return;
+        }
+        compactor.execute(() -> {
+            try {
+                long start = System.currentTimeMillis();
+                column.index.compact();
+                logger.info("n-gram索引[{}]合并完成,耗时:[{}]ms", column.index.getName(), System.currentTimeMillis() - start);
+            } catch (RuntimeException e) {
+                logger.warn("n-gram索引[{}]合并失败: {}", column.index.getName(), e.getMessage());
+            } finally {
+                column.compacting.set(false);
+            }
+        });
+    }
+
+    /**
+     * 一个被索引的文本列
+     */
+    private class Column {
+        private final Class<?> type;
+        private final String property;
+        private final EntityPath<?> root;
+        private final NumberPath<Long> id;
+        private final StringPath text;
+        private final NgramIndex index;
+        private final AtomicBoolean compacting = new AtomicBoolean();
+        private volatile boolean stale;
+        //第一次加载前不记录修改
+        private volatile boolean tracking;
+
+        private Column(String name, Class<?> type, EntityPath<?> root, NumberPath<Long> id, StringPath text) {
+            this.type = type;
+            this.property = text.getMetadata().getName();
+            this.root = root;
+            this.id = id;
+            this.text = text;
+            this.index = new NgramIndex(name, Paths.get(properties.getDirectory()));
+        }
+    }
+}
@@ -0,0 +1,183 @@
+package com.kevin.querydsl.service;
+
+import com.kevin.querydsl.dto.GoodDTO;
+import com.kevin.querydsl.dto.QGoodDTO;
+import com.kevin.querydsl.entity.GoodInfoEntity;
+import com.kevin.querydsl.entity.GoodTypeEntity;
+import com.kevin.querydsl.entity.QGoodInfoEntity;
+import com.kevin.querydsl.entity.QGoodTypeEntity;
+import com.kevin.querydsl.query.QueryCaches;
+import com.kevin.querydsl.query.ReadOnlyQueries;
+import com.kevin.querydsl.search.TextIndexes;
+import com.kevin.querydsl.stats.PriceStats;
+import com.kevin.querydsl.stats.PriceStatsStore;
+import com.kevin.querydsl.util.JsonUtil;
+import com.mysema.commons.lang.CloseableIterator;
+import com.querydsl.jpa.impl.JPAQueryFactory;
+import org.hibernate.jpa.QueryHints;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * kevin<br/>
+ * 2021/3/3 14:30<br/>
+ */
+@Service
+public class GoodService {
+
+    private final JPAQueryFactory jpaQueryFactory;
+    private final PriceStatsStore priceStatsStore;
+    private final TextIndexes textIndexes;
+    //游标每次从数据库取的行数,MySQL需要在url中开启useCursorFetch=true
+    private final int exportFetchSize;
+
+    public GoodService(JPAQueryFactory jpaQueryFactory,
+                       PriceStatsStore priceStatsStore,
+                       TextIndexes textIndexes,
+                       @Value("${querydsl.export.fetch-size:1000}") int exportFetchSize) {
+        this.jpaQueryFactory = jpaQueryFactory;
+        this.priceStatsStore = priceStatsStore;
+        this.textIndexes = textIndexes;
+        this.exportFetchSize = exportFetchSize;
+    }
+
+    /**
+     * 名称包含keyword的类型编号,升序<br/>
+     * n-gram索引可用时直接由索引给出,不访问数据库;否则执行like查询,结果按keyword进入查询缓存,
+     * good_types被修改后自动失效
+     */
+    @Transactional(readOnly = true)
+    public List<Long> findTypeIds(String keyword) {
+        QGoodTypeEntity qGoodType = QGoodTypeEntity.goodTypeEntity;
+        String pattern = "%" + keyword + "%";
+        long[] indexed = textIndexes.isEnabled() ? textIndexes.search(qGoodType.name, pattern) : null;
+        if (indexed != null) {
+            return Arrays.stream(indexed).boxed().collect(Collectors.toList());
+        }
+        return QueryCaches.cacheable(jpaQueryFactory
+                        .select(qGoodType.id)
+                        .from(qGoodType)
+                        .where(qGoodType.name.like(pattern))
+                        .orderBy(qGoodType.id.asc()),
+                GoodTypeEntity.QUERY_CACHE_REGION)
+                .fetch();
+    }
+
+    /**
+     * 类型名称包含keyword的商品,类型部分走n-gram索引或查询缓存,代替每次执行good_types子查询;
+     * 结果只用于展示,不进入持久化上下文
+     */
+    @Transactional(readOnly = true)
+    public List<GoodInfoEntity> findGoodsByTypeName(String keyword) {
+        List<Long> typeIds = findTypeIds(keyword);
+        QGoodInfoEntity qGoodInfo = QGoodInfoEntity.goodInfoEntity;
+        return ReadOnlyQueries.stateless(jpaQueryFactory
+                .selectFrom(qGoodInfo)
+                .where(qGoodInfo.typeId.in(typeIds)))
+                .fetch();
+    }
+
+    /**
+     * 价格最高的商品,最高价来自价格统计,代替 price = (select max(price) ...) 子查询
+     */
+    @Transactional(readOnly = true)
+    public List<GoodInfoEntity> findMaxPriceGoods() {
+        Double max = priceStatsStore.overall().getMax();
+        if (max == null) {
+            return Collections.emptyList();
+        }
+        QGoodInfoEntity qGoodInfo = QGoodInfoEntity.goodInfoEntity;
+        return jpaQueryFactory
+                .selectFrom(qGoodInfo)
+                .where(qGoodInfo.price.eq(max))
+                .fetch();
+    }
+
+    /**
+     * 价格高于平均价的商品,平均价来自价格统计
+     *
+     * @param typeId 只在该类型内比较,为null时和全部商品比较
+     */
+    @Transactional(readOnly = true)
+    public List<GoodInfoEntity> findAboveAvgPriceGoods(Long typeId) {
+        PriceStats stats = typeId == null ? priceStatsStore.overall() : priceStatsStore.ofType(typeId);
+        if (stats.getAvg() == null) {
+            return Collections.emptyList();
+        }
+        QGoodInfoEntity qGoodInfo = QGoodInfoEntity.goodInfoEntity;
+        return jpaQueryFactory
+                .selectFrom(qGoodInfo)
+                .where(qGoodInfo.price.gt(stats.getAvg()),
+                        typeId == null ? null : qGoodInfo.typeId.eq(typeId))
+                .fetch();
+    }
+
+    /**
+     * 按排序取一页商品,所属类型在同一条SQL里inner join取出(fetch join),
+     * 返回的商品上type已经初始化,访问和序列化都不会再逐个查询类型<br/>
+     * 连接列和排序列都在(tg_type_id, tg_order)索引上,指定类型时不需要额外排序
+     *
+     * @param typeId 为null时取全部类型
+     */
+    @Transactional(readOnly = true)
+    public List<GoodInfoEntity> findGoodsWithType(Long typeId, long offset, long limit) {
+        QGoodInfoEntity qGoodInfo = QGoodInfoEntity.goodInfoEntity;
+        QGoodTypeEntity qGoodType = QGoodTypeEntity.goodTypeEntity;
+        return jpaQueryFactory
+                .selectFrom(qGoodInfo)
+                .innerJoin(qGoodInfo.type, qGoodType).fetchJoin()
+                .where(typeId == null ? null : qGoodInfo.typeId.eq(typeId))
+                // 两列同为降序,整体反向扫描索引
+                .orderBy(qGoodInfo.typeId.desc(), qGoodInfo.order.desc())
+                .offset(offset)
+                .limit(limit)
+                .fetch();
+    }
+
+    /**
+     * 只进游标读取商品及类型,使用完必须关闭Stream,且只能在事务内消费
+     */
+    @Transactional(readOnly = true)
+    public Stream<GoodDTO> streamGoods() {
+        QGoodInfoEntity qGoodInfo = QGoodInfoEntity.goodInfoEntity;
+        QGoodTypeEntity qGoodType = QGoodTypeEntity.goodTypeEntity;
+        // 投影为DTO,不会进入持久化上下文,内存占用和结果集大小无关
+        CloseableIterator<GoodDTO> iterator = jpaQueryFactory
+                .select(new QGoodDTO(
+                        qGoodInfo.id,
+                        qGoodInfo.title,
+                        qGoodInfo.unit,
+                        qGoodInfo.price,
+                        qGoodType.name,
+                        qGoodType.id))
+                .from(qGoodInfo, qGoodType)
+                .where(qGoodType.id.eq(qGoodInfo.typeId))
+                .orderBy(qGoodInfo.order.desc())
+                .setHint(QueryHints.HINT_FETCH_SIZE, exportFetchSize)
+                .iterate();
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterator, Spliterator.ORDERED), false)
+                .onClose(iterator::close);
+    }
+
+    /**
+     * 逐行写出json数组,游标和输出流都在同一个事务内
+     */
+    @Transactional(readOnly = true)
+    public void exportGoods(OutputStream out) throws IOException {
+        try (Stream<GoodDTO> goods = streamGoods()) {
+            JsonUtil.writeArray(goods, out);
+        }
+    }
+}
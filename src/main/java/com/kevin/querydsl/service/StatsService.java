@@ -0,0 +1,110 @@
+package com.kevin.querydsl.service;
+
+import com.kevin.querydsl.columnar.StudentSnapshot;
+import com.kevin.querydsl.dto.DashboardDTO;
+import com.kevin.querydsl.dto.StudentStatsDTO;
+import com.kevin.querydsl.entity.QGoodInfoEntity;
+import com.kevin.querydsl.entity.QGoodTypeEntity;
+import com.kevin.querydsl.entity.QStudentEntity;
+import com.kevin.querydsl.query.AggregateQuery;
+import com.kevin.querydsl.query.AggregateQuery.Aggregate;
+import com.kevin.querydsl.query.QueryBatch;
+import com.kevin.querydsl.query.QueryBatchDataSource;
+import com.querydsl.core.Tuple;
+import com.querydsl.core.types.dsl.NumberExpression;
+import com.querydsl.jpa.impl.JPAQueryFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import javax.persistence.EntityManager;
+import java.util.List;
+
+/**
+ * kevin<br/>
+ * 2021/3/12 10:30<br/>
+ */
+@Service
+public class StatsService {
+
+    private final JPAQueryFactory jpaQueryFactory;
+    private final EntityManager entityManager;
+    private final StudentSnapshot studentSnapshot;
+    //querydsl.batch.multi-statements=true时批量查询通过专用连接池一次发送
+    private final QueryBatchDataSource queryBatchDataSource;
+
+    public StatsService(JPAQueryFactory jpaQueryFactory,
+                        EntityManager entityManager,
+                        StudentSnapshot studentSnapshot,
+                        ObjectProvider<QueryBatchDataSource> queryBatchDataSource) {
+        this.jpaQueryFactory = jpaQueryFactory;
+        this.entityManager = entityManager;
+        this.studentSnapshot = studentSnapshot;
+        this.queryBatchDataSource = queryBatchDataSource.getIfAvailable();
+    }
+
+    /**
+     * count、sum、avg、max合并成一条SQL,只扫描一次t_student;学生快照可用时在快照上计算
+     */
+    @Transactional(readOnly = true)
+    public StudentStatsDTO studentStats() {
+        StudentAggregates aggregates = new StudentAggregates();
+        aggregates.query.complete(studentSnapshot.fetchOne(aggregates.query.toQuery()));
+        return aggregates.toDTO();
+    }
+
+    /**
+     * 学生统计、商品数量、最高价格和类型列表互不相关,一次往返取回;学生快照可用时学生统计不再发给数据库
+     */
+    @Transactional(readOnly = true)
+    public DashboardDTO dashboard() {
+        QGoodInfoEntity qGoodInfo = QGoodInfoEntity.goodInfoEntity;
+        QGoodTypeEntity qGoodType = QGoodTypeEntity.goodTypeEntity;
+
+        NumberExpression<Long> goodCount = qGoodInfo.id.count();
+        NumberExpression<Double> maxPrice = qGoodInfo.price.max();
+
+        StudentAggregates students = new StudentAggregates();
+        QueryBatch batch = new QueryBatch(entityManager, queryBatchDataSource);
+        List<Tuple> snapshot = studentSnapshot.tryFetch(students.query.toQuery());
+        if (snapshot != null) {
+            students.query.complete(snapshot.isEmpty() ? null : snapshot.get(0));
+        } else {
+            batch.add(students.query);
+        }
+        QueryBatch.Result<Tuple> goods = batch.add(jpaQueryFactory
+                .select(goodCount, maxPrice)
+                .from(qGoodInfo));
+        QueryBatch.Result<String> typeNames = batch.add(jpaQueryFactory
+                .select(qGoodType.name)
+                .from(qGoodType)
+                .orderBy(qGoodType.id.asc()));
+        batch.execute();
+
+        DashboardDTO dashboard = new DashboardDTO();
+        dashboard.setStudents(students.toDTO());
+        Tuple good = goods.getOne();
+        dashboard.setGoodCount(good.get(goodCount));
+        dashboard.setMaxPrice(good.get(maxPrice));
+        dashboard.setTypeNames(typeNames.getList());
+        return dashboard;
+    }
+
+    private class StudentAggregates {
+        private final QStudentEntity qStudent = QStudentEntity.studentEntity;
+        private final AggregateQuery query = AggregateQuery.over(jpaQueryFactory.from(qStudent));
+        private final Aggregate<Long> count = query.add(qStudent.id.count());
+        private final Aggregate<Double> sum = query.add(qStudent.socre.sum());
+        private final Aggregate<Double> avg = query.add(qStudent.socre.avg());
+        private final Aggregate<Double> max = query.add(qStudent.socre.max());
+
+        private StudentStatsDTO toDTO() {
+            StudentStatsDTO stats = new StudentStatsDTO();
+            stats.setCount(count.orElse(0L));
+            stats.setSum(sum.orElse(0D));
+            stats.setAvg(avg.orElse(0D));
+            stats.setMax(max.orElse(0D));
+            return stats;
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package com.kevin.querydsl.shard;
+
+import com.kevin.querydsl.entity.QGoodInfoEntity;
+import com.zaxxer.hikari.HikariDataSource;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.boot.jdbc.DataSourceBuilder;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import javax.persistence.EntityManagerFactory;
+import javax.sql.DataSource;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * querydsl.shard.enabled=true时创建各分片的连接池和分片查询<br/>
+ * kevin<br/>
+ * 2021/3/19 10:00<br/>
+ */
+@Configuration
+@EnableConfigurationProperties(ShardProperties.class)
+@ConditionalOnProperty(prefix = "querydsl.shard", name = "enabled", havingValue = "true")
+public class ShardConfig implements DisposableBean {
+
+    private final List<HikariDataSource> pools = new ArrayList<>();
+
+    @Bean
+    public ShardedGoodRepository shardedGoodRepository(EntityManagerFactory entityManagerFactory,
+                                                       ShardProperties properties) {
+        List<DataSource> shards = new ArrayList<>();
+        for (int i = 0; i < properties.getShards().size(); i++) {
+            ShardProperties.Shard shard = properties.getShards().get(i);
+            HikariDataSource dataSource = DataSourceBuilder.create()
+                    .type(HikariDataSource.class)
+                    .url(shard.getUrl())
+                    .username(shard.getUsername())
+                    .password(shard.getPassword())
+                    .driverClassName(shard.getDriverClassName())
+                    .build();
+            dataSource.setPoolName("shard-" + i);
+            dataSource.setMaximumPoolSize(shard.getMaximumPoolSize());
+            pools.add(dataSource);
+            shards.add(dataSource);
+        }
+        ShardedQueryExecutor executor = new ShardedQueryExecutor(entityManagerFactory, shards,
+                QGoodInfoEntity.goodInfoEntity.typeId);
+        return new ShardedGoodRepository(executor, entityManagerFactory);
+    }
+
+    @Override
+    public void destroy() {
+        pools.forEach(HikariDataSource::close);
+    }
+}
@@ -0,0 +1,30 @@
+package com.kevin.querydsl.shard;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * good_infos分片配置,分片按typeId取模,good_types复制到每个分片<br/>
+ * kevin<br/>
+ * 2021/3/19 10:00<br/>
+ */
+@Data
+@ConfigurationProperties(prefix = "querydsl.shard")
+public class ShardProperties {
+    //是否开启分片
+    private boolean enabled;
+    //分片列表,顺序决定typeId到分片的映射,上线后不能调整
+    private List<Shard> shards = new ArrayList<>();
+
+    @Data
+    public static class Shard {
+        private String url;
+        private String username;
+        private String password;
+        private String driverClassName;
+        private int maximumPoolSize = 10;
+    }
+}
@@ -0,0 +1,128 @@
+package com.kevin.querydsl.shard;
+
+import org.hibernate.engine.spi.SessionImplementor;
+import org.hibernate.id.IdentifierGeneratorHelper;
+import org.hibernate.persister.entity.AbstractEntityPersister;
+import org.hibernate.type.Type;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.sql.DataSource;
+import java.io.Serializable;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 按Hibernate的映射把实体写到分片,主键由主库的主键生成器分配,各分片之间不重复<br/>
+ * 每个分片上的写入在一个事务里,跨分片不保证原子性<br/>
+ * kevin<br/>
+ * 2021/3/19 10:00<br/>
+ */
+class ShardWriter {
+
+    private final EntityManagerFactory entityManagerFactory;
+
+    ShardWriter(EntityManagerFactory entityManagerFactory) {
+        this.entityManagerFactory = entityManagerFactory;
+    }
+
+    /**
+     * 插入实体,id为空的先分配id
+     *
+     * @param upsert 为true时先按id删除分片上已有的行
+     */
+    <T> void write(DataSource shard, Class<T> type, List<T> entities, boolean upsert) {
+        if (entities.isEmpty()) {
+            return;
+        }
+        EntityManager entityManager = entityManagerFactory.createEntityManager();
+        try {
+            SessionImplementor session = entityManager.unwrap(SessionImplementor.class);
+            AbstractEntityPersister persister = (AbstractEntityPersister) session.getFactory()
+                    .getMetamodel().entityPersister(type);
+            for (T entity : entities) {
+                assignId(session, persister, entity);
+            }
+            try (Connection connection = shard.getConnection()) {
+                boolean autoCommit = connection.getAutoCommit();
+                connection.setAutoCommit(false);
+                try {
+                    if (upsert) {
+                        delete(connection, session, persister, entities);
+                    }
+                    insert(connection, session, persister, entities);
+                    connection.commit();
+                } catch (SQLException | RuntimeException e) {
+                    connection.rollback();
+                    throw e;
+                } finally {
+                    connection.setAutoCommit(autoCommit);
+                }
+            }
+        } catch (SQLException e) {
+            throw new IllegalStateException("写入分片失败: " + e.getMessage(), e);
+        } finally {
+            entityManager.close();
+        }
+    }
+
+    private static void assignId(SessionImplementor session, AbstractEntityPersister persister, Object entity) {
+        if (persister.getIdentifier(entity, session) != null) {
+            return;
+        }
+        Serializable id = persister.getIdentifierGenerator().generate(session, entity);
+        if (id == IdentifierGeneratorHelper.POST_INSERT_INDICATOR) {
+            throw new IllegalStateException("分片表不能使用自增主键: " + persister.getEntityName());
+        }
+        persister.setIdentifier(entity, id, session);
+    }
+
+    private static void delete(Connection connection, SessionImplementor session,
+                               AbstractEntityPersister persister, List<?> entities) throws SQLException {
+        String sql = "delete from " + persister.getTableName()
+                + " where " + persister.getIdentifierColumnNames()[0] + " = ?";
+        try (PreparedStatement statement = connection.prepareStatement(sql)) {
+            for (Object entity : entities) {
+                persister.getIdentifierType().nullSafeSet(statement,
+                        persister.getIdentifier(entity, session), 1, session);
+                statement.addBatch();
+            }
+            statement.executeBatch();
+        }
+    }
+
+    private static void insert(Connection connection, SessionImplementor session,
+                               AbstractEntityPersister persister, List<?> entities) throws SQLException {
+        Type[] types = persister.getPropertyTypes();
+        boolean[] insertable = persister.getPropertyInsertability();
+        List<String> columns = new ArrayList<>();
+        Collections.addAll(columns, persister.getIdentifierColumnNames());
+        for (int i = 0; i < types.length; i++) {
+            if (insertable[i]) {
+                Collections.addAll(columns, persister.getPropertyColumnNames(i));
+            }
+        }
+        String sql = "insert into " + persister.getTableName() + " (" + String.join(",", columns) + ") values ("
+                + String.join(",", Collections.nCopies(columns.size(), "?")) + ")";
+        try (PreparedStatement statement = connection.prepareStatement(sql)) {
+            for (Object entity : entities) {
+                persister.getIdentifierType().nullSafeSet(statement,
+                        persister.getIdentifier(entity, session), 1, session);
+                int index = 1 + persister.getIdentifierType().getColumnSpan(session.getFactory());
+                Object[] values = persister.getPropertyValues(entity);
+                for (int i = 0; i < types.length; i++) {
+                    if (insertable[i]) {
+                        types[i].nullSafeSet(statement, values[i], index, session);
+                        index += types[i].getColumnSpan(session.getFactory());
+                    }
+                }
+                statement.addBatch();
+            }
+            statement.executeBatch();
+        }
+    }
+}
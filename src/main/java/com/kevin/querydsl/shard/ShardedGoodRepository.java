@@ -0,0 +1,89 @@
+package com.kevin.querydsl.shard;
+
+import com.kevin.querydsl.entity.GoodInfoEntity;
+import com.kevin.querydsl.entity.GoodTypeEntity;
+import com.kevin.querydsl.entity.QGoodInfoEntity;
+import com.querydsl.jpa.impl.JPAQuery;
+import com.querydsl.jpa.impl.JPAQueryFactory;
+
+import javax.persistence.EntityManagerFactory;
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 按typeId分片的good_infos,good_types在每个分片上有完整的副本,可以和good_infos在分片内join<br/>
+ * 查询照常用JPAQueryFactory构造,交给fetch/fetchOne/fetchCount执行<br/>
+ * kevin<br/>
+ * 2021/3/19 10:00<br/>
+ */
+public class ShardedGoodRepository implements Closeable {
+
+    private final ShardedQueryExecutor executor;
+    private final ShardWriter writer;
+
+    public ShardedGoodRepository(ShardedQueryExecutor executor, EntityManagerFactory entityManagerFactory) {
+        this.executor = executor;
+        this.writer = new ShardWriter(entityManagerFactory);
+    }
+
+    public <T> List<T> fetch(JPAQuery<T> query) {
+        return executor.fetch(query);
+    }
+
+    public <T> T fetchOne(JPAQuery<T> query) {
+        return executor.fetchOne(query);
+    }
+
+    public long fetchCount(JPAQuery<?> query) {
+        return executor.fetchCount(query);
+    }
+
+    public int shardOf(Long typeId) {
+        return executor.shardOf(typeId);
+    }
+
+    /**
+     * 按typeId写入各自的分片,id为空时由主库的主键生成器分配
+     */
+    public void insertAll(List<GoodInfoEntity> goods) {
+        int shards = executor.getShards().size();
+        List<List<GoodInfoEntity>> grouped = new ArrayList<>(shards);
+        for (int i = 0; i < shards; i++) {
+            grouped.add(new ArrayList<>());
+        }
+        for (GoodInfoEntity good : goods) {
+            grouped.get(executor.shardOf(good.getTypeId())).add(good);
+        }
+        for (int i = 0; i < shards; i++) {
+            writer.write(executor.getShards().get(i), GoodInfoEntity.class, grouped.get(i), false);
+        }
+    }
+
+    /**
+     * 类型写入(覆盖)到每个分片
+     */
+    public void replicateTypes(List<GoodTypeEntity> types) {
+        for (int i = 0; i < executor.getShards().size(); i++) {
+            writer.write(executor.getShards().get(i), GoodTypeEntity.class, types, true);
+        }
+    }
+
+    /**
+     * 价格最高的商品:子查询不能跨分片,先合并出全局最高价,再按价格查各分片
+     */
+    public List<GoodInfoEntity> findMaxPriceGoods(JPAQueryFactory queryFactory) {
+        QGoodInfoEntity qGoodInfo = QGoodInfoEntity.goodInfoEntity;
+        Double maxPrice = executor.fetchOne(queryFactory.select(qGoodInfo.price.max()).from(qGoodInfo));
+        if (maxPrice == null) {
+            return Collections.emptyList();
+        }
+        return executor.fetch(queryFactory.selectFrom(qGoodInfo).where(qGoodInfo.price.eq(maxPrice)));
+    }
+
+    @Override
+    public void close() {
+        executor.close();
+    }
+}
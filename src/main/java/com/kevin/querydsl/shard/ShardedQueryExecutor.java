@@ -0,0 +1,223 @@
+package com.kevin.querydsl.shard;
+
+import com.kevin.querydsl.query.TranslatedQuery;
+import com.querydsl.core.NonUniqueResultException;
+import com.querydsl.core.QueryMetadata;
+import com.querydsl.core.QueryModifiers;
+import com.querydsl.core.types.Constant;
+import com.querydsl.core.types.Expression;
+import com.querydsl.core.types.ExpressionUtils;
+import com.querydsl.core.types.Operation;
+import com.querydsl.core.types.Ops;
+import com.querydsl.core.types.ParamExpression;
+import com.querydsl.core.types.Path;
+import com.querydsl.core.types.dsl.Wildcard;
+import com.querydsl.jpa.impl.JPAQuery;
+import org.hibernate.engine.spi.SessionImplementor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.sql.DataSource;
+import java.io.Closeable;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * 在多个分片上执行QueryDSL查询<br/>
+ * 查询照常用JPAQueryFactory构造但不执行,交给fetch/fetchOne/fetchCount:where中有分片键的等值条件时只查一个分片,
+ * 否则并行查询所有分片再合并(见{@link ShardedQueryPlan})<br/>
+ * 查询由主库的SessionFactory翻译成SQL,分片只需要表结构一致;只支持标量、DTO和实体投影(返回游离实体),
+ * 跨分片时不支持子查询、having和集合参数<br/>
+ * kevin<br/>
+ * 2021/3/19 10:00<br/>
+ */
+public class ShardedQueryExecutor implements Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(ShardedQueryExecutor.class);
+
+    private final EntityManagerFactory entityManagerFactory;
+    private final List<DataSource> shards;
+    private final Path<?> shardKey;
+    private final ExecutorService executor;
+
+    /**
+     * @param shardKey 分片键,例如QGoodInfoEntity.goodInfoEntity.typeId,按floorMod(值, 分片数)分片
+     */
+    public ShardedQueryExecutor(EntityManagerFactory entityManagerFactory, List<DataSource> shards, Path<?> shardKey) {
+        if (shards.isEmpty()) {
+            throw new IllegalArgumentException("至少需要一个分片");
+        }
+        this.entityManagerFactory = entityManagerFactory;
+        this.shards = Collections.unmodifiableList(new ArrayList<>(shards));
+        this.shardKey = shardKey;
+        CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("shard-query-");
+        threadFactory.setDaemon(true);
+        this.executor = Executors.newFixedThreadPool(shards.size(), threadFactory);
+    }
+
+    public List<DataSource> getShards() {
+        return shards;
+    }
+
+    /**
+     * 分片键的值所在的分片
+     */
+    public int shardOf(Object key) {
+        if (key == null) {
+            throw new IllegalArgumentException("分片键不能为空");
+        }
+        long hash = key instanceof Number ? ((Number) key).longValue() : key.hashCode();
+        return (int) Math.floorMod(hash, (long) shards.size());
+    }
+
+    public <T> List<T> fetch(JPAQuery<T> query) {
+        return fetch(query.getMetadata());
+    }
+
+    /**
+     * 没有结果返回null,多于一行抛NonUniqueResultException
+     */
+    public <T> T fetchOne(JPAQuery<T> query) {
+        QueryMetadata metadata = query.getMetadata().clone();
+        QueryModifiers modifiers = metadata.getModifiers();
+        metadata.setModifiers(new QueryModifiers(2L, modifiers.getOffset()));
+        List<T> results = fetch(metadata);
+        if (results.size() > 1) {
+            throw new NonUniqueResultException();
+        }
+        return results.isEmpty() ? null : results.get(0);
+    }
+
+    public long fetchCount(JPAQuery<?> query) {
+        QueryMetadata metadata = query.getMetadata().clone();
+        if (metadata.isDistinct()) {
+            throw new IllegalArgumentException("分片查询不支持distinct计数");
+        }
+        metadata.setProjection(Wildcard.count);
+        metadata.clearOrderBy();
+        metadata.setModifiers(QueryModifiers.EMPTY);
+        Long count = this.<Long>fetch(metadata).get(0);
+        return count == null ? 0 : count;
+    }
+
+    @Override
+    public void close() {
+        executor.shutdownNow();
+    }
+
+    private <T> List<T> fetch(QueryMetadata metadata) {
+        ShardedQueryPlan plan = new ShardedQueryPlan(metadata, entityManagerFactory.getMetamodel());
+        List<Integer> targets = route(metadata.getWhere());
+        if (targets.size() > 1 && plan.hasSubQuery()) {
+            throw new IllegalArgumentException("跨分片查询不支持子查询,先单独查出子查询的值");
+        }
+        QueryMetadata shardMetadata = plan.shardMetadata();
+        long start = System.nanoTime();
+        List<List<Object[]>> shardRows;
+        if (targets.size() == 1) {
+            shardRows = Collections.singletonList(execute(targets.get(0), shardMetadata));
+        } else {
+            List<CompletableFuture<List<Object[]>>> futures = targets.stream()
+                    .map(shard -> CompletableFuture.supplyAsync(() -> execute(shard, shardMetadata), executor))
+                    .collect(Collectors.toList());
+            try {
+                shardRows = futures.stream().map(CompletableFuture::join).collect(Collectors.toList());
+            } catch (CompletionException e) {
+                futures.forEach(future -> future.cancel(true));
+                throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : e;
+            }
+        }
+        List<T> results = plan.merge(shardRows);
+        if (logger.isDebugEnabled()) {
+            logger.debug("分片查询:[{}],分片:{},合并后[{}]行,耗时:[{}]ms", metadata.getProjection(), targets,
+                    results.size(), (System.nanoTime() - start) / 1_000_000);
+        }
+        return results;
+    }
+
+    private List<Object[]> execute(int shard, QueryMetadata metadata) {
+        // 每个线程用自己的Session做翻译和类型转换,Session不是线程安全的
+        EntityManager entityManager = entityManagerFactory.createEntityManager();
+        try {
+            TranslatedQuery query = TranslatedQuery.translate(entityManager.unwrap(SessionImplementor.class), metadata);
+            try (Connection connection = shards.get(shard).getConnection();
+                 PreparedStatement statement = connection.prepareStatement(query.getSql())) {
+                query.bind(statement, 1);
+                try (ResultSet resultSet = statement.executeQuery()) {
+                    return query.read(resultSet);
+                }
+            }
+        } catch (SQLException e) {
+            throw new IllegalStateException("分片[" + shard + "]查询失败: " + e.getMessage(), e);
+        } finally {
+            entityManager.close();
+        }
+    }
+
+    /**
+     * where顶层的and中有分片键 = 常量时只查对应的分片
+     */
+    private List<Integer> route(Expression<?> where) {
+        Object key = where == null ? null : shardKeyValue(ExpressionUtils.extract(where));
+        if (key != null) {
+            return Collections.singletonList(shardOf(key));
+        }
+        return IntStream.range(0, shards.size()).boxed().collect(Collectors.toList());
+    }
+
+    private Object shardKeyValue(Expression<?> expression) {
+        if (!(expression instanceof Operation)) {
+            return null;
+        }
+        Operation<?> operation = (Operation<?>) expression;
+        if (operation.getOperator() == Ops.AND) {
+            for (Expression<?> arg : operation.getArgs()) {
+                Object value = shardKeyValue(arg);
+                if (value != null) {
+                    return value;
+                }
+            }
+            return null;
+        }
+        if (operation.getOperator() != Ops.EQ) {
+            return null;
+        }
+        Expression<?> left = operation.getArg(0);
+        Expression<?> right = operation.getArg(1);
+        if (isShardKey(left) && right instanceof Constant) {
+            return ((Constant<?>) right).getConstant();
+        }
+        if (isShardKey(right) && left instanceof Constant) {
+            return ((Constant<?>) left).getConstant();
+        }
+        return null;
+    }
+
+    /**
+     * 按属性名和实体类型比较,别名不同的同一实体也算
+     */
+    private boolean isShardKey(Expression<?> expression) {
+        if (!(expression instanceof Path) || expression instanceof ParamExpression) {
+            return false;
+        }
+        Path<?> path = (Path<?>) expression;
+        Path<?> parent = path.getMetadata().getParent();
+        return parent != null && parent.getMetadata().isRoot()
+                && path.getMetadata().getName().equals(shardKey.getMetadata().getName())
+                && parent.getType().equals(shardKey.getMetadata().getParent().getType());
+    }
+}
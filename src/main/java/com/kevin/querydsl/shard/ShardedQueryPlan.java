@@ -0,0 +1,419 @@
+package com.kevin.querydsl.shard;
+
+import com.querydsl.core.QueryMetadata;
+import com.querydsl.core.QueryModifiers;
+import com.querydsl.core.support.NumberConversion;
+import com.querydsl.core.types.EntityPath;
+import com.querydsl.core.types.Expression;
+import com.querydsl.core.types.ExpressionUtils;
+import com.querydsl.core.types.FactoryExpression;
+import com.querydsl.core.types.Operation;
+import com.querydsl.core.types.Operator;
+import com.querydsl.core.types.Ops;
+import com.querydsl.core.types.OrderSpecifier;
+import com.querydsl.core.types.Projections;
+import com.querydsl.core.types.SubQueryExpression;
+import com.querydsl.core.types.dsl.PathBuilder;
+import com.querydsl.core.util.MathUtils;
+import org.springframework.util.ClassUtils;
+
+import javax.persistence.metamodel.Attribute;
+import javax.persistence.metamodel.EntityType;
+import javax.persistence.metamodel.Metamodel;
+import javax.persistence.metamodel.SingularAttribute;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+/**
+ * 一个查询在各分片上怎么执行、结果怎么合并<br/>
+ * 1. 普通查询:order by的列追加到select中,每个分片取offset+limit行,按order by做k路归并后再跳过offset<br/>
+ * 2. 聚合查询(投影中有聚合函数或有group by):count/sum相加,min/max取最值,avg拆成sum和count在合并后相除;
+ * 按group by的值合并后再排序、分页<br/>
+ * 3. 实体投影改成各基本属性的字段投影,返回的是游离的实体<br/>
+ * kevin<br/>
+ * 2021/3/19 10:00<br/>
+ */
+class ShardedQueryPlan {
+
+    private static final Set<Operator> MERGEABLE_AGGREGATES = new HashSet<>(Arrays.asList(
+            Ops.AggOps.COUNT_AGG, Ops.AggOps.COUNT_ALL_AGG, Ops.AggOps.SUM_AGG,
+            Ops.AggOps.MIN_AGG, Ops.AggOps.MAX_AGG, Ops.AggOps.AVG_AGG));
+
+    private final QueryMetadata source;
+    //最终投影的各个参数,结果由factory(或单个值)构造
+    private final List<Expression<?>> args;
+    private final FactoryExpression<?> factory;
+    private final boolean aggregate;
+    //发给分片的select列
+    private final List<Expression<?>> columns = new ArrayList<>();
+    //聚合查询:每个参数对应的合并方式和列
+    private final List<Merge> merges = new ArrayList<>();
+    //普通查询:order by在columns中的位置;聚合查询:order by对应的参数位置
+    private final int[] orderIndexes;
+
+    ShardedQueryPlan(QueryMetadata source, Metamodel metamodel) {
+        this.source = source;
+        Expression<?> projection = source.getProjection();
+        if (projection instanceof EntityPath) {
+            projection = fieldProjection((EntityPath<?>) projection, metamodel);
+        }
+        if (projection instanceof FactoryExpression) {
+            this.factory = (FactoryExpression<?>) projection;
+            this.args = new ArrayList<>(factory.getArgs());
+        } else {
+            this.factory = null;
+            this.args = new ArrayList<>();
+            this.args.add(projection);
+        }
+        if (source.getHaving() != null) {
+            throw new IllegalArgumentException("分片查询不支持having");
+        }
+        this.aggregate = !source.getGroupBy().isEmpty() || args.stream().anyMatch(ShardedQueryPlan::isAggregate);
+        List<OrderSpecifier<?>> orders = source.getOrderBy();
+        this.orderIndexes = new int[orders.size()];
+        if (aggregate) {
+            planAggregate();
+            for (int i = 0; i < orders.size(); i++) {
+                orderIndexes[i] = argIndex(orders.get(i).getTarget());
+            }
+        } else {
+            columns.addAll(args);
+            for (int i = 0; i < orders.size(); i++) {
+                orderIndexes[i] = columns.size();
+                columns.add(unwrapAlias(orders.get(i).getTarget()));
+            }
+        }
+    }
+
+    /**
+     * 发给每个分片的查询
+     */
+    QueryMetadata shardMetadata() {
+        QueryMetadata metadata = source.clone();
+        metadata.setProjection(Projections.tuple(columns.toArray(new Expression<?>[0])));
+        QueryModifiers modifiers = source.getModifiers();
+        if (aggregate) {
+            // 合并之后才能排序和分页
+            metadata.clearOrderBy();
+            metadata.setModifiers(QueryModifiers.EMPTY);
+        } else if (modifiers.getLimit() != null) {
+            long offset = modifiers.getOffset() == null ? 0 : modifiers.getOffset();
+            metadata.setModifiers(QueryModifiers.limit(modifiers.getLimit() + offset));
+        } else {
+            metadata.setModifiers(QueryModifiers.EMPTY);
+        }
+        return metadata;
+    }
+
+    /**
+     * 查询条件、投影中有子查询时,子查询只能看到单个分片的数据
+     */
+    boolean hasSubQuery() {
+        if (containsSubQuery(source.getWhere()) || containsSubQuery(source.getProjection())) {
+            return true;
+        }
+        for (OrderSpecifier<?> order : source.getOrderBy()) {
+            if (containsSubQuery(order.getTarget())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @SuppressWarnings("unchecked")
+    <T> List<T> merge(List<List<Object[]>> shardRows) {
+        List<Object[]> rows = aggregate ? mergeAggregates(shardRows) : mergeSorted(shardRows);
+        List<T> results = new ArrayList<>(rows.size());
+        for (Object[] row : rows) {
+            Object[] values = row.length == args.size() ? row : Arrays.copyOf(row, args.size());
+            results.add((T) (factory != null ? factory.newInstance(values) : values[0]));
+        }
+        return results;
+    }
+
+    /**
+     * 各分片的结果已经按order by排好序,k路归并,取够offset+limit行就停止
+     */
+    private List<Object[]> mergeSorted(List<List<Object[]>> shardRows) {
+        QueryModifiers modifiers = source.getModifiers();
+        long offset = modifiers.getOffset() == null ? 0 : modifiers.getOffset();
+        long end = modifiers.getLimit() == null ? Long.MAX_VALUE : offset + modifiers.getLimit();
+        Comparator<Object[]> comparator = rowComparator();
+        PriorityQueue<Cursor> queue = new PriorityQueue<>((a, b) -> {
+            int result = comparator.compare(a.current(), b.current());
+            // 排序值相同时按分片顺序,结果稳定
+            return result != 0 ? result : Integer.compare(a.shard, b.shard);
+        });
+        for (int i = 0; i < shardRows.size(); i++) {
+            if (!shardRows.get(i).isEmpty()) {
+                queue.add(new Cursor(i, shardRows.get(i)));
+            }
+        }
+        List<Object[]> merged = new ArrayList<>();
+        Set<List<Object>> distinct = source.isDistinct() ? new HashSet<>() : null;
+        long position = 0;
+        while (!queue.isEmpty() && position < end) {
+            Cursor cursor = queue.poll();
+            Object[] row = cursor.current();
+            if (cursor.advance()) {
+                queue.add(cursor);
+            }
+            if (distinct != null && !distinct.add(Arrays.asList(Arrays.copyOf(row, args.size())))) {
+                continue;
+            }
+            if (position++ >= offset) {
+                merged.add(row);
+            }
+        }
+        return merged;
+    }
+
+    private List<Object[]> mergeAggregates(List<List<Object[]>> shardRows) {
+        int groups = source.getGroupBy().size();
+        Map<List<Object>, Object[]> accumulators = new LinkedHashMap<>();
+        for (List<Object[]> rows : shardRows) {
+            for (Object[] row : rows) {
+                List<Object> key = Arrays.asList(Arrays.copyOf(row, groups));
+                Object[] accumulator = accumulators.computeIfAbsent(key, k -> new Object[columns.size()]);
+                for (int i = groups; i < columns.size(); i++) {
+                    accumulator[i] = combine(columnOperator(i), accumulator[i], row[i]);
+                }
+                System.arraycopy(row, 0, accumulator, 0, groups);
+            }
+        }
+        List<Object[]> rows = new ArrayList<>(accumulators.size());
+        for (Object[] accumulator : accumulators.values()) {
+            Object[] values = new Object[args.size()];
+            for (int i = 0; i < merges.size(); i++) {
+                values[i] = merges.get(i).result(accumulator);
+            }
+            rows.add(values);
+        }
+        if (orderIndexes.length > 0) {
+            rows.sort(rowComparator());
+        }
+        QueryModifiers modifiers = source.getModifiers();
+        int from = modifiers.getOffset() == null ? 0 : (int) Math.min(modifiers.getOffset(), rows.size());
+        int to = modifiers.getLimit() == null ? rows.size() : (int) Math.min(from + modifiers.getLimit(), rows.size());
+        return new ArrayList<>(rows.subList(from, to));
+    }
+
+    private void planAggregate() {
+        List<Expression<?>> groupBy = source.getGroupBy();
+        columns.addAll(groupBy);
+        for (Expression<?> arg : args) {
+            Expression<?> expression = unwrapAlias(arg);
+            int group = groupBy.indexOf(expression);
+            if (group >= 0) {
+                merges.add(new Merge(null, group, -1));
+                continue;
+            }
+            if (!isAggregate(expression)) {
+                throw new IllegalArgumentException("分片聚合查询的投影只能是聚合函数或group by的列: " + arg);
+            }
+            Operation<?> operation = (Operation<?>) expression;
+            Operator operator = operation.getOperator();
+            if (!MERGEABLE_AGGREGATES.contains(operator)) {
+                throw new IllegalArgumentException("分片查询无法合并该聚合函数: " + arg);
+            }
+            if (operator == Ops.AggOps.AVG_AGG) {
+                // avg = 各分片sum之和 / 各分片count之和
+                Expression<?> target = operation.getArg(0);
+                int sum = columns.size();
+                columns.add(ExpressionUtils.operation(target.getType(), Ops.AggOps.SUM_AGG, target));
+                columns.add(ExpressionUtils.operation(Long.class, Ops.AggOps.COUNT_AGG, target));
+                merges.add(new Merge(operator, sum, sum + 1));
+            } else {
+                merges.add(new Merge(operator, columns.size(), -1));
+                columns.add(expression);
+            }
+        }
+    }
+
+    private Operator columnOperator(int column) {
+        for (Merge merge : merges) {
+            if (merge.column == column) {
+                return merge.operator == Ops.AggOps.AVG_AGG ? Ops.AggOps.SUM_AGG : merge.operator;
+            }
+            if (merge.countColumn == column) {
+                return Ops.AggOps.COUNT_AGG;
+            }
+        }
+        throw new IllegalStateException("未知的列: " + column);
+    }
+
+    private int argIndex(Expression<?> target) {
+        Expression<?> expression = unwrapAlias(target);
+        for (int i = 0; i < args.size(); i++) {
+            if (unwrapAlias(args.get(i)).equals(expression)) {
+                return i;
+            }
+        }
+        throw new IllegalArgumentException("分片聚合查询的order by必须是投影中的列: " + target);
+    }
+
+    private Comparator<Object[]> rowComparator() {
+        List<OrderSpecifier<?>> orders = source.getOrderBy();
+        return (a, b) -> {
+            for (int i = 0; i < orders.size(); i++) {
+                int result = compareValues(a[orderIndexes[i]], b[orderIndexes[i]], orders.get(i));
+                if (result != 0) {
+                    return result;
+                }
+            }
+            return 0;
+        };
+    }
+
+    /**
+     * 默认和MySQL一致,null最小
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static int compareValues(Object a, Object b, OrderSpecifier<?> order) {
+        if (a == null || b == null) {
+            if (a == b) {
+                return 0;
+            }
+            switch (order.getNullHandling()) {
+                case NullsFirst:
+                    return a == null ? -1 : 1;
+                case NullsLast:
+                    return a == null ? 1 : -1;
+                default:
+                    int result = a == null ? -1 : 1;
+                    return order.isAscending() ? result : -result;
+            }
+        }
+        int result = ((Comparable) a).compareTo(b);
+        return order.isAscending() ? result : -result;
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static Object combine(Operator operator, Object current, Object value) {
+        if (value == null) {
+            return current;
+        }
+        if (current == null) {
+            return value;
+        }
+        if (operator == Ops.AggOps.MIN_AGG) {
+            return ((Comparable) value).compareTo(current) < 0 ? value : current;
+        }
+        if (operator == Ops.AggOps.MAX_AGG) {
+            return ((Comparable) value).compareTo(current) > 0 ? value : current;
+        }
+        // count、sum
+        return MathUtils.sum((Number) current, (Number) value);
+    }
+
+    private static boolean isAggregate(Expression<?> expression) {
+        Expression<?> unwrapped = unwrapAlias(expression);
+        return unwrapped instanceof Operation
+                && ((Operation<?>) unwrapped).getOperator() instanceof Ops.AggOps;
+    }
+
+    /**
+     * 去掉别名,以及QueryDSL给order by中数值表达式加的类型转换
+     */
+    private static Expression<?> unwrapAlias(Expression<?> expression) {
+        if (expression instanceof NumberConversion) {
+            return unwrapAlias(((NumberConversion<?>) expression).getArgs().get(0));
+        }
+        if (expression instanceof Operation && ((Operation<?>) expression).getOperator() == Ops.ALIAS) {
+            return ((Operation<?>) expression).getArg(0);
+        }
+        return expression;
+    }
+
+    private static boolean containsSubQuery(Expression<?> expression) {
+        if (expression instanceof SubQueryExpression) {
+            return true;
+        }
+        if (expression instanceof Operation) {
+            for (Expression<?> arg : ((Operation<?>) expression).getArgs()) {
+                if (containsSubQuery(arg)) {
+                    return true;
+                }
+            }
+        }
+        if (expression instanceof FactoryExpression) {
+            for (Expression<?> arg : ((FactoryExpression<?>) expression).getArgs()) {
+                if (containsSubQuery(arg)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 实体投影改成基本属性的字段投影,关联属性不查询
+     */
+    @SuppressWarnings("unchecked")
+    private static <E> Expression<E> fieldProjection(EntityPath<E> path, Metamodel metamodel) {
+        Class<E> type = (Class<E>) path.getType();
+        EntityType<E> entityType = metamodel.entity(type);
+        PathBuilder<E> builder = new PathBuilder<>(type, path.getMetadata());
+        List<Expression<?>> properties = new ArrayList<>();
+        for (SingularAttribute<? super E, ?> attribute : entityType.getSingularAttributes()) {
+            if (attribute.getPersistentAttributeType() == Attribute.PersistentAttributeType.BASIC) {
+                properties.add(builder.get(attribute.getName(),
+                        ClassUtils.resolvePrimitiveIfNecessary(attribute.getJavaType())));
+            }
+        }
+        return Projections.fields(type, properties.toArray(new Expression<?>[0]));
+    }
+
+    /**
+     * 一个结果参数怎么从合并后的列中取值
+     */
+    private static class Merge {
+        //null表示group by的列
+        private final Operator operator;
+        private final int column;
+        //avg的count列
+        private final int countColumn;
+
+        private Merge(Operator operator, int column, int countColumn) {
+            this.operator = operator;
+            this.column = column;
+            this.countColumn = countColumn;
+        }
+
+        private Object result(Object[] accumulator) {
+            if (operator != Ops.AggOps.AVG_AGG) {
+                return accumulator[column];
+            }
+            Number sum = (Number) accumulator[column];
+            Number count = (Number) accumulator[countColumn];
+            return sum == null || count == null || count.longValue() == 0
+                    ? null : sum.doubleValue() / count.longValue();
+        }
+    }
+
+    private static class Cursor {
+        private final int shard;
+        private final List<Object[]> rows;
+        private int position;
+
+        private Cursor(int shard, List<Object[]> rows) {
+            this.shard = shard;
+            this.rows = rows;
+        }
+
+        private Object[] current() {
+            return rows.get(position);
+        }
+
+        private boolean advance() {
+            return ++position < rows.size();
+        }
+    }
+}
@@ -0,0 +1,32 @@
+package com.kevin.querydsl.stats;
+
+import lombok.Data;
+
+import java.io.Serializable;
+
+/**
+ * 一组商品价格的统计快照,不可变<br/>
+ * kevin<br/>
+ * 2021/3/15 10:00<br/>
+ */
+@Data
+public class PriceStats implements Serializable {
+
+    public static final PriceStats EMPTY = new PriceStats(0, 0D, null, null);
+
+    //商品数量
+    private final long count;
+    //价格总和
+    private final double sum;
+    //最低价格,没有商品时为null
+    private final Double min;
+    //最高价格,没有商品时为null
+    private final Double max;
+
+    /**
+     * 平均价格,没有商品时为null
+     */
+    public Double getAvg() {
+        return count == 0 ? null : sum / count;
+    }
+}
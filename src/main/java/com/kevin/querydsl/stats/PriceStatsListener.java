@@ -0,0 +1,61 @@
+package com.kevin.querydsl.stats;
+
+import com.kevin.querydsl.entity.GoodInfoEntity;
+import com.kevin.querydsl.jpa.PostCommitListener;
+import org.hibernate.event.spi.PostDeleteEvent;
+import org.hibernate.event.spi.PostInsertEvent;
+import org.hibernate.event.spi.PostUpdateEvent;
+import org.hibernate.persister.entity.EntityPersister;
+import org.springframework.stereotype.Component;
+
+import javax.persistence.EntityManagerFactory;
+
+/**
+ * GoodInfoEntity的插入、修改、删除在事务提交后按主键同步到{@link PriceStatsStore},回滚的修改不会计入<br/>
+ * kevin<br/>
+ * 2021/3/15 10:00<br/>
+ */
+@Component
+public class PriceStatsListener extends PostCommitListener {
+
+    private static final String PRICE = "price";
+    private static final String TYPE_ID = "typeId";
+
+    private final transient PriceStatsStore store;
+
+    public PriceStatsListener(EntityManagerFactory entityManagerFactory, PriceStatsStore store) {
+        super(entityManagerFactory);
+        this.store = store;
+    }
+
+    @Override
+    public void onPostInsert(PostInsertEvent event) {
+        if (event.getEntity() instanceof GoodInfoEntity) {
+            upsert(event.getPersister(), (Long) event.getId(), event.getState());
+        }
+    }
+
+    @Override
+    public void onPostUpdate(PostUpdateEvent event) {
+        if (event.getEntity() instanceof GoodInfoEntity) {
+            // 修改后的完整状态,游离实体直接update时也有
+            upsert(event.getPersister(), (Long) event.getId(), event.getState());
+        }
+    }
+
+    @Override
+    public void onPostDelete(PostDeleteEvent event) {
+        if (event.getEntity() instanceof GoodInfoEntity) {
+            store.remove((Long) event.getId());
+        }
+    }
+
+    @Override
+    public boolean requiresPostCommitHandling(EntityPersister persister) {
+        return GoodInfoEntity.class.equals(persister.getMappedClass());
+    }
+
+    private void upsert(EntityPersister persister, Long id, Object[] state) {
+        store.upsert(id, (Long) state[index(persister, TYPE_ID)], (Double) state[index(persister, PRICE)]);
+    }
+}
@@ -0,0 +1,363 @@
+package com.kevin.querydsl.stats;
+
+import com.kevin.querydsl.entity.GoodInfoEntity;
+import com.kevin.querydsl.entity.QGoodInfoEntity;
+import com.kevin.querydsl.jpa.NonEventWrites;
+import com.querydsl.core.Tuple;
+import com.querydsl.jpa.impl.JPAQueryFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.stereotype.Component;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * 按商品类型(typeId)和全部商品维护的价格统计:数量、总和、最低价、最高价<br/>
+ * 由{@link PriceStatsListener}在事务提交后增量更新,读取时直接返回快照,不再执行max/avg子查询<br/>
+ * 每个价格出现的次数都保存下来,删除最高价商品后仍能得到准确的max/min<br/>
+ * 同时保存每个商品当前的类型和价格,提交后的修改按主键覆盖,重复应用结果不变:重建时按主键分页读取,
+ * 读取期间提交的修改在读取完成后补上,和读到的行重叠也不会重复计数<br/>
+ * BaseJPA的insertAll/patch/patchAll和BulkDmlExecutor通过{@link NonEventWrites}标记过期,直接执行的QueryDSL/JPQL
+ * 批量update/delete和原生SQL不会触发监听器,执行后需要调用{@link #markStale()},下次读取时全量重建;
+ * {@link #check()}可以随时和数据库对账<br/>
+ * kevin<br/>
+ * 2021/3/15 10:00<br/>
+ */
+@Component
+public class PriceStatsStore implements DisposableBean {
+
+    private static final Logger logger = LoggerFactory.getLogger(PriceStatsStore.class);
+    //对账时允许的浮点误差
+    private static final double TOLERANCE = 1e-6;
+    //重建时每次读取的行数
+    private static final int PAGE_SIZE = 10000;
+
+    private final JPAQueryFactory jpaQueryFactory;
+    private final Consumer<Class<?>> staleOnWrite = entityType -> {
+        if (GoodInfoEntity.class.equals(entityType)) {
+            markStale();
+        }
+    };
+    //同一时间只有一次重建
+    private final Object rebuildLock = new Object();
+    //每次markStale加一,重建开始时的值和当前值相同才是最新的
+    private final AtomicLong staleMarks = new AtomicLong();
+    private volatile long loadedMark = -1;
+
+    //以下字段的修改都在this锁内
+    private Map<Long, Good> goods = new HashMap<>();
+    private Map<Long, Prices> types = new HashMap<>();
+    private Prices all = new Prices();
+    //重建期间提交的修改,重建完成后应用到新的统计上;不在重建时为null
+    private List<Change> pending;
+    private volatile Map<Long, PriceStats> typeSnapshot = Collections.emptyMap();
+    private volatile PriceStats allSnapshot = PriceStats.EMPTY;
+
+    public PriceStatsStore(JPAQueryFactory jpaQueryFactory) {
+        this.jpaQueryFactory = jpaQueryFactory;
+        NonEventWrites.register(staleOnWrite);
+    }
+
+    /**
+     * 全部商品的统计
+     */
+    public PriceStats overall() {
+        ensureLoaded();
+        return allSnapshot;
+    }
+
+    /**
+     * 某个类型的统计,没有该类型的商品时返回{@link PriceStats#EMPTY}
+     */
+    public PriceStats ofType(Long typeId) {
+        ensureLoaded();
+        return typeSnapshot.getOrDefault(typeId, PriceStats.EMPTY);
+    }
+
+    public Map<Long, PriceStats> allTypes() {
+        ensureLoaded();
+        return typeSnapshot;
+    }
+
+    /**
+     * 统计可能已经和数据库不一致,下次读取时重建
+     */
+    public void markStale() {
+        staleMarks.incrementAndGet();
+    }
+
+    public boolean isStale() {
+        return loadedMark != staleMarks.get();
+    }
+
+    /**
+     * 从数据库全量重建,查询不持有this锁,期间提交的修改照常记录,重建完成后补上
+     */
+    public void rebuild() {
+        synchronized (rebuildLock) {
+            long mark;
+            synchronized (this) {
+                // 重建期间再被标记的,重建完成后仍然是过期的
+                mark = staleMarks.get();
+                pending = new ArrayList<>();
+            }
+            long start = System.currentTimeMillis();
+            Map<Long, Good> loaded;
+            try {
+                loaded = load();
+            } catch (RuntimeException e) {
+                synchronized (this) {
+                    pending = null;
+                }
+                throw e;
+            }
+            Map<Long, Prices> rebuiltTypes = new HashMap<>();
+            Prices rebuiltAll = new Prices();
+            for (Good good : loaded.values()) {
+                rebuiltTypes.computeIfAbsent(good.typeId, typeId -> new Prices()).add(good.price);
+                rebuiltAll.add(good.price);
+            }
+            synchronized (this) {
+                goods = loaded;
+                types = rebuiltTypes;
+                all = rebuiltAll;
+                for (Change change : pending) {
+                    change.applyTo(this);
+                }
+                pending = null;
+                loadedMark = mark;
+                publish();
+            }
+            logger.info("价格统计重建完成,[{}]个类型,[{}]个商品,耗时:[{}]ms",
+                    typeSnapshot.size(), allSnapshot.getCount(), System.currentTimeMillis() - start);
+        }
+    }
+
+    /**
+     * 和数据库中的实时聚合对账
+     *
+     * @return 不一致的类型及原因,为空表示一致
+     */
+    public List<String> check() {
+        QGoodInfoEntity qGoodInfo = QGoodInfoEntity.goodInfoEntity;
+        List<Tuple> rows = jpaQueryFactory
+                .select(qGoodInfo.typeId, qGoodInfo.id.count(), qGoodInfo.price.sum(),
+                        qGoodInfo.price.min(), qGoodInfo.price.max())
+                .from(qGoodInfo)
+                .groupBy(qGoodInfo.typeId)
+                .fetch();
+        Map<Long, PriceStats> current = allTypes();
+        List<String> mismatches = new ArrayList<>();
+        Set<Long> seen = new HashSet<>();
+        for (Tuple row : rows) {
+            Long typeId = row.get(qGoodInfo.typeId);
+            seen.add(typeId);
+            PriceStats expected = new PriceStats(row.get(qGoodInfo.id.count()), row.get(qGoodInfo.price.sum()),
+                    row.get(qGoodInfo.price.min()), row.get(qGoodInfo.price.max()));
+            PriceStats actual = current.getOrDefault(typeId, PriceStats.EMPTY);
+            if (!matches(expected, actual)) {
+                mismatches.add("typeId=" + typeId + " 数据库:" + expected + " 统计:" + actual);
+            }
+        }
+        for (Long typeId : current.keySet()) {
+            if (!seen.contains(typeId)) {
+                mismatches.add("typeId=" + typeId + " 数据库中已没有商品,统计:" + current.get(typeId));
+            }
+        }
+        if (!mismatches.isEmpty()) {
+            logger.warn("价格统计和数据库不一致:{}", mismatches);
+        }
+        return mismatches;
+    }
+
+    @Override
+    public void destroy() {
+        NonEventWrites.unregister(staleOnWrite);
+    }
+
+    /**
+     * 商品插入或修改后的类型和价格
+     */
+    void upsert(Long id, Long typeId, double price) {
+        apply(new Change(id, new Good(typeId, price)));
+    }
+
+    void remove(Long id) {
+        apply(new Change(id, null));
+    }
+
+    private synchronized void apply(Change change) {
+        if (pending != null) {
+            pending.add(change);
+        }
+        change.applyTo(this);
+        publish();
+    }
+
+    private void put(Long id, Good good) {
+        Good old = good == null ? goods.remove(id) : goods.put(id, good);
+        if (Objects.equals(old, good)) {
+            return;
+        }
+        if (old != null) {
+            Prices prices = types.get(old.typeId);
+            if (prices == null || !prices.remove(old.price) || !all.remove(old.price)) {
+                // 删除了统计里不存在的价格,说明之前已经不一致
+                markStale();
+            } else if (prices.count == 0) {
+                types.remove(old.typeId);
+            }
+        }
+        if (good != null) {
+            types.computeIfAbsent(good.typeId, typeId -> new Prices()).add(good.price);
+            all.add(good.price);
+        }
+    }
+
+    private void ensureLoaded() {
+        if (isStale()) {
+            synchronized (rebuildLock) {
+                if (isStale()) {
+                    rebuild();
+                }
+            }
+        }
+    }
+
+    /**
+     * 按主键分页读取类型和价格,不经过持久化上下文
+     */
+    private Map<Long, Good> load() {
+        QGoodInfoEntity qGoodInfo = QGoodInfoEntity.goodInfoEntity;
+        Map<Long, Good> loaded = new HashMap<>();
+        Long last = null;
+        List<Tuple> rows;
+        do {
+            rows = jpaQueryFactory
+                    .select(qGoodInfo.id, qGoodInfo.typeId, qGoodInfo.price)
+                    .from(qGoodInfo)
+                    .where(last == null ? null : qGoodInfo.id.gt(last))
+                    .orderBy(qGoodInfo.id.asc())
+                    .limit(PAGE_SIZE)
+                    .fetch();
+            for (Tuple row : rows) {
+                last = row.get(qGoodInfo.id);
+                loaded.put(last, new Good(row.get(qGoodInfo.typeId), row.get(qGoodInfo.price)));
+            }
+        } while (rows.size() == PAGE_SIZE);
+        return loaded;
+    }
+
+    /**
+     * 重新生成只读快照,读取方不加锁
+     */
+    private void publish() {
+        Map<Long, PriceStats> snapshot = new HashMap<>(types.size() * 2);
+        for (Map.Entry<Long, Prices> entry : types.entrySet()) {
+            snapshot.put(entry.getKey(), entry.getValue().toStats());
+        }
+        typeSnapshot = Collections.unmodifiableMap(snapshot);
+        allSnapshot = all.toStats();
+    }
+
+    private static boolean matches(PriceStats expected, PriceStats actual) {
+        return expected.getCount() == actual.getCount()
+                && Math.abs(expected.getSum() - actual.getSum()) <= TOLERANCE * Math.max(1, Math.abs(expected.getSum()))
+                && Objects.equals(expected.getMin(), actual.getMin())
+                && Objects.equals(expected.getMax(), actual.getMax());
+    }
+
+    /**
+     * 价格 -> 出现次数,总和用BigDecimal累加,反复增删不会产生浮点误差
+     */
+    private static class Prices {
+        private final TreeMap<Double, Long> counts = new TreeMap<>();
+        private long count;
+        private BigDecimal sum = BigDecimal.ZERO;
+
+        private void add(double price) {
+            counts.merge(price, 1L, Long::sum);
+            count++;
+            sum = sum.add(BigDecimal.valueOf(price));
+        }
+
+        private boolean remove(double price) {
+            Long times = counts.get(price);
+            if (times == null) {
+                return false;
+            }
+            if (times == 1) {
+                counts.remove(price);
+            } else {
+                counts.put(price, times - 1);
+            }
+            count--;
+            sum = sum.subtract(BigDecimal.valueOf(price));
+            return true;
+        }
+
+        private PriceStats toStats() {
+            if (count == 0) {
+                return PriceStats.EMPTY;
+            }
+            return new PriceStats(count, sum.doubleValue(), counts.firstKey(), counts.lastKey());
+        }
+    }
+
+    /**
+     * 一个商品的类型和价格
+     */
+    private static final class Good {
+        private final Long typeId;
+        private final double price;
+
+        private Good(Long typeId, double price) {
+            this.typeId = typeId;
+            this.price = price;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Good)) {
+                return false;
+            }
+            Good other = (Good) o;
+            return Objects.equals(typeId, other.typeId) && Double.compare(price, other.price) == 0;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(typeId, price);
+        }
+    }
+
+    /**
+     * 一次提交后的插入、修改或删除,带着完整的新状态
+     */
+    private static final class Change {
+        private final Long id;
+        //删除时为null
+        private final Good good;
+
+        private Change(Long id, Good good) {
+            this.id = id;
+            this.good = good;
+        }
+
+        private void applyTo(PriceStatsStore store) {
+            store.put(id, good);
+        }
+    }
+}
@@ -1,11 +1,20 @@
 package com.kevin.querydsl.util;
 
 import com.fasterxml.jackson.annotation.JsonInclude;
-import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.BeanDescription;
 import com.fasterxml.jackson.databind.DeserializationFeature;
-import com.fasterxml.jackson.databind.JavaType;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationConfig;
 import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.module.SimpleModule;
+import com.fasterxml.jackson.databind.ser.BeanPropertyWriter;
+import com.fasterxml.jackson.databind.ser.BeanSerializerModifier;
+import com.fasterxml.jackson.databind.util.ByteBufferBackedInputStream;
 import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
 import com.fasterxml.jackson.datatype.jsr310.deser.LocalDateDeserializer;
 import com.fasterxml.jackson.datatype.jsr310.deser.LocalDateTimeDeserializer;
@@ -13,16 +22,33 @@ import com.fasterxml.jackson.datatype.jsr310.deser.LocalTimeDeserializer;
 import com.fasterxml.jackson.datatype.jsr310.ser.LocalDateSerializer;
 import com.fasterxml.jackson.datatype.jsr310.ser.LocalDateTimeSerializer;
 import com.fasterxml.jackson.datatype.jsr310.ser.LocalTimeSerializer;
+import com.fasterxml.jackson.module.afterburner.AfterburnerModule;
+import org.hibernate.Hibernate;
+import org.hibernate.bytecode.enhance.spi.interceptor.SessionAssociableInterceptor;
+import org.hibernate.collection.internal.AbstractPersistentCollection;
+import org.hibernate.engine.spi.PersistentAttributeInterceptable;
+import org.hibernate.engine.spi.PersistentAttributeInterceptor;
+import org.hibernate.engine.spi.SharedSessionContractImplementor;
+import org.hibernate.proxy.HibernateProxy;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.persistence.Entity;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.time.LocalTime;
 import java.time.format.DateTimeFormatter;
+import java.util.Collection;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.stream.Stream;
 
 public class JsonUtil {
 
@@ -33,6 +59,36 @@ public class JsonUtil {
     private static final String DEFAULT_DATE_FORMAT = "yyyy-MM-dd";
     private static final String DEFAULT_TIME_FORMAT = "HH:mm:ss";
 
+    //-Djson.afterburner=true 开启字节码生成的属性访问器,代替反射读写字段
+    private static final boolean AFTERBURNER = Boolean.getBoolean("json.afterburner");
+    //-Djson.recycle-buffers=false 关闭线程内输出缓冲区复用
+    private static final boolean RECYCLE_BUFFERS =
+            Boolean.parseBoolean(System.getProperty("json.recycle-buffers", "true"));
+    //超过这个大小的缓冲区用完就丢弃,避免线程长期持有大数组
+    private static final int MAX_RECYCLED_BUFFER = 1 << 20;
+    private static final ThreadLocal<OutputBuffer> BUFFERS = ThreadLocal.withInitial(OutputBuffer::new);
+
+    //按类型缓存的reader/writer,根类型的(反)序列化器只解析一次
+    private static final ClassValue<ObjectReader> READERS = new ClassValue<ObjectReader>() {
+        @Override
+        protected ObjectReader computeValue(Class<?> type) {
+            return objectMapper.readerFor(type);
+        }
+    };
+    private static final ClassValue<ObjectReader> LIST_READERS = new ClassValue<ObjectReader>() {
+        @Override
+        protected ObjectReader computeValue(Class<?> type) {
+            return objectMapper.readerFor(objectMapper.getTypeFactory().constructCollectionType(List.class, type));
+        }
+    };
+    //由调用方决定何时flush,流式写出时不会每个元素flush一次
+    private static final ClassValue<ObjectWriter> WRITERS = new ClassValue<ObjectWriter>() {
+        @Override
+        protected ObjectWriter computeValue(Class<?> type) {
+            return objectMapper.writerFor(type).without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+        }
+    };
+
     static {
         objectMapper.setSerializationInclusion(JsonInclude.Include.NON_NULL);
         objectMapper.configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
@@ -46,44 +102,299 @@ public class JsonUtil {
         javaTimeModule.addDeserializer(LocalDate.class,new LocalDateDeserializer(DateTimeFormatter.ofPattern(DEFAULT_DATE_FORMAT)));
         javaTimeModule.addDeserializer(LocalTime.class,new LocalTimeDeserializer(DateTimeFormatter.ofPattern(DEFAULT_TIME_FORMAT)));
         objectMapper.registerModule(javaTimeModule);
+        SimpleModule lazyAttributes = new SimpleModule("LazyAttributes");
+        lazyAttributes.setSerializerModifier(new LazyAttributeModifier());
+        objectMapper.registerModule(lazyAttributes);
+        if (AFTERBURNER) {
+            objectMapper.registerModule(new AfterburnerModule());
+        }
     }
 
     private JsonUtil() {
         // no constructor function
     }
 
+    public static ObjectReader reader(Class<?> clazz) {
+        return READERS.get(clazz);
+    }
+
+    public static ObjectReader listReader(Class<?> clazz) {
+        return LIST_READERS.get(clazz);
+    }
+
+    public static ObjectWriter writer(Class<?> clazz) {
+        return WRITERS.get(clazz);
+    }
+
     public static String bean2Json(Object obj) {
+        OutputBuffer buffer = borrowBuffer();
         try {
-            return objectMapper.writeValueAsString(obj);
-        } catch (JsonProcessingException e) {
+            writerFor(obj).writeValue(buffer, obj);
+            return buffer.toUtf8String();
+        } catch (IOException e) {
+            log.error("jackson序列化异常", e);
+            return null;
+        } finally {
+            releaseBuffer(buffer);
+        }
+    }
+
+    public static byte[] bean2Bytes(Object obj) {
+        OutputBuffer buffer = borrowBuffer();
+        try {
+            writerFor(obj).writeValue(buffer, obj);
+            return buffer.toByteArray();
+        } catch (IOException e) {
             log.error("jackson序列化异常", e);
             return null;
+        } finally {
+            releaseBuffer(buffer);
+        }
+    }
+
+    public static ByteBuffer bean2Buffer(Object obj) {
+        byte[] bytes = bean2Bytes(obj);
+        return bytes == null ? null : ByteBuffer.wrap(bytes);
+    }
+
+    /**
+     * 直接写到输出流,不经过String/byte[];不关闭out
+     */
+    public static void bean2Stream(Object obj, OutputStream out) throws IOException {
+        try (JsonGenerator generator = createGenerator(out)) {
+            writerFor(obj).writeValue(generator, obj);
         }
     }
 
     public static <T> T json2Bean(String jsonStr, Class<T> objClass) {
         try {
-            return objectMapper.readValue(jsonStr, objClass);
+            return READERS.get(objClass).readValue(jsonStr);
+        } catch (IOException e) {
+            log.error("jackson反序列化异常", e);
+            return null;
+        }
+    }
+
+    public static <T> T bytes2Bean(byte[] bytes, Class<T> objClass) {
+        try {
+            return READERS.get(objClass).readValue(bytes);
         } catch (IOException e) {
             log.error("jackson反序列化异常", e);
             return null;
         }
     }
 
+    /**
+     * 读取buffer中剩余的内容,不改变buffer的position
+     */
+    public static <T> T buffer2Bean(ByteBuffer buffer, Class<T> objClass) {
+        return readBuffer(READERS.get(objClass), buffer);
+    }
+
+    public static <T> T stream2Bean(InputStream in, Class<T> objClass) throws IOException {
+        return READERS.get(objClass).readValue(in);
+    }
+
     public static <T> List<T> json2List(String jsonArr, Class<T> clazz) {
         try {
-            JavaType javaType = objectMapper.getTypeFactory().constructParametricType(List.class, clazz);
-            return objectMapper.readValue(jsonArr, javaType);
+            return LIST_READERS.get(clazz).readValue(jsonArr);
         } catch (IOException e) {
             log.error("jackson反序列化异常", e);
             return null;
         }
     }
 
+    public static <T> List<T> bytes2List(byte[] bytes, Class<T> clazz) {
+        try {
+            return LIST_READERS.get(clazz).readValue(bytes);
+        } catch (IOException e) {
+            log.error("jackson反序列化异常", e);
+            return null;
+        }
+    }
+
+    public static <T> List<T> buffer2List(ByteBuffer buffer, Class<T> clazz) {
+        return readBuffer(LIST_READERS.get(clazz), buffer);
+    }
+
+    public static <T> List<T> stream2List(InputStream in, Class<T> clazz) throws IOException {
+        return LIST_READERS.get(clazz).readValue(in);
+    }
+
     public static <T> T map2Bean(Map<String, Object> map, Class<T> clazz) {
         return objectMapper.convertValue(map, clazz);
     }
 
+    public static <T> T convert(Object value, Class<T> clazz) {
+        return objectMapper.convertValue(value, clazz);
+    }
+
+    /**
+     * 把流中的元素逐个写成json数组,不会把整个结果拼成String;不关闭out
+     */
+    public static void writeArray(Stream<?> stream, OutputStream out) throws IOException {
+        try (JsonGenerator generator = createGenerator(out)) {
+            generator.writeStartArray();
+            Iterator<?> iterator = stream.iterator();
+            while (iterator.hasNext()) {
+                Object element = iterator.next();
+                writerFor(element).writeValue(generator, element);
+            }
+            generator.writeEndArray();
+        }
+    }
+
+    private static JsonGenerator createGenerator(OutputStream out) throws IOException {
+        JsonGenerator generator = objectMapper.getFactory().createGenerator(out, JsonEncoding.UTF8);
+        generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+        return generator;
+    }
+
+    private static ObjectWriter writerFor(Object obj) {
+        return obj == null ? WRITERS.get(Object.class) : WRITERS.get(obj.getClass());
+    }
+
+    private static <T> T readBuffer(ObjectReader reader, ByteBuffer buffer) {
+        try {
+            if (buffer.hasArray()) {
+                return reader.readValue(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+            }
+            return reader.readValue(new ByteBufferBackedInputStream(buffer.duplicate()));
+        } catch (IOException e) {
+            log.error("jackson反序列化异常", e);
+            return null;
+        }
+    }
+
+    private static OutputBuffer borrowBuffer() {
+        if (!RECYCLE_BUFFERS) {
+            return new OutputBuffer();
+        }
+        OutputBuffer buffer = BUFFERS.get();
+        if (buffer.inUse) {
+            // 序列化过程中又调用了JsonUtil,不能共用同一个缓冲区
+            return new OutputBuffer();
+        }
+        buffer.inUse = true;
+        buffer.reset();
+        return buffer;
+    }
+
+    private static void releaseBuffer(OutputBuffer buffer) {
+        buffer.inUse = false;
+        if (RECYCLE_BUFFERS && buffer.capacity() > MAX_RECYCLED_BUFFER && BUFFERS.get() == buffer) {
+            BUFFERS.remove();
+        }
+    }
+
+    /**
+     * 可复用的输出缓冲区,结果只在最后复制一次
+     */
+    private static class OutputBuffer extends ByteArrayOutputStream {
+        private boolean inUse;
+
+        private OutputBuffer() {
+            super(8192);
+        }
+
+        private int capacity() {
+            return buf.length;
+        }
+
+        private String toUtf8String() {
+            return new String(buf, 0, count, StandardCharsets.UTF_8);
+        }
+    }
+
+    /**
+     * 实体上未加载的懒加载属性(字节码增强)和未初始化的关联(代理、集合),所属的Session还能加载时照常输出(会触发加载),
+     * 游离实体上的不输出,序列化时不会抛LazyInitializationException;关联的判断不依赖字节码增强
+     */
+    private static class LazyAttributeModifier extends BeanSerializerModifier {
+        @Override
+        public List<BeanPropertyWriter> changeProperties(SerializationConfig config, BeanDescription beanDesc,
+                                                         List<BeanPropertyWriter> beanProperties) {
+            if (!isEntity(beanDesc.getBeanClass())) {
+                return beanProperties;
+            }
+            boolean interceptable = PersistentAttributeInterceptable.class.isAssignableFrom(beanDesc.getBeanClass());
+            beanProperties.replaceAll(writer -> interceptable || isAssociation(writer)
+                    ? new LazyAttributeWriter(writer, interceptable) : writer);
+            return beanProperties;
+        }
+
+        /**
+         * 代理类是实体的子类,@Entity不会继承
+         */
+        private static boolean isEntity(Class<?> type) {
+            for (Class<?> c = type; c != null && c != Object.class; c = c.getSuperclass()) {
+                if (c.isAnnotationPresent(Entity.class)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private static boolean isAssociation(BeanPropertyWriter writer) {
+            Class<?> type = writer.getType().getRawClass();
+            return type.isAnnotationPresent(Entity.class)
+                    || Collection.class.isAssignableFrom(type) || Map.class.isAssignableFrom(type);
+        }
+    }
+
+    private static class LazyAttributeWriter extends BeanPropertyWriter {
+        //Afterburner可能已经换成了优化过的writer,实际输出交给它
+        private final BeanPropertyWriter delegate;
+        //字节码增强的实体,属性本身可能是未加载的懒加载属性
+        private final boolean interceptable;
+        //关联属性,值可能是未初始化的代理或集合
+        private final boolean association;
+
+        private LazyAttributeWriter(BeanPropertyWriter delegate, boolean interceptable) {
+            super(delegate);
+            this.delegate = delegate;
+            this.interceptable = interceptable;
+            this.association = LazyAttributeModifier.isAssociation(delegate);
+        }
+
+        @Override
+        public void serializeAsField(Object bean, JsonGenerator gen, SerializerProvider prov) throws Exception {
+            if (interceptable && !Hibernate.isPropertyInitialized(bean, getName()) && !canLoad(bean)) {
+                return;
+            }
+            if (association) {
+                Object value = delegate.get(bean);
+                if (!Hibernate.isInitialized(value) && !canLoad(value)) {
+                    return;
+                }
+            }
+            delegate.serializeAsField(bean, gen, prov);
+        }
+
+        /**
+         * 增强实体、代理或集合关联的Session仍然打开时可以加载
+         */
+        private static boolean canLoad(Object target) {
+            SharedSessionContractImplementor session = null;
+            if (target instanceof HibernateProxy) {
+                session = ((HibernateProxy) target).getHibernateLazyInitializer().getSession();
+            } else if (target instanceof AbstractPersistentCollection) {
+                session = ((AbstractPersistentCollection) target).getSession();
+            } else if (target instanceof PersistentAttributeInterceptable) {
+                PersistentAttributeInterceptor interceptor =
+                        ((PersistentAttributeInterceptable) target).$$_hibernate_getInterceptor();
+                if (interceptor instanceof SessionAssociableInterceptor) {
+                    SessionAssociableInterceptor associable = (SessionAssociableInterceptor) interceptor;
+                    if (associable.allowLoadOutsideTransaction()) {
+                        return true;
+                    }
+                    session = associable.getLinkedSession();
+                }
+            }
+            return session != null && session.isOpen() && session.isConnected();
+        }
+    }
+
     public static void main(String[] args) {
     }
 }
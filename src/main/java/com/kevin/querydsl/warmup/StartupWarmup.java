@@ -0,0 +1,170 @@
+package com.kevin.querydsl.warmup;
+
+import com.kevin.querydsl.dto.GoodDTO;
+import com.kevin.querydsl.entity.UserEntity;
+import com.kevin.querydsl.util.JsonUtil;
+import com.querydsl.jpa.impl.JPAQueryFactory;
+import com.zaxxer.hikari.HikariDataSource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.sql.DataSource;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+/**
+ * 启动预热,部署后的第一批请求不再承担建连、解析HQL、生成序列化器和加载Q类的开销<br/>
+ * 1. 连接池:一次借出minimumIdle个连接再归还,连接池不用等后台线程慢慢补齐<br/>
+ * 2. 查询:在只读事务中执行所有{@link WarmupQuery},JPQL形状缓存和Hibernate查询计划缓存都会命中<br/>
+ * 3. 序列化:GoodDTO和UserEntity的样例对象经JsonUtil序列化、反序列化<br/>
+ * ApplicationRunner在ApplicationReadyEvent之前执行,预热完成前就绪探针(/actuator/health/readiness)返回OUT_OF_SERVICE<br/>
+ * kevin<br/>
+ * 2021/3/20 10:00<br/>
+ */
+@Component
+@Order(Ordered.HIGHEST_PRECEDENCE)
+@ConditionalOnProperty(prefix = "querydsl.warmup", name = "enabled", havingValue = "true", matchIfMissing = true)
+public class StartupWarmup implements ApplicationRunner {
+
+    private static final Logger logger = LoggerFactory.getLogger(StartupWarmup.class);
+
+    private final DataSource dataSource;
+    private final JPAQueryFactory jpaQueryFactory;
+    private final TransactionTemplate readOnly;
+    private final Map<String, WarmupQuery> queries;
+    private final WarmupProperties properties;
+    //各步骤的耗时
+    private final Map<String, Duration> timings = new LinkedHashMap<>();
+
+    public StartupWarmup(DataSource dataSource,
+                         JPAQueryFactory jpaQueryFactory,
+                         PlatformTransactionManager transactionManager,
+                         Map<String, WarmupQuery> queries,
+                         WarmupProperties properties) {
+        this.dataSource = dataSource;
+        this.jpaQueryFactory = jpaQueryFactory;
+        this.readOnly = new TransactionTemplate(transactionManager);
+        this.readOnly.setReadOnly(true);
+        this.queries = queries;
+        this.properties = properties;
+    }
+
+    @Override
+    public void run(ApplicationArguments args) {
+        long start = System.nanoTime();
+        step("连接池", this::fillPool);
+        step("查询", this::warmQueries);
+        step("序列化", this::warmSerializers);
+        logger.info("预热完成,耗时:[{}]ms,各步骤:{}", (System.nanoTime() - start) / 1_000_000, timings);
+    }
+
+    public Map<String, Duration> getTimings() {
+        return Collections.unmodifiableMap(timings);
+    }
+
+    private void step(String name, Runnable step) {
+        long start = System.nanoTime();
+        try {
+            step.run();
+        } catch (RuntimeException e) {
+            if (properties.isFailOnError()) {
+                throw e;
+            }
+            logger.warn("预热[{}]失败: {}", name, e.getMessage());
+        } finally {
+            Duration elapsed = Duration.ofNanos(System.nanoTime() - start);
+            timings.put(name, elapsed);
+            logger.info("预热[{}]耗时:[{}]ms", name, elapsed.toMillis());
+        }
+    }
+
+    /**
+     * 同时持有多个连接,连接池只能新建连接,建满为止
+     */
+    private void fillPool() {
+        int size = properties.getConnections() > 0 ? properties.getConnections() : minimumIdle();
+        List<Connection> connections = new ArrayList<>(size);
+        try {
+            for (int i = 0; i < size; i++) {
+                Connection connection = dataSource.getConnection();
+                connections.add(connection);
+                // 延迟连接的代理在这里才真正取连接
+                connection.isValid(1);
+            }
+        } catch (SQLException e) {
+            throw new IllegalStateException("建立连接失败: " + e.getMessage(), e);
+        } finally {
+            for (Connection connection : connections) {
+                try {
+                    connection.close();
+                } catch (SQLException e) {
+                    logger.debug("归还连接失败: {}", e.getMessage());
+                }
+            }
+        }
+        logger.debug("预热连接数:[{}]", connections.size());
+    }
+
+    private void warmQueries() {
+        for (int i = 0; i < properties.getQueryIterations(); i++) {
+            for (Map.Entry<String, WarmupQuery> query : queries.entrySet()) {
+                long start = System.nanoTime();
+                readOnly.executeWithoutResult(status -> query.getValue().create(jpaQueryFactory).limit(1).fetch());
+                if (i == 0 && logger.isDebugEnabled()) {
+                    logger.debug("预热查询[{}]首次耗时:[{}]ms", query.getKey(), (System.nanoTime() - start) / 1_000_000);
+                }
+            }
+        }
+    }
+
+    private void warmSerializers() {
+        GoodDTO good = new GoodDTO(1L, "warmup", "warmup", 1D, "warmup", 1L);
+        UserEntity user = new UserEntity();
+        user.setId(1L);
+        user.setName("warmup");
+        user.setAddress("warmup");
+        try {
+            for (int i = 0; i < properties.getSerializeIterations(); i++) {
+                JsonUtil.json2Bean(JsonUtil.bean2Json(good), GoodDTO.class);
+                JsonUtil.json2Bean(JsonUtil.bean2Json(user), UserEntity.class);
+                JsonUtil.bytes2List(JsonUtil.bean2Bytes(Collections.singletonList(good)), GoodDTO.class);
+                // 导出接口的流式写法
+                JsonUtil.writeArray(Stream.of(good), new ByteArrayOutputStream());
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private int minimumIdle() {
+        try {
+            if (dataSource.isWrapperFor(HikariDataSource.class)) {
+                HikariDataSource hikari = dataSource.unwrap(HikariDataSource.class);
+                // 未设置minimumIdle时为-1,连接池按maximumPoolSize处理
+                int minimumIdle = hikari.getMinimumIdle();
+                return minimumIdle < 0 ? hikari.getMaximumPoolSize() : Math.min(minimumIdle, hikari.getMaximumPoolSize());
+            }
+        } catch (SQLException e) {
+            logger.warn("获取连接池大小失败: {}", e.getMessage());
+        }
+        return 1;
+    }
+}
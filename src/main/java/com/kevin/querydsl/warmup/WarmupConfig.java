@@ -0,0 +1,80 @@
+package com.kevin.querydsl.warmup;
+
+import com.kevin.querydsl.dto.QGoodDTO;
+import com.kevin.querydsl.entity.QGoodInfoEntity;
+import com.kevin.querydsl.entity.QGoodTypeEntity;
+import com.kevin.querydsl.entity.QStudentEntity;
+import com.kevin.querydsl.entity.QUserEntity;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.Arrays;
+
+/**
+ * 预热的查询形状,对应GoodService、StatsService和仓库中的查询,新增常用查询时在这里注册<br/>
+ * kevin<br/>
+ * 2021/3/20 10:00<br/>
+ */
+@Configuration
+@EnableConfigurationProperties(WarmupProperties.class)
+public class WarmupConfig {
+
+    private static final QUserEntity qUser = QUserEntity.userEntity;
+    private static final QGoodInfoEntity qGoodInfo = QGoodInfoEntity.goodInfoEntity;
+    private static final QGoodTypeEntity qGoodType = QGoodTypeEntity.goodTypeEntity;
+    private static final QStudentEntity qStudent = QStudentEntity.studentEntity;
+
+    @Bean
+    public WarmupQuery userByNameAndAge() {
+        return f -> f.selectFrom(qUser).where(qUser.name.eq("warmup"), qUser.age.eq(0));
+    }
+
+    @Bean
+    public WarmupQuery typeIdsByName() {
+        return f -> f.select(qGoodType.id).from(qGoodType).where(qGoodType.name.like("%warmup%"));
+    }
+
+    @Bean
+    public WarmupQuery goodsByTypeIds() {
+        return f -> f.selectFrom(qGoodInfo).where(qGoodInfo.typeId.in(Arrays.asList(-1L, -2L)));
+    }
+
+    @Bean
+    public WarmupQuery goodsByPrice() {
+        return f -> f.selectFrom(qGoodInfo).where(qGoodInfo.price.eq(-1D));
+    }
+
+    @Bean
+    public WarmupQuery goodsAbovePrice() {
+        return f -> f.selectFrom(qGoodInfo).where(qGoodInfo.price.gt(-1D), qGoodInfo.typeId.eq(-1L));
+    }
+
+    @Bean
+    public WarmupQuery goodDTOs() {
+        return f -> f.select(new QGoodDTO(qGoodInfo.id, qGoodInfo.title, qGoodInfo.unit,
+                qGoodInfo.price, qGoodType.name, qGoodType.id))
+                .from(qGoodInfo, qGoodType)
+                .where(qGoodType.id.eq(qGoodInfo.typeId))
+                .orderBy(qGoodInfo.order.desc());
+    }
+
+    @Bean
+    public WarmupQuery goodsWithType() {
+        return f -> f.selectFrom(qGoodInfo)
+                .innerJoin(qGoodInfo.type, qGoodType).fetchJoin()
+                .where(qGoodInfo.typeId.eq(-1L))
+                .orderBy(qGoodInfo.typeId.desc(), qGoodInfo.order.desc());
+    }
+
+    @Bean
+    public WarmupQuery goodCountAndMaxPrice() {
+        return f -> f.select(qGoodInfo.id.count(), qGoodInfo.price.max()).from(qGoodInfo);
+    }
+
+    @Bean
+    public WarmupQuery studentAggregates() {
+        return f -> f.select(qStudent.id.count(), qStudent.socre.sum(), qStudent.socre.avg(), qStudent.socre.max())
+                .from(qStudent);
+    }
+}
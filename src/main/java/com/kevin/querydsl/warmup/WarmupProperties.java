@@ -0,0 +1,24 @@
+package com.kevin.querydsl.warmup;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+/**
+ * 启动预热配置<br/>
+ * kevin<br/>
+ * 2021/3/20 10:00<br/>
+ */
+@Data
+@ConfigurationProperties(prefix = "querydsl.warmup")
+public class WarmupProperties {
+    //是否在启动时预热
+    private boolean enabled = true;
+    //预先建立的连接数,为0时取连接池的minimumIdle
+    private int connections;
+    //每个查询执行的次数
+    private int queryIterations = 3;
+    //每个样例对象序列化的次数
+    private int serializeIterations = 1000;
+    //预热失败时是否终止启动,默认只记录日志
+    private boolean failOnError;
+}
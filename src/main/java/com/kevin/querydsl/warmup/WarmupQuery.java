@@ -0,0 +1,16 @@
+package com.kevin.querydsl.warmup;
+
+import com.querydsl.jpa.impl.JPAQuery;
+import com.querydsl.jpa.impl.JPAQueryFactory;
+
+/**
+ * 启动时预热的查询,和业务代码中的查询形状一致,参数用占位值即可<br/>
+ * 注册为bean后由{@link StartupWarmup}在只读事务中执行,只取一行<br/>
+ * kevin<br/>
+ * 2021/3/20 10:00<br/>
+ */
+@FunctionalInterface
+public interface WarmupQuery {
+
+    JPAQuery<?> create(JPAQueryFactory queryFactory);
+}
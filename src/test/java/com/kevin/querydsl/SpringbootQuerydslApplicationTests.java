@@ -1,16 +1,39 @@
 package com.kevin.querydsl;
 
+import com.kevin.querydsl.bulk.BulkDmlExecutor;
+import com.kevin.querydsl.bulk.BulkDmlResult;
+import com.kevin.querydsl.columnar.StudentSnapshot;
+import com.kevin.querydsl.controller.CacheController;
 import com.kevin.querydsl.dto.GoodDTO;
+import com.kevin.querydsl.dto.QGoodDTO;
 import com.kevin.querydsl.entity.*;
+import com.kevin.querydsl.jpa.BulkInsertResult;
+import com.kevin.querydsl.jpa.PageMode;
 import com.kevin.querydsl.jpa.UserJPA;
+import com.kevin.querydsl.metrics.QueryMetrics;
+import com.kevin.querydsl.query.AsyncQueryExecutor;
+import com.kevin.querydsl.query.KeysetPage;
+import com.kevin.querydsl.query.KeysetQueries;
+import com.kevin.querydsl.query.ReadOnlyQueries;
+import com.kevin.querydsl.search.TextIndexes;
+import com.kevin.querydsl.service.GoodService;
+import com.kevin.querydsl.service.StatsService;
+import com.kevin.querydsl.stats.PriceStatsStore;
 import com.kevin.querydsl.util.JsonUtil;
+import com.kevin.querydsl.warmup.StartupWarmup;
 import com.querydsl.core.QueryResults;
 import com.querydsl.core.types.ExpressionUtils;
+import com.querydsl.core.types.OrderSpecifier;
 import com.querydsl.core.types.Predicate;
 import com.querydsl.core.types.Projections;
 import com.querydsl.core.types.dsl.BooleanExpression;
 import com.querydsl.jpa.JPAExpressions;
 import com.querydsl.jpa.impl.JPAQueryFactory;
+import org.hibernate.Hibernate;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.graph.GraphSemantic;
+import org.hibernate.stat.Statistics;
 import org.junit.jupiter.api.Test;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -18,14 +41,29 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Slice;
 import org.springframework.data.domain.Sort;
 import org.springframework.test.annotation.Rollback;
 import org.springframework.transaction.annotation.Transactional;
 
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
 import java.util.stream.Collectors;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
 @SpringBootTest
 class SpringbootQuerydslApplicationTests {
 
@@ -46,6 +84,27 @@ class SpringbootQuerydslApplicationTests {
         logger.info(JsonUtil.bean2Json(userEntity));
     }
 
+    /**
+     * 字节码增强后地址和密码按需加载,各自一条select
+     */
+    @Test
+    @Transactional
+    public void testLazyAttributes() {
+        QUserEntity qUserEntity = QUserEntity.userEntity;
+        UserEntity userEntity = jpaQueryFactory.selectFrom(qUserEntity)
+                .where(qUserEntity.name.eq("kevin"))
+                .fetchFirst();
+        if (userEntity == null) {
+            return;
+        }
+        logger.info("地址已加载:[{}],密码已加载:[{}],json:{}",
+                Hibernate.isPropertyInitialized(userEntity, "address"),
+                Hibernate.isPropertyInitialized(userEntity, "pwd"),
+                JsonUtil.bean2Json(userEntity));
+        logger.info("地址:[{}],密码已加载:[{}]", userEntity.getAddress(),
+                Hibernate.isPropertyInitialized(userEntity, "pwd"));
+    }
+
     @Test
     public void testFindAll() {
         QUserEntity qUserEntity = QUserEntity.userEntity;
@@ -55,6 +114,26 @@ class SpringbootQuerydslApplicationTests {
         logger.info(JsonUtil.bean2Json(userEntities));
     }
 
+    /**
+     * 只读查询:单个查询或整段代码通过StatelessSession执行,实体不进入持久化上下文
+     */
+    @Test
+    @Transactional(readOnly = true)
+    public void testStatelessFindAll() {
+        QUserEntity qUserEntity = QUserEntity.userEntity;
+        List<UserEntity> userEntities = ReadOnlyQueries.stateless(jpaQueryFactory.selectFrom(qUserEntity)
+                .orderBy(qUserEntity.age.asc()))
+                .fetch();
+        logger.info("用户数:[{}],在持久化上下文中:[{}]", userEntities.size(),
+                !userEntities.isEmpty() && entityManager.contains(userEntities.get(0)));
+        List<UserEntity> adults = ReadOnlyQueries.stateless(() -> userJPA.findAll(qUserEntity.age.goe(18),
+                PageRequest.of(0, 10), PageMode.SLICE).getContent());
+        logger.info(JsonUtil.bean2Json(adults));
+        // 实体只读:仍在持久化上下文中,但没有快照
+        List<UserEntity> readOnly = ReadOnlyQueries.readOnly(jpaQueryFactory.selectFrom(qUserEntity)).fetch();
+        logger.info("只读实体:[{}]", !readOnly.isEmpty() && entityManager.unwrap(Session.class).isReadOnly(readOnly.get(0)));
+    }
+
     @Test
     public void testPageFind() {
         int pageNo = 1;
@@ -75,6 +154,24 @@ class SpringbootQuerydslApplicationTests {
         logger.info(JsonUtil.bean2Json(userEntities));
     }
 
+    @Test
+    public void testKeysetPageFind() {
+        int pageSize = 2;
+
+        QUserEntity qUserEntity = QUserEntity.userEntity;
+        // 排序字段最后一个必须是唯一键
+        List<OrderSpecifier<?>> orders = Arrays.asList(
+                qUserEntity.age.asc(), qUserEntity.id.asc());
+        String cursor = null;
+        do {
+            KeysetPage<UserEntity> page = KeysetQueries.fetchPage(
+                    jpaQueryFactory.from(qUserEntity).where(qUserEntity.age.between(20, 30)),
+                    qUserEntity, orders, cursor, pageSize);
+            logger.info("游标:[{}],数据:{}", cursor, JsonUtil.bean2Json(page.getContent()));
+            cursor = page.getNextCursor();
+        } while (cursor != null);
+    }
+
     @Test
     public void testLikeFindAndBetween() {
         QUserEntity qUserEntity = QUserEntity.userEntity;
@@ -87,6 +184,31 @@ class SpringbootQuerydslApplicationTests {
         logger.info(JsonUtil.bean2Json(userEntities));
     }
 
+    @Autowired
+    private TextIndexes textIndexes;
+
+    @Test
+    public void testNgramSearch() {
+        QUserEntity qUserEntity = QUserEntity.userEntity;
+        QGoodInfoEntity qGoodInfo = QGoodInfoEntity.goodInfoEntity;
+        // 前导%的like改写成 id in (...),和直接like的结果一致
+        Predicate predicate = textIndexes.rewrite(qUserEntity.name.like("%ry").and(qUserEntity.age.between(20, 30)));
+        logger.info("改写后的条件:{}", predicate);
+        List<UserEntity> indexed = jpaQueryFactory.selectFrom(qUserEntity).where(predicate)
+                .orderBy(qUserEntity.id.asc()).fetch();
+        List<UserEntity> scanned = jpaQueryFactory.selectFrom(qUserEntity)
+                .where(qUserEntity.name.like("%ry"), qUserEntity.age.between(20, 30))
+                .orderBy(qUserEntity.id.asc()).fetch();
+        logger.info("索引:[{}]行,like:[{}]行", indexed.size(), scanned.size());
+
+        List<GoodInfoEntity> goods = jpaQueryFactory.selectFrom(qGoodInfo)
+                .where(textIndexes.rewrite(qGoodInfo.title.contains("菜")))
+                .fetch();
+        logger.info(JsonUtil.bean2Json(goods));
+        logger.info("类型:{}", goodService.findTypeIds("蔬菜"));
+        logger.info(JsonUtil.bean2Json(textIndexes.stats()));
+    }
+
     @Test
     @Transactional
     @Rollback(false)
@@ -109,6 +231,28 @@ class SpringbootQuerydslApplicationTests {
                 .execute();
     }
 
+    @Autowired
+    private BulkDmlExecutor bulkDmlExecutor;
+
+    /**
+     * 按主键区间分段执行,每段一个短事务;中途失败后同名任务从断点继续
+     */
+    @Test
+    public void testBulkUpdate() {
+        QUserEntity qUserEntity = QUserEntity.userEntity;
+        BulkDmlResult result = bulkDmlExecutor.update("user-default-address", qUserEntity, qUserEntity.id,
+                qUserEntity.address.isNull(),
+                update -> update.set(qUserEntity.address, "未填写"));
+        logger.info("[{}]段,[{}]行,每秒[{}]行", result.getChunks(), result.getRows(), result.rowsPerSecond());
+    }
+
+    @Test
+    public void testBulkDelete() {
+        QGoodInfoEntity qGoodInfo = QGoodInfoEntity.goodInfoEntity;
+        BulkDmlResult result = bulkDmlExecutor.delete("free-goods", qGoodInfo, qGoodInfo.id, qGoodInfo.price.loe(0));
+        logger.info(JsonUtil.bean2Json(result));
+    }
+
     @Test
     public void testJoin() {
         QGoodInfoEntity qGoodInfo = QGoodInfoEntity.goodInfoEntity;
@@ -164,7 +308,6 @@ class SpringbootQuerydslApplicationTests {
                     GoodDTO dto = new GoodDTO();
                     dto.setId(tuple.get(qGoodInfo.id));
                     dto.setPrice(tuple.get(qGoodInfo.price));
-                    dto.setPrice(tuple.get(qGoodInfo.price));
                     dto.setTitle(tuple.get(qGoodInfo.title));
                     dto.setUnit(tuple.get(qGoodInfo.unit));
                     dto.setTypeId(tuple.get(qGoodType.id));
@@ -175,6 +318,71 @@ class SpringbootQuerydslApplicationTests {
         logger.info(JsonUtil.bean2Json(result));
     }
 
+    @Test
+    public void testCustomDTOByConstructor() {
+        QGoodInfoEntity qGoodInfo = QGoodInfoEntity.goodInfoEntity;
+        QGoodTypeEntity qGoodType = QGoodTypeEntity.goodTypeEntity;
+        List<GoodDTO> result = jpaQueryFactory
+                .select(new QGoodDTO(   // 编译期生成的构造函数投影
+                        qGoodInfo.id,
+                        qGoodInfo.title,
+                        qGoodInfo.unit,
+                        qGoodInfo.price,
+                        qGoodType.name,
+                        qGoodType.id))
+                .from(qGoodInfo, qGoodType)
+                .where(qGoodType.id.eq(qGoodInfo.typeId))
+                .orderBy(qGoodInfo.order.desc())
+                .fetch();
+        logger.info(JsonUtil.bean2Json(result));
+    }
+
+    @Autowired
+    private GoodService goodService;
+
+    @Test
+    public void testGoodsWithType() {
+        Statistics statistics = entityManager.getEntityManagerFactory().unwrap(SessionFactory.class).getStatistics();
+        long before = statistics.getPrepareStatementCount();
+        // 一条inner join,类型随商品一起取出,序列化时不再查询
+        List<GoodInfoEntity> goods = goodService.findGoodsWithType(3L, 0, 20);
+        logger.info(JsonUtil.bean2Json(goods));
+        logger.info("fetch join,SQL条数:[{}]", statistics.getPrepareStatementCount() - before);
+    }
+
+    @Test
+    @Transactional(readOnly = true)
+    public void testGoodsTypeBatchFetch() {
+        QGoodInfoEntity qGoodInfo = QGoodInfoEntity.goodInfoEntity;
+        Statistics statistics = entityManager.getEntityManagerFactory().unwrap(SessionFactory.class).getStatistics();
+        long before = statistics.getPrepareStatementCount();
+        // 不连接类型:第一次访问type时同一批最多50个类型用一条in查询加载(@BatchSize),二级缓存命中的不查
+        List<GoodInfoEntity> goods = jpaQueryFactory.selectFrom(qGoodInfo)
+                .orderBy(qGoodInfo.order.desc())
+                .limit(200)
+                .fetch();
+        goods.forEach(good -> Hibernate.initialize(good.getType()));
+        logger.info("批量加载,商品:[{}]个,SQL条数:[{}]", goods.size(), statistics.getPrepareStatementCount() - before);
+        entityManager.clear();
+        before = statistics.getPrepareStatementCount();
+        // 实体图:按命名实体图左连接类型,效果同fetch join
+        goods = jpaQueryFactory.selectFrom(qGoodInfo)
+                .orderBy(qGoodInfo.order.desc())
+                .limit(200)
+                .setHint(GraphSemantic.FETCH.getJpaHintName(), entityManager.getEntityGraph(GoodInfoEntity.WITH_TYPE))
+                .fetch();
+        goods.forEach(good -> Hibernate.initialize(good.getType()));
+        logger.info("实体图,商品:[{}]个,SQL条数:[{}]", goods.size(), statistics.getPrepareStatementCount() - before);
+    }
+
+    @Test
+    public void testExportGoods() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        goodService.exportGoods(out);
+        List<GoodDTO> result = JsonUtil.json2List(out.toString(StandardCharsets.UTF_8), GoodDTO.class);
+        logger.info("导出商品:[{}]条,共:[{}]字节", result.size(), out.size());
+    }
+
     @Test
     public void testCount() {
         QStudentEntity qStudent = QStudentEntity.studentEntity;
@@ -215,6 +423,46 @@ class SpringbootQuerydslApplicationTests {
         logger.info("总和" + max);
     }
 
+    @Autowired
+    private StatsService statsService;
+
+    @Test
+    public void testAggregates() {
+        // count、sum、avg、max一条SQL
+        logger.info(JsonUtil.bean2Json(statsService.studentStats()));
+    }
+
+    @Test
+    public void testDashboard() {
+        // 三个互不相关的查询一次往返
+        logger.info(JsonUtil.bean2Json(statsService.dashboard()));
+    }
+
+    @Autowired
+    private StudentSnapshot studentSnapshot;
+
+    @Test
+    public void testStudentSnapshot() {
+        QStudentEntity qStudent = QStudentEntity.studentEntity;
+        studentSnapshot.rebuild();
+        // 在快照上扫描,和数据库的结果对比
+        logger.info("快照:[{}],数据库:[{}]", studentSnapshot.fetchOne(jpaQueryFactory
+                        .select(qStudent.id.count(), qStudent.socre.sum(), qStudent.socre.avg(), qStudent.socre.max())
+                        .from(qStudent).where(qStudent.age.goe(18))),
+                jpaQueryFactory.select(qStudent.id.count(), qStudent.socre.sum(), qStudent.socre.avg(), qStudent.socre.max())
+                        .from(qStudent).where(qStudent.age.goe(18)).fetchOne());
+        logger.info("分组:[{}]", studentSnapshot.fetch(jpaQueryFactory
+                .select(qStudent.socre, qStudent.id.count())
+                .from(qStudent)
+                .groupBy(qStudent.socre)
+                .having(qStudent.socre.gt(80))
+                .orderBy(qStudent.socre.desc())));
+        // 按姓名查询不支持,走数据库
+        logger.info("按姓名:[{}]", studentSnapshot.fetch(jpaQueryFactory
+                .select(qStudent.socre.avg()).from(qStudent).where(qStudent.name.like("k%"))));
+        logger.info(JsonUtil.bean2Json(studentSnapshot.stats()));
+    }
+
     @Test
     public void testGroupBy() {
         QStudentEntity qStudent = QStudentEntity.studentEntity;
@@ -246,6 +494,31 @@ class SpringbootQuerydslApplicationTests {
         logger.info(JsonUtil.bean2Json(result));
     }
 
+    @Autowired
+    private CacheController cacheController;
+
+    @Test
+    public void testFindVegetablesCached() {
+        // 类型编号由n-gram索引给出;索引关闭时第二次查询命中查询缓存,不再访问good_types
+        logger.info(JsonUtil.bean2Json(goodService.findGoodsByTypeName("蔬菜")));
+        logger.info(JsonUtil.bean2Json(goodService.findGoodsByTypeName("蔬菜")));
+        logger.info(JsonUtil.bean2Json(cacheController.stats()));
+    }
+
+    @Test
+    @Transactional
+    public void testGoodTypeCacheInvalidation() {
+        QGoodTypeEntity qGoodType = QGoodTypeEntity.goodTypeEntity;
+        logger.info("类型:{}", goodService.findTypeIds("蔬菜"));
+        // QueryDSL的update会让good_types相关的实体缓存和查询缓存失效
+        jpaQueryFactory.update(qGoodType)
+                .set(qGoodType.isShow, 1)
+                .where(qGoodType.name.like("%蔬菜%"))
+                .execute();
+        logger.info("类型:{}", goodService.findTypeIds("蔬菜"));
+        logger.info(JsonUtil.bean2Json(cacheController.stats()));
+    }
+
     @Test
     public void testFindMaxPrices() {
         QGoodInfoEntity qGoodInfo = QGoodInfoEntity.goodInfoEntity;
@@ -279,6 +552,39 @@ class SpringbootQuerydslApplicationTests {
         logger.info(JsonUtil.bean2Json(result));
     }
 
+    @Autowired
+    private PriceStatsStore priceStatsStore;
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    @Test
+    public void testFindMaxPricesByStats() {
+        // 最高价来自价格统计,SQL里没有子查询
+        logger.info(JsonUtil.bean2Json(goodService.findMaxPriceGoods()));
+        logger.info(JsonUtil.bean2Json(goodService.findAboveAvgPriceGoods(null)));
+    }
+
+    @Test
+    @Transactional
+    @Rollback(false)
+    public void testPriceStatsIncremental() {
+        GoodInfoEntity good = new GoodInfoEntity();
+        good.setTitle("榴莲");
+        good.setPrice(99.9);
+        good.setUnit("斤");
+        good.setTypeId(1L);
+        entityManager.persist(good);
+        // 提交后才会计入统计
+        logger.info(JsonUtil.bean2Json(priceStatsStore.ofType(1L)));
+    }
+
+    @Test
+    public void testPriceStatsCheck() {
+        logger.info("不一致:{}", priceStatsStore.check());
+        logger.info(JsonUtil.bean2Json(priceStatsStore.overall()));
+    }
+
     /**********************SpringDataJPA&QueryDSL整合*******************/
 
     @Autowired
@@ -312,6 +618,22 @@ class SpringbootQuerydslApplicationTests {
         logger.info(JsonUtil.bean2Json(userEntities));
     }
 
+    @Test
+    public void testPageModes() {
+        QUserEntity qUserEntity = QUserEntity.userEntity;
+        BooleanExpression expression = qUserEntity.age.between(20, 30);
+        PageRequest pageRequest = PageRequest.of(1, 2, Sort.by(Sort.Direction.DESC, "age"));
+        for (PageMode mode : PageMode.values()) {
+            Slice<UserEntity> slice = userJPA.findAll(expression, pageRequest, mode);
+            if (slice instanceof Page) {
+                logger.info("[{}]共有:[{}]数据", mode, ((Page<UserEntity>) slice).getTotalElements());
+            } else {
+                logger.info("[{}]是否有下一页:[{}]", mode, slice.hasNext());
+            }
+            logger.info(JsonUtil.bean2Json(slice.getContent()));
+        }
+    }
+
     @Test
     public void testDynamicQueryAndPage() {
         Integer age = 28;
@@ -346,6 +668,112 @@ class SpringbootQuerydslApplicationTests {
         logger.info(JsonUtil.bean2Json(userEntities));
     }
 
+    @Test
+    public void testPredicateBuilder() {
+        Integer age = 28;
+        String address = null;
+        String name = "ev";
+
+        QUserEntity qUserEntity = QUserEntity.userEntity;
+        PageRequest pageRequest = PageRequest.of(0, 2, Sort.by(Sort.Direction.ASC, "id"));
+        // address为null被忽略,name按前缀匹配,不需要where 1=1
+        Page<UserEntity> page = userJPA.predicateBuilder()
+                .prefixMatch(true)
+                .eq(qUserEntity.age, age)
+                .startsWith(qUserEntity.address, address)
+                .contains(qUserEntity.name, name)
+                .execute(predicate -> userJPA.findAll(predicate, pageRequest));
+        logger.info("共有:[{}]数据,{}", page.getTotalElements(), JsonUtil.bean2Json(page.getContent()));
+    }
+
+    @Test
+    public void testQueryShapeCache() {
+        QUserEntity qUserEntity = QUserEntity.userEntity;
+        PageRequest pageRequest = PageRequest.of(0, 2, Sort.by(Sort.Direction.ASC, "id"));
+        // 条件形状相同、值不同,第二次起只绑定参数,不再生成JPQL
+        for (int age = 20; age < 30; age++) {
+            Predicate predicate = qUserEntity.age.eq(age)
+                    .and(qUserEntity.address.like("丰台%"))
+                    .and(qUserEntity.name.contains("ev" + age));
+            userJPA.findAll(predicate, pageRequest, PageMode.EXACT_COUNT);
+        }
+        logger.info(JsonUtil.bean2Json(cacheController.queryShapes()));
+    }
+
+    @Autowired
+    private QueryMetrics queryMetrics;
+
+    @Autowired
+    private AsyncQueryExecutor asyncQueryExecutor;
+
+    @Test
+    public void testAsyncQueries() {
+        QUserEntity qUserEntity = QUserEntity.userEntity;
+        QGoodInfoEntity qGoodInfo = QGoodInfoEntity.goodInfoEntity;
+        QGoodTypeEntity qGoodType = QGoodTypeEntity.goodTypeEntity;
+        QStudentEntity qStudent = QStudentEntity.studentEntity;
+        long start = System.currentTimeMillis();
+        // 三个查询在各自的连接上同时执行
+        CompletableFuture<List<UserEntity>> users = asyncQueryExecutor.submit(
+                f -> f.selectFrom(qUserEntity).orderBy(qUserEntity.id.asc()).limit(10).fetch());
+        CompletableFuture<List<GoodDTO>> goods = asyncQueryExecutor.submit(
+                f -> f.select(new QGoodDTO(qGoodInfo.id, qGoodInfo.title, qGoodInfo.unit,
+                        qGoodInfo.price, qGoodType.name, qGoodType.id))
+                        .from(qGoodInfo, qGoodType)
+                        .where(qGoodType.id.eq(qGoodInfo.typeId))
+                        .fetch());
+        CompletableFuture<Double> avgScore = asyncQueryExecutor.submit(
+                f -> f.select(qStudent.socre.avg()).from(qStudent).fetchOne(), Duration.ofSeconds(1));
+        CompletableFuture.allOf(users, goods, avgScore).join();
+        logger.info("用户:[{}],商品:[{}],平均分:[{}],耗时:[{}]ms", users.join().size(), goods.join().size(),
+                avgScore.join(), System.currentTimeMillis() - start);
+        // 和当前线程同步执行的结果一致
+        assertEquals(jpaQueryFactory.selectFrom(qUserEntity).orderBy(qUserEntity.id.asc()).limit(10).fetch(),
+                users.join());
+        assertEquals(jpaQueryFactory.select(qGoodInfo.id).from(qGoodInfo, qGoodType)
+                .where(qGoodType.id.eq(qGoodInfo.typeId)).fetch().size(), goods.join().size());
+        assertEquals(jpaQueryFactory.select(qStudent.socre.avg()).from(qStudent).fetchOne(), avgScore.join());
+    }
+
+    @Autowired
+    private StartupWarmup startupWarmup;
+
+    @Test
+    public void testWarmup() {
+        // 启动时已经执行过一次,各步骤耗时
+        logger.info("预热耗时:{}", startupWarmup.getTimings());
+        long start = System.currentTimeMillis();
+        QUserEntity qUserEntity = QUserEntity.userEntity;
+        jpaQueryFactory.selectFrom(qUserEntity).where(qUserEntity.name.eq("kevin"), qUserEntity.age.eq(28)).fetch();
+        logger.info("预热后首次查询耗时:[{}]ms", System.currentTimeMillis() - start);
+    }
+
+    @Test
+    public void testQueryMetrics() {
+        QUserEntity qUserEntity = QUserEntity.userEntity;
+        for (int age = 20; age < 30; age++) {
+            jpaQueryFactory.selectFrom(qUserEntity).where(qUserEntity.age.eq(age)).fetch();
+            userJPA.findById((long) age);
+        }
+        // 同一形状只统计一次,按总耗时排序
+        logger.info(JsonUtil.bean2Json(queryMetrics.top(5, null)));
+    }
+
+    @Test
+    public void testKeysetPage() {
+        QUserEntity qUserEntity = QUserEntity.userEntity;
+        List<OrderSpecifier<?>> orders = Arrays.asList(
+                qUserEntity.age.desc(), qUserEntity.id.desc());
+        KeysetPage<UserEntity> first = userJPA.findAll(
+                qUserEntity.age.between(20, 30), orders, null, 2);
+        logger.info(JsonUtil.bean2Json(first.getContent()));
+        if (first.hasNext()) {
+            KeysetPage<UserEntity> second = userJPA.findAll(
+                    qUserEntity.age.between(20, 30), orders, first.getNextCursor(), 2);
+            logger.info(JsonUtil.bean2Json(second.getContent()));
+        }
+    }
+
     @Test
     public void testJpaUpdate() {
         UserEntity userEntity = new UserEntity();
@@ -357,6 +785,38 @@ class SpringbootQuerydslApplicationTests {
         userJPA.save(userEntity);
     }
 
+    @Test
+    @Transactional
+    public void testInsertAll() {
+        List<UserEntity> users = new ArrayList<>();
+        for (int i = 0; i < 2000; i++) {
+            UserEntity userEntity = new UserEntity();
+            userEntity.setName("import" + i);
+            userEntity.setAge(20 + i % 10);
+            userEntity.setAddress("丰台");
+            userEntity.setPwd("tttx");
+            users.add(userEntity);
+        }
+        BulkInsertResult result = userJPA.insertAll(users, 1000);
+        logger.info("插入:[{}]行,[{}]行/秒,最后一个id:[{}]",
+                result.getRows(), result.rowsPerSecond(), users.get(users.size() - 1).getId());
+    }
+
+    @Test
+    public void testJpaPatch() {
+        // 只更新name和address,不会先select,也不会覆盖t_pwd
+        Map<String, Object> changes = new HashMap<>();
+        changes.put("name", "cookie2");
+        changes.put("address", "军事博物馆");
+        long updated = userJPA.patch(7L, changes);
+        logger.info("更新:[{}]行", updated);
+
+        Map<Long, Map<String, Object>> patches = new HashMap<>();
+        patches.put(7L, Collections.singletonMap("age", 31));
+        patches.put(8L, Collections.singletonMap("age", 32));
+        logger.info("批量更新:[{}]行", userJPA.patchAll(patches));
+    }
+
     @Test
     public void testJpaDelete() {
         UserEntity userEntity = new UserEntity();
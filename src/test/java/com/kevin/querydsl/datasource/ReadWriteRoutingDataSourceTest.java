@@ -0,0 +1,80 @@
+package com.kevin.querydsl.datasource;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.time.Duration;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 读写分离:主库和从库是两个H2内存库,各有一张role表记录自己是谁<br/>
+ * kevin<br/>
+ * 2021/3/16 10:00<br/>
+ */
+public class ReadWriteRoutingDataSourceTest {
+
+    @Test
+    public void testReadWriteRouting() throws Exception {
+        DriverManagerDataSource primary = new DriverManagerDataSource("jdbc:h2:mem:primary;DB_CLOSE_DELAY=-1");
+        new JdbcTemplate(primary).execute("create table if not exists role(name varchar(10))");
+        new JdbcTemplate(primary).execute("merge into role key(name) values('primary')");
+
+        RoutingProperties properties = new RoutingProperties();
+        properties.setReadYourWritesWindow(Duration.ofMillis(200));
+        properties.setHealthCheckInterval(Duration.ZERO);
+        RoutingProperties.Replica replica = new RoutingProperties.Replica();
+        replica.setName("replica");
+        replica.setUrl("jdbc:h2:mem:replica;DB_CLOSE_DELAY=-1;INIT=create table if not exists role(name varchar(10))"
+                + "\\;merge into role key(name) values('replica')");
+        RoutingProperties.Replica broken = new RoutingProperties.Replica();
+        broken.setName("broken");
+        broken.setUrl("jdbc:h2:tcp://127.0.0.1:1/none");
+        properties.setReplicas(Arrays.asList(replica, broken));
+
+        try (ReadWriteRoutingDataSource routing = RoutingDataSourceConfig.create(primary, properties)) {
+            LazyConnectionDataSourceProxy dataSource = new LazyConnectionDataSourceProxy(routing);
+            JdbcTemplate jdbcTemplate = new JdbcTemplate(dataSource);
+            TransactionTemplate readOnly = new TransactionTemplate(new DataSourceTransactionManager(dataSource));
+            readOnly.setReadOnly(true);
+            TransactionTemplate readWrite = new TransactionTemplate(new DataSourceTransactionManager(dataSource));
+            TransactionCallback<String> whoAmI = s -> jdbcTemplate.queryForObject("select name from role", String.class);
+
+            // 只读事务轮流选择从库,broken连不上被剔除后都落在replica
+            for (int i = 0; i < 4; i++) {
+                assertEquals("replica", readOnly.execute(whoAmI));
+            }
+            assertEquals(false, routing.replicaStatus().get("broken").get("available"));
+            assertEquals("primary", whoAmI.doInTransaction(null));
+            assertEquals("replica", DataSourceRouting.onReplica(() -> whoAmI.doInTransaction(null)));
+            // 指定用户名密码的连接不经过从库
+            assertEquals("primary", readOnly.execute(s -> whoAmI(routing, "", "")));
+
+            // 写入后窗口内的只读事务仍然走主库
+            readWrite.execute(s -> jdbcTemplate.update("update role set name = name"));
+            assertEquals("primary", readOnly.execute(whoAmI));
+            Thread.sleep(300);
+            assertEquals("replica", readOnly.execute(whoAmI));
+        }
+    }
+
+    private static String whoAmI(ReadWriteRoutingDataSource routing, String username, String password) {
+        try (Connection connection = routing.getConnection(username, password);
+             Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery("select name from role")) {
+            assertTrue(resultSet.next());
+            return resultSet.getString(1);
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,32 @@
+package com.kevin.querydsl.metrics;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * kevin<br/>
+ * 2021/3/17 10:00<br/>
+ */
+public class QueryFingerprintTest {
+
+    @Test
+    public void testFingerprint() {
+        // 字面量、参数序号和in列表长度不影响指纹
+        assertEquals(QueryFingerprint.of("select u from UserEntity u where u.id in (?1, ?2) and u.name = 'kevin'"),
+                QueryFingerprint.of("select u from UserEntity u\n where u.id in (?3, ?4, ?5) and u.name = 'tom'"));
+    }
+
+    @Test
+    public void testMaskedParameters() {
+        // 多行insert的每一组values都要隐藏t_pwd,不只是第一组
+        List<Boolean> masked = QueryFingerprint.maskedParameters(
+                "insert into t_user (t_name, t_pwd, t_age) values (?, ?, ?), (?, ?, ?), (?, ?, ?)",
+                Collections.singleton("t_pwd"));
+        assertEquals(Arrays.asList(false, true, false, false, true, false, false, true, false), masked);
+    }
+}
@@ -0,0 +1,57 @@
+package com.kevin.querydsl.query;
+
+import com.kevin.querydsl.entity.QGoodInfoEntity;
+import com.querydsl.core.QueryMetadata;
+import com.querydsl.jpa.HQLTemplates;
+import com.querydsl.jpa.JPQLSerializer;
+import com.querydsl.jpa.impl.JPAQuery;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 不需要数据库,只验证形状指纹和参数绑定<br/>
+ * kevin<br/>
+ * 2021/3/10 10:20<br/>
+ */
+public class QueryShapeCacheTest {
+
+    private final QueryShapeCache cache = new QueryShapeCache(HQLTemplates.DEFAULT, 16);
+
+    @Test
+    public void testInCollectionShape() {
+        QGoodInfoEntity qGoodInfo = QGoodInfoEntity.goodInfoEntity;
+        // 长度、值都不同的in列表共用一条缓存,集合整体绑定到同一个参数槽位
+        List<Long> first = Arrays.asList(1L, 2L);
+        List<Long> second = Arrays.asList(3L, 4L, 5L, 6L);
+        QueryMetadata firstMetadata = new JPAQuery<>().select(qGoodInfo).from(qGoodInfo).where(qGoodInfo.typeId.in(first)).getMetadata();
+        QueryMetadata secondMetadata = new JPAQuery<>().select(qGoodInfo).from(qGoodInfo).where(qGoodInfo.typeId.in(second)).getMetadata();
+
+        JPQLSerializer firstSerializer = serialize(firstMetadata);
+        JPQLSerializer secondSerializer = serialize(secondMetadata);
+        assertEquals(firstSerializer.toString(), secondSerializer.toString());
+        assertEquals(1, cache.size());
+        assertTrue(firstMetadata.getParams().containsValue(first));
+        assertTrue(secondMetadata.getParams().containsValue(second));
+    }
+
+    @Test
+    public void testEmptyInCollectionInlined() {
+        QGoodInfoEntity qGoodInfo = QGoodInfoEntity.goodInfoEntity;
+        // 空集合由JPQLSerializer改写成1=2,不占参数槽位
+        QueryMetadata metadata = new JPAQuery<>().select(qGoodInfo).from(qGoodInfo)
+                .where(qGoodInfo.typeId.in(Collections.<Long>emptyList())).getMetadata();
+        serialize(metadata);
+        assertTrue(metadata.getParams().isEmpty());
+    }
+
+    private JPQLSerializer serialize(QueryMetadata metadata) {
+        JPQLSerializer serializer = cache.serialize(metadata, false, () -> new JPQLSerializer(HQLTemplates.DEFAULT));
+        assertNotNull(serializer);
+        return serializer;
+    }
+}
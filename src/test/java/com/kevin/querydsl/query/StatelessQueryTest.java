@@ -0,0 +1,77 @@
+package com.kevin.querydsl.query;
+
+import com.kevin.querydsl.entity.GoodInfoEntity;
+import com.kevin.querydsl.entity.GoodTypeEntity;
+import com.kevin.querydsl.entity.QGoodInfoEntity;
+import com.querydsl.jpa.HQLTemplates;
+import com.querydsl.jpa.impl.JPAQueryFactory;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.cfg.AvailableSettings;
+import org.hibernate.cfg.Configuration;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 通过StatelessSession执行带参数的查询,JPQL来自查询形状缓存,参数要按序号标签重新绑定<br/>
+ * kevin<br/>
+ * 2021/3/21 10:00<br/>
+ */
+public class StatelessQueryTest {
+
+    @Test
+    public void testStatelessParameterizedFetch() {
+        QGoodInfoEntity qGoodInfo = QGoodInfoEntity.goodInfoEntity;
+        try (SessionFactory sessionFactory = new Configuration()
+                .setProperty(AvailableSettings.URL, "jdbc:h2:mem:stateless;DB_CLOSE_DELAY=-1")
+                .setProperty(AvailableSettings.HBM2DDL_AUTO, "create-drop")
+                .addAnnotatedClass(GoodTypeEntity.class)
+                .addAnnotatedClass(GoodInfoEntity.class)
+                .buildSessionFactory();
+             Session session = sessionFactory.openSession()) {
+            session.getTransaction().begin();
+            for (GoodInfoEntity good : Arrays.asList(good("苹果", 5.0, 1L), good("香蕉", 3.0, 1L),
+                    good("白菜", 2.0, 2L), good("萝卜", 1.5, 2L), good("牛肉", 60.0, 3L))) {
+                session.persist(good);
+            }
+            session.getTransaction().commit();
+            session.clear();
+
+            JPAQueryFactory queryFactory = new ShapeCachingQueryFactory(HQLTemplates.DEFAULT, session,
+                    new QueryShapeCache(HQLTemplates.DEFAULT, 16), null);
+            // in列表和比较条件都是参数,第二次同形状的查询直接复用缓存的JPQL
+            assertEquals(Arrays.asList("苹果", "香蕉"), titles(ReadOnlyQueries.stateless(queryFactory
+                    .selectFrom(qGoodInfo)
+                    .where(qGoodInfo.typeId.in(Arrays.asList(1L, 2L)), qGoodInfo.price.gt(2.5))
+                    .orderBy(qGoodInfo.id.asc())).fetch()));
+            assertEquals(Arrays.asList("白菜", "萝卜", "牛肉"), titles(ReadOnlyQueries.stateless(queryFactory
+                    .selectFrom(qGoodInfo)
+                    .where(qGoodInfo.typeId.in(Arrays.asList(2L, 3L)), qGoodInfo.price.gt(1.0))
+                    .orderBy(qGoodInfo.id.asc())).fetch()));
+
+            GoodInfoEntity beef = ReadOnlyQueries.stateless(() -> queryFactory.selectFrom(qGoodInfo)
+                    .where(qGoodInfo.title.eq("牛肉")).fetchOne());
+            assertEquals(60.0, beef.getPrice());
+            // 不进入持久化上下文
+            assertFalse(session.contains(beef));
+        }
+    }
+
+    private static List<String> titles(List<GoodInfoEntity> goods) {
+        return goods.stream().map(GoodInfoEntity::getTitle).collect(Collectors.toList());
+    }
+
+    private static GoodInfoEntity good(String title, double price, Long typeId) {
+        GoodInfoEntity good = new GoodInfoEntity();
+        good.setTitle(title);
+        good.setPrice(price);
+        good.setUnit("斤");
+        good.setTypeId(typeId);
+        return good;
+    }
+}
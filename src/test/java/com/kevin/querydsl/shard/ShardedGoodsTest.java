@@ -0,0 +1,111 @@
+package com.kevin.querydsl.shard;
+
+import com.kevin.querydsl.dto.GoodDTO;
+import com.kevin.querydsl.dto.QGoodDTO;
+import com.kevin.querydsl.entity.GoodInfoEntity;
+import com.kevin.querydsl.entity.GoodTypeEntity;
+import com.kevin.querydsl.entity.QGoodInfoEntity;
+import com.kevin.querydsl.entity.QGoodTypeEntity;
+import com.querydsl.core.Tuple;
+import com.querydsl.jpa.impl.JPAQueryFactory;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.cfg.AvailableSettings;
+import org.hibernate.cfg.Configuration;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+
+import javax.sql.DataSource;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * 分片:三个H2内存库,good_infos按typeId分片,good_types每个分片一份;
+ * 另有一个H2库只用来提供元数据和主键生成器<br/>
+ * kevin<br/>
+ * 2021/3/29 10:00<br/>
+ */
+public class ShardedGoodsTest {
+
+    @Test
+    public void testShardedGoods() {
+        List<DataSource> shards = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            DriverManagerDataSource shard = new DriverManagerDataSource("jdbc:h2:mem:shard" + i + ";MODE=MySQL;DB_CLOSE_DELAY=-1");
+            JdbcTemplate jdbcTemplate = new JdbcTemplate(shard);
+            jdbcTemplate.execute("create table if not exists good_types(tgt_id bigint primary key, tgt_name varchar(50),"
+                    + " tgt_is_show int, tgt_order int)");
+            jdbcTemplate.execute("create table if not exists good_infos(tg_id bigint primary key, tg_title varchar(50),"
+                    + " tg_price double, tg_unit varchar(10), tg_order int, tg_type_id bigint)");
+            jdbcTemplate.execute("delete from good_infos");
+            shards.add(shard);
+        }
+        QGoodInfoEntity qGoodInfo = QGoodInfoEntity.goodInfoEntity;
+        QGoodTypeEntity qGoodType = QGoodTypeEntity.goodTypeEntity;
+        try (SessionFactory sessionFactory = new Configuration()
+                .setProperty(AvailableSettings.URL, "jdbc:h2:mem:shard_main;MODE=MySQL;DB_CLOSE_DELAY=-1")
+                .setProperty(AvailableSettings.HBM2DDL_AUTO, "create-drop")
+                .addAnnotatedClass(GoodTypeEntity.class)
+                .addAnnotatedClass(GoodInfoEntity.class)
+                .buildSessionFactory();
+             Session session = sessionFactory.openSession();
+             ShardedGoodRepository repository = new ShardedGoodRepository(
+                     new ShardedQueryExecutor(sessionFactory, shards, qGoodInfo.typeId), sessionFactory)) {
+            JPAQueryFactory jpaQueryFactory = new JPAQueryFactory(session);
+            repository.replicateTypes(Arrays.asList(type(1L, "水果"), type(2L, "蔬菜"), type(3L, "肉类")));
+            // id为空,由主库的主键生成器分配
+            repository.insertAll(Arrays.asList(good("苹果", 5.0, 1L), good("香蕉", 3.0, 1L),
+                    good("白菜", 2.0, 2L), good("萝卜", 1.5, 2L), good("牛肉", 60.0, 3L), good("猪肉", 30.0, 3L)));
+
+            // 跨分片join、排序、分页
+            List<GoodDTO> page = repository.fetch(jpaQueryFactory
+                    .select(new QGoodDTO(qGoodInfo.id, qGoodInfo.title, qGoodInfo.unit,
+                            qGoodInfo.price, qGoodType.name, qGoodType.id))
+                    .from(qGoodInfo, qGoodType)
+                    .where(qGoodType.id.eq(qGoodInfo.typeId))
+                    .orderBy(qGoodInfo.price.desc(), qGoodInfo.id.asc())
+                    .offset(1).limit(3));
+            assertEquals(Arrays.asList("猪肉", "苹果", "香蕉"),
+                    page.stream().map(GoodDTO::getTitle).collect(Collectors.toList()));
+            assertEquals("水果", page.get(1).getTypeName());
+            // 分片键的等值条件只查一个分片
+            assertEquals(2, repository.fetchCount(jpaQueryFactory.selectFrom(qGoodInfo).where(qGoodInfo.typeId.eq(1L))));
+            // 聚合在各分片上计算后合并
+            List<Tuple> groups = repository.fetch(jpaQueryFactory
+                    .select(qGoodInfo.typeId, qGoodInfo.price.avg(), qGoodInfo.id.count(), qGoodInfo.price.max())
+                    .from(qGoodInfo)
+                    .groupBy(qGoodInfo.typeId)
+                    .orderBy(qGoodInfo.price.avg().desc()));
+            assertEquals(3, groups.size());
+            assertEquals(3L, groups.get(0).get(qGoodInfo.typeId));
+            assertEquals(45.0, groups.get(0).get(qGoodInfo.price.avg()));
+            assertEquals(2L, groups.get(0).get(qGoodInfo.id.count()));
+            assertEquals(60.0, groups.get(0).get(qGoodInfo.price.max()));
+            List<GoodInfoEntity> maxPriceGoods = repository.findMaxPriceGoods(jpaQueryFactory);
+            assertEquals(1, maxPriceGoods.size());
+            assertEquals("牛肉", maxPriceGoods.get(0).getTitle());
+        }
+    }
+
+    private static GoodTypeEntity type(Long id, String name) {
+        GoodTypeEntity type = new GoodTypeEntity();
+        type.setId(id);
+        type.setName(name);
+        type.setIsShow(1);
+        return type;
+    }
+
+    private static GoodInfoEntity good(String title, double price, Long typeId) {
+        GoodInfoEntity good = new GoodInfoEntity();
+        good.setTitle(title);
+        good.setPrice(price);
+        good.setUnit("斤");
+        good.setTypeId(typeId);
+        return good;
+    }
+}